@@ -113,6 +113,36 @@ public interface Model extends Serializable {
      */
     public void free();
 
+    /**
+     * Freeze the model (and the models nested within its fields), making it
+     * immutable. A frozen model has no event sources or listeners and its
+     * fields are held in immutable storage, which is published (to other
+     * threads) by a volatile write. Its static interface, media type and
+     * (immutable) hyperlinks are created by the freeze, before that write, so
+     * nothing is written to a frozen model afterwards; and it may be shared by
+     * concurrent threads without locking. Attempts to change a frozen model's
+     * fields or hyperlinks throw an {@link UnsupportedOperationException}.
+     * 
+     * Freezing is meant for models that are read-only once loaded (like
+     * schemas, APIs and link templates) and can't be undone.
+     * 
+     * @see #isFrozen()
+     */
+    public void freeze();
+
+    /**
+     * Get the value of the named field as a <code>boolean</code>, without boxing
+     * it when the field is stored in a primitive slot.
+     * 
+     * @param fieldName
+     *            The name of the field to lookup.
+     * @return The value of the named field, or <code>false</code> if it is not set.
+     * 
+     * @see #getFieldValue(String)
+     * @see #setBooleanFieldValue(String, boolean)
+     */
+    public boolean getBooleanFieldValue(String fieldName);
+
     /**
      * Get the {@link Context} associated with this {@link Model}.
      * 
@@ -120,6 +150,33 @@ public interface Model extends Serializable {
      */
     public Context getContext();
 
+    /**
+     * Get the value of the named field as a <code>long</code>, without boxing
+     * it when the field is stored in a primitive slot.
+     * DateTime values are represented as epoch milliseconds.
+     * 
+     * @param fieldName
+     *            The name of the field to lookup.
+     * @return The value of the named field, or <code>0</code> if it is not set.
+     * 
+     * @see #getFieldValue(String)
+     * @see #setDateTimeFieldValue(String, long)
+     */
+    public long getDateTimeFieldValue(String fieldName);
+
+    /**
+     * Get the value of the named field as a <code>double</code>, without boxing
+     * it when the field is stored in a primitive slot.
+     * 
+     * @param fieldName
+     *            The name of the field to lookup.
+     * @return The value of the named field, or <code>0</code> if it is not set.
+     * 
+     * @see #getFieldValue(String)
+     * @see #setDoubleFieldValue(String, double)
+     */
+    public double getDoubleFieldValue(String fieldName);
+
     /**
      * Get the inner, purely dynamic {@link Model} interface.
      * 
@@ -138,6 +195,32 @@ public interface Model extends Serializable {
      */
     public Object getFieldValue(String fieldName);
 
+    /**
+     * Get the value of the named field as an <code>int</code>, without boxing
+     * it when the field is stored in a primitive slot.
+     * 
+     * @param fieldName
+     *            The name of the field to lookup.
+     * @return The value of the named field, or <code>0</code> if it is not set.
+     * 
+     * @see #getFieldValue(String)
+     * @see #setIntegerFieldValue(String, int)
+     */
+    public int getIntegerFieldValue(String fieldName);
+
+    /**
+     * Get the value of the named field as a <code>long</code>, without boxing
+     * it when the field is stored in a primitive slot.
+     * 
+     * @param fieldName
+     *            The name of the field to lookup.
+     * @return The value of the named field, or <code>0</code> if it is not set.
+     * 
+     * @see #getFieldValue(String)
+     * @see #setLongFieldValue(String, long)
+     */
+    public long getLongFieldValue(String fieldName);
+
     /**
      * Get the mapping of {@link LinkRelation} {@link URI} to {@link Hyperlink}.
      * 
@@ -230,6 +313,13 @@ public interface Model extends Serializable {
      */
     public Model getStaticInterface();
 
+    /**
+     * Returns <code>true</code> if the model has been frozen.
+     * 
+     * @see #freeze()
+     */
+    public boolean isFrozen();
+
     /**
      * Remove the specified {@link ModelEventListener}.
      * 
@@ -254,6 +344,49 @@ public interface Model extends Serializable {
      */
     public boolean removeFieldEventListener(String fieldName, FieldEventListener listener);
 
+    /**
+     * Set the value of the named field from a <code>boolean</code>, without
+     * boxing it when the field is stored in a primitive slot.
+     * 
+     * @param fieldName
+     *            the name of the field to set.
+     * @param fieldValue
+     *            the value to be set on the named field.
+     * 
+     * @see #setFieldValue(String, Object)
+     * @see #getBooleanFieldValue(String)
+     */
+    public void setBooleanFieldValue(String fieldName, boolean fieldValue);
+
+    /**
+     * Set the value of the named field from a <code>long</code>, without
+     * boxing it when the field is stored in a primitive slot.
+     * DateTime values are represented as epoch milliseconds.
+     * 
+     * @param fieldName
+     *            the name of the field to set.
+     * @param fieldValue
+     *            the value to be set on the named field.
+     * 
+     * @see #setFieldValue(String, Object)
+     * @see #getDateTimeFieldValue(String)
+     */
+    public void setDateTimeFieldValue(String fieldName, long fieldValue);
+
+    /**
+     * Set the value of the named field from a <code>double</code>, without
+     * boxing it when the field is stored in a primitive slot.
+     * 
+     * @param fieldName
+     *            the name of the field to set.
+     * @param fieldValue
+     *            the value to be set on the named field.
+     * 
+     * @see #setFieldValue(String, Object)
+     * @see #getDoubleFieldValue(String)
+     */
+    public void setDoubleFieldValue(String fieldName, double fieldValue);
+
     /**
      * Restore the default value of each field.
      * 
@@ -286,6 +419,34 @@ public interface Model extends Serializable {
      */
     public Object setFieldValue(String fieldName, Object fieldValue);
 
+    /**
+     * Set the value of the named field from an <code>int</code>, without
+     * boxing it when the field is stored in a primitive slot.
+     * 
+     * @param fieldName
+     *            the name of the field to set.
+     * @param fieldValue
+     *            the value to be set on the named field.
+     * 
+     * @see #setFieldValue(String, Object)
+     * @see #getIntegerFieldValue(String)
+     */
+    public void setIntegerFieldValue(String fieldName, int fieldValue);
+
+    /**
+     * Set the value of the named field from a <code>long</code>, without
+     * boxing it when the field is stored in a primitive slot.
+     * 
+     * @param fieldName
+     *            the name of the field to set.
+     * @param fieldValue
+     *            the value to be set on the named field.
+     * 
+     * @see #setFieldValue(String, Object)
+     * @see #getLongFieldValue(String)
+     */
+    public void setLongFieldValue(String fieldName, long fieldValue);
+
     /*
      * One of the fields in AlternateDimensions should be Locale.
      * 
@@ -101,6 +101,9 @@ public class EventSource<L extends java.util.EventListener> {
         if (_EventListeners == null) {
             return false;
         }
+
+        _EventListenerSet.remove(eventListener);
+
         return _EventListeners.remove(eventListener);
     }
 
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.io;
+
+import java.net.URI;
+import java.nio.charset.Charset;
+
+import org.wrml.core.runtime.system.transformer.SystemTransformers;
+
+/**
+ * A compact, schema-indexed binary format for model graphs, which is meant
+ * for the traffic between WRML runtimes that share schemas. It is negotiated
+ * with the WRML media type's format parameter, for example:
+ * 
+ * <pre>
+ * application/wrml; format="http://api.formats.wrml.org/application/x-wrml-binary"; schema="..."
+ * </pre>
+ * 
+ * A model is a MODEL tag followed by a reference to its own schema, its
+ * fields and an END_MODEL (0). The schema is the model's (runtime) schema,
+ * which may be a subtype of the one that its field declares. A schema
+ * reference is a varint: 0 introduces a schema, whose id follows (as TEXT),
+ * and otherwise it is one plus the index of a schema that was already
+ * introduced (in order) in the stream. Each field is identified by its
+ * {@link org.wrml.core.runtime.system.Prototype} slot (plus one), as a
+ * varint, rather than by its name; so both ends must agree on the schema's
+ * static interface. Each value starts with a one byte tag:
+ * 
+ * <pre>
+ * NULL, FALSE, TRUE
+ * INTEGER, LONG, DATE_TIME (epoch millis)  zigzag varint
+ * DOUBLE                                   8 bytes (IEEE 754, big endian)
+ * CHOICE                                   varint ordinal
+ * TEXT                                     varint byte count, UTF-8 bytes
+ * LIST                                     varint count, values
+ * MAP                                      varint count, (TEXT key, value) entries
+ * MODEL                                    schema reference, (varint slot + 1, value) fields, END_MODEL
+ * </pre>
+ */
+public final class BinaryModelGraphFormat extends ModelGraphFormat {
+
+    public static final URI FORMAT_ID = SystemTransformers.DEFAULT_FORMAT_API_DOCROOT
+            .resolve("application/x-wrml-binary");
+
+    static final int END_MODEL = 0;
+
+    static final byte NULL = 1;
+    static final byte FALSE = 2;
+    static final byte TRUE = 3;
+    static final byte INTEGER = 4;
+    static final byte LONG = 5;
+    static final byte DOUBLE = 6;
+    static final byte TEXT = 7;
+    static final byte DATE_TIME = 8;
+    static final byte CHOICE = 9;
+    static final byte LIST = 10;
+    static final byte MAP = 11;
+    static final byte MODEL = 12;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Override
+    protected ModelGraphReader newReader() {
+        return new BinaryModelGraphReader(this);
+    }
+
+    @Override
+    protected ModelGraphWriter newWriter() {
+        return new BinaryModelGraphWriter(this);
+    }
+
+}
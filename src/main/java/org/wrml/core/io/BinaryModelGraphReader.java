@@ -0,0 +1,580 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.wrml.core.Model;
+import org.wrml.core.event.Event;
+import org.wrml.core.io.FieldIterativeModelGraphReader.EventListener.EventNames;
+import org.wrml.core.runtime.Context;
+import org.wrml.core.runtime.ModelGraph;
+import org.wrml.core.runtime.TypeSystem;
+import org.wrml.core.runtime.system.FieldPrototype;
+import org.wrml.core.runtime.system.Prototype;
+import org.wrml.core.util.observable.ObservableList;
+import org.wrml.core.util.observable.ObservableMap;
+import org.wrml.core.util.observable.Observables;
+
+/**
+ * Reads a model graph in the {@link BinaryModelGraphFormat}. The field slots
+ * are resolved by the prototypes of the models being read, which are kept on
+ * a stack that follows the nesting of the models.
+ */
+public class BinaryModelGraphReader extends FieldIterativeModelGraphReader {
+
+    private static final int BUFFER_SIZE = 1024;
+
+    /**
+     * The (peeked) value tag when there is none.
+     */
+    private static final int NO_TAG = -1;
+
+    private final BinaryModelGraphFormat _Format;
+    private InputStream _InputStream;
+    private final byte[] _Buffer;
+    private int _Position;
+    private int _Limit;
+
+    private int _ValueTag;
+    private long _ListElementCount;
+    private final List<Prototype> _Prototypes;
+
+    /** The schemas that have been introduced in the stream, in order */
+    private final List<Prototype> _SchemaPrototypes;
+
+    private FieldPrototype _FieldPrototype;
+    private final Event<BinaryModelGraphReader> _Event;
+
+    public BinaryModelGraphReader() {
+        this(null);
+    }
+
+    /**
+     * Creates a reader that returns itself to its format's pool when it is
+     * closed.
+     */
+    public BinaryModelGraphReader(final BinaryModelGraphFormat format) {
+        _Format = format;
+        _Buffer = new byte[BUFFER_SIZE];
+        _Prototypes = new ArrayList<Prototype>();
+        _SchemaPrototypes = new ArrayList<Prototype>();
+        _Event = new Event<BinaryModelGraphReader>(this);
+    }
+
+    public void close() throws Exception {
+
+        if (_InputStream == null) {
+            return;
+        }
+
+        try {
+            _InputStream.close();
+        }
+        finally {
+            _InputStream = null;
+            _Prototypes.clear();
+            _SchemaPrototypes.clear();
+            _FieldPrototype = null;
+            if (_Format != null) {
+                _Format.releaseReader(this);
+            }
+        }
+    }
+
+    public boolean hasNext() {
+        return !_Prototypes.isEmpty();
+    }
+
+    public String next() {
+
+        try {
+            final long tag = readVarint();
+            if (tag == BinaryModelGraphFormat.END_MODEL) {
+                _Prototypes.remove(_Prototypes.size() - 1);
+                fireEvent(EventNames.endReadModel, _Event);
+                return null;
+            }
+
+            final Prototype prototype = _Prototypes.get(_Prototypes.size() - 1);
+            final int slot = (int) (tag - 1);
+            if ((slot < 0) || (slot >= prototype.getFieldSlotCount())) {
+                throw new IllegalStateException("There is no field slot " + slot + " in the layout of " + prototype);
+            }
+
+            _FieldPrototype = prototype.getSlottedFieldPrototype(slot);
+            return _FieldPrototype.getFieldName();
+        }
+        catch (final IOException e) {
+            throw new IllegalStateException("Failed to read the next field", e);
+        }
+    }
+
+    public void open(InputStream inputStream) throws Exception {
+        _InputStream = inputStream;
+        _Position = 0;
+        _Limit = 0;
+        _ValueTag = NO_TAG;
+        _ListElementCount = 0;
+        _Prototypes.clear();
+        _SchemaPrototypes.clear();
+        _FieldPrototype = null;
+    }
+
+    @Override
+    public ModelGraph readModelGraph(Context context, Type nativeType) throws Exception {
+        readValueTag(BinaryModelGraphFormat.MODEL, nativeType);
+        final Prototype prototype = readModelPrototype(context, nativeType);
+        return super.readModelGraph(context, prototype.getNativeType());
+    }
+
+    @Override
+    public ElementIterator readListFieldElements(Context context, Type nativeType, String listFieldName,
+            boolean releaseElements) throws Exception {
+        readValueTag(BinaryModelGraphFormat.MODEL, nativeType);
+        final Prototype prototype = readModelPrototype(context, nativeType);
+        return super.readListFieldElements(context, prototype.getNativeType(), listFieldName, releaseElements);
+    }
+
+    @Override
+    protected boolean hasNextListElement() throws Exception {
+        return _ListElementCount > 0;
+    }
+
+    @Override
+    protected boolean isNullValue() throws Exception {
+        return peekValueTag() == BinaryModelGraphFormat.NULL;
+    }
+
+    @Override
+    protected Boolean readBooleanValue() throws Exception {
+        if (isNullValue()) {
+            readValueTag();
+            return null;
+        }
+
+        return readPrimitiveBooleanValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected <T extends Enum<T>> T readChoiceValue(Context context, Type nativeType) throws Exception {
+        final int tag = readValueTag();
+        if (tag == BinaryModelGraphFormat.NULL) {
+            return null;
+        }
+
+        checkValueTag(tag, BinaryModelGraphFormat.CHOICE, nativeType);
+
+        final T[] choices = ((Class<T>) nativeType).getEnumConstants();
+        return choices[(int) readVarint()];
+    }
+
+    @Override
+    protected void readDateTimeFieldValue(Context context, Model model, FieldPrototype fieldPrototype)
+            throws Exception {
+
+        // An explicit null was already checked for, by its tag
+        final long epochMillis = readEpochMillisValue(fieldPrototype.getNativeType());
+        model.setDateTimeFieldValue(fieldPrototype.getFieldName(), epochMillis);
+    }
+
+    @Override
+    protected Date readDateTimeValue(Context context, Type nativeType) throws Exception {
+        if (isNullValue()) {
+            readValueTag();
+            return null;
+        }
+
+        return new Date(readEpochMillisValue(nativeType));
+    }
+
+    @Override
+    protected Double readDoubleValue() throws Exception {
+        if (isNullValue()) {
+            readValueTag();
+            return null;
+        }
+
+        return readPrimitiveDoubleValue();
+    }
+
+    @Override
+    protected Integer readIntegerValue() throws Exception {
+        if (isNullValue()) {
+            readValueTag();
+            return null;
+        }
+
+        return readPrimitiveIntegerValue();
+    }
+
+    @Override
+    protected boolean readListBegin() throws Exception {
+        final int tag = readValueTag();
+        if (tag == BinaryModelGraphFormat.NULL) {
+            _ListElementCount = 0;
+            return false;
+        }
+
+        checkValueTag(tag, BinaryModelGraphFormat.LIST, List.class);
+        _ListElementCount = readVarint();
+        return true;
+    }
+
+    @Override
+    protected void readListElementEnd() throws Exception {
+        _ListElementCount--;
+    }
+
+    @Override
+    protected void readListElements(Context context, Type elementNativeType, ModelGraph modelGraph,
+            List<Object> list) throws Exception {
+
+        final int tag = readValueTag();
+        if (tag == BinaryModelGraphFormat.NULL) {
+            return;
+        }
+
+        checkValueTag(tag, BinaryModelGraphFormat.LIST, elementNativeType);
+
+        // The elements all have the same type
+        final org.wrml.core.model.schema.Type elementType = context.getSystemTransformers()
+                .getNativeTypeToTypeTransformer().aToB(elementNativeType);
+
+        final long elementCount = readVarint();
+        for (long i = 0; i < elementCount; i++) {
+            list.add(readValue(context, elementNativeType, elementType, modelGraph));
+        }
+    }
+
+    @Override
+    protected void readListEnd() throws Exception {
+        // The list's length was read up front, so there is no end marker
+    }
+
+    @Override
+    protected ObservableList<?> readListValue(Context context, Type nativeType, ModelGraph modelGraph)
+            throws Exception {
+        if (isNullValue()) {
+            readValueTag();
+            return null;
+        }
+
+        return super.readListValue(context, nativeType, modelGraph);
+    }
+
+    @Override
+    protected Long readLongValue() throws Exception {
+        if (isNullValue()) {
+            readValueTag();
+            return null;
+        }
+
+        return readPrimitiveLongValue();
+    }
+
+    @Override
+    protected ObservableMap<Object, Object> readMapValue(Context context, Type nativeType, ModelGraph modelGraph)
+            throws Exception {
+
+        final int tag = readValueTag();
+        if (tag == BinaryModelGraphFormat.NULL) {
+            return null;
+        }
+
+        checkValueTag(tag, BinaryModelGraphFormat.MAP, nativeType);
+
+        final TypeSystem typeSystem = context.getTypeSystem();
+        final Type[] nativeTypeParameters = typeSystem.getNativeTypeParameters(nativeType);
+        if ((nativeTypeParameters == null) || (nativeTypeParameters.length != 2)) {
+            throw new IllegalStateException("No type params in the Map value \"" + nativeType + "\"");
+        }
+
+        final Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+
+        final long entryCount = readVarint();
+        for (long i = 0; i < entryCount; i++) {
+            final Object key = readTextValue(context, nativeTypeParameters[0]);
+            map.put(key, readValue(context, nativeTypeParameters[1], modelGraph));
+        }
+
+        return Observables.observableMap(map);
+    }
+
+    @Override
+    protected Model readModelValue(Context context, Type nativeType, ModelGraph modelGraph) throws Exception {
+        final int tag = readValueTag();
+        if (tag == BinaryModelGraphFormat.NULL) {
+            return null;
+        }
+
+        checkValueTag(tag, BinaryModelGraphFormat.MODEL, nativeType);
+
+        final Prototype prototype = readModelPrototype(context, nativeType);
+        return readModelToGraph(context, prototype.getNativeType(), modelGraph);
+    }
+
+    @Override
+    protected Object readNativeValue(Context context, Type nativeType, ModelGraph modelGraph) throws Exception {
+
+        // A native (e.g. Object) value is whatever its tag says it is
+        switch (peekValueTag()) {
+
+        case BinaryModelGraphFormat.NULL:
+            readValueTag();
+            return null;
+
+        case BinaryModelGraphFormat.FALSE:
+        case BinaryModelGraphFormat.TRUE:
+            return readPrimitiveBooleanValue();
+
+        case BinaryModelGraphFormat.INTEGER:
+            return readPrimitiveIntegerValue();
+
+        case BinaryModelGraphFormat.LONG:
+            return readPrimitiveLongValue();
+
+        case BinaryModelGraphFormat.DOUBLE:
+            return readPrimitiveDoubleValue();
+
+        case BinaryModelGraphFormat.DATE_TIME:
+            return new Date(readEpochMillisValue(nativeType));
+
+        case BinaryModelGraphFormat.TEXT:
+            return readRawTextValue();
+
+        case BinaryModelGraphFormat.LIST:
+            final List<Object> list = new ArrayList<Object>();
+            readListElements(context, Object.class, modelGraph, list);
+            return Observables.observableList(list);
+
+        case BinaryModelGraphFormat.MODEL:
+            return readModelValue(context, Model.class, modelGraph);
+
+        default:
+            // A choice's enum (or a map's key and value types) can't be known from the tag alone
+            throw new IllegalStateException("Cannot read a native \"" + nativeType + "\" from a value with the tag: "
+                    + peekValueTag());
+        }
+    }
+
+    @Override
+    protected boolean readPrimitiveBooleanValue() throws Exception {
+        final int tag = readValueTag();
+        if (tag == BinaryModelGraphFormat.TRUE) {
+            return true;
+        }
+
+        checkValueTag(tag, BinaryModelGraphFormat.FALSE, boolean.class);
+        return false;
+    }
+
+    @Override
+    protected double readPrimitiveDoubleValue() throws Exception {
+        final int tag = readValueTag();
+        if ((tag == BinaryModelGraphFormat.INTEGER) || (tag == BinaryModelGraphFormat.LONG)) {
+            return unzigzag(readVarint());
+        }
+
+        checkValueTag(tag, BinaryModelGraphFormat.DOUBLE, double.class);
+
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | (readByte() & 0xFF);
+        }
+
+        return Double.longBitsToDouble(bits);
+    }
+
+    @Override
+    protected int readPrimitiveIntegerValue() throws Exception {
+        checkValueTag(readValueTag(), BinaryModelGraphFormat.INTEGER, int.class);
+        return (int) unzigzag(readVarint());
+    }
+
+    @Override
+    protected long readPrimitiveLongValue() throws Exception {
+        final int tag = readValueTag();
+        if (tag != BinaryModelGraphFormat.INTEGER) {
+            checkValueTag(tag, BinaryModelGraphFormat.LONG, long.class);
+        }
+
+        return unzigzag(readVarint());
+    }
+
+    @Override
+    protected String readRawTextValue() throws Exception {
+        final int tag = readValueTag();
+        if (tag == BinaryModelGraphFormat.NULL) {
+            return null;
+        }
+
+        checkValueTag(tag, BinaryModelGraphFormat.TEXT, String.class);
+
+        final int byteCount = (int) readVarint();
+        if (byteCount <= _Buffer.length) {
+            fill(byteCount);
+            final String text = new String(_Buffer, _Position, byteCount, BinaryModelGraphFormat.UTF_8);
+            _Position += byteCount;
+            return text;
+        }
+
+        final byte[] bytes = new byte[byteCount];
+        for (int i = 0; i < byteCount; i++) {
+            bytes[i] = readByte();
+        }
+
+        return new String(bytes, BinaryModelGraphFormat.UTF_8);
+    }
+
+    @Override
+    ModelDecodePlan.Step getDecodeStep(final ModelDecodePlan decodePlan, final String fieldName) {
+
+        // The field was just resolved, by its slot, in next()
+        if ((_FieldPrototype != null) && (_FieldPrototype.getFieldName() == fieldName)) {
+            return decodePlan.getStep(_FieldPrototype);
+        }
+
+        return super.getDecodeStep(decodePlan, fieldName);
+    }
+
+    private static long unzigzag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private void checkValueTag(final int tag, final byte expectedTag, final Type nativeType) {
+        if (tag != expectedTag) {
+            throw new IllegalStateException("Cannot read a \"" + nativeType + "\" from a value with the tag: " + tag
+                    + " (expected: " + expectedTag + ")");
+        }
+    }
+
+    /**
+     * Makes the specified number of bytes available in the buffer, from the
+     * current position.
+     */
+    private void fill(final int byteCount) throws IOException {
+
+        if ((_Limit - _Position) >= byteCount) {
+            return;
+        }
+
+        System.arraycopy(_Buffer, _Position, _Buffer, 0, _Limit - _Position);
+        _Limit -= _Position;
+        _Position = 0;
+
+        while (_Limit < byteCount) {
+            final int readCount = _InputStream.read(_Buffer, _Limit, _Buffer.length - _Limit);
+            if (readCount < 0) {
+                throw new EOFException("The model graph ended unexpectedly");
+            }
+
+            _Limit += readCount;
+        }
+    }
+
+    private int peekValueTag() throws IOException {
+        if (_ValueTag == NO_TAG) {
+            _ValueTag = readByte();
+        }
+
+        return _ValueTag;
+    }
+
+    private byte readByte() throws IOException {
+        if (_Position == _Limit) {
+            fill(1);
+        }
+
+        return _Buffer[_Position++];
+    }
+
+    private long readEpochMillisValue(final Type nativeType) throws IOException {
+        checkValueTag(readValueTag(), BinaryModelGraphFormat.DATE_TIME, nativeType);
+        return unzigzag(readVarint());
+    }
+
+    /**
+     * Reads the reference to the (runtime) schema of the model whose MODEL
+     * tag was just read, and pushes its prototype, whose slots identify the
+     * model's fields.
+     */
+    private Prototype readModelPrototype(final Context context, final Type nativeType) throws Exception {
+
+        final int schemaReference = (int) readVarint();
+
+        final Prototype prototype;
+        if (schemaReference == 0) {
+            final URI schemaId = URI.create(readRawTextValue());
+            final Class<?> schemaInterface = context.getSystemTransformers().getClassToSchemaIdTransformer()
+                    .bToA(schemaId);
+            prototype = context.getPrototype(schemaInterface);
+            _SchemaPrototypes.add(prototype);
+        }
+        else if (schemaReference <= _SchemaPrototypes.size()) {
+            prototype = _SchemaPrototypes.get(schemaReference - 1);
+        }
+        else {
+            throw new IllegalStateException("There is no schema with the reference: " + schemaReference);
+        }
+
+        final Type modelNativeType = prototype.getNativeType();
+        if ((nativeType instanceof Class<?>) && (modelNativeType instanceof Class<?>)
+                && !((Class<?>) nativeType).isAssignableFrom((Class<?>) modelNativeType)) {
+            throw new IllegalStateException("Cannot read a \"" + modelNativeType + "\" model as a \"" + nativeType
+                    + "\"");
+        }
+
+        _Prototypes.add(prototype);
+        return prototype;
+    }
+
+    private int readValueTag() throws IOException {
+        final int tag = peekValueTag();
+        _ValueTag = NO_TAG;
+        return tag;
+    }
+
+    private void readValueTag(final byte expectedTag, final Type nativeType) throws IOException {
+        checkValueTag(readValueTag(), expectedTag, nativeType);
+    }
+
+    private long readVarint() throws IOException {
+
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IllegalStateException("Malformed varint");
+    }
+
+}
@@ -0,0 +1,254 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.io;
+
+import java.io.OutputStream;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.wrml.core.runtime.Context;
+import org.wrml.core.runtime.system.FieldPrototype;
+import org.wrml.core.runtime.system.Prototype;
+
+/**
+ * Writes a model graph in the {@link BinaryModelGraphFormat}.
+ */
+public class BinaryModelGraphWriter extends FieldIterativeModelGraphWriter {
+
+    private static final int BUFFER_SIZE = 1024;
+
+    /**
+     * The most bytes that a value's tag and varint (or fixed width number)
+     * can take.
+     */
+    private static final int MAX_VALUE_SIZE = 11;
+
+    private final BinaryModelGraphFormat _Format;
+    private OutputStream _OutputStream;
+    private final byte[] _Buffer;
+    private int _Position;
+
+    /** The indexes of the schemas that have been introduced in the stream, by prototype */
+    private final Map<Prototype, Integer> _SchemaIndexes;
+
+    public BinaryModelGraphWriter() {
+        this(null);
+    }
+
+    /**
+     * Creates a writer that returns itself to its format's pool when it is
+     * closed.
+     */
+    public BinaryModelGraphWriter(final BinaryModelGraphFormat format) {
+        _Format = format;
+        _Buffer = new byte[BUFFER_SIZE];
+        _SchemaIndexes = new IdentityHashMap<Prototype, Integer>();
+    }
+
+    public void close() throws Exception {
+
+        if (_OutputStream == null) {
+            return;
+        }
+
+        // The stream belongs to the caller, so closing the writer only flushes it
+        try {
+            flush();
+        }
+        finally {
+            _OutputStream = null;
+            if (_Format != null) {
+                _Format.releaseWriter(this);
+            }
+        }
+    }
+
+    public void open(OutputStream outputStream) throws Exception {
+        _OutputStream = outputStream;
+        _Position = 0;
+        _SchemaIndexes.clear();
+    }
+
+    @Override
+    protected void flush() throws Exception {
+        flushBuffer();
+        _OutputStream.flush();
+    }
+
+    @Override
+    protected void writeBeginList(int elementCount) throws Exception {
+        ensureCapacity(MAX_VALUE_SIZE);
+        _Buffer[_Position++] = BinaryModelGraphFormat.LIST;
+        putVarint(elementCount);
+    }
+
+    @Override
+    protected void writeBeginMap(int entryCount) throws Exception {
+        ensureCapacity(MAX_VALUE_SIZE);
+        _Buffer[_Position++] = BinaryModelGraphFormat.MAP;
+        putVarint(entryCount);
+    }
+
+    @Override
+    protected void writeBeginModel(Prototype prototype) throws Exception {
+        ensureCapacity(MAX_VALUE_SIZE);
+        _Buffer[_Position++] = BinaryModelGraphFormat.MODEL;
+
+        // The fields are written by the slots of the model's own schema, so the reader needs to know which it is
+        final Integer schemaIndex = _SchemaIndexes.get(prototype);
+        if (schemaIndex != null) {
+            putVarint(schemaIndex.intValue() + 1);
+            return;
+        }
+
+        _SchemaIndexes.put(prototype, _SchemaIndexes.size());
+        putVarint(0);
+        writeRawTextValue(prototype.getSchemaId().toString());
+    }
+
+    @Override
+    protected void writeBooleanValue(boolean value) throws Exception {
+        ensureCapacity(1);
+        _Buffer[_Position++] = value ? BinaryModelGraphFormat.TRUE : BinaryModelGraphFormat.FALSE;
+    }
+
+    @Override
+    protected void writeChoiceValue(Enum<?> value) throws Exception {
+        ensureCapacity(MAX_VALUE_SIZE);
+        _Buffer[_Position++] = BinaryModelGraphFormat.CHOICE;
+        putVarint(value.ordinal());
+    }
+
+    @Override
+    protected void writeDateTimeValue(Context context, long epochMillis) throws Exception {
+        ensureCapacity(MAX_VALUE_SIZE);
+        _Buffer[_Position++] = BinaryModelGraphFormat.DATE_TIME;
+        putVarint(zigzag(epochMillis));
+    }
+
+    @Override
+    protected void writeDoubleValue(double value) throws Exception {
+        ensureCapacity(MAX_VALUE_SIZE);
+        _Buffer[_Position++] = BinaryModelGraphFormat.DOUBLE;
+
+        final long bits = Double.doubleToRawLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            _Buffer[_Position++] = (byte) (bits >>> shift);
+        }
+    }
+
+    @Override
+    protected void writeEndList() throws Exception {
+        // Lists are counted
+    }
+
+    @Override
+    protected void writeEndMap() throws Exception {
+        // Maps are counted
+    }
+
+    @Override
+    protected void writeEndModel() throws Exception {
+        ensureCapacity(1);
+        _Buffer[_Position++] = BinaryModelGraphFormat.END_MODEL;
+    }
+
+    @Override
+    protected void writeFieldName(FieldPrototype fieldPrototype) throws Exception {
+        ensureCapacity(MAX_VALUE_SIZE);
+        putVarint(fieldPrototype.getSlot() + 1);
+    }
+
+    @Override
+    protected void writeIntegerValue(int value) throws Exception {
+        ensureCapacity(MAX_VALUE_SIZE);
+        _Buffer[_Position++] = BinaryModelGraphFormat.INTEGER;
+        putVarint(zigzag(value));
+    }
+
+    @Override
+    protected void writeLongValue(long value) throws Exception {
+        ensureCapacity(MAX_VALUE_SIZE);
+        _Buffer[_Position++] = BinaryModelGraphFormat.LONG;
+        putVarint(zigzag(value));
+    }
+
+    @Override
+    protected void writeMapKey(String key) throws Exception {
+        writeRawTextValue(key);
+    }
+
+    @Override
+    protected void writeNullValue() throws Exception {
+        ensureCapacity(1);
+        _Buffer[_Position++] = BinaryModelGraphFormat.NULL;
+    }
+
+    @Override
+    protected void writeNumberValue(Number value) throws Exception {
+        // TODO: Add a (lossless) decimal encoding?
+        writeDoubleValue(value.doubleValue());
+    }
+
+    @Override
+    protected void writeRawTextValue(String text) throws Exception {
+
+        final byte[] bytes = text.getBytes(BinaryModelGraphFormat.UTF_8);
+
+        ensureCapacity(MAX_VALUE_SIZE);
+        _Buffer[_Position++] = BinaryModelGraphFormat.TEXT;
+        putVarint(bytes.length);
+
+        if (bytes.length > (_Buffer.length - _Position)) {
+            flushBuffer();
+            if (bytes.length > _Buffer.length) {
+                _OutputStream.write(bytes);
+                return;
+            }
+        }
+
+        System.arraycopy(bytes, 0, _Buffer, _Position, bytes.length);
+        _Position += bytes.length;
+    }
+
+    private static long zigzag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void ensureCapacity(final int byteCount) throws Exception {
+        if ((_Buffer.length - _Position) < byteCount) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws Exception {
+        if (_Position > 0) {
+            _OutputStream.write(_Buffer, 0, _Position);
+            _Position = 0;
+        }
+    }
+
+    private void putVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            _Buffer[_Position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        _Buffer[_Position++] = (byte) value;
+    }
+
+}
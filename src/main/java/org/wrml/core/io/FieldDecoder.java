@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.io;
+
+import org.wrml.core.Model;
+import org.wrml.core.model.schema.Type;
+import org.wrml.core.runtime.Context;
+import org.wrml.core.runtime.ModelGraph;
+import org.wrml.core.runtime.system.FieldPrototype;
+
+/**
+ * Reads a field's value and sets it on the model being read. Each field is
+ * assigned its decoder once, by its {@link ModelDecodePlan}: the fields that
+ * are stored in primitive slots are read without boxing, and the others are
+ * read with their precomputed {@link FieldPrototype#getType() Type}.
+ */
+enum FieldDecoder {
+
+    BooleanSlot {
+
+        @Override
+        void decodePrimitive(FieldIterativeModelGraphReader reader, Context context, Model model,
+                FieldPrototype fieldPrototype) throws Exception {
+            model.setBooleanFieldValue(fieldPrototype.getFieldName(), reader.readPrimitiveBooleanValue());
+        }
+    },
+
+    IntegerSlot {
+
+        @Override
+        void decodePrimitive(FieldIterativeModelGraphReader reader, Context context, Model model,
+                FieldPrototype fieldPrototype) throws Exception {
+            model.setIntegerFieldValue(fieldPrototype.getFieldName(), reader.readPrimitiveIntegerValue());
+        }
+    },
+
+    LongSlot {
+
+        @Override
+        void decodePrimitive(FieldIterativeModelGraphReader reader, Context context, Model model,
+                FieldPrototype fieldPrototype) throws Exception {
+            model.setLongFieldValue(fieldPrototype.getFieldName(), reader.readPrimitiveLongValue());
+        }
+    },
+
+    DoubleSlot {
+
+        @Override
+        void decodePrimitive(FieldIterativeModelGraphReader reader, Context context, Model model,
+                FieldPrototype fieldPrototype) throws Exception {
+            model.setDoubleFieldValue(fieldPrototype.getFieldName(), reader.readPrimitiveDoubleValue());
+        }
+    },
+
+    DateTimeSlot {
+
+        @Override
+        void decodePrimitive(FieldIterativeModelGraphReader reader, Context context, Model model,
+                FieldPrototype fieldPrototype) throws Exception {
+            reader.readDateTimeFieldValue(context, model, fieldPrototype);
+        }
+    },
+
+    /**
+     * Reads a (boxed or reference) value of the field's type; an explicit
+     * null is read by this decoder, whatever the field's slot.
+     */
+    Value {
+
+        @Override
+        void decode(FieldIterativeModelGraphReader reader, Context context, Model model,
+                FieldPrototype fieldPrototype, ModelGraph modelGraph) throws Exception {
+
+            final Object fieldValue = reader.readValue(context, fieldPrototype.getNativeType(),
+                    fieldPrototype.getType(), modelGraph);
+            model.setFieldValue(fieldPrototype.getFieldName(), fieldValue);
+        }
+    };
+
+    /**
+     * Returns the decoder for the field. Choices are (shared) enum constants,
+     * so they are read as values; there is nothing to box.
+     */
+    static FieldDecoder getFieldDecoder(final FieldPrototype fieldPrototype) {
+
+        final Type primitiveSlotType = fieldPrototype.getPrimitiveSlotType();
+        if (primitiveSlotType == null) {
+            return Value;
+        }
+
+        switch (primitiveSlotType) {
+
+        case Boolean:
+            return BooleanSlot;
+
+        case Integer:
+            return IntegerSlot;
+
+        case Long:
+            return LongSlot;
+
+        case Double:
+            return DoubleSlot;
+
+        case DateTime:
+            return DateTimeSlot;
+
+        default:
+            return Value;
+        }
+    }
+
+    /**
+     * Reads the field's (next) value and sets it on the model. A primitive
+     * field's explicit null is read as a value.
+     */
+    void decode(FieldIterativeModelGraphReader reader, Context context, Model model, FieldPrototype fieldPrototype,
+            ModelGraph modelGraph) throws Exception {
+
+        if (reader.isNullValue()) {
+            Value.decode(reader, context, model, fieldPrototype, modelGraph);
+            return;
+        }
+
+        decodePrimitive(reader, context, model, fieldPrototype);
+    }
+
+    void decodePrimitive(FieldIterativeModelGraphReader reader, Context context, Model model,
+            FieldPrototype fieldPrototype) throws Exception {
+        throw new IllegalStateException("The field \"" + fieldPrototype.getFieldName()
+                + "\" is not a primitive field.");
+    }
+
+}
@@ -18,8 +18,11 @@ package org.wrml.core.io;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 import org.wrml.core.Model;
 import org.wrml.core.event.Event;
@@ -31,6 +34,7 @@ import org.wrml.core.model.schema.Type;
 import org.wrml.core.runtime.Context;
 import org.wrml.core.runtime.ModelGraph;
 import org.wrml.core.runtime.TypeSystem;
+import org.wrml.core.runtime.bootstrap.FieldNames;
 import org.wrml.core.runtime.system.FieldPrototype;
 import org.wrml.core.runtime.system.Prototype;
 import org.wrml.core.runtime.system.transformer.SystemTransformers;
@@ -43,8 +47,48 @@ import org.wrml.core.util.observable.Observables;
 public abstract class FieldIterativeModelGraphReader extends EventSource<EventListener> implements ModelGraphReader,
         Iterator<String> {
 
+    /**
+     * The most decode plans that a reader keeps; a (pooled) reader keeps its
+     * plans from one read to the next.
+     */
+    private static final int MAX_DECODE_PLAN_COUNT = 64;
+
+    private final Map<Prototype, ModelDecodePlan> _DecodePlans;
+
     public FieldIterativeModelGraphReader() {
         super(EventListener.class);
+        _DecodePlans = new IdentityHashMap<Prototype, ModelDecodePlan>();
+    }
+
+    /**
+     * Reads a {@link org.wrml.core.model.Container}, streaming its elements.
+     * 
+     * @see #readListFieldElements(Context, java.lang.reflect.Type, String,
+     *      boolean)
+     */
+    public ElementIterator readContainerElements(Context context, java.lang.reflect.Type nativeType,
+            boolean releaseElements) throws Exception {
+        return readListFieldElements(context, nativeType, FieldNames.Container.elements.toString(), releaseElements);
+    }
+
+    /**
+     * Reads the root of a ModelGraph, like
+     * {@link #readModelGraph(Context, java.lang.reflect.Type)}, except that
+     * the elements of the named List field are not collected into the root
+     * model. Instead, the returned iterator reads and returns them one at a
+     * time, each within its own ModelGraph, so that a (huge) list can be
+     * processed in constant memory.
+     * 
+     * If the elements are released, then each element's graph is
+     * {@link ModelGraph#release() released} as soon as the next element is
+     * read (or the iteration ends), which removes its models from the model
+     * heap; so an element should not be used after the following call to the
+     * iterator. The element models are not reused: each element is read into
+     * new models.
+     */
+    public ElementIterator readListFieldElements(Context context, java.lang.reflect.Type nativeType,
+            String listFieldName, boolean releaseElements) throws Exception {
+        return new ElementIterator(context, nativeType, listFieldName, releaseElements);
     }
 
     /**
@@ -65,11 +109,14 @@ public abstract class FieldIterativeModelGraphReader extends EventSource<EventLi
         final EventListener modelGraphScopeEventListener = new ModelGraphScopeEventListener(modelGraph);
         addEventListener(modelGraphScopeEventListener);
 
-        fireEvent(EventNames.beginReadModelGraph, event);
-
-        readModelToGraph(context, nativeType, modelGraph);
-
-        removeEventListener(modelGraphScopeEventListener);
+        // A (pooled) reader outlives a failed read, so it mustn't keep the failed read's listener
+        try {
+            fireEvent(EventNames.beginReadModelGraph, event);
+            readModelToGraph(context, nativeType, modelGraph);
+        }
+        finally {
+            removeEventListener(modelGraphScopeEventListener);
+        }
 
         return modelGraph;
     }
@@ -83,8 +130,107 @@ public abstract class FieldIterativeModelGraphReader extends EventSource<EventLi
 
         fireEvent(EventNames.beginReadModel, event);
 
+        readModelFields(context, modelGraph, null);
+
+        fireEvent(EventNames.endReadModelGraph, event);
+
+        return model;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    protected FieldPrototype getFieldPrototype(final Context context, final Model model, final String fieldName) {
+        final java.lang.reflect.Type nativeType = model.getNativeType();
+        final Prototype prototype = context.getPrototype(nativeType);
+        final ModelDecodePlan.Step step = getDecodePlan(prototype).getStep(fieldName);
+        return (step != null) ? step.getFieldPrototype() : null;
+    }
+
+    /**
+     * Returns <code>true</code> if there is another element to read from the
+     * list that was begun by {@link #readListBegin()}.
+     */
+    protected abstract boolean hasNextListElement() throws Exception;
+
+    /**
+     * Returns <code>true</code> if the current value is an explicit null.
+     */
+    protected boolean isNullValue() throws Exception {
+        return false;
+    }
+
+    protected abstract Boolean readBooleanValue() throws Exception;
+
+    @SuppressWarnings("unchecked")
+    protected <T extends Enum<T>> T readChoiceValue(Context context, java.lang.reflect.Type nativeType)
+            throws Exception {
+        final String name = readRawTextValue();
+        final TypeSystem typeSystem = context.getTypeSystem();
+        return typeSystem.getEnumFromString((Class<T>) nativeType, name);
+    }
+
+    /**
+     * Reads the value of a DateTime field into its primitive slot, as epoch
+     * millis. By default the value is read as a Date, which may be null even
+     * if the value isn't an explicit null (e.g. text that doesn't convert to
+     * a Date), in which case the field is set to null instead.
+     */
+    protected void readDateTimeFieldValue(Context context, Model model, FieldPrototype fieldPrototype)
+            throws Exception {
+
+        final String fieldName = fieldPrototype.getFieldName();
+        final Date dateTime = readDateTimeValue(context, fieldPrototype.getNativeType());
+
+        if (dateTime != null) {
+            model.setDateTimeFieldValue(fieldName, dateTime.getTime());
+        }
+        else {
+            model.setFieldValue(fieldName, null);
+        }
+    }
+
+    // TODO: Change to Joda DateTime?
+    protected abstract Date readDateTimeValue(Context context, java.lang.reflect.Type nativeType) throws Exception;
+
+    protected abstract Double readDoubleValue() throws Exception;
+
+    protected abstract Integer readIntegerValue() throws Exception;
+
+    /**
+     * Begins to read a list value, element by element, with
+     * {@link #hasNextListElement()} and {@link #readListElementEnd()}.
+     * Returns <code>false</code> if the value is null (and there is no list
+     * to read).
+     */
+    protected abstract boolean readListBegin() throws Exception;
+
+    /**
+     * Moves past the list element that was just read.
+     */
+    protected abstract void readListElementEnd() throws Exception;
+
+    protected abstract void readListElements(Context context, java.lang.reflect.Type elementNativeType,
+            ModelGraph modelGraph, List<Object> list) throws Exception;
+
+    /**
+     * Ends the list that was begun by {@link #readListBegin()}, once all of
+     * its elements have been read.
+     */
+    protected abstract void readListEnd() throws Exception;
+
+    /**
+     * Reads the fields of the focused model of the graph, until the end of
+     * the model or, if it is not <code>null</code>, until the field with the
+     * specified (list) name is reached. Returns <code>true</code> if the list
+     * field was reached, in which case its value is the next to be read.
+     */
+    protected boolean readModelFields(Context context, ModelGraph modelGraph, String listFieldName)
+            throws Exception {
+
         /*
-         * Assuming the initial focus of the model created above, iterate over a
+         * Assuming the initial focus of the graph's newest model, iterate over a
          * sequence of field names and read their corresponding values so that
          * they may be set on the currently "focused" model.
          * 
@@ -101,6 +247,13 @@ public abstract class FieldIterativeModelGraphReader extends EventSource<EventLi
          * Note that this algorithm for nested model reading conveniently
          * mirrors the general layout of both XML and JSON documents.
          */
+        /*
+         * The decode plan of the focused model, which is only looked up again
+         * when the focus changes.
+         */
+        Model planModel = null;
+        ModelDecodePlan decodePlan = null;
+
         while (hasNext()) {
 
             // Read the next field name in the sequence.
@@ -119,9 +272,6 @@ public abstract class FieldIterativeModelGraphReader extends EventSource<EventLi
                 throw new IllegalStateException("Bug: WTF");
             }
 
-            System.out.print("CHOO-CHOO!! READING FIELD: ");
-            System.out.println("\"" + fieldName + "\" for " + modelGraph);
-
             /*
              * If we end up reading a nested model as a field, then we can share
              * the field's name as the relationship from the model graph's point
@@ -129,6 +279,12 @@ public abstract class FieldIterativeModelGraphReader extends EventSource<EventLi
              */
             modelGraph.setInitCursorFocusRelationShipName(fieldName);
 
+            if (fieldName.equals(listFieldName)) {
+
+                // Leave the list's elements to be read by the caller.
+                return true;
+            }
+
             if ("links".equals(fieldName)) {
 
                 final List<Object> list = new ArrayList<Object>();
@@ -145,9 +301,14 @@ public abstract class FieldIterativeModelGraphReader extends EventSource<EventLi
              * The schema of the focused model contains interesting metadata
              * related to the named field.
              */
-            final FieldPrototype fieldPrototype = getFieldPrototype(context, focusModel, fieldName);
+            if (focusModel != planModel) {
+                planModel = focusModel;
+                decodePlan = getDecodePlan(context.getPrototype(focusModel.getNativeType()));
+            }
+
+            final ModelDecodePlan.Step step = getDecodeStep(decodePlan, fieldName);
 
-            if (fieldPrototype == null) {
+            if (step == null) {
 
                 /*
                  * Gasp! Certainly our Schema must already know about a field
@@ -168,23 +329,14 @@ public abstract class FieldIterativeModelGraphReader extends EventSource<EventLi
                         + focusModel.getSchemaId() + "\")");
             }
 
-            final java.lang.reflect.Type fieldNativeType = fieldPrototype.getNativeType();
-
-            // Read the field's value, possibly shifting our focus to a new, nested model in the next (field) iteration. 
-            final Object fieldValue = readValue(context, fieldNativeType, modelGraph);
-
-            System.out.print("TOOT-TOOT!! THE FIELD NAMED \"");
-            System.out.print(fieldName);
-            System.out.print("\" IS A \"");
-            System.out.print(fieldNativeType);
-            System.out.print("\" TYPE, WITH VALUE: ");
-            System.out.println(fieldValue);
-
             /*
-             * On behalf of our loop's current iteration's "focusModel", we
-             * read a "fieldValue" for a Field named "fieldName". So...
+             * On behalf of our loop's current iteration's "focusModel", read
+             * the field's value and set it; a primitive value goes straight
+             * into the model's primitive slot, without boxing. Reading a value
+             * may shift our focus to a new, nested model in the next (field)
+             * iteration.
              */
-            focusModel.setFieldValue(fieldName, fieldValue);
+            step.getFieldDecoder().decode(this, context, focusModel, step.getFieldPrototype(), modelGraph);
 
             if (focusModel != modelGraph.getInitCursorFocus()) {
                 // Need to break out of this loop if we are no longer reading for the focused model.
@@ -193,46 +345,9 @@ public abstract class FieldIterativeModelGraphReader extends EventSource<EventLi
 
         }
 
-        fireEvent(EventNames.endReadModelGraph, event);
-
-        System.out.println("\n\nTA DA!! A Model for type \"" + model.getNativeType() + "\" (schema : \""
-                + model.getSchemaId() + "\") has been \"fully\" read (see below):\n");
-        System.out.println(model);
-
-        return model;
+        return false;
     }
 
-    public void remove() {
-        throw new UnsupportedOperationException();
-    }
-
-    protected FieldPrototype getFieldPrototype(final Context context, final Model model, final String fieldName) {
-        final java.lang.reflect.Type nativeType = model.getNativeType();
-        final Prototype prototype = context.getPrototype(nativeType);
-        final FieldPrototype fieldPrototype = prototype.getFieldPrototype(fieldName);
-        return fieldPrototype;
-    }
-
-    protected abstract Boolean readBooleanValue() throws Exception;
-
-    @SuppressWarnings("unchecked")
-    protected <T extends Enum<T>> T readChoiceValue(Context context, java.lang.reflect.Type nativeType)
-            throws Exception {
-        final String name = readRawTextValue();
-        final TypeSystem typeSystem = context.getTypeSystem();
-        return typeSystem.getEnumFromString((Class<T>) nativeType, name);
-    }
-
-    // TODO: Change to Joda DateTime?
-    protected abstract Date readDateTimeValue(Context context, java.lang.reflect.Type nativeType) throws Exception;
-
-    protected abstract Double readDoubleValue() throws Exception;
-
-    protected abstract Integer readIntegerValue() throws Exception;
-
-    protected abstract void readListElements(Context context, java.lang.reflect.Type elementNativeType,
-            ModelGraph modelGraph, List<Object> list) throws Exception;
-
     protected ObservableList<?> readListValue(Context context, java.lang.reflect.Type nativeType, ModelGraph modelGraph)
             throws Exception {
 
@@ -255,13 +370,35 @@ public abstract class FieldIterativeModelGraphReader extends EventSource<EventLi
 
     protected abstract Long readLongValue() throws Exception;
 
+    /*
+     * The primitive value readers default to unboxing their boxed
+     * counterparts; subclasses should override them to avoid boxing.
+     */
+
+    protected boolean readPrimitiveBooleanValue() throws Exception {
+        return readBooleanValue().booleanValue();
+    }
+
+    protected double readPrimitiveDoubleValue() throws Exception {
+        return readDoubleValue().doubleValue();
+    }
+
+    protected int readPrimitiveIntegerValue() throws Exception {
+        return readIntegerValue().intValue();
+    }
+
+    protected long readPrimitiveLongValue() throws Exception {
+        return readLongValue().longValue();
+    }
+
     protected abstract ObservableMap<?, ?> readMapValue(Context context, java.lang.reflect.Type nativeType,
             ModelGraph modelGraph) throws Exception;
 
     protected abstract Model readModelValue(Context context, java.lang.reflect.Type nativeType, ModelGraph modelGraph)
             throws Exception;
 
-    protected abstract Object readNativeValue(Context context, java.lang.reflect.Type nativeType) throws Exception;
+    protected abstract Object readNativeValue(Context context, java.lang.reflect.Type nativeType,
+            ModelGraph modelGraph) throws Exception;
 
     protected abstract String readRawTextValue() throws Exception;
 
@@ -289,10 +426,19 @@ public abstract class FieldIterativeModelGraphReader extends EventSource<EventLi
     protected Object readValue(Context context, java.lang.reflect.Type nativeType, ModelGraph modelGraph)
             throws Exception {
 
-        Object value = null;
-
         final SystemTransformers systemTransformers = context.getSystemTransformers();
         final Type type = systemTransformers.getNativeTypeToTypeTransformer().aToB(nativeType);
+        return readValue(context, nativeType, type, modelGraph);
+    }
+
+    /**
+     * Reads a value of the (already resolved) type, e.g. a field's
+     * {@link FieldPrototype#getType()}.
+     */
+    protected Object readValue(Context context, java.lang.reflect.Type nativeType, Type type, ModelGraph modelGraph)
+            throws Exception {
+
+        Object value = null;
 
         switch (type) {
 
@@ -340,13 +486,43 @@ public abstract class FieldIterativeModelGraphReader extends EventSource<EventLi
 
         case Native:
         default:
-            value = readNativeValue(context, nativeType);
+            value = readNativeValue(context, nativeType, modelGraph);
             break;
         }
 
         return value;
     }
 
+    /**
+     * Returns the decode plan for the models with the prototype, which is
+     * kept for the next time.
+     */
+    ModelDecodePlan getDecodePlan(final Prototype prototype) {
+
+        ModelDecodePlan decodePlan = _DecodePlans.get(prototype);
+        if (decodePlan == null) {
+
+            if (_DecodePlans.size() >= MAX_DECODE_PLAN_COUNT) {
+                // The plans are cheap to rebuild, so the (rarely) full cache is simply emptied
+                _DecodePlans.clear();
+            }
+
+            decodePlan = new ModelDecodePlan(prototype);
+            _DecodePlans.put(prototype, decodePlan);
+        }
+
+        return decodePlan;
+    }
+
+    /**
+     * Returns the step of the plan for the field with the name that was just
+     * returned by {@link #next()}, or <code>null</code> if there is no such
+     * field.
+     */
+    ModelDecodePlan.Step getDecodeStep(final ModelDecodePlan decodePlan, final String fieldName) {
+        return decodePlan.getStep(fieldName);
+    }
+
     public static class DefaultEventListener implements EventListener {
 
         public void onBeginReadModel(Event<FieldIterativeModelGraphReader> event) {
@@ -362,6 +538,204 @@ public abstract class FieldIterativeModelGraphReader extends EventSource<EventLi
         }
     }
 
+    /**
+     * Iterates over the elements of a model's List field, reading each one
+     * as it is returned by {@link #next()}. The model's other fields are
+     * read before the first element and after the last one; so it is only
+     * fully read once {@link #hasNext()} returns <code>false</code>.
+     * 
+     * @see FieldIterativeModelGraphReader#readListFieldElements(Context,
+     *      java.lang.reflect.Type, String, boolean)
+     */
+    public final class ElementIterator implements Iterator<Model> {
+
+        private final Context _Context;
+        private final ModelGraph _ModelGraph;
+        private final Model _Model;
+        private final EventListener _ModelGraphScopeEventListener;
+
+        private final java.lang.reflect.Type _ElementNativeType;
+        private final Type _ElementType;
+        private final boolean _ReleasingElements;
+
+        private ModelGraph _ElementModelGraph;
+        private boolean _ElementRead;
+        private boolean _Finished;
+
+        private ElementIterator(Context context, java.lang.reflect.Type nativeType, String listFieldName,
+                boolean releaseElements) throws Exception {
+
+            _Context = context;
+            _ReleasingElements = releaseElements;
+
+            _ModelGraph = new ModelGraph(context);
+            _ModelGraphScopeEventListener = new ModelGraphScopeEventListener(_ModelGraph);
+            addEventListener(_ModelGraphScopeEventListener);
+
+            // The reader outlives a failed read, so it mustn't keep the failed read's listener
+            boolean begun = false;
+            try {
+
+                final Event<FieldIterativeModelGraphReader> event = new Event<FieldIterativeModelGraphReader>(
+                        FieldIterativeModelGraphReader.this);
+
+                fireEvent(EventNames.beginReadModelGraph, event);
+
+                _Model = context.getModelHeap().newModel(nativeType, _ModelGraph);
+
+                fireEvent(EventNames.beginReadModel, event);
+
+                final FieldPrototype fieldPrototype = context.getPrototype(nativeType).getFieldPrototype(
+                        listFieldName);
+                if ((fieldPrototype == null) || (fieldPrototype.getType() != Type.List)) {
+                    throw new IllegalArgumentException("There is no List field named: \"" + listFieldName
+                            + "\" in a type called: \"" + nativeType + "\"");
+                }
+
+                final TypeSystem typeSystem = context.getTypeSystem();
+                final java.lang.reflect.Type listNativeType = fieldPrototype.getNativeType();
+                final java.lang.reflect.Type[] nativeTypeParameters = typeSystem
+                        .getNativeTypeParameters(listNativeType);
+
+                if ((nativeTypeParameters == null) || (nativeTypeParameters.length != 1)) {
+                    throw new IllegalStateException("No type params in the List value \"" + listNativeType + "\"");
+                }
+
+                _ElementNativeType = nativeTypeParameters[0];
+                _ElementType = context.getSystemTransformers().getNativeTypeToTypeTransformer()
+                        .aToB(_ElementNativeType);
+
+                if (!readModelFields(context, _ModelGraph, listFieldName)) {
+                    // The list isn't in the stream, so the model has been read
+                    finish(false);
+                }
+                else if (!readListBegin()) {
+                    finish(true);
+                }
+
+                begun = true;
+            }
+            finally {
+                if (!begun) {
+                    removeEventListener(_ModelGraphScopeEventListener);
+                }
+            }
+        }
+
+        /**
+         * Returns the model whose list elements are being iterated over.
+         */
+        public Model getModel() {
+            return _Model;
+        }
+
+        public ModelGraph getModelGraph() {
+            return _ModelGraph;
+        }
+
+        public boolean hasNext() {
+
+            if (_Finished) {
+                return false;
+            }
+
+            try {
+                if (_ElementRead) {
+                    _ElementRead = false;
+                    readListElementEnd();
+                }
+
+                if (!hasNextListElement()) {
+                    readListEnd();
+                    finish(true);
+                }
+            }
+            catch (final Exception e) {
+                throw new IllegalStateException("Failed to read the next element", e);
+            }
+
+            return !_Finished;
+        }
+
+        public boolean isReleasingElements() {
+            return _ReleasingElements;
+        }
+
+        public Model next() {
+
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            releaseElement();
+
+            /*
+             * Each element is read into its own graph, which isn't referenced
+             * by the model's graph, so that it can be collected (or released)
+             * on its own.
+             */
+            final ModelGraph elementModelGraph = new ModelGraph(_Context);
+            final EventListener elementModelGraphScopeEventListener = new ModelGraphScopeEventListener(
+                    elementModelGraph);
+
+            removeEventListener(_ModelGraphScopeEventListener);
+            addEventListener(elementModelGraphScopeEventListener);
+
+            final Object element;
+            try {
+                element = readValue(_Context, _ElementNativeType, _ElementType, elementModelGraph);
+            }
+            catch (final Exception e) {
+                throw new IllegalStateException("Failed to read the next element", e);
+            }
+            finally {
+                removeEventListener(elementModelGraphScopeEventListener);
+                addEventListener(_ModelGraphScopeEventListener);
+            }
+
+            _ElementModelGraph = elementModelGraph;
+            _ElementRead = true;
+
+            if ((element != null) && !(element instanceof Model)) {
+                throw new IllegalStateException("The list element \"" + element + "\" is not a Model");
+            }
+
+            return (Model) element;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void finish(final boolean readRemainingFields) throws Exception {
+
+            _Finished = true;
+            releaseElement();
+
+            try {
+                if (readRemainingFields) {
+                    readModelFields(_Context, _ModelGraph, null);
+                }
+
+                fireEvent(EventNames.endReadModelGraph, new Event<FieldIterativeModelGraphReader>(
+                        FieldIterativeModelGraphReader.this));
+            }
+            finally {
+                removeEventListener(_ModelGraphScopeEventListener);
+            }
+        }
+
+        private void releaseElement() {
+
+            if (_ReleasingElements && (_ElementModelGraph != null)) {
+                _ElementModelGraph.release();
+            }
+
+            _ElementModelGraph = null;
+        }
+
+    }
+
     public static interface EventListener extends java.util.EventListener {
 
         public void onBeginReadModel(Event<FieldIterativeModelGraphReader> event);
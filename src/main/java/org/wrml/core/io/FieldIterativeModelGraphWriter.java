@@ -0,0 +1,268 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.io;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.wrml.core.Model;
+import org.wrml.core.runtime.Context;
+import org.wrml.core.runtime.RuntimeModel;
+import org.wrml.core.runtime.system.FieldPrototype;
+import org.wrml.core.runtime.system.Prototype;
+import org.wrml.core.transformer.Transformer;
+import org.wrml.core.transformer.Transformers;
+
+/**
+ * Writes a model graph by iterating over each model's
+ * {@link Prototype#getWireFieldPrototypes() wire fields}, streaming the
+ * fields and their (possibly nested) values to a subclass's encoding; there
+ * is no intermediate tree. The primitive field values are written without
+ * boxing.
+ * 
+ * A model that is nested within itself (a cycle in the graph) cannot be
+ * nested in the output, and there is no (readable) way to refer to it, so a
+ * cycle is an error.
+ */
+public abstract class FieldIterativeModelGraphWriter implements ModelGraphWriter {
+
+    /**
+     * The models that are being written, from the root down to the current
+     * (innermost) model. Used as an identity set.
+     */
+    private final Map<Model, Model> _ModelPath;
+
+    public FieldIterativeModelGraphWriter() {
+        _ModelPath = new IdentityHashMap<Model, Model>();
+    }
+
+    public void writeModelGraph(Context context, Model model) throws Exception {
+        _ModelPath.clear();
+        writeModel(context, model);
+        flush();
+    }
+
+    protected abstract void flush() throws Exception;
+
+    protected abstract void writeBeginList(int elementCount) throws Exception;
+
+    protected abstract void writeBeginMap(int entryCount) throws Exception;
+
+    protected abstract void writeBeginModel(Prototype prototype) throws Exception;
+
+    protected abstract void writeBooleanValue(boolean value) throws Exception;
+
+    protected abstract void writeChoiceValue(Enum<?> value) throws Exception;
+
+    protected abstract void writeDateTimeValue(Context context, long epochMillis) throws Exception;
+
+    protected abstract void writeDoubleValue(double value) throws Exception;
+
+    protected abstract void writeEndList() throws Exception;
+
+    protected abstract void writeEndMap() throws Exception;
+
+    protected abstract void writeEndModel() throws Exception;
+
+    protected abstract void writeFieldName(FieldPrototype fieldPrototype) throws Exception;
+
+    protected void writeFieldValue(Context context, RuntimeModel model, FieldPrototype fieldPrototype)
+            throws Exception {
+
+        if (model.isPrimitiveFieldValue(fieldPrototype)) {
+
+            switch (fieldPrototype.getPrimitiveSlotType()) {
+
+            case Boolean:
+                writeBooleanValue(model.getBooleanFieldValue(fieldPrototype));
+                return;
+
+            case Integer:
+                writeIntegerValue(model.getIntegerFieldValue(fieldPrototype));
+                return;
+
+            case Long:
+                writeLongValue(model.getLongFieldValue(fieldPrototype));
+                return;
+
+            case Double:
+                writeDoubleValue(model.getDoubleFieldValue(fieldPrototype));
+                return;
+
+            case DateTime:
+                writeDateTimeValue(context, model.getLongFieldValue(fieldPrototype));
+                return;
+
+            default:
+                // Choices are (shared) enum constants, so there is nothing to box
+                break;
+            }
+        }
+
+        writeValue(context, model.getFieldValue(fieldPrototype));
+    }
+
+    protected abstract void writeIntegerValue(int value) throws Exception;
+
+    protected void writeListValue(Context context, Collection<?> list) throws Exception {
+
+        writeBeginList(list.size());
+
+        for (final Object element : list) {
+            writeValue(context, element);
+        }
+
+        writeEndList();
+    }
+
+    protected abstract void writeLongValue(long value) throws Exception;
+
+    protected abstract void writeMapKey(String key) throws Exception;
+
+    protected void writeMapValue(Context context, Map<?, ?> map) throws Exception {
+
+        writeBeginMap(map.size());
+
+        for (final Map.Entry<?, ?> entry : map.entrySet()) {
+            writeMapKey(String.valueOf(entry.getKey()));
+            writeValue(context, entry.getValue());
+        }
+
+        writeEndMap();
+    }
+
+    protected void writeModel(Context context, Model model) throws Exception {
+
+        // The static interface and the runtime model are two faces of the same model
+        final Model dynamicModel = model.getDynamicInterface();
+
+        if (_ModelPath.containsKey(dynamicModel)) {
+            throw new IllegalStateException("The model graph has a cycle through a model (of type: \""
+                    + model.getNativeType() + "\"), which cannot be written");
+        }
+
+        _ModelPath.put(dynamicModel, dynamicModel);
+        try {
+
+            final Prototype prototype = context.getPrototype(model.getNativeType());
+            final List<FieldPrototype> wireFieldPrototypes = prototype.getWireFieldPrototypes();
+            final int wireFieldCount = wireFieldPrototypes.size();
+
+            writeBeginModel(prototype);
+
+            if (dynamicModel instanceof RuntimeModel) {
+
+                final RuntimeModel runtimeModel = (RuntimeModel) dynamicModel;
+                for (int i = 0; i < wireFieldCount; i++) {
+
+                    final FieldPrototype fieldPrototype = wireFieldPrototypes.get(i);
+
+                    // Unset fields are left out, so that a reader gives them their default values
+                    if (runtimeModel.isFieldValueSet(fieldPrototype)) {
+                        writeFieldName(fieldPrototype);
+                        writeFieldValue(context, runtimeModel, fieldPrototype);
+                    }
+                }
+            }
+            else {
+
+                for (int i = 0; i < wireFieldCount; i++) {
+
+                    final FieldPrototype fieldPrototype = wireFieldPrototypes.get(i);
+                    final Object fieldValue = dynamicModel.getFieldValue(fieldPrototype.getFieldName());
+                    if (fieldValue != null) {
+                        writeFieldName(fieldPrototype);
+                        writeValue(context, fieldValue);
+                    }
+                }
+            }
+
+            writeEndModel();
+        }
+        finally {
+            _ModelPath.remove(dynamicModel);
+        }
+    }
+
+    protected abstract void writeNullValue() throws Exception;
+
+    /**
+     * Writes a number that isn't an Integer, Long or Double.
+     */
+    protected abstract void writeNumberValue(Number value) throws Exception;
+
+    protected abstract void writeRawTextValue(String text) throws Exception;
+
+    @SuppressWarnings("unchecked")
+    protected void writeTextValue(Context context, Object value) throws Exception {
+
+        if (value instanceof String) {
+            writeRawTextValue((String) value);
+            return;
+        }
+
+        final Transformers<String> stringTransformers = context.getStringTransformers();
+        final Transformer<Object, String> stringTransformer = (Transformer<Object, String>) stringTransformers
+                .getTransformer(value.getClass());
+
+        writeRawTextValue((stringTransformer != null) ? stringTransformer.aToB(value) : value.toString());
+    }
+
+    protected void writeValue(Context context, Object value) throws Exception {
+
+        if (value == null) {
+            writeNullValue();
+        }
+        else if (value instanceof Model) {
+            writeModel(context, (Model) value);
+        }
+        else if (value instanceof Boolean) {
+            writeBooleanValue(((Boolean) value).booleanValue());
+        }
+        else if (value instanceof Integer) {
+            writeIntegerValue(((Integer) value).intValue());
+        }
+        else if (value instanceof Long) {
+            writeLongValue(((Long) value).longValue());
+        }
+        else if (value instanceof Double) {
+            writeDoubleValue(((Double) value).doubleValue());
+        }
+        else if (value instanceof Number) {
+            writeNumberValue((Number) value);
+        }
+        else if (value instanceof Enum<?>) {
+            writeChoiceValue((Enum<?>) value);
+        }
+        else if (Date.class.equals(value.getClass())) {
+            writeDateTimeValue(context, ((Date) value).getTime());
+        }
+        else if (value instanceof Collection<?>) {
+            writeListValue(context, (Collection<?>) value);
+        }
+        else if (value instanceof Map<?, ?>) {
+            writeMapValue(context, (Map<?, ?>) value);
+        }
+        else {
+            writeTextValue(context, value);
+        }
+    }
+
+}
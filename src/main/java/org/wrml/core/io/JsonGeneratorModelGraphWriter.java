@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.io;
+
+import java.io.OutputStream;
+import java.util.Date;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+import org.wrml.core.runtime.Context;
+import org.wrml.core.runtime.system.FieldPrototype;
+import org.wrml.core.runtime.system.Prototype;
+
+/**
+ * Writes a model graph as JSON, with a JsonGenerator. Field names are written
+ * with their {@link FieldPrototype#getSerializedFieldName() pre-encoded}
+ * bytes.
+ */
+public class JsonGeneratorModelGraphWriter extends FieldIterativeModelGraphWriter {
+
+    private final JsonModelGraphFormat _Format;
+    private final JsonFactory _JsonFactory;
+    private JsonGenerator _JsonGenerator;
+
+    public JsonGeneratorModelGraphWriter() {
+        this(null);
+    }
+
+    /**
+     * Creates a writer that generates with its format's (shared) JsonFactory
+     * and that returns itself to its format's pool when it is closed.
+     */
+    public JsonGeneratorModelGraphWriter(final JsonModelGraphFormat format) {
+        _Format = format;
+
+        if (format != null) {
+            _JsonFactory = format.getJsonFactory();
+        }
+        else {
+            _JsonFactory = new JsonFactory();
+
+            // The stream belongs to the caller (e.g. an HTTP request entity), so closing the writer only flushes it
+            _JsonFactory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        }
+    }
+
+    public void close() throws Exception {
+
+        if (_JsonGenerator == null) {
+            return;
+        }
+
+        try {
+            _JsonGenerator.close();
+        }
+        finally {
+            _JsonGenerator = null;
+            if (_Format != null) {
+                _Format.releaseWriter(this);
+            }
+        }
+    }
+
+    public void open(OutputStream outputStream) throws Exception {
+        _JsonGenerator = _JsonFactory.createJsonGenerator(outputStream, JsonEncoding.UTF8);
+    }
+
+    @Override
+    protected void flush() throws Exception {
+        _JsonGenerator.flush();
+    }
+
+    @Override
+    protected void writeBeginList(int elementCount) throws Exception {
+        _JsonGenerator.writeStartArray();
+    }
+
+    @Override
+    protected void writeBeginMap(int entryCount) throws Exception {
+        _JsonGenerator.writeStartObject();
+    }
+
+    @Override
+    protected void writeBeginModel(Prototype prototype) throws Exception {
+        _JsonGenerator.writeStartObject();
+    }
+
+    @Override
+    protected void writeBooleanValue(boolean value) throws Exception {
+        _JsonGenerator.writeBoolean(value);
+    }
+
+    @Override
+    protected void writeChoiceValue(Enum<?> value) throws Exception {
+        // Choices are read back by name
+        _JsonGenerator.writeString(value.name());
+    }
+
+    @Override
+    protected void writeDateTimeValue(Context context, long epochMillis) throws Exception {
+        // TODO: Change to Joda DateTime?
+        writeTextValue(context, new Date(epochMillis));
+    }
+
+    @Override
+    protected void writeDoubleValue(double value) throws Exception {
+        _JsonGenerator.writeNumber(value);
+    }
+
+    @Override
+    protected void writeEndList() throws Exception {
+        _JsonGenerator.writeEndArray();
+    }
+
+    @Override
+    protected void writeEndMap() throws Exception {
+        _JsonGenerator.writeEndObject();
+    }
+
+    @Override
+    protected void writeEndModel() throws Exception {
+        _JsonGenerator.writeEndObject();
+    }
+
+    @Override
+    protected void writeFieldName(FieldPrototype fieldPrototype) throws Exception {
+        _JsonGenerator.writeFieldName(fieldPrototype.getSerializedFieldName());
+    }
+
+    @Override
+    protected void writeIntegerValue(int value) throws Exception {
+        _JsonGenerator.writeNumber(value);
+    }
+
+    @Override
+    protected void writeLongValue(long value) throws Exception {
+        _JsonGenerator.writeNumber(value);
+    }
+
+    @Override
+    protected void writeMapKey(String key) throws Exception {
+        _JsonGenerator.writeFieldName(key);
+    }
+
+    @Override
+    protected void writeNullValue() throws Exception {
+        _JsonGenerator.writeNull();
+    }
+
+    @Override
+    protected void writeNumberValue(Number value) throws Exception {
+        _JsonGenerator.writeNumber(value.toString());
+    }
+
+    @Override
+    protected void writeRawTextValue(String text) throws Exception {
+        _JsonGenerator.writeString(text);
+    }
+
+}
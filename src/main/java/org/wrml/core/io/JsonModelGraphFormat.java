@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.io;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+
+/**
+ * The JSON model graph format. Its readers and writers share one
+ * JsonFactory, so that they share its (field name) symbol tables and buffer
+ * recycling.
+ */
+public class JsonModelGraphFormat extends ModelGraphFormat {
+
+    private final JsonFactory _JsonFactory;
+
+    public JsonModelGraphFormat() {
+        this(new JsonFactory());
+    }
+
+    public JsonModelGraphFormat(final JsonFactory jsonFactory) {
+        _JsonFactory = jsonFactory;
+
+        // The output stream belongs to the caller (e.g. an HTTP request entity), so closing a writer only flushes it
+        _JsonFactory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+        // Interned field names are resolved by the readers' decode plans with a single identity probe
+        _JsonFactory.enable(JsonParser.Feature.INTERN_FIELD_NAMES);
+    }
+
+    public JsonFactory getJsonFactory() {
+        return _JsonFactory;
+    }
+
+    @Override
+    protected ModelGraphReader newReader() {
+        return new JsonParserModelGraphReader(this);
+    }
+
+    @Override
+    protected ModelGraphWriter newWriter() {
+        return new JsonGeneratorModelGraphWriter(this);
+    }
+
+}
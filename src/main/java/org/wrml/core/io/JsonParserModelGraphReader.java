@@ -36,15 +36,42 @@ import org.wrml.core.util.observable.ObservableMap;
 
 public class JsonParserModelGraphReader extends FieldIterativeModelGraphReader {
 
+    private final JsonModelGraphFormat _Format;
+    private final JsonFactory _JsonFactory;
     private JsonParser _JsonParser;
     private String _CurrentName;
-    private Event<JsonParserModelGraphReader> _Event;
+    private final Event<JsonParserModelGraphReader> _Event;
+
+    public JsonParserModelGraphReader() {
+        this(null);
+    }
+
+    /**
+     * Creates a reader that parses with its format's (shared) JsonFactory and
+     * that returns itself to its format's pool when it is closed.
+     */
+    public JsonParserModelGraphReader(final JsonModelGraphFormat format) {
+        _Format = format;
+        _JsonFactory = (format != null) ? format.getJsonFactory() : new JsonFactory();
+        _Event = new Event<JsonParserModelGraphReader>(this);
+    }
 
     public void close() throws Exception {
 
-        if (_JsonParser != null) {
+        if (_JsonParser == null) {
+            return;
+        }
+
+        try {
             _JsonParser.close();
         }
+        finally {
+            _JsonParser = null;
+            _CurrentName = null;
+            if (_Format != null) {
+                _Format.releaseReader(this);
+            }
+        }
     }
 
     public boolean hasNext() {
@@ -88,10 +115,7 @@ public class JsonParserModelGraphReader extends FieldIterativeModelGraphReader {
 
         // TODO: reset other state?
 
-        final JsonFactory jsonFactory = new JsonFactory();
-        _JsonParser = jsonFactory.createJsonParser(inputStream);
-
-        _Event = new Event<JsonParserModelGraphReader>(this);
+        _JsonParser = _JsonFactory.createJsonParser(inputStream);
 
         getNextToken();
         _CurrentName = null;
@@ -111,10 +135,6 @@ public class JsonParserModelGraphReader extends FieldIterativeModelGraphReader {
 
         // TODO: Call fireEndOfCursorEvent (or something?) to communicate to the event's ModelGraph-aware handler that the cursor should pop back. 
 
-        final String currentName = getCurrentName();
-        System.out.println("WAKA WAKA!! READING JSON TOKEN: \"" + token + "\" (\"" + _JsonParser.getText()
-                + "\") following current name: " + currentName);
-
         if (token == JsonToken.END_OBJECT) {
             fireEvent(EventNames.endReadModel, _Event);
         }
@@ -122,6 +142,17 @@ public class JsonParserModelGraphReader extends FieldIterativeModelGraphReader {
         return token;
     }
 
+    @Override
+    protected boolean hasNextListElement() throws Exception {
+        final JsonToken token = getCurrentToken();
+        return (token != null) && (token != JsonToken.END_ARRAY);
+    }
+
+    @Override
+    protected boolean isNullValue() throws Exception {
+        return getCurrentToken() == JsonToken.VALUE_NULL;
+    }
+
     @Override
     protected Boolean readBooleanValue() throws Exception {
         final JsonToken token = getCurrentToken();
@@ -161,6 +192,28 @@ public class JsonParserModelGraphReader extends FieldIterativeModelGraphReader {
                 + _JsonParser.getText() + "\"");
     }
 
+    @Override
+    protected boolean readListBegin() throws Exception {
+        final JsonToken token = getCurrentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return false;
+        }
+
+        if (token != JsonToken.START_ARRAY) {
+            throw new IllegalStateException("Cannot read a List from a token of type: " + token + "\" (\""
+                    + _JsonParser.getText() + "\"");
+        }
+
+        // Move to the first element (or the end of the list)
+        getNextToken();
+        return true;
+    }
+
+    @Override
+    protected void readListElementEnd() throws Exception {
+        getNextToken();
+    }
+
     @Override
     protected void readListElements(Context context, java.lang.reflect.Type elementNativeType, ModelGraph modelGraph,
             List<Object> list) throws Exception {
@@ -170,24 +223,19 @@ public class JsonParserModelGraphReader extends FieldIterativeModelGraphReader {
             return;
         }
 
-        System.out.println("A List field COULD read an element value from JSON token: \"" + token + "\" (\""
-                + _JsonParser.getText() + "\") while building a list of: " + elementNativeType);
+        // The elements all have the same type
+        final org.wrml.core.model.schema.Type elementType = context.getSystemTransformers()
+                .getNativeTypeToTypeTransformer().aToB(elementNativeType);
 
         token = getNextToken();
 
-        System.out.println("A List field COULD read an element value from JSON token: \"" + token + "\" (\""
-                + _JsonParser.getText() + "\") while building a list of: " + elementNativeType);
-
         while ((token != null) && (token != JsonToken.END_ARRAY)) {
 
-            System.out.println("A List field IS attempting to read an element value from JSON token: \"" + token
-                    + "\" (\"" + _JsonParser.getText() + "\") while building a list of: " + elementNativeType);
-
             if (token == JsonToken.END_OBJECT) {
                 continue;
             }
 
-            final Object element = readValue(context, elementNativeType, modelGraph);
+            final Object element = readValue(context, elementNativeType, elementType, modelGraph);
 
             if (element == null) {
                 break;
@@ -196,12 +244,19 @@ public class JsonParserModelGraphReader extends FieldIterativeModelGraphReader {
             list.add(element);
 
             token = getNextToken();
-
-            System.out.println("A List field COULD read an element value from JSON token: \"" + token + "\" (\""
-                    + _JsonParser.getText() + "\") while building a list of: " + elementNativeType);
         }
     }
 
+    @Override
+    protected void readListEnd() throws Exception {
+        /*
+         * The fields of the (model) elements have moved the current name
+         * along, so go back to the list's own field name, which next() will
+         * then move past.
+         */
+        _CurrentName = getCurrentName();
+    }
+
     @Override
     protected Long readLongValue() throws Exception {
         final JsonToken token = getCurrentToken();
@@ -232,12 +287,78 @@ public class JsonParserModelGraphReader extends FieldIterativeModelGraphReader {
     }
 
     @Override
-    protected Object readNativeValue(Context context, java.lang.reflect.Type nativeType) throws Exception {
+    protected Object readNativeValue(Context context, java.lang.reflect.Type nativeType, ModelGraph modelGraph)
+            throws Exception {
+
+        // A native (e.g. Object) value is whatever the token holds
         final JsonToken token = getCurrentToken();
-        if (token == JsonToken.VALUE_EMBEDDED_OBJECT) {
+        if (token == null) {
+            return null;
+        }
+
+        switch (token) {
+        case VALUE_EMBEDDED_OBJECT:
             return _JsonParser.getEmbeddedObject();
+        case VALUE_STRING:
+            return _JsonParser.getText();
+        case VALUE_NUMBER_INT:
+            return _JsonParser.getNumberValue();
+        case VALUE_NUMBER_FLOAT:
+            return _JsonParser.getDoubleValue();
+        case VALUE_TRUE:
+            return Boolean.TRUE;
+        case VALUE_FALSE:
+            return Boolean.FALSE;
+        default:
+            return null;
         }
-        return null;
+    }
+
+    @Override
+    protected boolean readPrimitiveBooleanValue() throws Exception {
+        final JsonToken token = getCurrentToken();
+        if (token == JsonToken.VALUE_TRUE) {
+            return true;
+        }
+        else if (token == JsonToken.VALUE_FALSE) {
+            return false;
+        }
+
+        throw new IllegalStateException("Cannot read a Boolean from a token of type: " + token + "\" (\""
+                + _JsonParser.getText() + "\"");
+    }
+
+    @Override
+    protected double readPrimitiveDoubleValue() throws Exception {
+        final JsonToken token = getCurrentToken();
+        if ((token == JsonToken.VALUE_NUMBER_FLOAT) || (token == JsonToken.VALUE_NUMBER_INT)) {
+            return _JsonParser.getDoubleValue();
+        }
+
+        throw new IllegalStateException("Cannot read a Double from a token of type: " + token + "\" (\""
+                + _JsonParser.getText() + "\"");
+    }
+
+    @Override
+    protected int readPrimitiveIntegerValue() throws Exception {
+        final JsonToken token = getCurrentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            return _JsonParser.getIntValue();
+        }
+
+        throw new IllegalStateException("Cannot read an Integer from a token of type: " + token + "\" (\""
+                + _JsonParser.getText() + "\"");
+    }
+
+    @Override
+    protected long readPrimitiveLongValue() throws Exception {
+        final JsonToken token = getCurrentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            return _JsonParser.getLongValue();
+        }
+
+        throw new IllegalStateException("Cannot read a Long from a token of type: " + token + "\" (\""
+                + _JsonParser.getText() + "\"");
     }
 
     @Override
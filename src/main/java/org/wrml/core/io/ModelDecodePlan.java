@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.io;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.wrml.core.runtime.system.FieldPrototype;
+import org.wrml.core.runtime.system.Prototype;
+
+/**
+ * The plan for reading the fields of the models with one {@link Prototype}:
+ * each field is resolved, once, to its {@link FieldPrototype} (with its slot)
+ * and the {@link FieldDecoder} that reads its values.
+ * 
+ * A field is looked up by the name that a reader returns. A canonical
+ * (interned) name, like those from a parser's symbol table, is resolved with
+ * a single identity probe. Any other name is resolved by its value, with a
+ * second, hashed lookup; so an uninterned name costs more but still resolves.
+ * A reader that resolves fields by slot (e.g. a binary one) skips the names.
+ */
+final class ModelDecodePlan {
+
+    private final Prototype _Prototype;
+    private final Map<String, Step> _StepsBySymbol;
+    private final Map<String, Step> _StepsByName;
+    private final Step[] _SlottedSteps;
+
+    ModelDecodePlan(final Prototype prototype) {
+
+        _Prototype = prototype;
+
+        final Collection<FieldPrototype> fieldPrototypes = prototype.getFieldPrototypes();
+        _StepsBySymbol = new IdentityHashMap<String, Step>(fieldPrototypes.size());
+        _StepsByName = new HashMap<String, Step>(fieldPrototypes.size() * 2);
+        _SlottedSteps = new Step[prototype.getFieldSlotCount()];
+
+        for (final FieldPrototype fieldPrototype : fieldPrototypes) {
+
+            final Step step = new Step(fieldPrototype);
+            final String fieldName = fieldPrototype.getFieldName();
+            _StepsBySymbol.put(fieldName.intern(), step);
+            _StepsByName.put(fieldName, step);
+
+            final int slot = fieldPrototype.getSlot();
+            if (slot != FieldPrototype.NO_SLOT) {
+                _SlottedSteps[slot] = step;
+            }
+        }
+    }
+
+    Prototype getPrototype() {
+        return _Prototype;
+    }
+
+    /**
+     * Returns the step for the named field, or <code>null</code> if the
+     * prototype has no such field.
+     */
+    Step getStep(final String fieldName) {
+
+        final Step step = _StepsBySymbol.get(fieldName);
+        return (step != null) ? step : _StepsByName.get(fieldName);
+    }
+
+    /**
+     * Returns the step for the field, by its slot if it has one.
+     */
+    Step getStep(final FieldPrototype fieldPrototype) {
+
+        final int slot = fieldPrototype.getSlot();
+        if ((slot != FieldPrototype.NO_SLOT) && (slot < _SlottedSteps.length)) {
+
+            // The field may be another prototype's (with another layout)
+            final Step step = _SlottedSteps[slot];
+            if ((step != null) && (step._FieldPrototype == fieldPrototype)) {
+                return step;
+            }
+        }
+
+        return getStep(fieldPrototype.getFieldName());
+    }
+
+    /**
+     * A field and its decoder.
+     */
+    static final class Step {
+
+        private final FieldPrototype _FieldPrototype;
+        private final FieldDecoder _FieldDecoder;
+
+        private Step(final FieldPrototype fieldPrototype) {
+            _FieldPrototype = fieldPrototype;
+            _FieldDecoder = FieldDecoder.getFieldDecoder(fieldPrototype);
+        }
+
+        FieldDecoder getFieldDecoder() {
+            return _FieldDecoder;
+        }
+
+        FieldPrototype getFieldPrototype() {
+            return _FieldPrototype;
+        }
+
+    }
+
+}
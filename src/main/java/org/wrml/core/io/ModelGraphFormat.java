@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.io;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A wire format for model graphs, which hands out (pooled) readers and
+ * writers. The readers and writers of a format share whatever is expensive to
+ * set up, like a parser factory with its symbol tables, and they return
+ * themselves to their format's pool when they are closed, so that they can be
+ * reused (reopened) by the next request.
+ * 
+ * A format is shared by all threads. Its readers and writers are not; each is
+ * used by one request at a time.
+ * 
+ * @see ModelGraphFormats
+ */
+public abstract class ModelGraphFormat {
+
+    /**
+     * The most idle readers (or writers) that a format keeps for reuse.
+     */
+    public static final int MAX_POOLED_COUNT = 16;
+
+    private final BlockingQueue<ModelGraphReader> _PooledReaders;
+    private final BlockingQueue<ModelGraphWriter> _PooledWriters;
+
+    public ModelGraphFormat() {
+        _PooledReaders = new ArrayBlockingQueue<ModelGraphReader>(MAX_POOLED_COUNT);
+        _PooledWriters = new ArrayBlockingQueue<ModelGraphWriter>(MAX_POOLED_COUNT);
+    }
+
+    /**
+     * Returns a reader that is ready to be {@link ModelGraphReader#open
+     * opened}; a pooled one if there is one.
+     */
+    public ModelGraphReader borrowReader() {
+        final ModelGraphReader reader = _PooledReaders.poll();
+        return (reader != null) ? reader : newReader();
+    }
+
+    /**
+     * Returns a writer that is ready to be {@link ModelGraphWriter#open
+     * opened}; a pooled one if there is one.
+     */
+    public ModelGraphWriter borrowWriter() {
+        final ModelGraphWriter writer = _PooledWriters.poll();
+        return (writer != null) ? writer : newWriter();
+    }
+
+    /**
+     * Returns a (closed) reader to the pool, unless the pool is full.
+     */
+    public void releaseReader(final ModelGraphReader reader) {
+        _PooledReaders.offer(reader);
+    }
+
+    /**
+     * Returns a (closed) writer to the pool, unless the pool is full.
+     */
+    public void releaseWriter(final ModelGraphWriter writer) {
+        _PooledWriters.offer(writer);
+    }
+
+    protected abstract ModelGraphReader newReader();
+
+    protected abstract ModelGraphWriter newWriter();
+
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.io;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.wrml.core.runtime.Context;
+import org.wrml.core.runtime.RuntimeObject;
+import org.wrml.core.runtime.system.transformer.SystemTransformers;
+import org.wrml.core.www.MediaType;
+
+/**
+ * The registry of the model graph formats, by format id, that selects the
+ * format of a media type; by its format parameter or, if it has none, by the
+ * format id that its type and subtype map to (see
+ * {@link SystemTransformers#getMediaTypeToFormatIdTransformer()}). Media
+ * types with unknown formats get the default format.
+ * 
+ * The format of each media type is remembered, so that the readers and
+ * writers for a (repeated) media type are found with a single lookup.
+ */
+public final class ModelGraphFormats extends RuntimeObject {
+
+    /**
+     * The most media types whose formats are remembered.
+     */
+    public static final int MAX_CACHED_MEDIA_TYPE_COUNT = 1024;
+
+    private final ConcurrentHashMap<URI, ModelGraphFormat> _Formats;
+    private final ConcurrentHashMap<MediaType, ModelGraphFormat> _FormatsByMediaType;
+    private volatile ModelGraphFormat _DefaultFormat;
+
+    public ModelGraphFormats(final Context context, final ModelGraphFormat defaultFormat) {
+        super(context);
+
+        _Formats = new ConcurrentHashMap<URI, ModelGraphFormat>();
+        _FormatsByMediaType = new ConcurrentHashMap<MediaType, ModelGraphFormat>();
+        _DefaultFormat = defaultFormat;
+    }
+
+    /**
+     * Returns an open reader, of the media type's format, for the input
+     * stream. Closing the reader returns it to its format's pool.
+     */
+    public ModelGraphReader createModelReader(final MediaType mediaType, final InputStream inputStream)
+            throws Exception {
+        final ModelGraphReader reader = getFormat(mediaType).borrowReader();
+        reader.open(inputStream);
+        return reader;
+    }
+
+    /**
+     * Returns an open writer, of the media type's format, for the output
+     * stream. Closing the writer returns it to its format's pool.
+     */
+    public ModelGraphWriter createModelWriter(final MediaType mediaType, final OutputStream outputStream)
+            throws Exception {
+        final ModelGraphWriter writer = getFormat(mediaType).borrowWriter();
+        writer.open(outputStream);
+        return writer;
+    }
+
+    public ModelGraphFormat getDefaultFormat() {
+        return _DefaultFormat;
+    }
+
+    public ModelGraphFormat getFormat(final MediaType mediaType) {
+
+        if (mediaType == null) {
+            return _DefaultFormat;
+        }
+
+        ModelGraphFormat format = _FormatsByMediaType.get(mediaType);
+        if (format == null) {
+            format = findFormat(mediaType);
+
+            // The media types come off of the wire, so don't let them grow the cache without bounds
+            if (_FormatsByMediaType.size() < MAX_CACHED_MEDIA_TYPE_COUNT) {
+                _FormatsByMediaType.put(mediaType, format);
+            }
+        }
+
+        return format;
+    }
+
+    /**
+     * Returns the format with the specified id, or <code>null</code> if
+     * there is no such format.
+     */
+    public ModelGraphFormat getFormat(final URI formatId) {
+        return _Formats.get(formatId);
+    }
+
+    public void setDefaultFormat(final ModelGraphFormat defaultFormat) {
+        _DefaultFormat = defaultFormat;
+        _FormatsByMediaType.clear();
+    }
+
+    /**
+     * Registers (or replaces) the format with the specified id; the media
+     * types whose format parameters are, or whose types and subtypes map to,
+     * the id get the format from then on.
+     */
+    public void setFormat(final URI formatId, final ModelGraphFormat format) {
+        _Formats.put(formatId, format);
+        _FormatsByMediaType.clear();
+    }
+
+    private ModelGraphFormat findFormat(final MediaType mediaType) {
+
+        final Context context = getContext();
+
+        URI formatId = null;
+        final String formatIdString = mediaType.getFormatIdString();
+        if (formatIdString != null) {
+            formatId = context.getStringTransformers().getTransformer(URI.class).bToA(formatIdString);
+        }
+        else {
+            formatId = context.getSystemTransformers().getMediaTypeToFormatIdTransformer().aToB(mediaType);
+        }
+
+        final ModelGraphFormat format = (formatId != null) ? _Formats.get(formatId) : null;
+        return (format != null) ? format : _DefaultFormat;
+    }
+
+}
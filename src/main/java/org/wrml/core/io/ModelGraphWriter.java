@@ -0,0 +1,32 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.io;
+
+import java.io.OutputStream;
+
+import org.wrml.core.Model;
+import org.wrml.core.runtime.Context;
+
+public interface ModelGraphWriter {
+
+    public void close() throws Exception;
+
+    public void open(OutputStream outputStream) throws Exception;
+
+    public void writeModelGraph(Context context, Model model) throws Exception;
+
+}
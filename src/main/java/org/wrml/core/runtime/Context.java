@@ -17,15 +17,21 @@
 package org.wrml.core.runtime;
 
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
 
 import org.wrml.core.Model;
-import org.wrml.core.io.JsonParserModelGraphReader;
+import org.wrml.core.io.BinaryModelGraphFormat;
+import org.wrml.core.io.JsonModelGraphFormat;
+import org.wrml.core.io.ModelGraphFormats;
 import org.wrml.core.io.ModelGraphReader;
+import org.wrml.core.io.ModelGraphWriter;
 import org.wrml.core.model.Container;
 import org.wrml.core.model.Document;
 import org.wrml.core.model.config.Config;
@@ -145,6 +151,8 @@ public class Context extends ClassLoader {
     private final SystemTransformers _SystemTransformers;
     private final TypeSystem _TypeSystem;
 
+    private final ModelGraphFormats _ModelGraphFormats;
+
     private final Service _WWW;
 
     public Context(final DomainConfig config) {
@@ -177,6 +185,10 @@ public class Context extends ClassLoader {
         _SystemTransformers = new SystemTransformers(this);
         _TypeSystem = new TypeSystem(this);
 
+        // Other formats are registered through getModelGraphFormats()
+        _ModelGraphFormats = new ModelGraphFormats(this, new JsonModelGraphFormat());
+        _ModelGraphFormats.setFormat(BinaryModelGraphFormat.FORMAT_ID, new BinaryModelGraphFormat());
+
         _WWW = new WebClient(this);
         setDefaultService(_WWW);
 
@@ -194,11 +206,12 @@ public class Context extends ClassLoader {
 
     public ModelGraphReader createModelReader(MediaType mediaType, InputStream inputStream) throws Exception {
 
-        // TODO: Do not hardcode this, determine this based on the Media Type (and configured readers)
+        return _ModelGraphFormats.createModelReader(mediaType, inputStream);
+    }
 
-        final JsonParserModelGraphReader reader = new JsonParserModelGraphReader();
-        reader.open(inputStream);
-        return reader;
+    public ModelGraphWriter createModelWriter(MediaType mediaType, OutputStream outputStream) throws Exception {
+
+        return _ModelGraphFormats.createModelWriter(mediaType, outputStream);
     }
 
     public final void fetchAllDocuments(Container<? extends Document> documents, List<? extends Document> allDocuments) {
@@ -229,6 +242,19 @@ public class Context extends ClassLoader {
         return _HypermediaEngines.get(apiId);
     }
 
+    /**
+     * Returns the context's model graph formats: JSON (the default) and
+     * {@link BinaryModelGraphFormat binary}. This is the extension point for
+     * other formats, which are registered with
+     * {@link ModelGraphFormats#setFormat(URI, org.wrml.core.io.ModelGraphFormat)
+     * setFormat} before the context reads or writes models of their media
+     * types; {@link ModelGraphFormats#setDefaultFormat setDefaultFormat}
+     * replaces the default.
+     */
+    public ModelGraphFormats getModelGraphFormats() {
+        return _ModelGraphFormats;
+    }
+
     public ModelHeap getModelHeap() {
         return _ModelHeap;
     }
@@ -241,7 +267,8 @@ public class Context extends ClassLoader {
         final MediaType schemaMediaType = getSystemTransformers().getMediaTypeToNativeTypeTransformer().bToA(
                 Schema.class);
         final Service schemaService = getService(schemaMediaType);
-        return (Schema) ((Model) schemaService.get(schemaId, null, schemaMediaType, null)).getStaticInterface();
+        final Model schema = (Model) schemaService.get(schemaId, null, schemaMediaType, null);
+        return (schema != null) ? (Schema) schema.getStaticInterface() : null;
     }
 
     public final Service getService(Class<?> schemaInterfaceType) {
@@ -310,6 +337,30 @@ public class Context extends ClassLoader {
         }
     }
 
+    /**
+     * Fetches the schemas that aren't cached yet concurrently, in the
+     * background, so that they are ready for the subsequent calls to
+     * {@link #getSchema(URI)}.
+     */
+    public final void prefetchSchemas(final Collection<URI> schemaIds) {
+
+        final MediaType schemaMediaType = getSystemTransformers().getMediaTypeToNativeTypeTransformer().bToA(
+                Schema.class);
+        final Service schemaService = getService(schemaMediaType);
+
+        final List<URI> uncachedSchemaIds = new ArrayList<URI>(schemaIds.size());
+        for (final URI schemaId : schemaIds) {
+            if (!(schemaService instanceof CachingService)
+                    || !((CachingService) schemaService).getCache().containsKey(schemaId)) {
+                uncachedSchemaIds.add(schemaId);
+            }
+        }
+
+        if (!uncachedSchemaIds.isEmpty()) {
+            _SystemSchemaService.prefetch(uncachedSchemaIds, schemaMediaType);
+        }
+    }
+
     public final void setDefaultService(Service defaultService) {
         _DefaultService = defaultService;
     }
@@ -0,0 +1,237 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.wrml.core.util.observable.Observables;
+
+/**
+ * The field map of a {@link ModelHeapOverlay}'s overlay model, which reads
+ * through to the fields of the shared model that it overlays until the first
+ * change, when the shared fields are copied (shallowly). Since lists are
+ * mutable, reading a list also copies the fields.
+ * 
+ * The values of the overlay's fields are overlaid too: a nested (shared) model
+ * is replaced by its overlay model, and a list by a copy of its (overlaid)
+ * elements.
+ */
+final class CopyOnWriteFieldMap extends FieldMap {
+
+    private final ModelHeapOverlay _Overlay;
+    private final RuntimeModel _SharedModel;
+    private Map<String, Object> _Fields;
+
+    /** The shared fields as they were copied, to detect the changes of other commits */
+    private Map<String, Object> _CopiedSharedFields;
+
+    CopyOnWriteFieldMap(final ModelHeapOverlay overlay, final RuntimeModel sharedModel) {
+        super(sharedModel.getContext());
+        _Overlay = overlay;
+        _SharedModel = sharedModel;
+    }
+
+    public RuntimeModel getSharedModel() {
+        return _SharedModel;
+    }
+
+    /**
+     * Returns <code>true</code> if the shared fields have been copied.
+     */
+    public boolean isCopied() {
+        return _Fields != null;
+    }
+
+    /**
+     * Throws an {@link IllegalStateException} if the copied fields can't be
+     * committed, because the shared model has since been frozen or its fields
+     * have been changed (by another overlay's commit). Nothing is changed.
+     */
+    void checkCommittable() {
+
+        if (_Fields == null) {
+            return;
+        }
+
+        if (_SharedModel.isFrozen()) {
+            if (isChanged()) {
+                throw new IllegalStateException("The changes to the frozen model \"" + _SharedModel
+                        + "\" cannot be committed");
+            }
+
+            return;
+        }
+
+        if (isSharedModelChanged()) {
+            throw new IllegalStateException("The model \"" + _SharedModel
+                    + "\" has been changed since its fields were copied");
+        }
+    }
+
+    /**
+     * Replaces the shared model's fields with the copied fields, if they
+     * differ, in one atomic swap (see {@link RuntimeModel#replaceFields(Map)}).
+     * 
+     * @return The shared model's old fields, for
+     *         {@link RuntimeModel#fieldsReplaced(Map)}, or <code>null</code> if
+     *         the shared model is unchanged.
+     * @see #checkCommittable()
+     */
+    Map<String, Object> commit() {
+
+        if ((_Fields == null) || !isChanged()) {
+            return null;
+        }
+
+        final Map<String, Object> sharedFields = new LinkedHashMap<String, Object>(_Fields.size());
+        for (final Map.Entry<String, Object> field : _Fields.entrySet()) {
+            sharedFields.put(field.getKey(), _Overlay.toSharedValue(field.getValue()));
+        }
+
+        return _SharedModel.replaceFields(sharedFields);
+    }
+
+    @Override
+    protected SortedSet<String> getFieldNames() {
+        return new TreeSet<String>(getReadFields().keySet());
+    }
+
+    @Override
+    protected java.lang.reflect.Type getFieldNativeType(final String fieldName) {
+        return _SharedModel.getPrototype().getFieldPrototype(fieldName).getNativeType();
+    }
+
+    @Override
+    protected Object getRawFieldValue(final String fieldName) {
+
+        if (_Fields != null) {
+            return _Fields.get(fieldName);
+        }
+
+        final Object sharedValue = _SharedModel.getFieldMap().get(fieldName);
+        if (sharedValue instanceof Collection<?>) {
+            // The list could be changed in place, so it is copied (with the other fields)
+            return copyFields().get(fieldName);
+        }
+
+        return _Overlay.toOverlayValue(sharedValue);
+    }
+
+    @Override
+    protected boolean isFieldValueSet(final String fieldName) {
+        return getReadFields().containsKey(fieldName);
+    }
+
+    @Override
+    protected boolean isReadOnly(final String fieldName) {
+        return false;
+    }
+
+    @Override
+    protected Object setRawFieldValue(final String fieldName, final Object newValue) {
+        return copyFields().put(fieldName, newValue);
+    }
+
+    private Map<String, Object> copyFields() {
+
+        if (_Fields == null) {
+            final Map<String, Object> sharedFields = _SharedModel.getFieldMap();
+            final Map<String, Object> fields = new LinkedHashMap<String, Object>(sharedFields.size());
+            final Map<String, Object> copiedSharedFields = new HashMap<String, Object>(sharedFields.size());
+            for (final Map.Entry<String, Object> sharedField : sharedFields.entrySet()) {
+                final Object sharedValue = sharedField.getValue();
+                fields.put(sharedField.getKey(), copyValue(sharedValue));
+
+                // Lists are changed in place, so their elements are compared
+                copiedSharedFields.put(sharedField.getKey(),
+                        (sharedValue instanceof List<?>) ? new ArrayList<Object>((List<?>) sharedValue) : sharedValue);
+            }
+
+            _Fields = fields;
+            _CopiedSharedFields = copiedSharedFields;
+        }
+
+        return _Fields;
+    }
+
+    private Object copyValue(final Object sharedValue) {
+
+        if (sharedValue instanceof List<?>) {
+            final List<?> sharedList = (List<?>) sharedValue;
+            final List<Object> list = new ArrayList<Object>(sharedList.size());
+            for (final Object sharedElement : sharedList) {
+                list.add(_Overlay.toOverlayValue(sharedElement));
+            }
+
+            return Observables.observableList(list);
+        }
+
+        return _Overlay.toOverlayValue(sharedValue);
+    }
+
+    private Map<String, Object> getReadFields() {
+        return (_Fields != null) ? _Fields : _SharedModel.getFieldMap();
+    }
+
+    /**
+     * Returns <code>true</code> if committing the copied fields would change
+     * the shared model.
+     */
+    private boolean isChanged() {
+
+        final Map<String, Object> sharedFields = _SharedModel.getFieldMap();
+        for (final String fieldName : _Fields.keySet()) {
+            if (!isEqual(_Overlay.toSharedValue(_Fields.get(fieldName)), sharedFields.get(fieldName))) {
+                return true;
+            }
+        }
+
+        return !_Fields.keySet().containsAll(sharedFields.keySet());
+    }
+
+    private boolean isEqual(final Object value, final Object otherValue) {
+        return (value == otherValue) || ((value != null) && value.equals(otherValue));
+    }
+
+    /**
+     * Returns <code>true</code> if the shared model's fields have changed since
+     * they were copied.
+     */
+    private boolean isSharedModelChanged() {
+
+        final Map<String, Object> sharedFields = _SharedModel.getFieldMap();
+        if (!sharedFields.keySet().equals(_CopiedSharedFields.keySet())) {
+            return true;
+        }
+
+        for (final Map.Entry<String, Object> copiedSharedField : _CopiedSharedFields.entrySet()) {
+            if (!isEqual(copiedSharedField.getValue(), sharedFields.get(copiedSharedField.getKey()))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+}
@@ -35,6 +35,16 @@ public abstract class DelegatingFieldMap extends FieldMap implements DelegatingM
         return _Delegate;
     }
 
+    @Override
+    public boolean isEmpty() {
+        return _Delegate.isEmpty();
+    }
+
+    @Override
+    public int size() {
+        return _Delegate.size();
+    }
+
     @Override
     protected final SortedSet<String> getFieldNames() {
         return new TreeSet<String>(_Delegate.keySet());
@@ -45,6 +55,11 @@ public abstract class DelegatingFieldMap extends FieldMap implements DelegatingM
         return _Delegate.get(fieldName);
     }
 
+    @Override
+    protected boolean isFieldValueSet(String fieldName) {
+        return _Delegate.containsKey(fieldName);
+    }
+
     @Override
     protected boolean isReadOnly(String fieldName) {
         return false;
@@ -0,0 +1,574 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.wrml.core.runtime.system.FieldPrototype;
+import org.wrml.core.runtime.system.Prototype;
+
+/**
+ * A compact field value store, which keeps the values of a model's fields in
+ * a flat array that is indexed by the {@link FieldPrototype#getSlot() slots}
+ * of its {@link Prototype}. This class is the {@link Map} adapter for that
+ * array; field names are translated into slots by the prototype.
+ * 
+ * Boolean, Integer, Long, Double, DateTime (as epoch millis) and Choice (as
+ * ordinal) values are kept unboxed in a parallel long array, indexed by the
+ * field's {@link FieldPrototype#getPrimitiveSlot() primitive slot}. The typed
+ * accessors (e.g. {@link #getLongSlotValue(int)}) read and write that array
+ * directly, while the Map API boxes on the way out.
+ * 
+ * A field that has not been set is distinct from a field that has been set to
+ * <code>null</code> (the former is not a key in the map). Fields that have no
+ * slot in the prototype's layout, if any, are kept in a (lazily created)
+ * overflow map.
+ * 
+ * A frozen copy of the map (see {@link #frozenCopy()}) is immutable; its
+ * slot arrays are final and are never written after construction.
+ */
+public final class FieldSlotMap extends AbstractMap<String, Object> {
+
+    /**
+     * The stand-in for a field that has been set to <code>null</code>.
+     */
+    private static final Object NULL_VALUE = new Object();
+
+    /**
+     * The marker for a field whose value is stored in the primitive slots.
+     */
+    private static final Object PRIMITIVE_VALUE = new Object();
+
+    static boolean toBoolean(final Object value) {
+        if (value instanceof Boolean) {
+            return ((Boolean) value).booleanValue();
+        }
+
+        return toLong(value) != 0;
+    }
+
+    static double toDouble(final Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+
+        return toLong(value);
+    }
+
+    static long toLong(final Object value) {
+
+        if (value == null) {
+            return 0;
+        }
+
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+
+        if (value instanceof Boolean) {
+            return ((Boolean) value).booleanValue() ? 1 : 0;
+        }
+
+        if (value instanceof Date) {
+            return ((Date) value).getTime();
+        }
+
+        if (value instanceof Enum<?>) {
+            return ((Enum<?>) value).ordinal();
+        }
+
+        throw new ClassCastException("The value \"" + value + "\" (of type: \"" + value.getClass()
+                + "\") cannot be converted to a primitive.");
+    }
+
+    private final Prototype _Prototype;
+    private final Object[] _Slots;
+    private final long[] _PrimitiveSlots;
+    private final boolean _Frozen;
+    private int _SetSlotCount;
+
+    private SortedMap<String, Object> _UnslottedFields;
+
+    private transient Set<Map.Entry<String, Object>> _EntrySet;
+
+    public FieldSlotMap(final Prototype prototype) {
+        _Prototype = prototype;
+        _Slots = new Object[prototype.getFieldSlotCount()];
+
+        final int primitiveSlotCount = prototype.getPrimitiveFieldSlotCount();
+        _PrimitiveSlots = (primitiveSlotCount > 0) ? new long[primitiveSlotCount] : null;
+        _Frozen = false;
+    }
+
+    /**
+     * Creates a frozen copy of the field slots.
+     */
+    private FieldSlotMap(final FieldSlotMap fieldSlots) {
+        _Prototype = fieldSlots._Prototype;
+        _Slots = fieldSlots._Slots.clone();
+        _PrimitiveSlots = (fieldSlots._PrimitiveSlots != null) ? fieldSlots._PrimitiveSlots.clone() : null;
+        _SetSlotCount = fieldSlots._SetSlotCount;
+
+        if (fieldSlots._UnslottedFields != null) {
+            _UnslottedFields = Collections.unmodifiableSortedMap(new TreeMap<String, Object>(
+                    fieldSlots._UnslottedFields));
+        }
+
+        _Frozen = true;
+    }
+
+    @Override
+    public void clear() {
+
+        checkNotFrozen();
+
+        for (int slot = 0; slot < _Slots.length; slot++) {
+            _Slots[slot] = null;
+        }
+
+        _SetSlotCount = 0;
+        _UnslottedFields = null;
+    }
+
+    @Override
+    public boolean containsKey(final Object fieldName) {
+
+        final int slot = getSlot(fieldName);
+        if (slot != FieldPrototype.NO_SLOT) {
+            return _Slots[slot] != null;
+        }
+
+        return (_UnslottedFields != null) && _UnslottedFields.containsKey(fieldName);
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        if (_EntrySet == null) {
+            _EntrySet = new EntrySet();
+        }
+
+        return _EntrySet;
+    }
+
+    /**
+     * Returns an immutable copy of the field slots, or this map if it is
+     * already frozen.
+     */
+    public FieldSlotMap frozenCopy() {
+        return _Frozen ? this : new FieldSlotMap(this);
+    }
+
+    @Override
+    public Object get(final Object fieldName) {
+
+        final int slot = getSlot(fieldName);
+        if (slot != FieldPrototype.NO_SLOT) {
+            return getSlotValue(slot);
+        }
+
+        return (_UnslottedFields != null) ? _UnslottedFields.get(fieldName) : null;
+    }
+
+    public boolean getBooleanSlotValue(final int slot) {
+
+        final Object slotValue = _Slots[slot];
+        if (slotValue == PRIMITIVE_VALUE) {
+            return getPrimitiveSlotValue(slot) != 0;
+        }
+
+        return toBoolean(unmask(slotValue));
+    }
+
+    public double getDoubleSlotValue(final int slot) {
+
+        final Object slotValue = _Slots[slot];
+        if (slotValue == PRIMITIVE_VALUE) {
+            final FieldPrototype fieldPrototype = _Prototype.getSlottedFieldPrototype(slot);
+            return fieldPrototype.primitiveSlotValueToDouble(_PrimitiveSlots[fieldPrototype.getPrimitiveSlot()]);
+        }
+
+        return toDouble(unmask(slotValue));
+    }
+
+    public int getIntegerSlotValue(final int slot) {
+        return (int) getLongSlotValue(slot);
+    }
+
+    /**
+     * Get the value stored in the specified slot as a long. DateTime values
+     * are returned as epoch millis and Choice values as ordinals.
+     */
+    public long getLongSlotValue(final int slot) {
+
+        final Object slotValue = _Slots[slot];
+        if (slotValue == PRIMITIVE_VALUE) {
+            final FieldPrototype fieldPrototype = _Prototype.getSlottedFieldPrototype(slot);
+            return fieldPrototype.primitiveSlotValueToLong(_PrimitiveSlots[fieldPrototype.getPrimitiveSlot()]);
+        }
+
+        return toLong(unmask(slotValue));
+    }
+
+    public Prototype getPrototype() {
+        return _Prototype;
+    }
+
+    /**
+     * Get the value stored in the specified slot.
+     * 
+     * @param slot
+     *            The slot, as assigned by the {@link Prototype}.
+     * @return The field's value or <code>null</code> if it is not set.
+     */
+    public Object getSlotValue(final int slot) {
+
+        final Object slotValue = _Slots[slot];
+        if (slotValue == PRIMITIVE_VALUE) {
+            final FieldPrototype fieldPrototype = _Prototype.getSlottedFieldPrototype(slot);
+            return fieldPrototype.fromPrimitiveSlotValue(_PrimitiveSlots[fieldPrototype.getPrimitiveSlot()]);
+        }
+
+        return unmask(slotValue);
+    }
+
+    public boolean isFrozen() {
+        return _Frozen;
+    }
+
+    /**
+     * Returns <code>true</code> if the value in the specified slot is kept
+     * (unboxed) in the primitive slots.
+     */
+    public boolean isPrimitiveSlotValue(final int slot) {
+        return _Slots[slot] == PRIMITIVE_VALUE;
+    }
+
+    public boolean isSlotSet(final int slot) {
+        return _Slots[slot] != null;
+    }
+
+    @Override
+    public Object put(final String fieldName, final Object fieldValue) {
+
+        checkNotFrozen();
+
+        final int slot = getSlot(fieldName);
+        if (slot != FieldPrototype.NO_SLOT) {
+            return setSlotValue(slot, fieldValue);
+        }
+
+        if (_UnslottedFields == null) {
+            _UnslottedFields = new TreeMap<String, Object>();
+        }
+
+        return _UnslottedFields.put(fieldName, fieldValue);
+    }
+
+    @Override
+    public Object remove(final Object fieldName) {
+
+        checkNotFrozen();
+
+        final int slot = getSlot(fieldName);
+        if (slot != FieldPrototype.NO_SLOT) {
+            return removeSlotValue(slot);
+        }
+
+        return (_UnslottedFields != null) ? _UnslottedFields.remove(fieldName) : null;
+    }
+
+    /**
+     * Set the value stored in the specified slot.
+     * 
+     * @param slot
+     *            The slot, as assigned by the {@link Prototype}.
+     * @param fieldValue
+     *            The new value, which may be <code>null</code>.
+     * @return The previous value.
+     */
+    public Object setSlotValue(final int slot, final Object fieldValue) {
+
+        checkNotFrozen();
+
+        final Object oldFieldValue = getSlotValue(slot);
+        if (_Slots[slot] == null) {
+            _SetSlotCount++;
+        }
+
+        final FieldPrototype fieldPrototype = _Prototype.getSlottedFieldPrototype(slot);
+        if (fieldPrototype.isPrimitiveSlotValue(fieldValue)) {
+            _PrimitiveSlots[fieldPrototype.getPrimitiveSlot()] = fieldPrototype.toPrimitiveSlotValue(fieldValue);
+            _Slots[slot] = PRIMITIVE_VALUE;
+        }
+        else {
+            _Slots[slot] = (fieldValue != null) ? fieldValue : NULL_VALUE;
+        }
+
+        return oldFieldValue;
+    }
+
+    public void setBooleanSlotValue(final int slot, final boolean fieldValue) {
+
+        final FieldPrototype fieldPrototype = _Prototype.getSlottedFieldPrototype(slot);
+        if (fieldPrototype.getPrimitiveSlot() == FieldPrototype.NO_SLOT) {
+            setSlotValue(slot, Boolean.valueOf(fieldValue));
+            return;
+        }
+
+        setPrimitiveSlotValue(slot, fieldPrototype, fieldPrototype.longToPrimitiveSlotValue(fieldValue ? 1 : 0));
+    }
+
+    public void setDoubleSlotValue(final int slot, final double fieldValue) {
+
+        final FieldPrototype fieldPrototype = _Prototype.getSlottedFieldPrototype(slot);
+        if (fieldPrototype.getPrimitiveSlot() == FieldPrototype.NO_SLOT) {
+            setSlotValue(slot, Double.valueOf(fieldValue));
+            return;
+        }
+
+        setPrimitiveSlotValue(slot, fieldPrototype, fieldPrototype.doubleToPrimitiveSlotValue(fieldValue));
+    }
+
+    public void setIntegerSlotValue(final int slot, final int fieldValue) {
+
+        final FieldPrototype fieldPrototype = _Prototype.getSlottedFieldPrototype(slot);
+        if (fieldPrototype.getPrimitiveSlot() == FieldPrototype.NO_SLOT) {
+            setSlotValue(slot, Integer.valueOf(fieldValue));
+            return;
+        }
+
+        setPrimitiveSlotValue(slot, fieldPrototype, fieldPrototype.longToPrimitiveSlotValue(fieldValue));
+    }
+
+    /**
+     * Set the value stored in the specified slot from a long. DateTime values
+     * are set as epoch millis and Choice values as ordinals.
+     */
+    public void setLongSlotValue(final int slot, final long fieldValue) {
+
+        final FieldPrototype fieldPrototype = _Prototype.getSlottedFieldPrototype(slot);
+        if (fieldPrototype.getPrimitiveSlot() == FieldPrototype.NO_SLOT) {
+            setSlotValue(slot, Long.valueOf(fieldValue));
+            return;
+        }
+
+        setPrimitiveSlotValue(slot, fieldPrototype, fieldPrototype.longToPrimitiveSlotValue(fieldValue));
+    }
+
+    @Override
+    public int size() {
+        return _SetSlotCount + ((_UnslottedFields != null) ? _UnslottedFields.size() : 0);
+    }
+
+    private void checkNotFrozen() {
+        if (_Frozen) {
+            throw new UnsupportedOperationException("The fields of a frozen model cannot be changed");
+        }
+    }
+
+    private long getPrimitiveSlotValue(final int slot) {
+        return _PrimitiveSlots[_Prototype.getSlottedFieldPrototype(slot).getPrimitiveSlot()];
+    }
+
+    private int getSlot(final Object fieldName) {
+        if (!(fieldName instanceof String)) {
+            return FieldPrototype.NO_SLOT;
+        }
+
+        return _Prototype.getFieldSlot((String) fieldName);
+    }
+
+    private Object removeSlotValue(final int slot) {
+
+        checkNotFrozen();
+
+        final Object oldFieldValue = getSlotValue(slot);
+        if (_Slots[slot] != null) {
+            _SetSlotCount--;
+            _Slots[slot] = null;
+        }
+
+        return oldFieldValue;
+    }
+
+    private void setPrimitiveSlotValue(final int slot, final FieldPrototype fieldPrototype,
+            final long primitiveSlotValue) {
+
+        checkNotFrozen();
+
+        if (_Slots[slot] == null) {
+            _SetSlotCount++;
+        }
+
+        _PrimitiveSlots[fieldPrototype.getPrimitiveSlot()] = primitiveSlotValue;
+        _Slots[slot] = PRIMITIVE_VALUE;
+    }
+
+    private Object unmask(final Object slotValue) {
+        return (slotValue == NULL_VALUE) ? null : slotValue;
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<String, Object>> {
+
+        @Override
+        public void clear() {
+            FieldSlotMap.this.clear();
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return FieldSlotMap.this.size();
+        }
+    }
+
+    /**
+     * Iterates over the set slots (in slot order) and then over the unslotted
+     * fields.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+
+        private int _NextSlot;
+        private int _LastSlot = FieldPrototype.NO_SLOT;
+        private Iterator<Map.Entry<String, Object>> _UnslottedIterator;
+
+        private EntryIterator() {
+            _NextSlot = findSetSlot(0);
+        }
+
+        public boolean hasNext() {
+            if (_NextSlot < _Slots.length) {
+                return true;
+            }
+
+            return getUnslottedIterator().hasNext();
+        }
+
+        public Map.Entry<String, Object> next() {
+
+            if (_NextSlot < _Slots.length) {
+                _LastSlot = _NextSlot;
+                _NextSlot = findSetSlot(_NextSlot + 1);
+                return new SlotEntry(_LastSlot);
+            }
+
+            _LastSlot = FieldPrototype.NO_SLOT;
+
+            final Iterator<Map.Entry<String, Object>> unslottedIterator = getUnslottedIterator();
+            if (!unslottedIterator.hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            return unslottedIterator.next();
+        }
+
+        public void remove() {
+
+            if (_LastSlot != FieldPrototype.NO_SLOT) {
+                removeSlotValue(_LastSlot);
+                _LastSlot = FieldPrototype.NO_SLOT;
+                return;
+            }
+
+            if (_UnslottedIterator == null) {
+                throw new IllegalStateException();
+            }
+
+            _UnslottedIterator.remove();
+        }
+
+        private int findSetSlot(int slot) {
+            while ((slot < _Slots.length) && (_Slots[slot] == null)) {
+                slot++;
+            }
+
+            return slot;
+        }
+
+        private Iterator<Map.Entry<String, Object>> getUnslottedIterator() {
+            if (_UnslottedIterator == null) {
+
+                if (_UnslottedFields != null) {
+                    _UnslottedIterator = _UnslottedFields.entrySet().iterator();
+                }
+                else {
+                    _UnslottedIterator = Collections.<Map.Entry<String, Object>> emptySet().iterator();
+                }
+            }
+
+            return _UnslottedIterator;
+        }
+    }
+
+    private final class SlotEntry implements Map.Entry<String, Object> {
+
+        private final int _Slot;
+
+        private SlotEntry(final int slot) {
+            _Slot = slot;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Map.Entry<?, ?>)) {
+                return false;
+            }
+
+            final Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+            final Object value = getValue();
+            return getKey().equals(other.getKey())
+                    && ((value == null) ? other.getValue() == null : value.equals(other.getValue()));
+        }
+
+        public String getKey() {
+            return _Prototype.getSlottedFieldPrototype(_Slot).getFieldName();
+        }
+
+        public Object getValue() {
+            return getSlotValue(_Slot);
+        }
+
+        @Override
+        public int hashCode() {
+            final Object value = getValue();
+            return getKey().hashCode() ^ ((value == null) ? 0 : value.hashCode());
+        }
+
+        public Object setValue(final Object value) {
+            return setSlotValue(_Slot, value);
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import java.net.URI;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.wrml.core.Hyperlink;
+import org.wrml.core.Model;
+import org.wrml.core.runtime.system.HyperlinkPrototype;
+import org.wrml.core.runtime.system.Prototype;
+
+/**
+ * The lazy backing map for a model's hyperlinks. Its keys are the link
+ * relations of the model's {@link Prototype}, but a rel's
+ * {@link RuntimeHyperlink} is only created (and then kept in the
+ * materialized hyperlinks map) when it is first accessed. Until then, the
+ * rel's link is described by its shared {@link HyperlinkPrototype}.
+ * 
+ * Removing a rel that is defined by the prototype only discards its
+ * materialized hyperlink; the next access creates a new one.
+ * 
+ * A frozen model's map creates all of its hyperlinks up front, and is then
+ * unmodifiable.
+ */
+final class HyperlinkMap extends AbstractMap<URI, Hyperlink> {
+
+    private final Model _Referrer;
+    private final Prototype _Prototype;
+    private volatile Map<URI, Hyperlink> _Hyperlinks;
+    private transient Set<Map.Entry<URI, Hyperlink>> _EntrySet;
+
+    HyperlinkMap(final Model referrer, final Prototype prototype, final Map<URI, Hyperlink> hyperlinks) {
+        _Referrer = referrer;
+        _Prototype = prototype;
+        _Hyperlinks = hyperlinks;
+    }
+
+    @Override
+    public void clear() {
+        if (_Hyperlinks != null) {
+            _Hyperlinks.clear();
+        }
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+
+        if ((_Hyperlinks != null) && _Hyperlinks.containsKey(key)) {
+            return true;
+        }
+
+        return _Prototype.getLinksByRel().containsKey(key);
+    }
+
+    @Override
+    public Set<Map.Entry<URI, Hyperlink>> entrySet() {
+        if (_EntrySet == null) {
+            _EntrySet = new EntrySet();
+        }
+
+        return _EntrySet;
+    }
+
+    /**
+     * Creates (and freezes) the hyperlinks of all of the prototype's rels and
+     * makes this map unmodifiable, so that it is never written to once its
+     * frozen model is shared.
+     */
+    void freeze() {
+
+        for (final URI rel : _Prototype.getLinksByRel().keySet()) {
+            get(rel);
+        }
+
+        final Map<URI, Hyperlink> hyperlinks = new HashMap<URI, Hyperlink>(getHyperlinks());
+        for (final Hyperlink hyperlink : hyperlinks.values()) {
+            if (hyperlink instanceof RuntimeHyperlink) {
+                ((RuntimeHyperlink) hyperlink).freeze();
+            }
+        }
+
+        entrySet();
+        _Hyperlinks = Collections.unmodifiableMap(hyperlinks);
+    }
+
+    @Override
+    public Hyperlink get(final Object key) {
+
+        if (!(key instanceof URI)) {
+            return null;
+        }
+
+        final URI rel = (URI) key;
+
+        Hyperlink hyperlink = getMaterializedHyperlink(rel);
+        if (hyperlink != null) {
+            return hyperlink;
+        }
+
+        final HyperlinkPrototype hyperlinkPrototype = _Prototype.getHyperlinkPrototype(rel);
+        if (hyperlinkPrototype == null) {
+            return null;
+        }
+
+        hyperlink = new RuntimeHyperlink(_Referrer, hyperlinkPrototype);
+        getHyperlinks().put(rel, hyperlink);
+        return hyperlink;
+    }
+
+    /**
+     * Returns the hyperlink for the specified rel, if it has already been
+     * created, without creating it otherwise.
+     */
+    public Hyperlink getMaterializedHyperlink(final URI rel) {
+        return (_Hyperlinks != null) ? _Hyperlinks.get(rel) : null;
+    }
+
+    /**
+     * Returns the hyperlinks that have been created so far.
+     */
+    public Map<URI, Hyperlink> getMaterializedHyperlinks() {
+        if (_Hyperlinks == null) {
+            return Collections.emptyMap();
+        }
+
+        return Collections.unmodifiableMap(_Hyperlinks);
+    }
+
+    public Prototype getPrototype() {
+        return _Prototype;
+    }
+
+    @Override
+    public Hyperlink put(final URI rel, final Hyperlink hyperlink) {
+        final Hyperlink oldHyperlink = get(rel);
+        getHyperlinks().put(rel, hyperlink);
+        return oldHyperlink;
+    }
+
+    @Override
+    public Hyperlink remove(final Object key) {
+        return (_Hyperlinks != null) ? _Hyperlinks.remove(key) : null;
+    }
+
+    @Override
+    public int size() {
+
+        final Set<URI> rels = _Prototype.getLinksByRel().keySet();
+        int size = rels.size();
+
+        if (_Hyperlinks != null) {
+            for (final URI rel : _Hyperlinks.keySet()) {
+                if (!rels.contains(rel)) {
+                    size++;
+                }
+            }
+        }
+
+        return size;
+    }
+
+    private Map<URI, Hyperlink> getHyperlinks() {
+        if (_Hyperlinks == null) {
+            _Hyperlinks = new HashMap<URI, Hyperlink>();
+        }
+
+        return _Hyperlinks;
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<URI, Hyperlink>> {
+
+        private final Iterator<URI> _RelIterator;
+        private URI _LastRel;
+
+        private EntryIterator() {
+
+            // Snapshot the rels, since iterating materializes the hyperlinks
+            final Set<URI> prototypeRels = _Prototype.getLinksByRel().keySet();
+            final List<URI> rels = new ArrayList<URI>(prototypeRels);
+            if (_Hyperlinks != null) {
+                for (final URI rel : _Hyperlinks.keySet()) {
+                    if (!prototypeRels.contains(rel)) {
+                        rels.add(rel);
+                    }
+                }
+            }
+
+            _RelIterator = rels.iterator();
+        }
+
+        public boolean hasNext() {
+            return _RelIterator.hasNext();
+        }
+
+        public Map.Entry<URI, Hyperlink> next() {
+            _LastRel = _RelIterator.next();
+            return new AbstractMap.SimpleImmutableEntry<URI, Hyperlink>(_LastRel, get(_LastRel));
+        }
+
+        public void remove() {
+            if (_LastRel == null) {
+                throw new IllegalStateException();
+            }
+
+            HyperlinkMap.this.remove(_LastRel);
+            _LastRel = null;
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<URI, Hyperlink>> {
+
+        @Override
+        public Iterator<Map.Entry<URI, Hyperlink>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return HyperlinkMap.this.size();
+        }
+    }
+
+}
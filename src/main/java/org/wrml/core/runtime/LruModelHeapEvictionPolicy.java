@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.wrml.core.Model;
+
+/**
+ * The least recently used (LRU) {@link ModelHeapEvictionPolicy}, which is the
+ * ModelHeap's default.
+ */
+public final class LruModelHeapEvictionPolicy implements ModelHeapEvictionPolicy {
+
+    public static final ModelHeapEvictionPolicy.Factory FACTORY = new ModelHeapEvictionPolicy.Factory() {
+
+        public ModelHeapEvictionPolicy newEvictionPolicy(ModelHeapShard shard) {
+            return new LruModelHeapEvictionPolicy();
+        }
+    };
+
+    /**
+     * The models in access order, least recently used first.
+     */
+    private final LinkedHashMap<Model, Boolean> _Models;
+
+    public LruModelHeapEvictionPolicy() {
+        _Models = new LinkedHashMap<Model, Boolean>(16, 0.75f, true);
+    }
+
+    public void modelAccessed(Model model) {
+        _Models.put(model, Boolean.TRUE);
+    }
+
+    public void modelRemoved(Model model) {
+        _Models.remove(model);
+    }
+
+    public Model selectVictim() {
+        final Iterator<Model> models = _Models.keySet().iterator();
+        return (models.hasNext()) ? models.next() : null;
+    }
+
+}
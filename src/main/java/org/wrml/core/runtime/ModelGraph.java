@@ -17,6 +17,9 @@
 package org.wrml.core.runtime;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Stack;
 
 import org.wrml.core.Model;
@@ -24,6 +27,10 @@ import org.wrml.core.Model;
 /**
  * A reflective graph-like structure that mirrors a model/field initialization
  * stream.
+ * 
+ * The graph owns the models that are created within it, acting as their
+ * arena; when the graph (e.g. a response that has been read) is no longer
+ * needed, all of its models can be {@link #release() released} in one call.
  */
 public final class ModelGraph extends RuntimeObject {
 
@@ -48,6 +55,8 @@ public final class ModelGraph extends RuntimeObject {
     private int _MaxDepth;
     private int _CurrentDepth;
 
+    private List<Model> _Models;
+
     public ModelGraph(Context context) {
         super(context);
         _InitCursor = new Stack<Model>();
@@ -75,6 +84,18 @@ public final class ModelGraph extends RuntimeObject {
         return _MaxDepth;
     }
 
+    /**
+     * Returns the models that have been created within this graph (and not
+     * yet released).
+     */
+    public List<Model> getModels() {
+        if (_Models == null) {
+            return Collections.emptyList();
+        }
+
+        return Collections.unmodifiableList(_Models);
+    }
+
     public Model getRoot() {
         return _Root;
     }
@@ -105,31 +126,6 @@ public final class ModelGraph extends RuntimeObject {
         _CurrentDepth--;
         _Initialized = _InitCursor.isEmpty();
 
-        final Model parentModel = getInitCursorFocus();
-        final URI parentSchemaId = (parentModel != null) ? parentModel.getSchemaId() : null;
-        final String parentModelValueString = (parentSchemaId != null) ? " (" + parentModel.hashCode()
-                + ") { schema : \"" + parentSchemaId + "\" }" : null;
-
-        if (isInitialized()) {
-            System.out.print("W");
-            System.out.print(".");
-            System.out.print("R");
-            System.out.print(".");
-            System.out.print("M");
-            System.out.print(".");
-            System.out.print("L");
-            System.out.print(".");
-            System.out.println(" ----> Initialized a Model Graph (" + this.hashCode() + ") <--- new Model ("
-                    + blur.hashCode() + ") { schema : \"" + blur.getSchemaId() + "\", name : \""
-                    + blur.getFieldValue("name") + "\", parentModel : " + parentModelValueString + " }");
-        }
-        else {
-            System.out.println("Model Graph (" + this.hashCode() + ") <--- new Model (" + blur.hashCode()
-                    + ") { schema : \"" + blur.getSchemaId() + "\", name : \"" + blur.getFieldValue("name")
-                    + "\", parentModel : " + parentModelValueString + " }");
-
-        }
-
         return blur;
     }
 
@@ -152,6 +148,12 @@ public final class ModelGraph extends RuntimeObject {
             }
         }
 
+        if (_Models == null) {
+            _Models = new ArrayList<Model>();
+        }
+
+        _Models.add(newFocusModel);
+
         _InitCursor.push(newFocusModel);
         _CurrentDepth++;
         if (_CurrentDepth > _MaxDepth) {
@@ -159,17 +161,25 @@ public final class ModelGraph extends RuntimeObject {
         }
 
         // TODO: Build a reflective graph-like structure that mirrors the model/field stream.
-        final String relationshipName = getInitCursorFocusRelationShipName();
+    }
 
-        final URI parentSchemaId = (parentModel != null) ? parentModel.getSchemaId() : null;
-        final String parentModelValueString = (parentSchemaId != null) ? " (" + parentModel.hashCode()
-                + ") { schema : \"" + parentSchemaId + "\" }" : null;
+    /**
+     * Releases all of the models that have been created within this graph, in
+     * bulk. The models are removed from the model heap and their event
+     * sources, listeners and hyperlinks are released; much like freeing each
+     * of them, but without firing the per-model <code>modelFreed</code>
+     * events. The released models should not be used afterwards.
+     */
+    public void release() {
+
+        if (_Models == null) {
+            return;
+        }
 
-        System.out.println("Model Graph (" + this.hashCode() + ") ----> new Model (" + newFocusModel.hashCode()
-                + ") { schema : \"" + newFocusModel.getSchemaId() + "\", name : \""
-                + newFocusModel.getFieldValue("name") + "\", id : \"" + newFocusModel.getFieldValue("id")
-                + "\", rel : \"" + relationshipName + "\", parentModel : " + parentModelValueString + " }");
+        final List<Model> models = _Models;
+        _Models = null;
 
+        getContext().getModelHeap().releaseModels(models);
     }
 
     public void setInitCursorFocusRelationShipName(String initCursorFocusRelationShipName) {
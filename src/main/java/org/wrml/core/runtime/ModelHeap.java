@@ -16,12 +16,24 @@
 
 package org.wrml.core.runtime;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Type;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.wrml.core.Hyperlink;
 import org.wrml.core.Model;
 import org.wrml.core.util.observable.ObservableMap;
@@ -50,34 +62,230 @@ import org.wrml.core.util.observable.Observables;
  * providing an easy and logical way to access a Model that is "alive" in our
  * local runtime, in the area that most programming platforms might call
  * "the heap".
+ * 
+ * The ModelHeap (and its shards) may be used by concurrent threads.
+ * 
+ * By default the ModelHeap is unbounded. A (global) capacity may be set for
+ * the heap and/or for its individual shards, in which case models are evicted
+ * according to each shard's {@link ModelHeapEvictionPolicy}.
+ * 
+ * The heap and its shards keep counts of their models (and of the operations
+ * on them), which may be pulled directly or exported as JMX MBeans.
+ * 
+ * The heap indexes the heap ids of its identified models, across all of its
+ * shards, so that a model may be looked up by its id alone (without knowing
+ * its native type) and the models whose ids share a prefix may be scanned.
+ * 
+ * The heap's identified models (e.g. its schemas, APIs and link templates) may
+ * be written to a snapshot file, at shutdown or on demand, which may then be
+ * loaded (e.g. by the next process, at startup) to warm up the heap without
+ * refetching the models.
  */
-public final class ModelHeap extends RuntimeObject {
+public final class ModelHeap extends RuntimeObject implements ModelHeapMXBean {
+
+    /**
+     * The capacity of a heap (or shard) that has no limit.
+     */
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    private static final Logger log = LoggerFactory.getLogger(ModelHeap.class);
+
+    private static final String MBEAN_DOMAIN = "org.wrml.core.runtime";
 
     private final ObservableMap<Type, ModelHeapShard> _Shards;
 
+    private volatile int _Capacity = UNBOUNDED;
+    private volatile int _ShardCapacity = UNBOUNDED;
+    private volatile ModelHeapEvictionPolicy.Factory _EvictionPolicyFactory = LruModelHeapEvictionPolicy.FACTORY;
+    private final Map<Type, Integer> _OffHeapHotModelCapacities;
+    private final ModelHeapIdIndex _IdIndex;
+
+    /** Serializes the overlays' commits to the shared models */
+    private final Object _OverlayCommitLock;
+
+    private MBeanServer _MBeanServer;
+    private volatile ModelHeapSnapshot _Snapshot;
+    private volatile boolean _ObservingNewModels = true;
+
     public ModelHeap(Context context) {
         super(context);
-        _Shards = Observables.observableMap(new HashMap<Type, ModelHeapShard>());
+        _Shards = Observables.observableMap(new ConcurrentHashMap<Type, ModelHeapShard>());
+        _OffHeapHotModelCapacities = new ConcurrentHashMap<Type, Integer>();
+        _IdIndex = new ModelHeapIdIndex();
+        _OverlayCommitLock = new Object();
+    }
+
+    /**
+     * Returns the maximum number of models held by the heap (across all of its
+     * shards), or {@link #UNBOUNDED}.
+     */
+    public int getCapacity() {
+        return _Capacity;
+    }
+
+    /**
+     * Returns a rough estimate of the number of bytes held by the heap's
+     * models.
+     * 
+     * @see ModelHeapShard#getEstimatedBytes()
+     */
+    public long getEstimatedBytes() {
+        long estimatedBytes = 0;
+        for (final ModelHeapShard shard : _Shards.values()) {
+            estimatedBytes += shard.getEstimatedBytes();
+        }
+
+        return estimatedBytes;
+    }
+
+    public ModelHeapEvictionPolicy.Factory getEvictionPolicyFactory() {
+        return _EvictionPolicyFactory;
+    }
+
+    /**
+     * Returns the identified model with the specified heap id, from whichever
+     * shard holds it, or <code>null</code> if there is no such model.
+     */
+    public Model getModel(final URI heapId) {
+
+        final ModelHeapShard shard = _IdIndex.getShard(heapId);
+        if (shard == null) {
+            return null;
+        }
+
+        return shard.get(heapId);
+    }
+
+    /**
+     * Returns the heap ids, of the identified models in all shards, that
+     * start with the prefix (e.g. <code>http://example.com/orders/123/</code>)
+     * in order.
+     */
+    public List<URI> getModelIds(final String heapIdPrefix) {
+        return Collections.unmodifiableList(_IdIndex.getIds(heapIdPrefix));
+    }
+
+    /**
+     * Returns the identified models, from all shards, whose heap ids start
+     * with the prefix, in heap id order.
+     * 
+     * @see #getModelIds(String)
+     */
+    public List<Model> getModels(final String heapIdPrefix) {
+
+        final List<Model> models = new ArrayList<Model>();
+        for (final URI heapId : _IdIndex.getIds(heapIdPrefix)) {
+            final Model model = getModel(heapId);
+            if (model != null) {
+                models.add(model);
+            }
+        }
+
+        return models;
     }
 
     public ModelHeapShard getShard(final Type nativeType) {
 
-        ModelHeapShard shard;
-        if (!_Shards.containsKey(nativeType)) {
-            shard = new ModelHeapShard(getContext(), nativeType);
-            _Shards.put(nativeType, shard);
+        ModelHeapShard shard = _Shards.get(nativeType);
+        if (shard != null) {
+            return shard;
         }
-        else {
+
+        // Create the shard at most once, the (concurrent) lookup above doesn't need the lock
+        synchronized (_Shards) {
             shard = _Shards.get(nativeType);
+            if (shard == null) {
+                final Integer hotModelCapacity = _OffHeapHotModelCapacities.get(nativeType);
+                if (hotModelCapacity != null) {
+                    shard = new ModelHeapShard(getContext(), nativeType, hotModelCapacity);
+                }
+                else {
+                    shard = new ModelHeapShard(getContext(), nativeType);
+                }
+
+                if (_ShardCapacity != UNBOUNDED) {
+                    shard.setCapacity(_ShardCapacity);
+                }
+
+                if (_Snapshot != null) {
+                    shard.loadSnapshot(_Snapshot);
+                }
+
+                if (_MBeanServer != null) {
+                    try {
+                        registerShardMBean(shard);
+                    }
+                    catch (final JMException e) {
+                        throw new IllegalStateException("Unable to register the MBean of the \"" + nativeType
+                                + "\" shard", e);
+                    }
+                }
+
+                _Shards.put(nativeType, shard);
+            }
         }
 
         return shard;
     }
 
+    /**
+     * Returns the default capacity of each shard, or {@link #UNBOUNDED}.
+     */
+    public int getShardCapacity() {
+        return _ShardCapacity;
+    }
+
+    public int getShardCount() {
+        return _Shards.size();
+    }
+
     public ObservableMap<Type, ModelHeapShard> getShards() {
         return _Shards;
     }
 
+    /**
+     * Returns the number of models held by the heap (across all of its
+     * shards).
+     */
+    public int getSize() {
+        int size = 0;
+        for (final ModelHeapShard shard : _Shards.values()) {
+            size += shard.getSize();
+        }
+
+        return size;
+    }
+
+    /**
+     * Returns <code>true</code> if new models are created in their observable
+     * form, which is the default.
+     * 
+     * @see #setObservingNewModels(boolean)
+     */
+    public boolean isObservingNewModels() {
+        return _ObservingNewModels;
+    }
+
+    /**
+     * Loads the snapshot file, which is memory-mapped. The snapshot's models
+     * are lazily hydrated, as they are looked up in their shards (including
+     * the shards that are created after the snapshot is loaded). Models that
+     * are already in the heap take precedence over the snapshot's.
+     * 
+     * @see #writeSnapshot(File)
+     */
+    public void loadSnapshot(final File file) throws IOException {
+
+        final ModelHeapSnapshot snapshot = ModelHeapSnapshot.map(file);
+
+        synchronized (_Shards) {
+            _Snapshot = snapshot;
+            for (final ModelHeapShard shard : _Shards.values()) {
+                shard.loadSnapshot(snapshot);
+            }
+        }
+    }
+
     public Model newModel(final java.lang.reflect.Type nativeType, final ModelGraph modelGraph) {
         return newModel(nativeType, modelGraph, null, null);
     }
@@ -85,35 +293,312 @@ public final class ModelHeap extends RuntimeObject {
     public Model newModel(final java.lang.reflect.Type nativeType, final ModelGraph modelGraph, FieldMap fieldMap,
             Map<URI, Hyperlink> linkMap) {
 
-        if (fieldMap == null) {
-            // Build the default backing map for fields
-            fieldMap = new ModelFieldMap(modelGraph.getContext(), new TreeMap<String, Object>());
-        }
+        final RuntimeModel runtimeModel = createModel(nativeType, modelGraph, fieldMap, linkMap);
+
+        // Put everything in its right place
+        final Model model = shardModel(runtimeModel);
+
+        // Return the most appropriate model
+        return model;
+    }
+
+    /**
+     * Returns a new copy-on-write overlay of this heap, which keeps a
+     * request's changes private until they are committed (or discarded) at the
+     * end of the request.
+     */
+    public ModelHeapOverlay newOverlay() {
+        return new ModelHeapOverlay(this);
+    }
+
+    /**
+     * Creates a new model without adding it to its shard.
+     */
+    RuntimeModel createModel(final java.lang.reflect.Type nativeType, final ModelGraph modelGraph, FieldMap fieldMap,
+            Map<URI, Hyperlink> linkMap) {
 
-        if (linkMap == null) {
-            // Build the default backing map for links
-            linkMap = new HashMap<URI, Hyperlink>();
+        if (fieldMap == null) {
+            // Build the default backing map for fields, which stores the values in the prototype's field slots
+            final Context context = modelGraph.getContext();
+            final FieldSlotMap fieldSlots = new FieldSlotMap(context.getPrototype(nativeType));
+            fieldMap = new ModelFieldMap(context, fieldSlots);
         }
 
         // Create a model new model 
         final RuntimeModel runtimeModel = new RuntimeModel(modelGraph.getContext(), nativeType, modelGraph, fieldMap,
-                linkMap);
+                linkMap, _ObservingNewModels);
 
         if (fieldMap instanceof ModelFieldMap) {
             // Tie the knot
             ((ModelFieldMap) fieldMap).setModel(runtimeModel);
         }
 
-        // Put everything in its right place
-        final Model model = shardModel(runtimeModel);
+        return runtimeModel;
+    }
 
-        // Return the most appropriate model
-        return model;
+    /**
+     * Registers the heap, and each of its (existing and future) shards, as
+     * MBeans with the specified server.
+     * 
+     * @see ModelHeapMXBean
+     * @see ModelHeapShardMXBean
+     */
+    public void registerMBeans(final MBeanServer mbeanServer) throws JMException {
+
+        synchronized (_Shards) {
+
+            if (_MBeanServer != null) {
+                throw new IllegalStateException("The ModelHeap's MBeans have already been registered");
+            }
+
+            mbeanServer.registerMBean(this, getObjectName());
+            _MBeanServer = mbeanServer;
+
+            for (final ModelHeapShard shard : _Shards.values()) {
+                registerShardMBean(shard);
+            }
+        }
+    }
+
+    /**
+     * Sets the maximum number of models held by the heap (across all of its
+     * shards), or {@link #UNBOUNDED}. When the heap is over capacity, models
+     * are evicted from its largest shard.
+     */
+    public void setCapacity(final int capacity) {
+
+        if (capacity < 0) {
+            throw new IllegalArgumentException("The capacity cannot be negative");
+        }
+
+        _Capacity = capacity;
+        evictOverflow();
+    }
+
+    /**
+     * Sets the factory of the shards' eviction policies; the
+     * {@link LruModelHeapEvictionPolicy} is the default, and the
+     * {@link TinyLfuModelHeapEvictionPolicy} suits the workloads in which
+     * scans over many models (each used once) would otherwise flush out the
+     * models that are used over and over. The factory is used
+     * by each shard when it first needs to evict, so it should be set before
+     * any capacity is.
+     */
+    public void setEvictionPolicyFactory(final ModelHeapEvictionPolicy.Factory evictionPolicyFactory) {
+
+        if (evictionPolicyFactory == null) {
+            throw new NullPointerException("Eviction policy factory cannot be null");
+        }
+
+        _EvictionPolicyFactory = evictionPolicyFactory;
+    }
+
+    /**
+     * Configures the (not yet created) shard of the specified type to keep
+     * its identified models off of the Java heap, in a compact serialized
+     * form, with only the most recently used <code>hotModelCapacity</code>
+     * models kept on-heap. This is meant for types with very large model
+     * populations.
+     * 
+     * @see OffHeapModelMap
+     */
+    public void setOffHeapStorage(final Type nativeType, final int hotModelCapacity) {
+
+        if (hotModelCapacity < 1) {
+            throw new IllegalArgumentException("The hot model capacity must be positive");
+        }
+
+        synchronized (_Shards) {
+            if (_Shards.containsKey(nativeType)) {
+                throw new IllegalStateException("The shard for \"" + nativeType + "\" has already been created");
+            }
+
+            _OffHeapHotModelCapacities.put(nativeType, hotModelCapacity);
+        }
+    }
+
+    /**
+     * Sets the capacity of each of the heap's shards (or
+     * {@link #UNBOUNDED}), both existing and yet to be created.
+     */
+    public void setShardCapacity(final int shardCapacity) {
+
+        if (shardCapacity < 0) {
+            throw new IllegalArgumentException("The shard capacity cannot be negative");
+        }
+
+        _ShardCapacity = shardCapacity;
+        for (final ModelHeapShard shard : _Shards.values()) {
+            shard.setCapacity(shardCapacity);
+        }
+    }
+
+    /**
+     * Sets whether new models are created in their observable form. Turning
+     * this off (e.g. for bulk, read-only workloads like exports and cache
+     * fills) creates models without the observable field map wrapper or any
+     * listener wiring, which the heap doesn't listen to either. A model is
+     * upgraded to the observable form when its first listener is added.
+     * 
+     * Either way, a model that is assigned an id is identified by its heap
+     * shard.
+     */
+    public void setObservingNewModels(final boolean observingNewModels) {
+        _ObservingNewModels = observingNewModels;
+    }
+
+    /**
+     * Unregisters the heap's (and its shards') MBeans.
+     */
+    public void unregisterMBeans() throws JMException {
+
+        synchronized (_Shards) {
+
+            if (_MBeanServer == null) {
+                return;
+            }
+
+            for (final ModelHeapShard shard : _Shards.values()) {
+                final ObjectName shardObjectName = getShardObjectName(shard);
+                if (_MBeanServer.isRegistered(shardObjectName)) {
+                    _MBeanServer.unregisterMBean(shardObjectName);
+                }
+            }
+
+            _MBeanServer.unregisterMBean(getObjectName());
+            _MBeanServer = null;
+        }
+    }
+
+    /**
+     * Writes a snapshot of the heap's identified models (that can be
+     * serialized) to the file, including the models of a loaded snapshot that
+     * have not been hydrated yet.
+     * 
+     * @see #loadSnapshot(File)
+     */
+    public void writeSnapshot(final File file) throws IOException {
+        ModelHeapSnapshot.write(_Shards.values(), file);
+    }
+
+    /**
+     * Writes a snapshot of the heap to the file when the JVM shuts down.
+     * 
+     * @see #writeSnapshot(File)
+     */
+    public void writeSnapshotOnShutdown(final File file) {
+
+        Runtime.getRuntime().addShutdownHook(new Thread("ModelHeap snapshot writer") {
+
+            @Override
+            public void run() {
+                try {
+                    writeSnapshot(file);
+                }
+                catch (final IOException e) {
+                    // There is no caller left to propagate to during shutdown
+                    log.error("Unable to write the ModelHeap snapshot to: " + file, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Called by a bounded shard after a model has been added to it.
+     */
+    void modelAdded(final ModelHeapShard shard) {
+        evictOverflow();
+    }
+
+    ModelHeapIdIndex getIdIndex() {
+        return _IdIndex;
+    }
+
+    Object getOverlayCommitLock() {
+        return _OverlayCommitLock;
+    }
+
+    /**
+     * Releases the models in bulk: each shard's registrations are removed in
+     * one pass and then each model's event sources and hyperlinks are
+     * released (without firing any events).
+     * 
+     * @see ModelGraph#release()
+     */
+    void releaseModels(final List<Model> models) {
+
+        final Map<Type, List<RuntimeModel>> modelsByType = new HashMap<Type, List<RuntimeModel>>();
+        for (final Model model : models) {
+            final RuntimeModel runtimeModel = (RuntimeModel) model.getDynamicInterface();
+            List<RuntimeModel> typeModels = modelsByType.get(runtimeModel.getNativeType());
+            if (typeModels == null) {
+                typeModels = new ArrayList<RuntimeModel>();
+                modelsByType.put(runtimeModel.getNativeType(), typeModels);
+            }
+
+            typeModels.add(runtimeModel);
+        }
+
+        for (final Type nativeType : modelsByType.keySet()) {
+            final ModelHeapShard shard = _Shards.get(nativeType);
+            if (shard != null) {
+                shard.releaseModels(modelsByType.get(nativeType));
+            }
+        }
+
+        for (final List<RuntimeModel> typeModels : modelsByType.values()) {
+            for (final RuntimeModel runtimeModel : typeModels) {
+                runtimeModel.release();
+            }
+        }
     }
 
-    private Model shardModel(RuntimeModel model) {
+    ModelHeapEvictionPolicy newEvictionPolicy(final ModelHeapShard shard) {
+        return _EvictionPolicyFactory.newEvictionPolicy(shard);
+    }
+
+    Model shardModel(RuntimeModel model) {
         final ModelHeapShard shard = getShard(model.getNativeType());
         return shard.add(model);
     }
 
+    /**
+     * Evicts models, from the largest shard first, while the heap is over
+     * capacity.
+     */
+    private void evictOverflow() {
+
+        final int capacity = _Capacity;
+        if (capacity == UNBOUNDED) {
+            return;
+        }
+
+        while (getSize() > capacity) {
+
+            ModelHeapShard largestShard = null;
+            for (final ModelHeapShard shard : _Shards.values()) {
+                if ((largestShard == null) || (shard.getSize() > largestShard.getSize())) {
+                    largestShard = shard;
+                }
+            }
+
+            if ((largestShard == null) || (largestShard.evict() == null)) {
+                break;
+            }
+        }
+    }
+
+    private ObjectName getObjectName() throws MalformedObjectNameException {
+        return new ObjectName(MBEAN_DOMAIN + ":type=ModelHeap,heap=" + System.identityHashCode(this));
+    }
+
+    private ObjectName getShardObjectName(final ModelHeapShard shard) throws MalformedObjectNameException {
+        return new ObjectName(MBEAN_DOMAIN + ":type=ModelHeapShard,heap=" + System.identityHashCode(this)
+                + ",nativeType=" + ObjectName.quote(shard.getNativeTypeName()));
+    }
+
+    private void registerShardMBean(final ModelHeapShard shard) throws JMException {
+        _MBeanServer.registerMBean(shard, getShardObjectName(shard));
+    }
+
 }
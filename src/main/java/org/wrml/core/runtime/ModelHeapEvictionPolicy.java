@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import org.wrml.core.Model;
+
+/**
+ * Decides which of a {@link ModelHeapShard}'s models to evict, once the shard
+ * (or the {@link ModelHeap} as a whole) holds more models than its capacity
+ * allows. Each bounded shard has its own policy instance, which is only ever
+ * called while the shard holds its eviction lock; so implementations need not
+ * be thread-safe.
+ * 
+ * The models passed to a policy are always the
+ * {@link Model#getDynamicInterface() dynamic interfaces}.
+ * 
+ * @see ModelHeap#setEvictionPolicyFactory(ModelHeapEvictionPolicy.Factory)
+ */
+public interface ModelHeapEvictionPolicy {
+
+    /**
+     * Called when the model is added to, or looked up in, the shard.
+     */
+    public void modelAccessed(Model model);
+
+    /**
+     * Called when the model is removed from the shard (evicted or otherwise).
+     */
+    public void modelRemoved(Model model);
+
+    /**
+     * Returns the model that should be evicted next, or <code>null</code> if
+     * there is none.
+     */
+    public Model selectVictim();
+
+    /**
+     * Creates the eviction policy of each bounded shard.
+     */
+    public interface Factory {
+
+        public ModelHeapEvictionPolicy newEvictionPolicy(ModelHeapShard shard);
+    }
+}
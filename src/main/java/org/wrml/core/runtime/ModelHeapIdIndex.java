@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The {@link ModelHeap}'s global index of its identified models' heap ids,
+ * across all of its shards. A heap id maps to the shard that holds its model
+ * so that the model can be looked up without knowing its native type.
+ * 
+ * The index is kept by the shards' heap id maps (see {@link SnapshotModelMap})
+ * as models are identified, removed and freed. An id is looked up in a
+ * concurrent hash map, while the ids are also kept (as strings) in a
+ * concurrent skip list for ordered prefix scans.
+ * 
+ * If (models of) several shards are identified by the same heap id, then the
+ * index maps it to the shard that most recently identified it.
+ */
+final class ModelHeapIdIndex {
+
+    private final ConcurrentHashMap<URI, ModelHeapShard> _Shards;
+    private final ConcurrentSkipListMap<String, URI> _OrderedIds;
+
+    ModelHeapIdIndex() {
+        _Shards = new ConcurrentHashMap<URI, ModelHeapShard>();
+        _OrderedIds = new ConcurrentSkipListMap<String, URI>();
+    }
+
+    void add(final URI heapId, final ModelHeapShard shard) {
+        if (_Shards.put(heapId, shard) == null) {
+            _OrderedIds.put(heapId.toString(), heapId);
+        }
+    }
+
+    /**
+     * Returns the ids that start with the prefix, in (string) order.
+     */
+    List<URI> getIds(final String heapIdPrefix) {
+
+        // The ids that start with the prefix are the ones that sort from it on, up to the first one that doesn't
+        final List<URI> ids = new ArrayList<URI>();
+        for (final Map.Entry<String, URI> orderedId : _OrderedIds.tailMap(heapIdPrefix, true).entrySet()) {
+            if (!orderedId.getKey().startsWith(heapIdPrefix)) {
+                break;
+            }
+
+            ids.add(orderedId.getValue());
+        }
+
+        return ids;
+    }
+
+    ModelHeapShard getShard(final URI heapId) {
+        return _Shards.get(heapId);
+    }
+
+    /**
+     * Removes the heap id if it is mapped to the shard.
+     */
+    void remove(final URI heapId, final ModelHeapShard shard) {
+
+        if (!_Shards.remove(heapId, shard)) {
+            return;
+        }
+
+        final String orderedId = heapId.toString();
+        _OrderedIds.remove(orderedId);
+
+        // Another shard may have (re)added the id in the meantime
+        if (_Shards.containsKey(heapId)) {
+            _OrderedIds.put(orderedId, heapId);
+        }
+    }
+
+    int size() {
+        return _Shards.size();
+    }
+
+}
@@ -0,0 +1,292 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.wrml.core.Model;
+import org.wrml.core.util.observable.Observables;
+
+/**
+ * A copy-on-write view of the (shared) ModelHeap for the lifetime of a single
+ * request. Models are read through to the shared heap, and a shared model's
+ * fields are copied into its overlay model only when one of them is set, so
+ * the request's changes stay private until they are committed to the shared
+ * models (or discarded) at the end of the request.
+ * 
+ * An overlay belongs to a single request (thread) and isn't thread-safe.
+ * Shared models that are frozen may be overlaid, but changes to them can't be
+ * committed.
+ * 
+ * @see ModelHeap#newOverlay()
+ */
+public final class ModelHeapOverlay extends RuntimeObject {
+
+    private final ModelHeap _Heap;
+
+    /** The overlay models, by the (dynamic interface of the) shared models that they overlay */
+    private final Map<RuntimeModel, RuntimeModel> _OverlayModels;
+
+    /** The copy-on-write field maps, by overlay model */
+    private final Map<RuntimeModel, CopyOnWriteFieldMap> _OverlayFieldMaps;
+
+    /** The models that were created by the request, which are added to the shared heap on commit */
+    private final List<RuntimeModel> _NewModels;
+
+    private boolean _Closed;
+
+    ModelHeapOverlay(final ModelHeap heap) {
+        super(heap.getContext());
+        _Heap = heap;
+        _OverlayModels = new IdentityHashMap<RuntimeModel, RuntimeModel>();
+        _OverlayFieldMaps = new IdentityHashMap<RuntimeModel, CopyOnWriteFieldMap>();
+        _NewModels = new ArrayList<RuntimeModel>();
+    }
+
+    /**
+     * Writes the request's changes to the shared models, adds the request's
+     * new models to the shared heap and then closes this overlay.
+     * 
+     * The commit is all or nothing: if any of the changed shared models has
+     * been frozen, or changed by another commit since the request copied its
+     * fields, an {@link IllegalStateException} is thrown before any shared
+     * model is changed (and the overlay stays open, so it can be discarded).
+     * Commits to the same heap are serialized.
+     * 
+     * Each changed shared model's fields are replaced at once, so a thread
+     * that reads them (without a lock) never sees a partial commit. The
+     * shared models' listeners hear of the changes after the commit has
+     * released its lock.
+     */
+    public void commit() {
+
+        checkNotClosed();
+
+        final Map<RuntimeModel, Map<String, Object>> replacedFields;
+        replacedFields = new IdentityHashMap<RuntimeModel, Map<String, Object>>();
+
+        synchronized (_Heap.getOverlayCommitLock()) {
+
+            // Check every overlay model before changing any of the shared ones
+            for (final CopyOnWriteFieldMap overlayFieldMap : _OverlayFieldMaps.values()) {
+                overlayFieldMap.checkCommittable();
+            }
+
+            for (final CopyOnWriteFieldMap overlayFieldMap : _OverlayFieldMaps.values()) {
+                final Map<String, Object> oldFields = overlayFieldMap.commit();
+                if (oldFields != null) {
+                    replacedFields.put(overlayFieldMap.getSharedModel(), oldFields);
+                }
+            }
+        }
+
+        for (final Map.Entry<RuntimeModel, Map<String, Object>> replacedField : replacedFields.entrySet()) {
+            replacedField.getKey().fieldsReplaced(replacedField.getValue());
+        }
+
+        for (final RuntimeModel newModel : _NewModels) {
+            final Map<String, Object> fields = newModel.getFieldMap();
+            for (final String fieldName : new ArrayList<String>(fields.keySet())) {
+                final Object value = fields.get(fieldName);
+                final Object sharedValue = toSharedValue(value);
+                if (sharedValue != value) {
+                    newModel.setFieldValue(fieldName, sharedValue);
+                }
+            }
+
+            _Heap.shardModel(newModel);
+        }
+
+        _NewModels.clear();
+        close();
+    }
+
+    /**
+     * Drops the request's changes (and new models) and then closes this
+     * overlay.
+     */
+    public void discard() {
+
+        checkNotClosed();
+
+        for (final RuntimeModel newModel : _NewModels) {
+            newModel.release();
+        }
+
+        _NewModels.clear();
+        close();
+    }
+
+    public ModelHeap getHeap() {
+        return _Heap;
+    }
+
+    /**
+     * Returns the overlay of the shared heap's identified model with the
+     * specified heap id (or the request's own new model with that heap id), or
+     * <code>null</code> if there is no such model.
+     * 
+     * @see ModelHeap#getModel(URI)
+     */
+    public Model getModel(final URI heapId) {
+
+        checkNotClosed();
+
+        for (final RuntimeModel newModel : _NewModels) {
+            if (heapId.equals(newModel.getHeapId())) {
+                return newModel;
+            }
+        }
+
+        return (Model) toOverlayValue(_Heap.getModel(heapId));
+    }
+
+    /**
+     * Returns the overlay of the shared model, in the same (static or dynamic)
+     * form.
+     */
+    public Model getModel(final Model sharedModel) {
+        checkNotClosed();
+        return (Model) toOverlayValue(sharedModel);
+    }
+
+    /**
+     * Returns <code>true</code> if a field of any shared model has been set
+     * or the request has created a model.
+     */
+    public boolean isChanged() {
+
+        if (!_NewModels.isEmpty()) {
+            return true;
+        }
+
+        for (final CopyOnWriteFieldMap overlayFieldMap : _OverlayFieldMaps.values()) {
+            if (overlayFieldMap.isCopied()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public boolean isClosed() {
+        return _Closed;
+    }
+
+    /**
+     * Creates a new model that is private to the request until the overlay is
+     * committed.
+     */
+    public Model newModel(final Type nativeType) {
+
+        checkNotClosed();
+
+        final ModelGraph modelGraph = new ModelGraph(getContext());
+        final RuntimeModel newModel = _Heap.createModel(nativeType, modelGraph, null, null);
+        modelGraph.popInitCursorBack();
+
+        _NewModels.add(newModel);
+        return newModel.getStaticInterface();
+    }
+
+    /**
+     * Returns the value with each (shared) model replaced by its overlay.
+     */
+    Object toOverlayValue(final Object sharedValue) {
+
+        if (!(sharedValue instanceof Model)) {
+            return sharedValue;
+        }
+
+        final Model sharedModel = (Model) sharedValue;
+        final RuntimeModel sharedRuntimeModel = (RuntimeModel) sharedModel.getDynamicInterface();
+        if (_OverlayFieldMaps.containsKey(sharedRuntimeModel) || _NewModels.contains(sharedRuntimeModel)) {
+            // Already one of ours
+            return sharedValue;
+        }
+
+        RuntimeModel overlayModel = _OverlayModels.get(sharedRuntimeModel);
+        if (overlayModel == null) {
+            final CopyOnWriteFieldMap overlayFieldMap = new CopyOnWriteFieldMap(this, sharedRuntimeModel);
+            final ModelGraph modelGraph = new ModelGraph(getContext());
+            overlayModel = _Heap.createModel(sharedRuntimeModel.getNativeType(), modelGraph, overlayFieldMap, null);
+            modelGraph.popInitCursorBack();
+
+            _OverlayModels.put(sharedRuntimeModel, overlayModel);
+            _OverlayFieldMaps.put(overlayModel, overlayFieldMap);
+        }
+
+        return (sharedModel != sharedRuntimeModel) ? overlayModel.getStaticInterface() : overlayModel;
+    }
+
+    /**
+     * Returns the value with each overlay model replaced by the shared model
+     * that it overlays.
+     */
+    Object toSharedValue(final Object value) {
+
+        if (value instanceof Model) {
+            final Model model = (Model) value;
+            final RuntimeModel runtimeModel = (RuntimeModel) model.getDynamicInterface();
+            final CopyOnWriteFieldMap overlayFieldMap = _OverlayFieldMaps.get(runtimeModel);
+            if (overlayFieldMap == null) {
+                return value;
+            }
+
+            final RuntimeModel sharedModel = overlayFieldMap.getSharedModel();
+            return (model != runtimeModel) ? sharedModel.getStaticInterface() : sharedModel;
+        }
+
+        if (value instanceof List<?>) {
+            final List<?> list = (List<?>) value;
+            final List<Object> sharedList = new ArrayList<Object>(list.size());
+            boolean changed = false;
+            for (final Object element : list) {
+                final Object sharedElement = toSharedValue(element);
+                changed |= (sharedElement != element);
+                sharedList.add(sharedElement);
+            }
+
+            return (changed) ? Observables.observableList(sharedList) : value;
+        }
+
+        return value;
+    }
+
+    private void checkNotClosed() {
+        if (_Closed) {
+            throw new IllegalStateException("The overlay has already been committed or discarded");
+        }
+    }
+
+    private void close() {
+
+        for (final RuntimeModel overlayModel : _OverlayModels.values()) {
+            overlayModel.release();
+        }
+
+        _OverlayModels.clear();
+        _OverlayFieldMaps.clear();
+        _Closed = true;
+    }
+
+}
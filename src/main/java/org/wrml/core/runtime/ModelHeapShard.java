@@ -18,11 +18,13 @@ package org.wrml.core.runtime;
 
 import java.lang.reflect.Type;
 import java.net.URI;
-import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.wrml.core.Model;
 import org.wrml.core.event.EventSource;
-import org.wrml.core.runtime.bootstrap.FieldNames;
 import org.wrml.core.runtime.event.FieldEvent;
 import org.wrml.core.runtime.event.LinkEvent;
 import org.wrml.core.runtime.event.ModelEvent;
@@ -30,25 +32,108 @@ import org.wrml.core.runtime.event.ModelEventListener;
 import org.wrml.core.runtime.event.ModelHeapShardEvent;
 import org.wrml.core.runtime.event.ModelHeapShardEventListener;
 import org.wrml.core.runtime.event.ModelHeapShardEventListener.ModelHeapShardEventName;
+import org.wrml.core.runtime.system.Prototype;
 import org.wrml.core.service.CachingService;
 import org.wrml.core.service.Service;
 import org.wrml.core.util.observable.ObservableMap;
 import org.wrml.core.util.observable.Observables;
 
-public class ModelHeapShard extends EventSource<ModelHeapShardEventListener> implements Contextual {
+/**
+ * A ModelHeapShard holds all of the {@link ModelHeap}'s models of a single
+ * native type.
+ * 
+ * The shard only holds its unidentified models weakly, so models that are no
+ * longer referenced by the application may be garbage collected. Identified
+ * models are retained by the shard's heap id map.
+ * 
+ * A shard may be bounded, either by its own capacity or by the heap's (global)
+ * capacity, in which case the models that its
+ * {@link ModelHeapEvictionPolicy} selects are evicted from it (and freed) as
+ * needed.
+ * 
+ * A shard's identified models may be warmed up with (the shard's section of) a
+ * {@link ModelHeapSnapshot}, whose models are hydrated as they are looked up.
+ */
+public class ModelHeapShard extends EventSource<ModelHeapShardEventListener> implements Contextual,
+        ModelHeapShardMXBean {
+
+    /**
+     * The number of models that are sampled to estimate the shard's size in
+     * bytes.
+     */
+    private static final int SIZE_ESTIMATE_SAMPLE_SIZE = 64;
+
+    /**
+     * The bytes held by a model (with no field values), its ModelGraph,
+     * hyperlink map, field map and its entry in the shard, as measured by
+     * <code>ModelHeapEstimatedBytesBenchmark</code> (on a 64-bit JVM with
+     * compressed references), less its field slot arrays.
+     */
+    private static final long MODEL_OVERHEAD_BYTES = 1160;
+
+    /**
+     * The number of locks that the shard's heap ids are striped across. The
+     * identification of a model (a check-then-act on the heap id map) only
+     * excludes the identification (and removal) of models with heap ids in
+     * the same stripe.
+     */
+    private static final int ID_LOCK_STRIPE_COUNT = 32;
 
     private final Context _Context;
     private final Type _Type;
     private final ModelEventListener _HeapModelEventListener;
 
-    private ObservableMap<URI, Object> _HeapIdMap;
-    private ObservableMap<Integer, Model> _HashCodeMap;
+    private final ObservableMap<URI, Object> _HeapIdMap;
+    private final OffHeapModelMap _OffHeapModels;
+    private final SnapshotModelMap _SnapshotModels;
+    private final WeakModelRegistry _ModelRegistry;
+
+    private final AtomicLong _AddCount = new AtomicLong();
+    private final AtomicLong _IdentifyCount = new AtomicLong();
+    private final AtomicLong _FreeCount = new AtomicLong();
+    private final AtomicLong _EvictionCount = new AtomicLong();
+    private final AtomicLong _IdLookupHitCount = new AtomicLong();
+    private final AtomicLong _IdLookupMissCount = new AtomicLong();
+
+    private volatile int _Capacity = ModelHeap.UNBOUNDED;
+    private volatile ModelHeapEvictionPolicy _EvictionPolicy;
+    private final Object _EvictionLock = new Object();
+    private final Object[] _IdLocks;
 
     public ModelHeapShard(Context context, Type type) {
+        this(context, type, 0);
+    }
+
+    /**
+     * Creates a shard which, if <code>offHeapHotModelCapacity</code> is
+     * positive, keeps its identified models in an {@link OffHeapModelMap}.
+     */
+    ModelHeapShard(Context context, Type type, int offHeapHotModelCapacity) {
         super(ModelHeapShardEventListener.class);
         _Context = context;
         _Type = type;
         _HeapModelEventListener = new HeapModelEventListener();
+
+        if (offHeapHotModelCapacity > 0) {
+            _OffHeapModels = new OffHeapModelMap(this, offHeapHotModelCapacity);
+            _SnapshotModels = new SnapshotModelMap(this, _OffHeapModels, context.getModelHeap().getIdIndex());
+        }
+        else {
+            // Backed by a concurrent map so that the shard can be read and written by concurrent threads
+            _OffHeapModels = null;
+            _SnapshotModels = new SnapshotModelMap(this, new ConcurrentHashMap<URI, Object>(), context.getModelHeap()
+                    .getIdIndex());
+        }
+
+        _HeapIdMap = Observables.observableMap(_SnapshotModels);
+
+        // Holds all of the models (weakly), by identity hash code
+        _ModelRegistry = new WeakModelRegistry();
+
+        _IdLocks = new Object[ID_LOCK_STRIPE_COUNT];
+        for (int i = 0; i < _IdLocks.length; i++) {
+            _IdLocks[i] = new Object();
+        }
     }
 
     public Model add(RuntimeModel model) {
@@ -57,8 +142,8 @@ public class ModelHeapShard extends EventSource<ModelHeapShardEventListener> imp
             throw new IllegalArgumentException();
         }
 
-        final ObservableMap<Integer, Model> hashCodeMap = getHashCodeMap();
-        hashCodeMap.put(model.hashCode(), model);
+        _ModelRegistry.add(model);
+        _AddCount.incrementAndGet();
 
         final ModelHeapShardEvent event = new ModelHeapShardEvent(this);
         event.setModel(model);
@@ -73,10 +158,60 @@ public class ModelHeapShard extends EventSource<ModelHeapShardEventListener> imp
             finalModel = modelIdentified(model, heapId, event);
         }
 
-        finalModel.addEventListener(_HeapModelEventListener);
+        // Unobserved models are listened to once they are upgraded (see modelObserved)
+        if (((RuntimeModel) finalModel.getDynamicInterface()).isObservable()) {
+            finalModel.addEventListener(_HeapModelEventListener);
+        }
+
+        if (isBounded()) {
+            // An absorbed duplicate is no longer in the shard, so the cached model is the one that was accessed
+            modelAccessed(finalModel);
+
+            while ((getSize() > _Capacity) && (evict() != null)) {
+                // Keep evicting until we are back under capacity
+            }
+
+            getContext().getModelHeap().modelAdded(this);
+        }
+
         return finalModel;
     }
 
+    /**
+     * Evicts the model selected by this shard's eviction policy. The evicted
+     * model is removed from the shard (and thus any {@link CachingService}
+     * view of it), a <code>modelEvicted</code> event is fired, and the model
+     * is {@link Model#free() freed}.
+     * 
+     * @return The evicted model, or <code>null</code> if this shard has no
+     *         model to evict.
+     */
+    public Model evict() {
+
+        final Model victim;
+        synchronized (_EvictionLock) {
+            final ModelHeapEvictionPolicy evictionPolicy = getEvictionPolicy();
+            victim = evictionPolicy.selectVictim();
+            if (victim == null) {
+                return null;
+            }
+
+            evictionPolicy.modelRemoved(victim);
+        }
+
+        final RuntimeModel runtimeModel = (RuntimeModel) victim.getDynamicInterface();
+        _ModelRegistry.remove(runtimeModel);
+        removeHeapId(runtimeModel);
+
+        final ModelHeapShardEvent event = new ModelHeapShardEvent(this);
+        event.setModel(victim);
+        fireEvent(ModelHeapShardEventName.modelEvicted, event);
+
+        victim.free();
+        _EvictionCount.incrementAndGet();
+        return victim;
+    }
+
     public Model free(final int hashCode) {
         final Model model = get(hashCode);
 
@@ -84,6 +219,7 @@ public class ModelHeapShard extends EventSource<ModelHeapShardEventListener> imp
             return null;
         }
 
+        // The model tells this shard that it has been freed
         model.free();
         return model;
     }
@@ -101,21 +237,260 @@ public class ModelHeapShard extends EventSource<ModelHeapShardEventListener> imp
     }
 
     public Model get(final int hashCode) {
-        return getHashCodeMap().get(hashCode);
+        final Model model = _ModelRegistry.get(hashCode);
+        if ((model != null) && isBounded()) {
+            modelAccessed(model);
+        }
+
+        return model;
     }
 
     public Model get(final URI heapId) {
-        return (Model) getHeapIdMap().get(heapId);
+        final Model model = getIdentifiedModel(heapId);
+        if (model == null) {
+            _IdLookupMissCount.incrementAndGet();
+            return null;
+        }
+
+        _IdLookupHitCount.incrementAndGet();
+        if (isBounded()) {
+            modelAccessed(model);
+        }
+
+        return model;
+    }
+
+    public long getAddCount() {
+        return _AddCount.get();
+    }
+
+    /**
+     * Returns the maximum number of models that this shard holds, or
+     * {@link ModelHeap#UNBOUNDED}.
+     */
+    public int getCapacity() {
+        return _Capacity;
+    }
+
+    /**
+     * Returns a rough estimate of the number of bytes held by this shard's
+     * models (excluding any nested models, which are counted by their own
+     * shards). The estimate is extrapolated from a sample of the models and
+     * includes the off-heap bytes, if any.
+     * 
+     * For 50000 Field models with two text fields each, the estimate is
+     * within about 5% of the measured heap growth (on a 64-bit JVM with
+     * compressed references). It is less accurate for models that share a
+     * ModelGraph (it overestimates) or that hold values other than text,
+     * URIs and lists (it underestimates). Text is counted at two bytes per
+     * char, which overestimates Latin-1 text on JVMs with compact strings.
+     */
+    public long getEstimatedBytes() {
+
+        long estimatedBytes = (_OffHeapModels != null) ? _OffHeapModels.getOffHeapBytes() : 0;
+
+        final List<Model> sampleModels = _ModelRegistry.getModels(SIZE_ESTIMATE_SAMPLE_SIZE);
+        if (!sampleModels.isEmpty()) {
+
+            final Prototype prototype = getContext().getPrototype(_Type);
+            long sampleBytes = 0;
+            for (final Model model : sampleModels) {
+                sampleBytes += estimateModelBytes(prototype, (RuntimeModel) model.getDynamicInterface());
+            }
+
+            estimatedBytes += (sampleBytes * getSize()) / sampleModels.size();
+        }
+
+        return estimatedBytes;
+    }
+
+    public long getEvictionCount() {
+        return _EvictionCount.get();
+    }
+
+    /**
+     * Returns the number of this shard's models that have been freed, whether
+     * by way of this shard or by {@link Model#free()} itself (including the
+     * models released by a {@link ModelGraph}). Evicted models are counted by
+     * {@link #getEvictionCount()} instead.
+     */
+    public long getFreeCount() {
+        return _FreeCount.get();
+    }
+
+    /**
+     * Returns the number of identified models (and other cached entities)
+     * held by this shard.
+     */
+    public int getIdentifiedModelCount() {
+        return getHeapIdMap().size();
+    }
+
+    public long getIdentifyCount() {
+        return _IdentifyCount.get();
+    }
+
+    public long getIdLookupHitCount() {
+        return _IdLookupHitCount.get();
+    }
+
+    public long getIdLookupMissCount() {
+        return _IdLookupMissCount.get();
+    }
+
+    public String getNativeTypeName() {
+        return (_Type instanceof Class<?>) ? ((Class<?>) _Type).getName() : String.valueOf(_Type);
     }
 
     public Context getContext() {
         return _Context;
     }
 
+    /**
+     * Returns the number of models held by this shard, which may include
+     * (unidentified) models that have been garbage collected but not yet
+     * expunged.
+     */
+    public int getSize() {
+        return _ModelRegistry.size();
+    }
+
     public Type getType() {
         return _Type;
     }
 
+    public int getUnidentifiedModelCount() {
+        return Math.max(0, getSize() - getIdentifiedModelCount());
+    }
+
+    /**
+     * Returns <code>true</code> if this shard's models may be evicted, since
+     * either the shard or its heap has a capacity.
+     */
+    public boolean isBounded() {
+        return (_Capacity != ModelHeap.UNBOUNDED) || (getContext().getModelHeap().getCapacity() != ModelHeap.UNBOUNDED);
+    }
+
+    /**
+     * Removes the models (of this shard's type) from the shard in bulk,
+     * without firing any events.
+     * 
+     * @see ModelGraph#release()
+     */
+    void releaseModels(final List<RuntimeModel> models) {
+
+        synchronized (_EvictionLock) {
+            if (_EvictionPolicy != null) {
+                for (final RuntimeModel model : models) {
+                    _EvictionPolicy.modelRemoved(model);
+                }
+            }
+        }
+
+        final int removedCount = _ModelRegistry.removeAll(models);
+
+        for (final RuntimeModel model : models) {
+            removeHeapId(model);
+        }
+
+        _FreeCount.addAndGet(removedCount);
+    }
+
+    /**
+     * Returns the serialized records of this shard's identified models, by
+     * heap id.
+     * 
+     * @see ModelHeap#writeSnapshot(java.io.File)
+     */
+    Map<URI, byte[]> getSnapshotRecords() {
+        return _SnapshotModels.getSnapshotRecords();
+    }
+
+    /**
+     * Called when an off-heap (or snapshot) model of this shard's type has
+     * been (re-)materialized.
+     */
+    void modelMaterialized(final RuntimeModel model) {
+        _ModelRegistry.add(model);
+
+        if (model.isObservable()) {
+            model.addEventListener(_HeapModelEventListener);
+        }
+    }
+
+    /**
+     * Called when a model (of this shard's type) is freed, whether or not it
+     * is observed. Removes the model from this shard (and so from the heap's
+     * id index). Only the models that were this shard's are counted, so a
+     * model that is evicted (and then freed) or freed twice is counted once.
+     */
+    void modelFreed(final RuntimeModel model) {
+
+        synchronized (_EvictionLock) {
+            if (_EvictionPolicy != null) {
+                _EvictionPolicy.modelRemoved(model);
+            }
+        }
+
+        if (_ModelRegistry.remove(model)) {
+            _FreeCount.incrementAndGet();
+        }
+
+        removeHeapId(model);
+    }
+
+    /**
+     * Called when a model (of this shard's type) is assigned a (new) id,
+     * whether or not it is observed. The model's old id, if any, no longer
+     * maps to it.
+     */
+    void modelIdChanged(final RuntimeModel model, final URI oldHeapId) {
+
+        // Models that were never added to this shard (e.g. a ModelHeapOverlay's) are left alone
+        final Model registeredModel = _ModelRegistry.get(model.hashCode());
+        if ((registeredModel == null) || (registeredModel.getDynamicInterface() != model)) {
+            return;
+        }
+
+        if (oldHeapId != null) {
+            removeHeapId(model, oldHeapId);
+        }
+
+        final URI heapId = model.getHeapId();
+        if (heapId != null) {
+            final ModelHeapShardEvent event = new ModelHeapShardEvent(this);
+            event.setModel(model);
+            modelIdentified(model, heapId, event);
+        }
+    }
+
+    /**
+     * Called when an unobserved model (of this shard's type) is upgraded to
+     * the observable form.
+     */
+    void modelObserved(final RuntimeModel model) {
+
+        // Models that were never added to this shard (e.g. a ModelHeapOverlay's) are left alone
+        final Model registeredModel = _ModelRegistry.get(model.hashCode());
+        if ((registeredModel != null) && (registeredModel.getDynamicInterface() == model)) {
+            model.addEventListener(_HeapModelEventListener);
+        }
+    }
+
+    /**
+     * Warms up this shard with its section of the snapshot, if it has one.
+     * 
+     * @see ModelHeap#loadSnapshot(java.io.File)
+     */
+    void loadSnapshot(final ModelHeapSnapshot snapshot) {
+
+        final String sectionName = ModelHeapSnapshot.getSectionName(_Type);
+        final Map<URI, Integer> recordOffsets = (sectionName != null) ? snapshot.removeSection(sectionName) : null;
+        if (recordOffsets != null) {
+            _SnapshotModels.setSnapshot(snapshot, recordOffsets);
+        }
+    }
+
     public CachingService newModelCachingService(final Service originService) {
         final CachingService cachingService = new CachingService(originService.getContext(), originService,
                 getHeapIdMap());
@@ -125,58 +500,187 @@ public class ModelHeapShard extends EventSource<ModelHeapShardEventListener> imp
         return cachingService;
     }
 
-    private ObservableMap<Integer, Model> getHashCodeMap() {
-        if (_HashCodeMap == null) {
-            _HashCodeMap = Observables.observableMap(new HashMap<Integer, Model>());
+    /**
+     * Sets the maximum number of models that this shard holds (or
+     * {@link ModelHeap#UNBOUNDED}), evicting models if the shard is over the
+     * new capacity.
+     */
+    public void setCapacity(final int capacity) {
+
+        if (capacity < 0) {
+            throw new IllegalArgumentException("The capacity cannot be negative");
+        }
+
+        _Capacity = capacity;
+
+        while ((getSize() > capacity) && (evict() != null)) {
+            // Keep evicting until we are back under capacity
         }
-        return _HashCodeMap;
     }
 
-    private ObservableMap<URI, Object> getHeapIdMap() {
-        if (_HeapIdMap == null) {
-            _HeapIdMap = Observables.observableMap(new HashMap<URI, Object>());
+    /**
+     * Returns this shard's eviction policy, which is created (and told about
+     * the shard's current models) on first use.
+     */
+    private ModelHeapEvictionPolicy getEvictionPolicy() {
+
+        ModelHeapEvictionPolicy evictionPolicy = _EvictionPolicy;
+        if (evictionPolicy != null) {
+            return evictionPolicy;
         }
+
+        synchronized (_EvictionLock) {
+            if (_EvictionPolicy == null) {
+                evictionPolicy = getContext().getModelHeap().newEvictionPolicy(this);
+                for (final Model model : _ModelRegistry.getModels()) {
+                    evictionPolicy.modelAccessed(model.getDynamicInterface());
+                }
+
+                _EvictionPolicy = evictionPolicy;
+            }
+
+            return _EvictionPolicy;
+        }
+    }
+
+    private ObservableMap<URI, Object> getHeapIdMap() {
         return _HeapIdMap;
     };
 
+    /**
+     * Returns the lock of the heap id's stripe.
+     */
+    private Object getIdLock(final URI heapId) {
+        return _IdLocks[(heapId.hashCode() & Integer.MAX_VALUE) % _IdLocks.length];
+    }
+
+    /**
+     * Returns the (uncounted) result of looking up the heap id.
+     */
+    private Model getIdentifiedModel(final URI heapId) {
+        return (Model) getHeapIdMap().get(heapId);
+    }
+
+    private void modelAccessed(final Model model) {
+        synchronized (_EvictionLock) {
+            getEvictionPolicy().modelAccessed(model.getDynamicInterface());
+        }
+    }
+
+    /**
+     * Removes the model's heap id entry, if it maps to the model.
+     */
+    private void removeHeapId(final RuntimeModel model) {
+
+        final URI heapId = model.getHeapId();
+        if (heapId != null) {
+            removeHeapId(model, heapId);
+        }
+    }
+
+    /**
+     * Removes the heap id's entry, if it maps to the model.
+     */
+    private void removeHeapId(final RuntimeModel model, final URI heapId) {
+
+        final ObservableMap<URI, Object> heapIdMap = getHeapIdMap();
+        synchronized (getIdLock(heapId)) {
+            final Object cachedEntity = heapIdMap.get(heapId);
+            if ((cachedEntity instanceof Model) && (((Model) cachedEntity).getDynamicInterface() == model)) {
+                heapIdMap.remove(heapId);
+            }
+        }
+    }
+
     private Model modelIdentified(Model model, final URI id, final ModelHeapShardEvent event) {
 
         fireEvent(ModelHeapShardEventName.modelIdentified, event);
+        _IdentifyCount.incrementAndGet();
 
         // Check to see if the cache already contains the model with the same id.
-        final Model cachedModel = get(id);
-        if (cachedModel != null) {
+        Model cachedModel = getIdentifiedModel(id);
+        if (cachedModel == null) {
+
+            // Check again, while holding the id's lock, so that two threads identifying a model with the same id will
+            // agree on a single model.
+            synchronized (getIdLock(id)) {
+                cachedModel = getIdentifiedModel(id);
+                if (cachedModel == null) {
+                    getHeapIdMap().put(id, model);
+                }
+            }
+        }
+
+        // The cached model may be the other (static or dynamic) interface of the same model
+        final RuntimeModel runtimeModel = (RuntimeModel) model.getDynamicInterface();
+        if ((cachedModel != null) && (cachedModel.getDynamicInterface() != runtimeModel)) {
 
             /*
              * Absorb the new model into the cached one and make sure that the
-             * cached one replaces the new one in the model graph.
+             * cached one replaces the new one in the model graph. The absorbed
+             * duplicate is no longer one of the shard's models.
              */
             cachedModel.absorb(model);
 
+            synchronized (_EvictionLock) {
+                if (_EvictionPolicy != null) {
+                    _EvictionPolicy.modelRemoved(runtimeModel);
+                }
+            }
+
+            _ModelRegistry.remove(runtimeModel);
+
             model = cachedModel;
         }
-        else {
-            getHeapIdMap().put(id, model);
-        }
 
         return model;
     }
 
-    private final class HeapModelEventListener implements ModelEventListener {
+    /**
+     * Returns a rough estimate of the bytes held by the model and its field
+     * values (assuming a 64-bit JVM with compressed references).
+     */
+    private static long estimateModelBytes(final Prototype prototype, final RuntimeModel model) {
+
+        // The model (and what comes with it) and its field slot arrays
+        long bytes = MODEL_OVERHEAD_BYTES + (4L * prototype.getFieldSlotCount())
+                + (8L * prototype.getPrimitiveFieldSlotCount());
+
+        // Only slot-stored values are counted, other field maps (e.g. reflective ones) may compute their values
+        final FieldSlotMap fieldSlots = model.getFieldSlots();
+        if (fieldSlots != null) {
+            for (final Object value : fieldSlots.values()) {
+                bytes += estimateValueBytes(value);
+            }
+        }
 
-        public void onFieldValueChanged(FieldEvent fieldEvent) {
-            final String idFieldName = FieldNames.Document.id.name();
-            if (idFieldName.equals(fieldEvent.getFieldName())) {
-                final RuntimeModel model = (RuntimeModel) fieldEvent.getModel().getDynamicInterface();
-                final URI heapId = model.getHeapId();
-                if (heapId != null) {
-                    final ModelHeapShardEvent modelHeapShardEvent = new ModelHeapShardEvent(ModelHeapShard.this);
-                    modelHeapShardEvent.setModel(model);
-                    modelIdentified(model, heapId, modelHeapShardEvent);
-                }
+        return bytes;
+    }
+
+    private static long estimateValueBytes(final Object value) {
+
+        if (value instanceof String) {
+            return 40 + (2L * ((String) value).length());
+        }
+        else if (value instanceof URI) {
+            return 80 + (4L * value.toString().length());
+        }
+        else if (value instanceof List<?>) {
+            final List<?> list = (List<?>) value;
+            long bytes = 56 + (4L * list.size());
+            for (final Object element : list) {
+                bytes += estimateValueBytes(element);
             }
+
+            return bytes;
         }
 
+        // Primitives live in the primitive slots, choices are shared constants and models are counted by their shards
+        return 0;
+    }
+
+    private final class HeapModelEventListener implements ModelEventListener {
+
         public void onModelFieldConstraintViolated(FieldEvent event) {
             // TODO Auto-generated method stub
 
@@ -193,8 +697,7 @@ public class ModelHeapShard extends EventSource<ModelHeapShardEventListener> imp
         }
 
         public void onModelFreed(ModelEvent event) {
-            // TODO Auto-generated method stub
-
+            // The model tells the shard itself (see RuntimeModel.free), whether or not it is observed
         }
 
         public void onModelLinkClicked(LinkEvent event) {
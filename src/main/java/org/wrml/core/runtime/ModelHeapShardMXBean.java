@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+/**
+ * The management (JMX) interface of a {@link ModelHeapShard}. The counts are
+ * cumulative, since the shard's creation; rates can be derived by sampling
+ * them.
+ * 
+ * @see ModelHeap#registerMBeans(javax.management.MBeanServer)
+ */
+public interface ModelHeapShardMXBean {
+
+    public long getAddCount();
+
+    public int getCapacity();
+
+    public long getEstimatedBytes();
+
+    public long getEvictionCount();
+
+    public long getFreeCount();
+
+    public int getIdentifiedModelCount();
+
+    public long getIdentifyCount();
+
+    public long getIdLookupHitCount();
+
+    public long getIdLookupMissCount();
+
+    public String getNativeTypeName();
+
+    public int getSize();
+
+    public int getUnidentifiedModelCount();
+}
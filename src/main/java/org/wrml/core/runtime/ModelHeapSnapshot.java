@@ -0,0 +1,220 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A memory-mapped, read-only snapshot of a {@link ModelHeap}'s identified
+ * models, which is used to warm up a heap (e.g. after a restart) without
+ * refetching the models from their origin services.
+ * 
+ * The snapshot file holds a section per shard, keyed by the shard's native
+ * type name, each holding its models' records (see {@link ModelRecordCodec})
+ * keyed by heap id. When a snapshot is loaded only its index is read; the
+ * records stay in the mapped file until each is looked up, which is when its
+ * model is materialized.
+ * 
+ * @see ModelHeap#loadSnapshot(File)
+ * @see ModelHeap#writeSnapshot(File)
+ */
+final class ModelHeapSnapshot {
+
+    private static final int MAGIC = 0x57524D4C;
+    private static final int VERSION = 1;
+
+    private final File _File;
+    private final ByteBuffer _Buffer;
+
+    /**
+     * The offsets of the records (which are each preceded by their length)
+     * in the mapped file, by heap id, by native type name.
+     */
+    private final Map<String, Map<URI, Integer>> _Sections;
+
+    private ModelHeapSnapshot(final File file, final ByteBuffer buffer) throws IOException {
+
+        _File = file;
+        _Buffer = buffer;
+        _Sections = new HashMap<String, Map<URI, Integer>>();
+
+        final ByteBuffer in = buffer.duplicate();
+        if ((in.remaining() < 12) || (in.getInt() != MAGIC)) {
+            throw new IOException("\"" + file + "\" is not a model heap snapshot");
+        }
+
+        final int version = in.getInt();
+        if (version != VERSION) {
+            throw new IOException("\"" + file + "\" is a version " + version + " model heap snapshot");
+        }
+
+        final int sectionCount = in.getInt();
+        for (int i = 0; i < sectionCount; i++) {
+            final String nativeTypeName = readText(in);
+            final int recordCount = in.getInt();
+            final Map<URI, Integer> recordOffsets = new HashMap<URI, Integer>(recordCount * 2);
+            for (int j = 0; j < recordCount; j++) {
+                final URI heapId = URI.create(readText(in));
+                final int offset = in.position();
+                recordOffsets.put(heapId, Integer.valueOf(offset));
+                in.position(offset + 4 + in.getInt());
+            }
+
+            _Sections.put(nativeTypeName, recordOffsets);
+        }
+    }
+
+    /**
+     * Maps the snapshot file into memory and reads its index.
+     */
+    static ModelHeapSnapshot map(final File file) throws IOException {
+
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = randomAccessFile.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("\"" + file + "\" is too large to be mapped");
+            }
+
+            // The mapping remains valid after the channel is closed
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new ModelHeapSnapshot(file, buffer);
+        }
+        finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Returns the name that keys a shard's section, or <code>null</code> if
+     * the shard's models can't be snapshot.
+     */
+    static String getSectionName(final Type nativeType) {
+        return (nativeType instanceof Class<?>) ? ((Class<?>) nativeType).getName() : null;
+    }
+
+    /**
+     * Writes a snapshot of the shards' identified models. The snapshot is
+     * first written to a temporary file (the file's path plus ".tmp"), which
+     * is then renamed to the file. Where the platform's rename replaces an
+     * existing file, as on POSIX file systems, the replacement is atomic and a
+     * snapshot that is currently mapped is unaffected.
+     * 
+     * Otherwise the existing file is deleted first, so the replacement isn't
+     * atomic: if it is interrupted, the complete new snapshot is left in the
+     * temporary file. And where a mapped file can't be deleted (e.g. on
+     * Windows), replacing the file of the currently loaded snapshot fails with
+     * an IOException; write the snapshot to a fresh file name instead.
+     */
+    static void write(final Iterable<ModelHeapShard> shards, final File file) throws IOException {
+
+        final Map<String, Map<URI, byte[]>> sections = new HashMap<String, Map<URI, byte[]>>();
+        for (final ModelHeapShard shard : shards) {
+            final String sectionName = getSectionName(shard.getType());
+            if (sectionName != null) {
+                final Map<URI, byte[]> records = shard.getSnapshotRecords();
+                if (!records.isEmpty()) {
+                    sections.put(sectionName, records);
+                }
+            }
+        }
+
+        final File tempFile = new File(file.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sections.size());
+
+            for (final String sectionName : sections.keySet()) {
+                final Map<URI, byte[]> records = sections.get(sectionName);
+                writeText(out, sectionName);
+                out.writeInt(records.size());
+
+                for (final URI heapId : records.keySet()) {
+                    final byte[] record = records.get(heapId);
+                    writeText(out, heapId.toString());
+                    out.writeInt(record.length);
+                    out.write(record);
+                }
+            }
+        }
+        finally {
+            out.close();
+        }
+
+        if (tempFile.renameTo(file)) {
+            return;
+        }
+
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Unable to replace \"" + file + "\" (a mapped snapshot may not be deletable)");
+        }
+
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Unable to rename \"" + tempFile + "\" to \"" + file + "\"");
+        }
+    }
+
+    private static String readText(final ByteBuffer in) throws IOException {
+        final byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void writeText(final DataOutputStream out, final String text) throws IOException {
+        final byte[] bytes = text.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public File getFile() {
+        return _File;
+    }
+
+    /**
+     * Reads the record at the specified offset.
+     */
+    byte[] readRecord(final int offset) {
+        final ByteBuffer in = _Buffer.duplicate();
+        in.position(offset);
+        final byte[] record = new byte[in.getInt()];
+        in.get(record);
+        return record;
+    }
+
+    /**
+     * Removes (and returns) the record offsets of the specified section, so
+     * that each section is handed to (at most) one shard.
+     */
+    synchronized Map<URI, Integer> removeSection(final String sectionName) {
+        return _Sections.remove(sectionName);
+    }
+
+}
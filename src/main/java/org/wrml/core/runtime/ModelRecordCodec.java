@@ -0,0 +1,358 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.wrml.core.Model;
+import org.wrml.core.runtime.system.FieldPrototype;
+import org.wrml.core.runtime.system.Prototype;
+import org.wrml.core.util.observable.Observables;
+
+/**
+ * Serializes a {@link ModelHeapShard}'s models into compact records, which
+ * refer to fields by their {@link FieldPrototype#getSlot() slots}, and
+ * materializes (new) models from them.
+ * 
+ * Fields whose values are text, URIs, booleans, numbers, dates, choices, or
+ * lists of these can be serialized. If the codec allows nested models, then
+ * field values that are models (with a {@link Class} native type) are
+ * serialized inline, as part of their parent's record, and are materialized
+ * by way of their own shards. Models that refer to themselves (directly or
+ * indirectly) can't be serialized. A {@link Model#isFrozen() frozen} model is
+ * frozen again when it is materialized.
+ * 
+ * @see OffHeapModelMap
+ * @see ModelHeapSnapshot
+ */
+final class ModelRecordCodec {
+
+    private static final int STATIC_INTERFACE_FLAG = 1;
+    private static final int FROZEN_FLAG = 2;
+
+    private static final byte NULL_TAG = 0;
+    private static final byte BOOLEAN_TAG = 1;
+    private static final byte INTEGER_TAG = 2;
+    private static final byte LONG_TAG = 3;
+    private static final byte DOUBLE_TAG = 4;
+    private static final byte TEXT_TAG = 5;
+    private static final byte URI_TAG = 6;
+    private static final byte DATE_TAG = 7;
+    private static final byte CHOICE_TAG = 8;
+    private static final byte LIST_TAG = 9;
+    private static final byte MODEL_TAG = 10;
+
+    private final ModelHeapShard _Shard;
+    private final Type _NativeType;
+    private final boolean _NestedModels;
+
+    ModelRecordCodec(final ModelHeapShard shard, final boolean nestedModels) {
+        _Shard = shard;
+        _NativeType = shard.getType();
+        _NestedModels = nestedModels;
+    }
+
+    /**
+     * Materializes a new model (of the shard's type) from the record and
+     * tells the shard about it.
+     */
+    Object materialize(final byte[] record) {
+
+        final Context context = _Shard.getContext();
+        final Prototype prototype = context.getPrototype(_NativeType);
+
+        final int flags;
+        final FieldSlotMap fieldSlots;
+        try {
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+            flags = in.readByte();
+            fieldSlots = readFields(context, prototype, in);
+        }
+        catch (final Exception e) {
+            throw new IllegalStateException("Unable to materialize a \"" + _NativeType + "\" model", e);
+        }
+
+        final ModelGraph modelGraph = new ModelGraph(context);
+        final RuntimeModel model = context.getModelHeap().createModel(_NativeType, modelGraph,
+                new ModelFieldMap(context, fieldSlots), null);
+        modelGraph.popInitCursorBack();
+
+        if ((flags & FROZEN_FLAG) != 0) {
+            model.freeze();
+        }
+
+        _Shard.modelMaterialized(model);
+
+        return ((flags & STATIC_INTERFACE_FLAG) != 0) ? model.getStaticInterface() : model;
+    }
+
+    /**
+     * Returns the serialized form of the entity, or <code>null</code> if it
+     * isn't a model (of the shard's type) with serializable field values.
+     */
+    byte[] serialize(final Object entity) {
+
+        if (!(entity instanceof Model)) {
+            return null;
+        }
+
+        final Model dynamicInterface = ((Model) entity).getDynamicInterface();
+        if (!(dynamicInterface instanceof RuntimeModel) || !_NativeType.equals(dynamicInterface.getNativeType())) {
+            return null;
+        }
+
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            final Map<Model, Model> parentModels = new IdentityHashMap<Model, Model>();
+            if (!writeModel(out, (Model) entity, parentModels)) {
+                return null;
+            }
+
+            out.flush();
+            return bytes.toByteArray();
+        }
+        catch (final IOException e) {
+            return null;
+        }
+        catch (final RuntimeException e) {
+            // Some field maps (e.g. the bootstrap's reflective ones) may not be able to produce their values
+            return null;
+        }
+    }
+
+    private FieldSlotMap readFields(final Context context, final Prototype prototype, final DataInputStream in)
+            throws Exception {
+
+        final FieldSlotMap fieldSlots = new FieldSlotMap(prototype);
+        final int fieldCount = in.readShort();
+        for (int i = 0; i < fieldCount; i++) {
+            final FieldPrototype fieldPrototype = prototype.getSlottedFieldPrototype(in.readShort());
+            fieldSlots.put(fieldPrototype.getFieldName(), readValue(context, in));
+        }
+
+        return fieldSlots;
+    }
+
+    /**
+     * Materializes a nested model, which is added to its own shard (and so
+     * may be replaced by an already identified model).
+     */
+    private Object readModel(final Context context, final DataInputStream in) throws Exception {
+
+        final Class<?> nativeType = Class.forName(readText(in), false, context);
+        final int flags = in.readByte();
+        final FieldSlotMap fieldSlots = readFields(context, context.getPrototype(nativeType), in);
+
+        final ModelGraph modelGraph = new ModelGraph(context);
+        final Model model = context.getModelHeap().newModel(nativeType, modelGraph,
+                new ModelFieldMap(context, fieldSlots), null);
+        modelGraph.popInitCursorBack();
+
+        if ((flags & FROZEN_FLAG) != 0) {
+            model.freeze();
+        }
+
+        return ((flags & STATIC_INTERFACE_FLAG) != 0) ? model.getStaticInterface() : model.getDynamicInterface();
+    }
+
+    private String readText(final DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private Object readValue(final Context context, final DataInputStream in) throws Exception {
+
+        final byte tag = in.readByte();
+        switch (tag) {
+
+        case NULL_TAG:
+            return null;
+
+        case BOOLEAN_TAG:
+            return Boolean.valueOf(in.readBoolean());
+
+        case INTEGER_TAG:
+            return Integer.valueOf(in.readInt());
+
+        case LONG_TAG:
+            return Long.valueOf(in.readLong());
+
+        case DOUBLE_TAG:
+            return Double.valueOf(in.readDouble());
+
+        case TEXT_TAG:
+            return readText(in);
+
+        case URI_TAG:
+            return URI.create(readText(in));
+
+        case DATE_TAG:
+            return new Date(in.readLong());
+
+        case CHOICE_TAG: {
+            @SuppressWarnings({ "rawtypes" })
+            final Class enumClass = Class.forName(readText(in), false, context);
+            @SuppressWarnings("unchecked")
+            final Object choice = Enum.valueOf(enumClass, readText(in));
+            return choice;
+        }
+
+        case LIST_TAG: {
+            final int elementCount = in.readInt();
+            final List<Object> list = new ArrayList<Object>(elementCount);
+            for (int i = 0; i < elementCount; i++) {
+                list.add(readValue(context, in));
+            }
+
+            return Observables.observableList(list);
+        }
+
+        case MODEL_TAG:
+            return readModel(context, in);
+
+        default:
+            throw new IllegalStateException("Unknown value tag: " + tag);
+        }
+    }
+
+    /**
+     * Writes the model's flags and fields, returning <code>false</code> if
+     * they can't be serialized.
+     */
+    private boolean writeModel(final DataOutputStream out, final Model model, final Map<Model, Model> parentModels)
+            throws IOException {
+
+        final Model dynamicInterface = model.getDynamicInterface();
+        if (!(dynamicInterface instanceof RuntimeModel) || parentModels.containsKey(dynamicInterface)) {
+            return false;
+        }
+
+        final Prototype prototype = _Shard.getContext().getPrototype(dynamicInterface.getNativeType());
+        final Map<String, Object> fields = ((RuntimeModel) dynamicInterface).getFieldMap();
+
+        final int flags = ((model != dynamicInterface) ? STATIC_INTERFACE_FLAG : 0)
+                | (dynamicInterface.isFrozen() ? FROZEN_FLAG : 0);
+        out.writeByte(flags);
+        out.writeShort(fields.size());
+
+        parentModels.put(dynamicInterface, dynamicInterface);
+        for (final Map.Entry<String, Object> field : fields.entrySet()) {
+            final int slot = prototype.getFieldSlot(field.getKey());
+            if (slot == FieldPrototype.NO_SLOT) {
+                return false;
+            }
+
+            out.writeShort(slot);
+            if (!writeValue(out, field.getValue(), parentModels)) {
+                return false;
+            }
+        }
+
+        parentModels.remove(dynamicInterface);
+        return true;
+    }
+
+    private void writeText(final DataOutputStream out, final String text) throws IOException {
+        final byte[] bytes = text.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes the tagged value, returning <code>false</code> if it can't be
+     * serialized.
+     */
+    private boolean writeValue(final DataOutputStream out, final Object value, final Map<Model, Model> parentModels)
+            throws IOException {
+
+        if (value == null) {
+            out.writeByte(NULL_TAG);
+        }
+        else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN_TAG);
+            out.writeBoolean(((Boolean) value).booleanValue());
+        }
+        else if (value instanceof Integer) {
+            out.writeByte(INTEGER_TAG);
+            out.writeInt(((Integer) value).intValue());
+        }
+        else if (value instanceof Long) {
+            out.writeByte(LONG_TAG);
+            out.writeLong(((Long) value).longValue());
+        }
+        else if (value instanceof Double) {
+            out.writeByte(DOUBLE_TAG);
+            out.writeDouble(((Double) value).doubleValue());
+        }
+        else if (value instanceof String) {
+            out.writeByte(TEXT_TAG);
+            writeText(out, (String) value);
+        }
+        else if (value instanceof URI) {
+            out.writeByte(URI_TAG);
+            writeText(out, value.toString());
+        }
+        else if (value instanceof Date) {
+            out.writeByte(DATE_TAG);
+            out.writeLong(((Date) value).getTime());
+        }
+        else if (value instanceof Enum<?>) {
+            out.writeByte(CHOICE_TAG);
+            writeText(out, ((Enum<?>) value).getDeclaringClass().getName());
+            writeText(out, ((Enum<?>) value).name());
+        }
+        else if (value instanceof List<?>) {
+            final List<?> list = (List<?>) value;
+            out.writeByte(LIST_TAG);
+            out.writeInt(list.size());
+            for (final Object element : list) {
+                if (!writeValue(out, element, parentModels)) {
+                    return false;
+                }
+            }
+        }
+        else if (_NestedModels && (value instanceof Model)) {
+            final Type nativeType = ((Model) value).getDynamicInterface().getNativeType();
+            if (!(nativeType instanceof Class<?>)) {
+                return false;
+            }
+
+            out.writeByte(MODEL_TAG);
+            writeText(out, ((Class<?>) nativeType).getName());
+            return writeModel(out, (Model) value, parentModels);
+        }
+        else {
+            return false;
+        }
+
+        return true;
+    }
+
+}
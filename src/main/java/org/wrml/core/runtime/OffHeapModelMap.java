@@ -0,0 +1,396 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.wrml.core.runtime.system.FieldPrototype;
+
+/**
+ * An off-heap backing map for a {@link ModelHeapShard}'s identified models
+ * (keyed by heap id). Models are serialized by a {@link ModelRecordCodec}, in
+ * a compact layout that refers to fields by their
+ * {@link FieldPrototype#getSlot() slots}, into direct
+ * {@link ByteBuffer} segments. Only the most recently used ("hot") models are
+ * kept on-heap; a model is serialized when it falls out of the hot set.
+ * 
+ * A model that has left the hot set is still held weakly, so while it is
+ * referenced elsewhere, lookups return that same instance (with its listeners
+ * and any changes made to it since), which rejoins the hot set. Only once it
+ * has been garbage collected is the model re-materialized (as a new model
+ * instance) from its record. Note that the record is written as the model
+ * leaves the hot set, so changes made to an instance after that only outlive
+ * the instance if it is looked up again (and so is serialized again).
+ * 
+ * Fields whose values are text, URIs, booleans, numbers, dates, choices, or
+ * lists of these can be serialized. Entities that can't be (e.g. models with
+ * nested models) simply stay on-heap.
+ * 
+ * The space of replaced records is reclaimed by compacting the segments once
+ * more than half of their bytes are garbage.
+ * 
+ * @see ModelHeap#setOffHeapStorage(Type, int)
+ */
+final class OffHeapModelMap extends AbstractMap<URI, Object> {
+
+    private static final int SEGMENT_SIZE = 1 << 20;
+
+    private final ModelRecordCodec _Codec;
+    private final int _HotModelCapacity;
+
+    /**
+     * The most recently used models, which are serialized when they are pushed
+     * out of this (access ordered) map.
+     */
+    private final LinkedHashMap<URI, Object> _HotEntities;
+
+    /**
+     * The entities that can't be serialized.
+     */
+    private final Map<URI, Object> _OnHeapEntities;
+
+    /**
+     * The locations of the serialized models, each encoded as the index of
+     * the segment (high int) and the record's offset within it (low int).
+     */
+    private final Map<URI, Long> _RecordLocations;
+    private final List<ByteBuffer> _Segments;
+
+    /**
+     * The (weakly held) instances of the serialized models.
+     */
+    private final Map<URI, EntityReference> _ColdEntities;
+    private final ReferenceQueue<Object> _ReferenceQueue;
+
+    private long _AllocatedBytes;
+    private long _LiveBytes;
+
+    private transient Set<Map.Entry<URI, Object>> _EntrySet;
+
+    OffHeapModelMap(final ModelHeapShard shard, final int hotModelCapacity) {
+        _Codec = new ModelRecordCodec(shard, false);
+        _HotModelCapacity = hotModelCapacity;
+
+        _HotEntities = new LinkedHashMap<URI, Object>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<URI, Object> eldest) {
+
+                if (size() <= _HotModelCapacity) {
+                    return false;
+                }
+
+                store(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+        };
+
+        _OnHeapEntities = new HashMap<URI, Object>();
+        _RecordLocations = new HashMap<URI, Long>();
+        _Segments = new ArrayList<ByteBuffer>();
+        _ColdEntities = new HashMap<URI, EntityReference>();
+        _ReferenceQueue = new ReferenceQueue<Object>();
+    }
+
+    @Override
+    public synchronized void clear() {
+        _HotEntities.clear();
+        _OnHeapEntities.clear();
+        _RecordLocations.clear();
+        _Segments.clear();
+        _ColdEntities.clear();
+        _AllocatedBytes = 0;
+        _LiveBytes = 0;
+    }
+
+    @Override
+    public synchronized boolean containsKey(final Object key) {
+        return _HotEntities.containsKey(key) || _OnHeapEntities.containsKey(key) || _RecordLocations.containsKey(key);
+    }
+
+    @Override
+    public Set<Map.Entry<URI, Object>> entrySet() {
+        if (_EntrySet == null) {
+            _EntrySet = new EntrySet();
+        }
+
+        return _EntrySet;
+    }
+
+    @Override
+    public synchronized Object get(final Object key) {
+
+        Object entity = _HotEntities.get(key);
+        if (entity != null) {
+            return entity;
+        }
+
+        entity = _OnHeapEntities.get(key);
+        if ((entity != null) || !(key instanceof URI)) {
+            return entity;
+        }
+
+        final URI heapId = (URI) key;
+        final Object coldEntity = removeColdEntity(heapId);
+        final byte[] record = removeRecord(heapId);
+        if (record == null) {
+            return null;
+        }
+
+        entity = (coldEntity != null) ? coldEntity : _Codec.materialize(record);
+        _HotEntities.put(heapId, entity);
+        return entity;
+    }
+
+    /**
+     * Returns the number of bytes, in all segments, that are held by the
+     * serialized models.
+     */
+    public synchronized long getOffHeapBytes() {
+        return _LiveBytes;
+    }
+
+    /**
+     * Returns the number of models that are currently serialized.
+     */
+    public synchronized int getOffHeapModelCount() {
+        return _RecordLocations.size();
+    }
+
+    @Override
+    public synchronized Set<URI> keySet() {
+
+        // A snapshot, which (unlike the entry set) doesn't materialize the models
+        final Set<URI> keys = new LinkedHashSet<URI>(_HotEntities.keySet());
+        keys.addAll(_OnHeapEntities.keySet());
+        keys.addAll(_RecordLocations.keySet());
+        return Collections.unmodifiableSet(keys);
+    }
+
+    @Override
+    public synchronized Object put(final URI heapId, final Object entity) {
+
+        if ((heapId == null) || (entity == null)) {
+            throw new NullPointerException("Heap ID and entity cannot be null");
+        }
+
+        final Object oldEntity = remove(heapId);
+        _HotEntities.put(heapId, entity);
+        return oldEntity;
+    }
+
+    @Override
+    public synchronized Object remove(final Object key) {
+
+        Object oldEntity = _HotEntities.remove(key);
+        if (oldEntity != null) {
+            return oldEntity;
+        }
+
+        oldEntity = _OnHeapEntities.remove(key);
+        if (oldEntity != null) {
+            return oldEntity;
+        }
+
+        if (!(key instanceof URI)) {
+            return null;
+        }
+
+        final Object coldEntity = removeColdEntity((URI) key);
+        final byte[] record = removeRecord((URI) key);
+        if (record == null) {
+            return null;
+        }
+
+        return (coldEntity != null) ? coldEntity : _Codec.materialize(record);
+    }
+
+    @Override
+    public synchronized int size() {
+        return _HotEntities.size() + _OnHeapEntities.size() + _RecordLocations.size();
+    }
+
+    /**
+     * Copies the live records into new segments, dropping the garbage.
+     */
+    private void compact() {
+
+        final Map<URI, byte[]> records = new LinkedHashMap<URI, byte[]>();
+        for (final URI heapId : new ArrayList<URI>(_RecordLocations.keySet())) {
+            records.put(heapId, removeRecord(heapId));
+        }
+
+        _Segments.clear();
+        _AllocatedBytes = 0;
+        _LiveBytes = 0;
+
+        for (final URI heapId : records.keySet()) {
+            writeRecord(heapId, records.get(heapId));
+        }
+    }
+
+    /**
+     * Drops the references of the cold entities that have been collected.
+     */
+    private void expungeCollectedEntities() {
+        EntityReference reference;
+        while ((reference = (EntityReference) _ReferenceQueue.poll()) != null) {
+            if (_ColdEntities.get(reference._HeapId) == reference) {
+                _ColdEntities.remove(reference._HeapId);
+            }
+        }
+    }
+
+    /**
+     * Removes (and returns) the instance of the serialized model with the
+     * specified heap id, if it hasn't been collected.
+     */
+    private Object removeColdEntity(final URI heapId) {
+        expungeCollectedEntities();
+        final EntityReference reference = _ColdEntities.remove(heapId);
+        return (reference != null) ? reference.get() : null;
+    }
+
+    /**
+     * Removes (and returns) the serialized model with the specified heap id.
+     */
+    private byte[] removeRecord(final URI heapId) {
+
+        final Long location = _RecordLocations.remove(heapId);
+        if (location == null) {
+            return null;
+        }
+
+        final ByteBuffer segment = _Segments.get((int) (location.longValue() >>> 32)).duplicate();
+        segment.position((int) location.longValue());
+        final byte[] record = new byte[segment.getInt()];
+        segment.get(record);
+
+        _LiveBytes -= 4 + record.length;
+        return record;
+    }
+
+    /**
+     * Serializes the entity off-heap if possible, or otherwise keeps it
+     * on-heap.
+     */
+    private void store(final URI heapId, final Object entity) {
+
+        final byte[] record = _Codec.serialize(entity);
+        if (record == null) {
+            _OnHeapEntities.put(heapId, entity);
+            return;
+        }
+
+        writeRecord(heapId, record);
+
+        expungeCollectedEntities();
+        _ColdEntities.put(heapId, new EntityReference(heapId, entity, _ReferenceQueue));
+
+        if ((_AllocatedBytes > SEGMENT_SIZE) && (_LiveBytes < (_AllocatedBytes / 2))) {
+            compact();
+        }
+    }
+
+    private void writeRecord(final URI heapId, final byte[] record) {
+
+        final int recordSize = 4 + record.length;
+
+        ByteBuffer segment = _Segments.isEmpty() ? null : _Segments.get(_Segments.size() - 1);
+        if ((segment == null) || (segment.remaining() < recordSize)) {
+            segment = ByteBuffer.allocateDirect(Math.max(SEGMENT_SIZE, recordSize));
+            _Segments.add(segment);
+        }
+
+        final long segmentIndex = _Segments.size() - 1;
+        final int offset = segment.position();
+        segment.putInt(record.length);
+        segment.put(record);
+
+        _RecordLocations.put(heapId, Long.valueOf((segmentIndex << 32) | offset));
+        _AllocatedBytes += recordSize;
+        _LiveBytes += recordSize;
+    }
+
+    private static final class EntityReference extends WeakReference<Object> {
+
+        private final URI _HeapId;
+
+        EntityReference(final URI heapId, final Object entity, final ReferenceQueue<Object> referenceQueue) {
+            super(entity, referenceQueue);
+            _HeapId = heapId;
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<URI, Object>> {
+
+        /**
+         * Iterates over a snapshot of the keys, materializing each of the
+         * values.
+         */
+        @Override
+        public Iterator<Map.Entry<URI, Object>> iterator() {
+
+            final Iterator<URI> heapIds = keySet().iterator();
+            return new Iterator<Map.Entry<URI, Object>>() {
+
+                private URI _LastHeapId;
+
+                public boolean hasNext() {
+                    return heapIds.hasNext();
+                }
+
+                public Map.Entry<URI, Object> next() {
+                    _LastHeapId = heapIds.next();
+                    return new AbstractMap.SimpleImmutableEntry<URI, Object>(_LastHeapId, get(_LastHeapId));
+                }
+
+                public void remove() {
+                    if (_LastHeapId == null) {
+                        throw new IllegalStateException();
+                    }
+
+                    OffHeapModelMap.this.remove(_LastHeapId);
+                    _LastHeapId = null;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return OffHeapModelMap.this.size();
+        }
+    }
+
+}
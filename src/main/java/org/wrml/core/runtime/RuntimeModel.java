@@ -18,7 +18,13 @@ package org.wrml.core.runtime;
 
 import java.lang.reflect.Proxy;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -29,8 +35,8 @@ import org.wrml.core.model.Document;
 import org.wrml.core.model.DocumentMetadata;
 import org.wrml.core.model.DocumentOptions;
 import org.wrml.core.model.api.ResourceTemplate;
-import org.wrml.core.model.schema.Link;
 import org.wrml.core.model.schema.Schema;
+import org.wrml.core.model.schema.Type;
 import org.wrml.core.runtime.bootstrap.FieldNames;
 import org.wrml.core.runtime.event.CancelableFieldEvent;
 import org.wrml.core.runtime.event.FieldEvent;
@@ -40,11 +46,13 @@ import org.wrml.core.runtime.event.LinkEvent;
 import org.wrml.core.runtime.event.ModelEvent;
 import org.wrml.core.runtime.event.ModelEventListener;
 import org.wrml.core.runtime.event.ModelEventListener.ModelEventName;
+import org.wrml.core.runtime.system.FieldPrototype;
 import org.wrml.core.runtime.system.Prototype;
 import org.wrml.core.runtime.system.transformer.SystemTransformers;
 import org.wrml.core.service.ProxyService;
 import org.wrml.core.service.Service;
 import org.wrml.core.util.Cancelable;
+import org.wrml.core.util.DelegatingMap;
 import org.wrml.core.util.observable.CancelableMapEvent;
 import org.wrml.core.util.observable.MapEvent;
 import org.wrml.core.util.observable.MapEventListener;
@@ -58,28 +66,54 @@ import org.wrml.core.www.MediaType;
  * features intended to attract developers wanting to work with an easy-to-use
  * REST-based application framework.
  * </p>
+ * <p>
+ * A model may be {@link #freeze() frozen}, after which its fields are held in
+ * an immutable {@link FieldSlotMap} copy (or an unmodifiable map) and it has
+ * no event sources, so that it can be shared by concurrent threads. Note that
+ * a frozen model's hyperlinks are not frozen.
+ * </p>
  */
 public final class RuntimeModel extends RuntimeObject implements Model {
 
     private static final long serialVersionUID = 1L;
 
     private transient final ModelGraph _ModelGraph;
-    private transient Model _StaticInterface;
+    private transient volatile Model _StaticInterface;
     private transient final java.lang.reflect.Type _NativeType;
 
-    private final ObservableMap<String, Object> _Fields;
-    private final ObservableMap<URI, Hyperlink> _Hyperlinks;
+    /*
+     * Volatile, so that the frozen fields (and everything that freeze created
+     * before them) are visible to other threads once they are swapped in.
+     */
+    private volatile Map<String, Object> _Fields;
+    private transient volatile FieldSlotMap _FieldSlots;
+    private final HyperlinkMap _HyperlinkMap;
+    private transient volatile ObservableMap<URI, Hyperlink> _Hyperlinks;
 
     private transient FieldMapEventListener _FieldMapEventListener;
 
-    private MediaType _MediaType;
+    private volatile MediaType _MediaType;
     private transient URI _ResourceTemplateId;
 
     private transient EventSource<ModelEventListener> _ModelEventSource;
     private transient Map<String, EventSource<FieldEventListener>> _FieldEventSources;
 
+    private transient volatile boolean _Frozen;
+    private transient boolean _Freezing;
+
     RuntimeModel(Context context, java.lang.reflect.Type nativeType, ModelGraph modelGraph, FieldMap fieldMap,
             Map<URI, Hyperlink> linkMap) {
+        this(context, nativeType, modelGraph, fieldMap, linkMap, true);
+    }
+
+    /**
+     * Creates a new model, which (if not <code>observable</code>) keeps its
+     * fields in the given field map directly; without an observable wrapper
+     * or any listener wiring. Such a model becomes observable when its first
+     * listener is added.
+     */
+    RuntimeModel(Context context, java.lang.reflect.Type nativeType, ModelGraph modelGraph, FieldMap fieldMap,
+            Map<URI, Hyperlink> linkMap, boolean observable) {
         super(context);
 
         if (nativeType == null) {
@@ -92,18 +126,26 @@ public final class RuntimeModel extends RuntimeObject implements Model {
             throw new NullPointerException("ModelGraph cannot be null");
         }
 
-        _Fields = Observables.observableMap(fieldMap);
-        _FieldMapEventListener = new FieldMapEventListener();
-        _Fields.addEventListener(_FieldMapEventListener);
+        _Fields = fieldMap;
+        if (observable) {
+            observeFields();
+        }
 
-        _Hyperlinks = Observables.observableMap(linkMap);
         final Prototype prototype = context.getPrototype(nativeType);
-        final ObservableMap<URI, Link> linksByRel = prototype.getLinksByRel();
 
-        for (final URI rel : linksByRel.keySet()) {
-            final Hyperlink link = new RuntimeHyperlink(this, rel);
-            _Hyperlinks.put(rel, link);
+        // Keep a direct reference to the slot storage (if any) for slot-indexed field reads.
+        FieldSlotMap fieldSlots = null;
+        if (fieldMap instanceof DelegatingFieldMap) {
+            final Map<String, Object> fieldMapDelegate = ((DelegatingFieldMap) fieldMap).getDelegate();
+            if ((fieldMapDelegate instanceof FieldSlotMap)
+                    && (((FieldSlotMap) fieldMapDelegate).getPrototype() == prototype)) {
+                fieldSlots = (FieldSlotMap) fieldMapDelegate;
+            }
         }
+        _FieldSlots = fieldSlots;
+
+        // The hyperlinks are created on demand (see getHyperLinks), the linkMap (if any) holds the ones created
+        _HyperlinkMap = new HyperlinkMap(this, prototype, linkMap);
 
         _ModelGraph = modelGraph;
         _ModelGraph.pushInitCursorIn(this);
@@ -142,6 +184,14 @@ public final class RuntimeModel extends RuntimeObject implements Model {
      */
 
     public boolean addEventListener(ModelEventListener listener) {
+
+        // A frozen model doesn't change, so there is nothing to listen to
+        if (_Frozen) {
+            return false;
+        }
+
+        observe();
+
         if (_ModelEventSource == null) {
             _ModelEventSource = new EventSource<ModelEventListener>(ModelEventListener.class);
         }
@@ -150,6 +200,12 @@ public final class RuntimeModel extends RuntimeObject implements Model {
 
     public boolean addFieldEventListener(String fieldName, FieldEventListener listener) {
 
+        if (_Frozen) {
+            return false;
+        }
+
+        observe();
+
         if (_FieldEventSources == null) {
             _FieldEventSources = new HashMap<String, EventSource<FieldEventListener>>();
         }
@@ -165,10 +221,11 @@ public final class RuntimeModel extends RuntimeObject implements Model {
 
     public Object clickLink(URI rel, java.lang.reflect.Type nativeReturnType, Object requestEntity,
             Map<String, String> hrefParams) {
-        final Hyperlink runtimeHyperLink = _Hyperlinks.get(rel);
+        final Hyperlink runtimeHyperLink = _HyperlinkMap.getMaterializedHyperlink(rel);
 
         if (runtimeHyperLink == null) {
-            // TODO: Error here instead?
+            // A hyperlink that hasn't been created yet has the default state, which is disabled.
+            // TODO: Error here instead (if the rel is not one of the prototype's)?
             return null;
         }
 
@@ -194,28 +251,255 @@ public final class RuntimeModel extends RuntimeObject implements Model {
 
         if (_ModelEventSource != null) {
             _ModelEventSource.fireEvent(ModelEventListener.ModelEventName.modelFreed, new ModelEvent(this));
-            _ModelEventSource.free();
         }
 
-        if (_FieldEventSources != null) {
-            for (final String fieldName : _FieldEventSources.keySet()) {
-                final EventSource<FieldEventListener> fieldEventSource = _FieldEventSources.get(fieldName);
-                if (fieldEventSource != null) {
-                    fieldEventSource.free();
-                }
+        // The heap forgets the model, whether or not it is observed
+        getContext().getModelHeap().getShard(_NativeType).modelFreed(this);
+
+        release();
+    }
+
+    public void freeze() {
+
+        // The flag guards against models that (indirectly) nest themselves
+        if (_Frozen || _Freezing) {
+            return;
+        }
+
+        _Freezing = true;
+
+        // Read (and later replace) the slots directly, so that no field events are fired
+        final Map<String, Object> fields = (_FieldSlots != null) ? _FieldSlots : _Fields;
+
+        final Map<String, Object> frozenValues = new HashMap<String, Object>();
+        for (final Map.Entry<String, Object> field : fields.entrySet()) {
+            final Object value = field.getValue();
+            final Object frozenValue = freezeValue(value);
+            if (frozenValue != value) {
+                frozenValues.put(field.getKey(), frozenValue);
             }
+        }
 
-            _FieldEventSources.clear();
-            _FieldEventSources = null;
+        releaseEventSources();
+        if (_FieldMapEventListener != null) {
+            ((ObservableMap<String, Object>) _Fields).removeEventListener(_FieldMapEventListener);
+            _FieldMapEventListener = null;
+        }
+
+        // What is otherwise created lazily is created now, so that nothing is written once the model is shared
+        getMediaType();
+        getStaticInterface();
+        _HyperlinkMap.freeze();
+        getHyperLinks();
+
+        if (_FieldSlots != null) {
+            _FieldSlots.putAll(frozenValues);
+            final FieldSlotMap frozenFieldSlots = _FieldSlots.frozenCopy();
+            _FieldSlots = frozenFieldSlots;
+            _Fields = frozenFieldSlots;
+        }
+        else {
+            final Map<String, Object> frozenFields = new LinkedHashMap<String, Object>(fields);
+            frozenFields.putAll(frozenValues);
+            _Fields = Collections.unmodifiableMap(frozenFields);
+        }
+
+        // Written last (and volatile), so that a thread that sees the flag also sees the frozen fields
+        _Frozen = true;
+        _Freezing = false;
+    }
+
+    /**
+     * Releases this model's event sources, listener wiring and hyperlinks;
+     * like {@link #free()} but without firing the <code>modelFreed</code>
+     * event.
+     * 
+     * @see ModelGraph#release()
+     */
+    void release() {
+
+        releaseEventSources();
+
+        if (_FieldMapEventListener != null) {
+            ((ObservableMap<String, Object>) _Fields).removeEventListener(_FieldMapEventListener);
         }
 
-        _Fields.removeEventListener(_FieldMapEventListener);
+        // A frozen model's hyperlinks may be in use by other threads, and they are immutable anyway
+        if (_Frozen) {
+            return;
+        }
 
-        for (final URI relId : _Hyperlinks.keySet()) {
-            final Hyperlink hyperlink = _Hyperlinks.get(relId);
+        for (final Hyperlink hyperlink : _HyperlinkMap.getMaterializedHyperlinks().values()) {
             hyperlink.free();
         }
 
+        _HyperlinkMap.clear();
+    }
+
+    /**
+     * Tells the heap (of a new id) and this model's listeners about the
+     * fields that {@link #replaceFields(Map)} changed. Called after the
+     * replacement, outside of the replacing thread's locks.
+     * 
+     * @param oldFields
+     *            The fields that replaceFields returned.
+     */
+    void fieldsReplaced(final Map<String, Object> oldFields) {
+
+        final Map<String, Object> fields = _Fields;
+
+        final String idFieldName = FieldNames.Document.id.name();
+        final Object oldId = oldFields.get(idFieldName);
+        final Object newId = fields.get(idFieldName);
+        if ((newId instanceof URI) && !newId.equals(oldId)) {
+            final URI oldHeapId = (oldId instanceof URI) ? (URI) oldId : null;
+            getContext().getModelHeap().getShard(_NativeType).modelIdChanged(this, oldHeapId);
+        }
+
+        // Only an observed model has listeners, and its fields are observable
+        if (((_ModelEventSource == null) && (_FieldEventSources == null)) || !(fields instanceof ObservableMap)) {
+            return;
+        }
+
+        final Set<String> fieldNames = new LinkedHashSet<String>(oldFields.keySet());
+        fieldNames.addAll(fields.keySet());
+        for (final String fieldName : fieldNames) {
+
+            final Object oldValue = oldFields.get(fieldName);
+            final Object newValue = fields.get(fieldName);
+            if ((oldValue == newValue) || ((oldValue != null) && oldValue.equals(newValue))) {
+                continue;
+            }
+
+            final MapEvent mapEvent = new MapEvent((ObservableMap<?, ?>) fields, fieldName, newValue, oldValue);
+            final FieldEvent event = new FieldEvent(this, fieldName, mapEvent);
+            if (_FieldEventSources != null) {
+                fireFieldValueChanged(event);
+            }
+
+            if (_ModelEventSource != null) {
+                fireModelFieldValueChanged(event);
+            }
+        }
+    }
+
+    /**
+     * Replaces the values of all of this model's fields with the specified
+     * fields. The values are written into a new field map, which is then
+     * swapped in with a single (volatile) write, so that a thread that reads
+     * the fields without a lock sees either all of the old values or all of
+     * the new ones. A field map that doesn't keep the values itself (e.g. a
+     * bootstrap model's reflective one) is written in place instead, which
+     * isn't atomic.
+     * 
+     * No events are fired, and the heap isn't told of a new id, until
+     * {@link #fieldsReplaced(Map)} is called with the returned (old) fields.
+     * 
+     * @return The old fields, which are no longer changed.
+     */
+    @SuppressWarnings("unchecked")
+    Map<String, Object> replaceFields(final Map<String, Object> fields) {
+
+        if (_Frozen) {
+            throw new IllegalStateException("The fields of the frozen model \"" + this + "\" cannot be replaced");
+        }
+
+        final Map<String, Object> oldFields = _Fields;
+
+        // The field map that is wrapped by the observable fields (if any)
+        Map<String, Object> fieldMap = oldFields;
+        if (oldFields instanceof ObservableMap) {
+            fieldMap = ((DelegatingMap<String, Object>) oldFields).getDelegate();
+        }
+
+        if (!(fieldMap instanceof ModelFieldMap)) {
+
+            final Map<String, Object> oldFieldValues = new LinkedHashMap<String, Object>(fieldMap);
+            for (final String fieldName : oldFieldValues.keySet()) {
+                if (!fields.containsKey(fieldName)) {
+                    fieldMap.put(fieldName, null);
+                }
+            }
+
+            fieldMap.putAll(fields);
+            return oldFieldValues;
+        }
+
+        final Map<String, Object> oldFieldValues = ((ModelFieldMap) fieldMap).getDelegate();
+        final Map<String, Object> fieldValues = (oldFieldValues instanceof FieldSlotMap) ? new FieldSlotMap(
+                ((FieldSlotMap) oldFieldValues).getPrototype()) : new LinkedHashMap<String, Object>(fields.size());
+        fieldValues.putAll(fields);
+
+        final ModelFieldMap newFieldMap = new ModelFieldMap(getContext(), fieldValues);
+        newFieldMap.setModel(this);
+
+        Map<String, Object> newFields = newFieldMap;
+        if (_FieldMapEventListener != null) {
+            final ObservableMap<String, Object> observableFields = Observables.observableMap(newFields);
+            observableFields.addEventListener(_FieldMapEventListener);
+            ((ObservableMap<String, Object>) oldFields).removeEventListener(_FieldMapEventListener);
+            newFields = observableFields;
+        }
+
+        // A slot read that sees the new slots before the new fields reads a (new) value all the same
+        _FieldSlots = (_FieldSlots != null) ? (FieldSlotMap) fieldValues : null;
+        _Fields = newFields;
+        return oldFields;
+    }
+
+    public boolean getBooleanFieldValue(String fieldName) {
+        final int slot = getFieldSlot(fieldName);
+        if (slot != FieldPrototype.NO_SLOT) {
+            return _FieldSlots.getBooleanSlotValue(slot);
+        }
+
+        return FieldSlotMap.toBoolean(getFieldValue(fieldName));
+    }
+
+    public boolean getBooleanFieldValue(FieldPrototype fieldPrototype) {
+        final int slot = getFieldSlot(fieldPrototype);
+        if (slot != FieldPrototype.NO_SLOT) {
+            return _FieldSlots.getBooleanSlotValue(slot);
+        }
+
+        return FieldSlotMap.toBoolean(getFieldValue(fieldPrototype.getFieldName()));
+    }
+
+    public long getDateTimeFieldValue(String fieldName) {
+        return getLongFieldValue(fieldName);
+    }
+
+    public double getDoubleFieldValue(String fieldName) {
+        final int slot = getFieldSlot(fieldName);
+        if (slot != FieldPrototype.NO_SLOT) {
+            return _FieldSlots.getDoubleSlotValue(slot);
+        }
+
+        return FieldSlotMap.toDouble(getFieldValue(fieldName));
+    }
+
+    public double getDoubleFieldValue(FieldPrototype fieldPrototype) {
+        final int slot = getFieldSlot(fieldPrototype);
+        if (slot != FieldPrototype.NO_SLOT) {
+            return _FieldSlots.getDoubleSlotValue(slot);
+        }
+
+        return FieldSlotMap.toDouble(getFieldValue(fieldPrototype.getFieldName()));
+    }
+
+    /**
+     * Returns the slot storage of this model's fields, or <code>null</code>
+     * if its fields aren't kept in slots.
+     */
+    FieldSlotMap getFieldSlots() {
+        return _FieldSlots;
+    }
+
+    /**
+     * Returns the (possibly observable) map that holds this model's fields.
+     */
+    Map<String, Object> getFieldMap() {
+        return _Fields;
     }
 
     public Model getDynamicInterface() {
@@ -226,6 +510,22 @@ public final class RuntimeModel extends RuntimeObject implements Model {
         return _Fields.get(fieldName);
     }
 
+    /**
+     * Get the value of the field described by the specified
+     * {@link FieldPrototype}, reading it directly from its slot when this
+     * model's fields are stored in a {@link FieldSlotMap}.
+     * 
+     * @see #getFieldValue(String)
+     */
+    public Object getFieldValue(FieldPrototype fieldPrototype) {
+        final int slot = getFieldSlot(fieldPrototype);
+        if (slot != FieldPrototype.NO_SLOT) {
+            return _FieldSlots.getSlotValue(slot);
+        }
+
+        return getFieldValue(fieldPrototype.getFieldName());
+    }
+
     public final URI getHeapId() {
 
         final Object idFieldValue = getFieldValue(FieldNames.Document.id.name());
@@ -237,7 +537,37 @@ public final class RuntimeModel extends RuntimeObject implements Model {
         return null;
     }
 
+    public int getIntegerFieldValue(String fieldName) {
+        return (int) getLongFieldValue(fieldName);
+    }
+
+    public int getIntegerFieldValue(FieldPrototype fieldPrototype) {
+        return (int) getLongFieldValue(fieldPrototype);
+    }
+
+    public long getLongFieldValue(String fieldName) {
+        final int slot = getFieldSlot(fieldName);
+        if (slot != FieldPrototype.NO_SLOT) {
+            return _FieldSlots.getLongSlotValue(slot);
+        }
+
+        return FieldSlotMap.toLong(getFieldValue(fieldName));
+    }
+
+    public long getLongFieldValue(FieldPrototype fieldPrototype) {
+        final int slot = getFieldSlot(fieldPrototype);
+        if (slot != FieldPrototype.NO_SLOT) {
+            return _FieldSlots.getLongSlotValue(slot);
+        }
+
+        return FieldSlotMap.toLong(getFieldValue(fieldPrototype.getFieldName()));
+    }
+
     public ObservableMap<URI, Hyperlink> getHyperLinks() {
+        if (_Hyperlinks == null) {
+            _Hyperlinks = Observables.observableMap(_HyperlinkMap);
+        }
+
         return _Hyperlinks;
     }
 
@@ -394,17 +724,30 @@ public final class RuntimeModel extends RuntimeObject implements Model {
         //else {
 
         /*
-         * Create a proxy that layers the static Java interface
-         * associated
-         * with this model's "declared" schema.
+         * Create an instance of the class that was generated to implement the
+         * static Java interface associated with this model's "declared"
+         * schema.
          */
 
-        final Class<?> schemaInterfaceClass = systemTransformers.getNativeTypeToClassTransformer()
-                .aToB(getNativeType());
-        final Class<?>[] schemaInterfaceArray = new Class<?>[] { schemaInterfaceClass };
-        final StaticInterfaceFacade facade = new StaticInterfaceFacade(this);
+        final StaticInterfaceFactory staticInterfaceFactory = getPrototype().getStaticInterfaceFactory();
+        if (staticInterfaceFactory != null) {
+            _StaticInterface = staticInterfaceFactory.newStaticInterface(this);
+        }
+        else {
 
-        _StaticInterface = (Model) Proxy.newProxyInstance(context, schemaInterfaceArray, facade);
+            /*
+             * Create a proxy that layers the static Java interface
+             * associated
+             * with this model's "declared" schema.
+             */
+
+            final Class<?> schemaInterfaceClass = systemTransformers.getNativeTypeToClassTransformer().aToB(
+                    getNativeType());
+            final Class<?>[] schemaInterfaceArray = new Class<?>[] { schemaInterfaceClass };
+            final StaticInterfaceFacade facade = new StaticInterfaceFacade(this);
+
+            _StaticInterface = (Model) Proxy.newProxyInstance(context, schemaInterfaceArray, facade);
+        }
         //}
 
         /*
@@ -433,10 +776,46 @@ public final class RuntimeModel extends RuntimeObject implements Model {
      * }
      */
 
+    /**
+     * Returns <code>true</code> if this model's fields are observed (wrapped
+     * by an observable map and listened to). Models created by a heap that
+     * isn't observing new models remain unobserved until their first listener
+     * is added.
+     * 
+     * @see ModelHeap#setObservingNewModels(boolean)
+     */
+    public boolean isObservable() {
+        return _FieldMapEventListener != null;
+    }
+
+    public boolean isFrozen() {
+        return _Frozen;
+    }
+
     public boolean isFieldValueSet(String fieldName) {
         return (_Fields != null) && _Fields.containsKey(fieldName);
     }
 
+    public boolean isFieldValueSet(FieldPrototype fieldPrototype) {
+        final int slot = getFieldSlot(fieldPrototype);
+        if (slot != FieldPrototype.NO_SLOT) {
+            return _FieldSlots.isSlotSet(slot);
+        }
+
+        return isFieldValueSet(fieldPrototype.getFieldName());
+    }
+
+    /**
+     * Returns <code>true</code> if the value of the field described by the
+     * specified {@link FieldPrototype} is kept unboxed in a primitive slot, in
+     * which case it can be read by the typed field getters (e.g.
+     * {@link #getLongFieldValue(FieldPrototype)}) without boxing.
+     */
+    public boolean isPrimitiveFieldValue(FieldPrototype fieldPrototype) {
+        final int slot = getFieldSlot(fieldPrototype);
+        return (slot != FieldPrototype.NO_SLOT) && _FieldSlots.isPrimitiveSlotValue(slot);
+    }
+
     public final boolean removeEventListener(ModelEventListener listener) {
 
         if (_ModelEventSource == null) {
@@ -474,6 +853,38 @@ public final class RuntimeModel extends RuntimeObject implements Model {
      * }
      */
 
+    public void setBooleanFieldValue(String fieldName, boolean fieldValue) {
+        final int slot = getUnobservedFieldSlot(fieldName);
+        if (slot != FieldPrototype.NO_SLOT) {
+            _FieldSlots.setBooleanSlotValue(slot, fieldValue);
+            return;
+        }
+
+        setFieldValue(fieldName, Boolean.valueOf(fieldValue));
+    }
+
+    public void setDateTimeFieldValue(String fieldName, long fieldValue) {
+        final int slot = getUnobservedFieldSlot(fieldName);
+        final Prototype prototype = (_FieldSlots != null) ? _FieldSlots.getPrototype() : null;
+        if ((slot != FieldPrototype.NO_SLOT)
+                && (prototype.getSlottedFieldPrototype(slot).getPrimitiveSlotType() == Type.DateTime)) {
+            _FieldSlots.setLongSlotValue(slot, fieldValue);
+            return;
+        }
+
+        setFieldValue(fieldName, new Date(fieldValue));
+    }
+
+    public void setDoubleFieldValue(String fieldName, double fieldValue) {
+        final int slot = getUnobservedFieldSlot(fieldName);
+        if (slot != FieldPrototype.NO_SLOT) {
+            _FieldSlots.setDoubleSlotValue(slot, fieldValue);
+            return;
+        }
+
+        setFieldValue(fieldName, Double.valueOf(fieldValue));
+    }
+
     public void setAllFieldsToDefaultValue() {
 
         // TODO: Setting default values doesn't mean clearing the fields (check the schema defaults instead).
@@ -492,7 +903,36 @@ public final class RuntimeModel extends RuntimeObject implements Model {
     }
 
     public Object setFieldValue(String fieldName, Object newValue) {
-        return _Fields.put(fieldName, newValue);
+        final Object oldValue = _Fields.put(fieldName, newValue);
+
+        // The heap identifies the model by its id, whether or not the model is observed
+        if ((newValue instanceof URI) && !newValue.equals(oldValue)
+                && FieldNames.Document.id.name().equals(fieldName)) {
+            final URI oldHeapId = (oldValue instanceof URI) ? (URI) oldValue : null;
+            getContext().getModelHeap().getShard(_NativeType).modelIdChanged(this, oldHeapId);
+        }
+
+        return oldValue;
+    }
+
+    public void setIntegerFieldValue(String fieldName, int fieldValue) {
+        final int slot = getUnobservedFieldSlot(fieldName);
+        if (slot != FieldPrototype.NO_SLOT) {
+            _FieldSlots.setIntegerSlotValue(slot, fieldValue);
+            return;
+        }
+
+        setFieldValue(fieldName, Integer.valueOf(fieldValue));
+    }
+
+    public void setLongFieldValue(String fieldName, long fieldValue) {
+        final int slot = getUnobservedFieldSlot(fieldName);
+        if (slot != FieldPrototype.NO_SLOT) {
+            _FieldSlots.setLongSlotValue(slot, fieldValue);
+            return;
+        }
+
+        setFieldValue(fieldName, Long.valueOf(fieldValue));
     }
 
     @Override
@@ -535,7 +975,7 @@ public final class RuntimeModel extends RuntimeObject implements Model {
 
         sb.append("    links : {\n");
         sb.append("   ");
-        sb.append(_Hyperlinks);
+        sb.append(getHyperLinks());
         sb.append("\n    }\n");
 
         sb.append("}\n");
@@ -557,6 +997,104 @@ public final class RuntimeModel extends RuntimeObject implements Model {
         _Fields.putAll(fieldsToExtend);
     }
 
+    /**
+     * Freezes the value's nested models; lists are replaced by immutable
+     * copies (of frozen elements).
+     */
+    private Object freezeValue(final Object value) {
+
+        if (value instanceof Model) {
+            ((Model) value).freeze();
+            return value;
+        }
+
+        if (value instanceof List<?>) {
+            final List<?> list = (List<?>) value;
+            final List<Object> frozenList = new ArrayList<Object>(list.size());
+            for (final Object element : list) {
+                frozenList.add(freezeValue(element));
+            }
+
+            return Observables.observableList(Collections.unmodifiableList(frozenList));
+        }
+
+        return value;
+    }
+
+    /**
+     * Upgrades this model to the observable form (if it isn't already).
+     */
+    private void observe() {
+
+        if (_FieldMapEventListener != null) {
+            return;
+        }
+
+        observeFields();
+
+        // Let the heap know, so that it can start listening too
+        getContext().getModelHeap().getShard(_NativeType).modelObserved(this);
+    }
+
+    private void observeFields() {
+        final ObservableMap<String, Object> fields = Observables.observableMap(_Fields);
+        _FieldMapEventListener = new FieldMapEventListener();
+        fields.addEventListener(_FieldMapEventListener);
+        _Fields = fields;
+    }
+
+    private void releaseEventSources() {
+
+        if (_ModelEventSource != null) {
+            _ModelEventSource.free();
+            _ModelEventSource = null;
+        }
+
+        if (_FieldEventSources != null) {
+            for (final String fieldName : _FieldEventSources.keySet()) {
+                final EventSource<FieldEventListener> fieldEventSource = _FieldEventSources.get(fieldName);
+                if (fieldEventSource != null) {
+                    fieldEventSource.free();
+                }
+            }
+
+            _FieldEventSources.clear();
+            _FieldEventSources = null;
+        }
+    }
+
+    private int getFieldSlot(final FieldPrototype fieldPrototype) {
+
+        final int slot = fieldPrototype.getSlot();
+        if ((_FieldSlots != null) && (slot != FieldPrototype.NO_SLOT)
+                && (_FieldSlots.getPrototype().getSlottedFieldPrototype(slot) == fieldPrototype)) {
+            return slot;
+        }
+
+        return FieldPrototype.NO_SLOT;
+    }
+
+    private int getFieldSlot(final String fieldName) {
+        return (_FieldSlots != null) ? _FieldSlots.getPrototype().getFieldSlot(fieldName) : FieldPrototype.NO_SLOT;
+    }
+
+    /**
+     * Returns the named field's slot if the field's value can be written
+     * straight into it, which is only the case while the model is
+     * unobserved. An observed model's changes must go through its
+     * (observable) field map, so that the model's listeners, the field's
+     * listeners and the heap (e.g. to re-identify the model when its id
+     * changes) all hear of them.
+     */
+    private int getUnobservedFieldSlot(final String fieldName) {
+
+        if (isObservable()) {
+            return FieldPrototype.NO_SLOT;
+        }
+
+        return getFieldSlot(fieldName);
+    }
+
     private void fireFieldChangingValue(CancelableFieldEvent event) {
         fireFieldEvent(FieldEventName.fieldChangingValue, event);
     }
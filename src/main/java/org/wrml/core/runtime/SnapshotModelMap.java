@@ -0,0 +1,243 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import java.net.URI;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The backing map of a {@link ModelHeapShard}'s identified models (keyed by
+ * heap id), which may be warmed up with a {@link ModelHeapSnapshot}. The
+ * snapshot's models are lazily hydrated; each is materialized (and then held
+ * by the wrapped map) when it is first looked up.
+ * 
+ * An entity that is put in the map replaces the snapshot's model with the same
+ * heap id, if it hasn't been hydrated yet.
+ * 
+ * The map keeps its heap ids (including the snapshot's) in the heap's
+ * {@link ModelHeapIdIndex}.
+ */
+final class SnapshotModelMap extends AbstractMap<URI, Object> {
+
+    private final ModelHeapShard _Shard;
+    private final Map<URI, Object> _Entities;
+    private final ModelRecordCodec _Codec;
+    private final ModelHeapIdIndex _IdIndex;
+
+    private volatile ModelHeapSnapshot _Snapshot;
+
+    /**
+     * The offsets of the snapshot's (not yet hydrated) records, by heap id.
+     */
+    private final Map<URI, Integer> _SnapshotRecordOffsets;
+
+    private transient Set<Map.Entry<URI, Object>> _EntrySet;
+
+    SnapshotModelMap(final ModelHeapShard shard, final Map<URI, Object> entities, final ModelHeapIdIndex idIndex) {
+        _Shard = shard;
+        _Entities = entities;
+        _Codec = new ModelRecordCodec(shard, true);
+        _IdIndex = idIndex;
+        _SnapshotRecordOffsets = new ConcurrentHashMap<URI, Integer>();
+    }
+
+    @Override
+    public synchronized void clear() {
+
+        final Set<URI> heapIds = keySet();
+        _SnapshotRecordOffsets.clear();
+        _Entities.clear();
+
+        for (final URI heapId : heapIds) {
+            _IdIndex.remove(heapId, _Shard);
+        }
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return _Entities.containsKey(key) || _SnapshotRecordOffsets.containsKey(key);
+    }
+
+    @Override
+    public Set<Map.Entry<URI, Object>> entrySet() {
+        if (_EntrySet == null) {
+            _EntrySet = new EntrySet();
+        }
+
+        return _EntrySet;
+    }
+
+    @Override
+    public Object get(final Object key) {
+
+        final Object entity = _Entities.get(key);
+        if ((entity != null) || _SnapshotRecordOffsets.isEmpty()) {
+            return entity;
+        }
+
+        return hydrate(key);
+    }
+
+    @Override
+    public Set<URI> keySet() {
+
+        // A snapshot, which (unlike the entry set) doesn't hydrate the models
+        final Set<URI> keys = new LinkedHashSet<URI>(_Entities.keySet());
+        keys.addAll(_SnapshotRecordOffsets.keySet());
+        return Collections.unmodifiableSet(keys);
+    }
+
+    @Override
+    public Object put(final URI heapId, final Object entity) {
+        _SnapshotRecordOffsets.remove(heapId);
+        final Object oldEntity = _Entities.put(heapId, entity);
+        _IdIndex.add(heapId, _Shard);
+        return oldEntity;
+    }
+
+    @Override
+    public Object remove(final Object key) {
+
+        final boolean removedSnapshotRecord = (_SnapshotRecordOffsets.remove(key) != null);
+        final Object oldEntity = _Entities.remove(key);
+        if ((oldEntity != null) || removedSnapshotRecord) {
+            _IdIndex.remove((URI) key, _Shard);
+        }
+
+        return oldEntity;
+    }
+
+    @Override
+    public int size() {
+        return _Entities.size() + _SnapshotRecordOffsets.size();
+    }
+
+    /**
+     * Returns the serialized records of the identified models (including any
+     * that have not been hydrated) that can be written to a snapshot.
+     */
+    Map<URI, byte[]> getSnapshotRecords() {
+
+        final Map<URI, byte[]> records = new LinkedHashMap<URI, byte[]>();
+        for (final URI heapId : keySet()) {
+
+            final ModelHeapSnapshot snapshot = _Snapshot;
+            final Integer offset = _SnapshotRecordOffsets.get(heapId);
+            if ((snapshot != null) && (offset != null)) {
+                records.put(heapId, snapshot.readRecord(offset.intValue()));
+                continue;
+            }
+
+            final byte[] record = _Codec.serialize(_Entities.get(heapId));
+            if (record != null) {
+                records.put(heapId, record);
+            }
+        }
+
+        return records;
+    }
+
+    /**
+     * Sets the snapshot whose records (by heap id) are lazily hydrated. The
+     * records of models that are already in the map are ignored, while those
+     * of a previous snapshot (that have not been hydrated) are dropped.
+     */
+    synchronized void setSnapshot(final ModelHeapSnapshot snapshot, final Map<URI, Integer> recordOffsets) {
+
+        for (final URI heapId : _SnapshotRecordOffsets.keySet()) {
+            _SnapshotRecordOffsets.remove(heapId);
+            _IdIndex.remove(heapId, _Shard);
+        }
+
+        _Snapshot = snapshot;
+
+        for (final URI heapId : recordOffsets.keySet()) {
+            if (!_Entities.containsKey(heapId)) {
+                _SnapshotRecordOffsets.put(heapId, recordOffsets.get(heapId));
+                _IdIndex.add(heapId, _Shard);
+            }
+        }
+    }
+
+    /**
+     * Materializes the snapshot's model with the specified heap id, at most
+     * once.
+     */
+    private synchronized Object hydrate(final Object key) {
+
+        final Integer offset = _SnapshotRecordOffsets.get(key);
+        if (offset == null) {
+            // Not in the snapshot, or hydrated by another thread
+            return _Entities.get(key);
+        }
+
+        final URI heapId = (URI) key;
+        final Object entity = _Codec.materialize(_Snapshot.readRecord(offset.intValue()));
+        _Entities.put(heapId, entity);
+        _SnapshotRecordOffsets.remove(heapId);
+
+        return entity;
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<URI, Object>> {
+
+        /**
+         * Iterates over a snapshot of the keys, hydrating each of the values.
+         */
+        @Override
+        public Iterator<Map.Entry<URI, Object>> iterator() {
+
+            final Iterator<URI> heapIds = keySet().iterator();
+            return new Iterator<Map.Entry<URI, Object>>() {
+
+                private URI _LastHeapId;
+
+                public boolean hasNext() {
+                    return heapIds.hasNext();
+                }
+
+                public Map.Entry<URI, Object> next() {
+                    _LastHeapId = heapIds.next();
+                    return new AbstractMap.SimpleImmutableEntry<URI, Object>(_LastHeapId, get(_LastHeapId));
+                }
+
+                public void remove() {
+                    if (_LastHeapId == null) {
+                        throw new IllegalStateException();
+                    }
+
+                    SnapshotModelMap.this.remove(_LastHeapId);
+                    _LastHeapId = null;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return SnapshotModelMap.this.size();
+        }
+    }
+
+}
@@ -0,0 +1,270 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.wrml.core.Model;
+import org.wrml.core.runtime.system.FieldPrototype;
+import org.wrml.core.runtime.system.LinkPrototype;
+import org.wrml.core.runtime.system.Prototype;
+import org.wrml.core.util.DelegatingInvocationHandler;
+
+/**
+ * The resolved mapping of a {@link Prototype}'s static interface methods to
+ * the field or link that each of them accesses. The table is computed once
+ * per Prototype (and so once per schema interface) and is shared by all of
+ * the Prototype's models, regardless of whether their static interface is a
+ * generated class ({@link StaticInterfaceFactory}) or a dynamic proxy (
+ * {@link StaticInterfaceFacade}).
+ * 
+ * The method name to field name derivation happens here, while the table is
+ * being built, so that invoking a {@link MethodDispatch} involves no string
+ * work and no allocation.
+ * 
+ * @see Prototype#getStaticInterfaceDispatchTable()
+ */
+public final class StaticInterfaceDispatchTable extends RuntimeObject {
+
+    private final Prototype _Prototype;
+    private final Class<?> _StaticInterfaceClass;
+
+    private final List<MethodDispatch> _MethodDispatches;
+    private final ConcurrentMap<Method, MethodDispatch> _MethodDispatchesByMethod;
+
+    public StaticInterfaceDispatchTable(final Prototype prototype) {
+        super(prototype.getContext());
+
+        _Prototype = prototype;
+        _StaticInterfaceClass = prototype.getNativeClass();
+
+        final List<MethodDispatch> methodDispatches = new ArrayList<MethodDispatch>();
+        _MethodDispatchesByMethod = new ConcurrentHashMap<Method, MethodDispatch>();
+
+        for (final Method method : _StaticInterfaceClass.getMethods()) {
+
+            if (isModelMethod(method) || Modifier.isStatic(method.getModifiers())) {
+                continue;
+            }
+
+            final MethodDispatch methodDispatch = createMethodDispatch(methodDispatches.size(), method);
+            methodDispatches.add(methodDispatch);
+            _MethodDispatchesByMethod.put(method, methodDispatch);
+        }
+
+        _MethodDispatches = Collections.unmodifiableList(methodDispatches);
+    }
+
+    /**
+     * Get the index-ordered list of the dispatches, one per (non-Model)
+     * static interface method.
+     */
+    public List<MethodDispatch> getMethodDispatches() {
+        return _MethodDispatches;
+    }
+
+    public MethodDispatch getMethodDispatch(final int index) {
+        return _MethodDispatches.get(index);
+    }
+
+    /**
+     * Get the dispatch for the specified method.
+     * 
+     * @return The {@link MethodDispatch} or <code>null</code> if the method is
+     *         declared by {@link Model} (or one of its ancestors).
+     */
+    public MethodDispatch getMethodDispatch(final Method method) {
+
+        MethodDispatch methodDispatch = _MethodDispatchesByMethod.get(method);
+
+        if ((methodDispatch == null) && !isModelMethod(method)) {
+
+            /*
+             * A method that is equal to, but not reported by, the interface's
+             * getMethods(). This can happen when the same signature is
+             * inherited from more than one base schema.
+             */
+            methodDispatch = createMethodDispatch(-1, method);
+            final MethodDispatch existingMethodDispatch = _MethodDispatchesByMethod.putIfAbsent(method,
+                    methodDispatch);
+            if (existingMethodDispatch != null) {
+                methodDispatch = existingMethodDispatch;
+            }
+        }
+
+        return methodDispatch;
+    }
+
+    public Prototype getPrototype() {
+        return _Prototype;
+    }
+
+    public Class<?> getStaticInterfaceClass() {
+        return _StaticInterfaceClass;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + " { prototype : " + _Prototype + ", methodDispatches : "
+                + _MethodDispatches.size() + " }";
+    }
+
+    private MethodDispatch createMethodDispatch(final int index, final Method method) {
+
+        final String fieldName = getFieldName(method);
+        final FieldPrototype fieldPrototype = (fieldName != null) ? _Prototype.getFieldPrototype(fieldName) : null;
+
+        if (fieldPrototype != null) {
+
+            FieldAccessType fieldAccessType = FieldAccessType.GET;
+            if (method.getName().startsWith(FieldAccessType.SET.getPrefix())
+                    && (method.getParameterTypes().length > 0)) {
+                fieldAccessType = FieldAccessType.SET;
+            }
+
+            return new MethodDispatch(index, method, fieldPrototype, fieldAccessType);
+        }
+
+        return new MethodDispatch(index, method, null, null);
+    }
+
+    private String getFieldName(final Method method) {
+
+        final String methodName = method.getName();
+        String possibleFieldName = null;
+        if (methodName.startsWith("get") || methodName.startsWith("set")) {
+            possibleFieldName = methodName.substring(3);
+        }
+        else if (methodName.startsWith("is")) {
+            possibleFieldName = methodName.substring(2);
+        }
+
+        if ((possibleFieldName == null) || (possibleFieldName.length() == 0)) {
+            return null;
+        }
+
+        return Character.toLowerCase(possibleFieldName.charAt(0)) + possibleFieldName.substring(1);
+    }
+
+    private boolean isModelMethod(final Method method) {
+        // If the method was declared in Model or one of its ancestors, it is not a field or link method.
+        return method.getDeclaringClass().isAssignableFrom(Model.class);
+    }
+
+    /**
+     * The resolved target of a single static interface method; either a field
+     * access or a link click.
+     */
+    public final class MethodDispatch {
+
+        private final int _Index;
+        private final Method _Method;
+        private final FieldPrototype _FieldPrototype;
+        private final FieldAccessType _FieldAccessType;
+
+        private volatile LinkPrototype _LinkPrototype;
+        private volatile boolean _LinkPrototypeResolved;
+
+        private MethodDispatch(final int index, final Method method, final FieldPrototype fieldPrototype,
+                final FieldAccessType fieldAccessType) {
+            _Index = index;
+            _Method = method;
+            _FieldPrototype = fieldPrototype;
+            _FieldAccessType = fieldAccessType;
+        }
+
+        public FieldAccessType getFieldAccessType() {
+            return _FieldAccessType;
+        }
+
+        public FieldPrototype getFieldPrototype() {
+            return _FieldPrototype;
+        }
+
+        /**
+         * Get the index of this dispatch within the table, or -1 if it was
+         * added after the table was built.
+         */
+        public int getIndex() {
+            return _Index;
+        }
+
+        /**
+         * Get the LinkPrototype that this method clicks. The link is resolved
+         * on first use since doing so may require the {@link LinkRelation} to
+         * be fetched.
+         */
+        public LinkPrototype getLinkPrototype() {
+
+            if (isField()) {
+                return null;
+            }
+
+            if (!_LinkPrototypeResolved) {
+                final String methodKey = DelegatingInvocationHandler.baseGetMethodKey(_Method);
+                _LinkPrototype = _Prototype.getLinkPrototype(methodKey, _Method);
+                _LinkPrototypeResolved = true;
+            }
+
+            return _LinkPrototype;
+        }
+
+        public Method getMethod() {
+            return _Method;
+        }
+
+        public Object invoke(final Model model, final Object[] args) {
+
+            if (isField()) {
+                final Object fieldValue = (_FieldAccessType == FieldAccessType.SET) ? args[0] : null;
+                return _FieldPrototype.accessField(model, _FieldAccessType, fieldValue);
+            }
+
+            final LinkPrototype linkPrototype = getLinkPrototype();
+            if (linkPrototype == null) {
+                return null;
+            }
+
+            final Object requestEntity = ((args != null) && (args.length > 0)) ? args[0] : null;
+
+            // TODO: Deal with additional params
+            @SuppressWarnings("unchecked")
+            final Map<String, String> hrefArgs = (Map<String, String>) (((args != null) && (args.length > 1)) ? args[1]
+                    : null);
+
+            return linkPrototype.clickLink(model, requestEntity, hrefArgs);
+        }
+
+        public boolean isField() {
+            return _FieldPrototype != null;
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getName() + " { index : " + _Index + ", method : \"" + _Method.getName()
+                    + "\", field : " + ((_FieldPrototype != null) ? _FieldPrototype.getFieldName() : null) + " }";
+        }
+    }
+
+}
@@ -0,0 +1,429 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.cojen.classfile.ClassFile;
+import org.cojen.classfile.CodeBuilder;
+import org.cojen.classfile.MethodInfo;
+import org.cojen.classfile.Modifiers;
+import org.cojen.classfile.TypeDesc;
+import org.cojen.util.ClassInjector;
+
+import org.wrml.core.Model;
+import org.wrml.core.runtime.StaticInterfaceDispatchTable.MethodDispatch;
+import org.wrml.core.runtime.system.FieldPrototype;
+import org.wrml.core.runtime.system.LinkPrototype;
+import org.wrml.core.runtime.system.Prototype;
+import org.wrml.core.util.DelegatingInvocationHandler;
+
+/**
+ * Generates (with cojen) and then instantiates a concrete class that
+ * implements a {@link Prototype}'s schema interface. This replaces the
+ * reflection {@link java.lang.reflect.Proxy} based {@link StaticInterfaceFacade}
+ * with real bytecode, so that a static interface method call is a plain
+ * virtual call rather than an {@link java.lang.reflect.InvocationHandler}
+ * dispatch.
+ * 
+ * Each field getter is compiled into a call to
+ * {@link RuntimeModel#getFieldValue(FieldPrototype)}, which reads the field's
+ * slot directly, and each setter into a call to
+ * {@link RuntimeModel#setFieldValue(String, Object)} with the field name as a
+ * constant. Each link method is compiled into a call to
+ * {@link LinkPrototype#clickLink(Model, Object, Map)}, with the LinkPrototype
+ * resolved (once, on first click) from the Prototype's
+ * {@link StaticInterfaceDispatchTable}, which is shared by all of the instances
+ * of the generated class.
+ * 
+ * The generated class is instantiated by a (generated) {@link Instantiator},
+ * whose method is a plain <code>new</code> of the class, so that creating a
+ * static interface doesn't go through reflection either.
+ * 
+ * One factory, and one generated class, exists per {@link Prototype}.
+ * 
+ * @see Prototype#getStaticInterfaceFactory()
+ */
+public final class StaticInterfaceFactory extends RuntimeObject {
+
+    private static final String GENERATED_CLASS_NAME_SUFFIX = "$StaticInterface";
+    private static final String GENERATED_INSTANTIATOR_CLASS_NAME_SUFFIX = "$Instantiator";
+
+    private static final TypeDesc OBJECT_TYPE = TypeDesc.OBJECT;
+    private static final TypeDesc STRING_TYPE = TypeDesc.STRING;
+    private static final TypeDesc MAP_TYPE = TypeDesc.forClass(Map.class);
+    private static final TypeDesc RUNTIME_MODEL_TYPE = TypeDesc.forClass(RuntimeModel.class);
+    private static final TypeDesc FACTORY_TYPE = TypeDesc.forClass(StaticInterfaceFactory.class);
+    private static final TypeDesc MODEL_TYPE = TypeDesc.forClass(Model.class);
+
+    private final Prototype _Prototype;
+    private final Class<?> _StaticInterfaceClass;
+    private final Instantiator _Instantiator;
+
+    private final StaticInterfaceDispatchTable _DispatchTable;
+    private final FieldPrototype[] _FieldPrototypes;
+
+    public StaticInterfaceFactory(final Prototype prototype) {
+        super(prototype.getContext());
+
+        _Prototype = prototype;
+        _DispatchTable = prototype.getStaticInterfaceDispatchTable();
+
+        final List<MethodDispatch> methodDispatches = _DispatchTable.getMethodDispatches();
+        _FieldPrototypes = new FieldPrototype[methodDispatches.size()];
+        for (final MethodDispatch methodDispatch : methodDispatches) {
+            _FieldPrototypes[methodDispatch.getIndex()] = methodDispatch.getFieldPrototype();
+        }
+
+        _StaticInterfaceClass = generateClass(prototype.getNativeClass());
+
+        final Class<?> instantiatorClass = generateInstantiatorClass(_StaticInterfaceClass);
+        try {
+            _Instantiator = (Instantiator) instantiatorClass.newInstance();
+        }
+        catch (final Exception e) {
+            throw new IllegalStateException("Bug: The generated class \"" + instantiatorClass
+                    + "\" cannot be instantiated.", e);
+        }
+    }
+
+    public Prototype getPrototype() {
+        return _Prototype;
+    }
+
+    public Class<?> getStaticInterfaceClass() {
+        return _StaticInterfaceClass;
+    }
+
+    public Model newStaticInterface(final RuntimeModel model) {
+        return _Instantiator.newStaticInterface(model, this);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + " { prototype : " + _Prototype + ", staticInterfaceClass : \""
+                + getStaticInterfaceClass().getName() + "\" }";
+    }
+
+    FieldPrototype getFieldPrototype(final int methodDispatchIndex) {
+        return _FieldPrototypes[methodDispatchIndex];
+    }
+
+    LinkPrototype getLinkPrototype(final int methodDispatchIndex) {
+        return _DispatchTable.getMethodDispatch(methodDispatchIndex).getLinkPrototype();
+    }
+
+    private void generateConstructor(final ClassFile classFile) {
+
+        final TypeDesc[] params = new TypeDesc[] { RUNTIME_MODEL_TYPE, FACTORY_TYPE };
+        final MethodInfo constructorInfo = classFile.addConstructor(Modifiers.PUBLIC, params);
+        final CodeBuilder b = new CodeBuilder(constructorInfo);
+        b.loadThis();
+        b.loadLocal(b.getParameter(0));
+        b.loadLocal(b.getParameter(1));
+        b.invokeSuperConstructor(params);
+        b.returnVoid();
+    }
+
+    private Class<?> generateClass(final Class<?> schemaInterface) {
+
+        if (!schemaInterface.isInterface() || !Modifier.isPublic(schemaInterface.getModifiers())) {
+            throw new IllegalArgumentException("Cannot generate a static interface class for \"" + schemaInterface
+                    + "\", it must be a public interface.");
+        }
+
+        final ClassInjector classInjector = ClassInjector.create(schemaInterface.getName()
+                + GENERATED_CLASS_NAME_SUFFIX, getContext());
+
+        final ClassFile classFile = new ClassFile(classInjector.getClassName(), StaticInterfaceModel.class);
+        classFile.setModifiers(Modifiers.PUBLIC.toFinal(true));
+        classFile.addInterface(schemaInterface);
+        classFile.markSynthetic();
+        classFile.setSourceFile(StaticInterfaceFactory.class.getName());
+        classFile.setTarget("1.5");
+
+        generateConstructor(classFile);
+
+        final Set<String> generatedMethodDescriptors = new HashSet<String>();
+
+        // Model's own methods are not in the table, they are implemented by StaticInterfaceModel.
+        for (final MethodDispatch methodDispatch : _DispatchTable.getMethodDispatches()) {
+
+            final Method method = methodDispatch.getMethod();
+
+            final TypeDesc returnType = TypeDesc.forClass(method.getReturnType());
+            final TypeDesc[] paramTypes = toTypeDescs(method.getParameterTypes());
+
+            // The same signature may be inherited through more than one base schema.
+            final String methodDescriptor = DelegatingInvocationHandler.baseGetMethodKey(method)
+                    + returnType.getDescriptor();
+            if (!generatedMethodDescriptors.add(methodDescriptor)) {
+                continue;
+            }
+
+            final MethodInfo methodInfo = classFile.addMethod(Modifiers.PUBLIC.toFinal(true), method.getName(),
+                    returnType, paramTypes);
+            final CodeBuilder b = new CodeBuilder(methodInfo);
+
+            final FieldPrototype fieldPrototype = methodDispatch.getFieldPrototype();
+
+            if ((fieldPrototype != null) && generatePrimitiveFieldMethod(b, methodDispatch, returnType, paramTypes)) {
+                continue;
+            }
+
+            if (fieldPrototype != null) {
+
+                b.loadThis();
+
+                if (methodDispatch.getFieldAccessType() == FieldAccessType.SET) {
+                    b.loadConstant(fieldPrototype.getFieldName());
+                    loadParameterAsObject(b, 0, paramTypes[0]);
+                    b.invokeVirtual("setFieldValue", OBJECT_TYPE, new TypeDesc[] { STRING_TYPE, OBJECT_TYPE });
+                }
+                else {
+                    b.loadConstant(methodDispatch.getIndex());
+                    b.invokeVirtual("getFieldValue", OBJECT_TYPE, new TypeDesc[] { TypeDesc.INT });
+                }
+            }
+            else {
+
+                b.loadThis();
+                b.loadConstant(methodDispatch.getIndex());
+
+                if (paramTypes.length > 0) {
+                    loadParameterAsObject(b, 0, paramTypes[0]);
+                }
+                else {
+                    b.loadNull();
+                }
+
+                if ((paramTypes.length > 1) && !paramTypes[1].isPrimitive()) {
+                    b.loadLocal(b.getParameter(1));
+                    b.checkCast(MAP_TYPE);
+                }
+                else {
+                    b.loadNull();
+                }
+
+                b.invokeVirtual("clickLink", OBJECT_TYPE, new TypeDesc[] { TypeDesc.INT, OBJECT_TYPE, MAP_TYPE });
+            }
+
+            returnObjectAs(b, returnType);
+        }
+
+        return classInjector.defineClass(classFile);
+    }
+
+    /**
+     * Generates a subclass of {@link Instantiator} that creates instances of
+     * the static interface class. Its class loader's parent is the static
+     * interface class's, so that it can link to the (generated) class.
+     */
+    private Class<?> generateInstantiatorClass(final Class<?> staticInterfaceClass) {
+
+        final ClassInjector classInjector = ClassInjector.create(staticInterfaceClass.getName()
+                + GENERATED_INSTANTIATOR_CLASS_NAME_SUFFIX, staticInterfaceClass.getClassLoader());
+
+        final ClassFile classFile = new ClassFile(classInjector.getClassName(), Instantiator.class);
+        classFile.setModifiers(Modifiers.PUBLIC.toFinal(true));
+        classFile.markSynthetic();
+        classFile.setSourceFile(StaticInterfaceFactory.class.getName());
+        classFile.setTarget("1.5");
+        classFile.addDefaultConstructor();
+
+        final TypeDesc[] params = new TypeDesc[] { RUNTIME_MODEL_TYPE, FACTORY_TYPE };
+        final MethodInfo methodInfo = classFile.addMethod(Modifiers.PUBLIC, "newStaticInterface", MODEL_TYPE,
+                params);
+        final CodeBuilder b = new CodeBuilder(methodInfo);
+
+        final TypeDesc staticInterfaceType = TypeDesc.forClass(staticInterfaceClass);
+        b.newObject(staticInterfaceType);
+        b.dup();
+        b.loadLocal(b.getParameter(0));
+        b.loadLocal(b.getParameter(1));
+        b.invokeConstructor(staticInterfaceType, params);
+        b.returnValue(MODEL_TYPE);
+
+        return classInjector.defineClass(classFile);
+    }
+
+    /**
+     * Generates a field method that reads or writes the field's primitive slot
+     * through one of the typed (boolean, int, long or double) accessors, so
+     * that its value is never boxed.
+     * 
+     * @return <code>true</code> if the method was generated, or
+     *         <code>false</code> if the field is not stored in a primitive
+     *         slot or the method's signature is not a primitive one.
+     */
+    private boolean generatePrimitiveFieldMethod(final CodeBuilder b, final MethodDispatch methodDispatch,
+            final TypeDesc returnType, final TypeDesc[] paramTypes) {
+
+        final FieldPrototype fieldPrototype = methodDispatch.getFieldPrototype();
+        if (fieldPrototype.getPrimitiveSlot() == FieldPrototype.NO_SLOT) {
+            return false;
+        }
+
+        if (methodDispatch.getFieldAccessType() == FieldAccessType.GET) {
+
+            final String typedAccessorKind = getTypedAccessorKind(returnType);
+            if (typedAccessorKind == null) {
+                return false;
+            }
+
+            b.loadThis();
+            b.loadConstant(methodDispatch.getIndex());
+            b.invokeVirtual("get" + typedAccessorKind + "FieldValue", returnType, new TypeDesc[] { TypeDesc.INT });
+            b.returnValue(returnType);
+            return true;
+        }
+
+        final TypeDesc paramType = paramTypes[0];
+        final String typedAccessorKind = getTypedAccessorKind(paramType);
+        if ((typedAccessorKind == null) || ((returnType != TypeDesc.VOID) && !returnType.equals(paramType))) {
+            return false;
+        }
+
+        if (returnType != TypeDesc.VOID) {
+            // Setters return the field's previous value.
+            b.loadThis();
+            b.loadConstant(methodDispatch.getIndex());
+            b.invokeVirtual("get" + typedAccessorKind + "FieldValue", paramType, new TypeDesc[] { TypeDesc.INT });
+        }
+
+        b.loadThis();
+        b.loadConstant(fieldPrototype.getFieldName());
+        b.loadLocal(b.getParameter(0));
+        b.invokeVirtual("set" + typedAccessorKind + "FieldValue", null, new TypeDesc[] { STRING_TYPE, paramType });
+
+        if (returnType != TypeDesc.VOID) {
+            b.returnValue(returnType);
+        }
+        else {
+            b.returnVoid();
+        }
+
+        return true;
+    }
+
+    private String getTypedAccessorKind(final TypeDesc type) {
+
+        switch (type.getTypeCode()) {
+        case TypeDesc.BOOLEAN_CODE:
+            return "Boolean";
+        case TypeDesc.INT_CODE:
+            return "Integer";
+        case TypeDesc.LONG_CODE:
+            return "Long";
+        case TypeDesc.DOUBLE_CODE:
+            return "Double";
+        default:
+            return null;
+        }
+    }
+
+    private void loadParameterAsObject(final CodeBuilder b, final int index, final TypeDesc paramType) {
+        b.loadLocal(b.getParameter(index));
+        if (paramType.isPrimitive()) {
+            b.convert(paramType, paramType.toObjectType());
+        }
+    }
+
+    /**
+     * Converts the Object on the top of the operand stack to the method's
+     * return type and then returns it. Primitive return types are unboxed
+     * with a null-safe helper from {@link StaticInterfaceModel}.
+     */
+    private void returnObjectAs(final CodeBuilder b, final TypeDesc returnType) {
+
+        switch (returnType.getTypeCode()) {
+
+        case TypeDesc.VOID_CODE:
+            b.pop();
+            b.returnVoid();
+            return;
+
+        case TypeDesc.OBJECT_CODE:
+            if (!OBJECT_TYPE.equals(returnType)) {
+                b.checkCast(returnType);
+            }
+            break;
+
+        case TypeDesc.BOOLEAN_CODE:
+            b.invokeStatic("toBoolean", returnType, new TypeDesc[] { OBJECT_TYPE });
+            break;
+
+        case TypeDesc.BYTE_CODE:
+            b.invokeStatic("toByte", returnType, new TypeDesc[] { OBJECT_TYPE });
+            break;
+
+        case TypeDesc.CHAR_CODE:
+            b.invokeStatic("toChar", returnType, new TypeDesc[] { OBJECT_TYPE });
+            break;
+
+        case TypeDesc.DOUBLE_CODE:
+            b.invokeStatic("toDouble", returnType, new TypeDesc[] { OBJECT_TYPE });
+            break;
+
+        case TypeDesc.FLOAT_CODE:
+            b.invokeStatic("toFloat", returnType, new TypeDesc[] { OBJECT_TYPE });
+            break;
+
+        case TypeDesc.INT_CODE:
+            b.invokeStatic("toInt", returnType, new TypeDesc[] { OBJECT_TYPE });
+            break;
+
+        case TypeDesc.LONG_CODE:
+            b.invokeStatic("toLong", returnType, new TypeDesc[] { OBJECT_TYPE });
+            break;
+
+        case TypeDesc.SHORT_CODE:
+            b.invokeStatic("toShort", returnType, new TypeDesc[] { OBJECT_TYPE });
+            break;
+
+        default:
+            break;
+        }
+
+        b.returnValue(returnType);
+    }
+
+    private TypeDesc[] toTypeDescs(final Class<?>[] classes) {
+        final TypeDesc[] typeDescs = new TypeDesc[classes.length];
+        for (int i = 0; i < classes.length; i++) {
+            typeDescs[i] = TypeDesc.forClass(classes[i]);
+        }
+        return typeDescs;
+    }
+
+    /**
+     * Creates the instances of a generated static interface class. The
+     * (generated) subclass is public, as it is defined by another class
+     * loader.
+     */
+    public static abstract class Instantiator {
+
+        public abstract Model newStaticInterface(RuntimeModel model, StaticInterfaceFactory factory);
+
+    }
+
+}
@@ -0,0 +1,305 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import java.net.URI;
+import java.util.Map;
+
+import org.wrml.core.Hyperlink;
+import org.wrml.core.Model;
+import org.wrml.core.model.api.ResourceTemplate;
+import org.wrml.core.model.schema.Schema;
+import org.wrml.core.runtime.event.FieldEventListener;
+import org.wrml.core.runtime.event.ModelEventListener;
+import org.wrml.core.runtime.system.LinkPrototype;
+import org.wrml.core.util.observable.ObservableMap;
+import org.wrml.core.www.MediaType;
+
+/**
+ * The base class of the static interface classes that are generated by the
+ * {@link StaticInterfaceFactory}. Each generated subclass implements a single
+ * schema's Java interface, with its field methods compiled down to direct
+ * calls on the backing {@link RuntimeModel} and its link methods compiled down
+ * to {@link LinkPrototype#clickLink(Model, Object, Map)}.
+ * 
+ * The Model API itself is implemented here, once, by delegating to the
+ * runtime model.
+ */
+public abstract class StaticInterfaceModel implements Model {
+
+    private static final long serialVersionUID = 1L;
+
+    private final RuntimeModel _Model;
+    private final transient StaticInterfaceFactory _Factory;
+
+    protected StaticInterfaceModel(RuntimeModel model, StaticInterfaceFactory factory) {
+
+        if (model == null) {
+            throw new NullPointerException("Model cannot be null");
+        }
+
+        _Model = model;
+        _Factory = factory;
+    }
+
+    protected static boolean toBoolean(Object value) {
+        return (value != null) ? ((Boolean) value).booleanValue() : false;
+    }
+
+    protected static byte toByte(Object value) {
+        return (value != null) ? ((Number) value).byteValue() : 0;
+    }
+
+    protected static char toChar(Object value) {
+        return (value != null) ? ((Character) value).charValue() : 0;
+    }
+
+    protected static double toDouble(Object value) {
+        return (value != null) ? ((Number) value).doubleValue() : 0.0;
+    }
+
+    protected static float toFloat(Object value) {
+        return (value != null) ? ((Number) value).floatValue() : 0.0f;
+    }
+
+    protected static int toInt(Object value) {
+        return (value != null) ? ((Number) value).intValue() : 0;
+    }
+
+    protected static long toLong(Object value) {
+        return (value != null) ? ((Number) value).longValue() : 0L;
+    }
+
+    protected static short toShort(Object value) {
+        return (value != null) ? ((Number) value).shortValue() : 0;
+    }
+
+    public final void absorb(Model modelToAbsorb, Model... additionalModelsToAbsorb) {
+        _Model.absorb(modelToAbsorb, additionalModelsToAbsorb);
+    }
+
+    public final boolean addEventListener(ModelEventListener listener) {
+        return _Model.addEventListener(listener);
+    }
+
+    public final boolean addFieldEventListener(String fieldName, FieldEventListener listener) {
+        return _Model.addFieldEventListener(fieldName, listener);
+    }
+
+    public final Object clickLink(URI rel, java.lang.reflect.Type nativeReturnType, Object requestEntity,
+            Map<String, String> hrefParams) {
+        return _Model.clickLink(rel, nativeReturnType, requestEntity, hrefParams);
+    }
+
+    @Override
+    public final boolean equals(Object obj) {
+
+        if (this == obj) {
+            return true;
+        }
+
+        if (obj instanceof StaticInterfaceModel) {
+            return _Model == ((StaticInterfaceModel) obj)._Model;
+        }
+
+        return false;
+    }
+
+    public final void extend(Model modelToExtend, Model... additionalModelsToExtend) {
+        _Model.extend(modelToExtend, additionalModelsToExtend);
+    }
+
+    public final void free() {
+        _Model.free();
+    }
+
+    public final void freeze() {
+        _Model.freeze();
+    }
+
+    public final boolean getBooleanFieldValue(String fieldName) {
+        return _Model.getBooleanFieldValue(fieldName);
+    }
+
+    public final Context getContext() {
+        return _Model.getContext();
+    }
+
+    public final long getDateTimeFieldValue(String fieldName) {
+        return _Model.getDateTimeFieldValue(fieldName);
+    }
+
+    public final double getDoubleFieldValue(String fieldName) {
+        return _Model.getDoubleFieldValue(fieldName);
+    }
+
+    public final Model getDynamicInterface() {
+        return _Model;
+    }
+
+    public final Object getFieldValue(String fieldName) {
+        return _Model.getFieldValue(fieldName);
+    }
+
+    public final int getIntegerFieldValue(String fieldName) {
+        return _Model.getIntegerFieldValue(fieldName);
+    }
+
+    public final long getLongFieldValue(String fieldName) {
+        return _Model.getLongFieldValue(fieldName);
+    }
+
+    public final ObservableMap<URI, Hyperlink> getHyperLinks() {
+        return _Model.getHyperLinks();
+    }
+
+    public final MediaType getMediaType() {
+        return _Model.getMediaType();
+    }
+
+    public final ModelGraph getModelGraph() {
+        return _Model.getModelGraph();
+    }
+
+    public final java.lang.reflect.Type getNativeType() {
+        return _Model.getNativeType();
+    }
+
+    public final java.lang.reflect.Type[] getNativeTypeParameters() {
+        return _Model.getNativeTypeParameters();
+    }
+
+    public final ResourceTemplate getResourceTemplate() {
+        return _Model.getResourceTemplate();
+    }
+
+    public final URI getResourceTemplateId() {
+        return _Model.getResourceTemplateId();
+    }
+
+    public final Schema getSchema() {
+        return _Model.getSchema();
+    }
+
+    public final URI getSchemaId() {
+        return _Model.getSchemaId();
+    }
+
+    public final Model getStaticInterface() {
+        return this;
+    }
+
+    @Override
+    public final int hashCode() {
+        return _Model.hashCode();
+    }
+
+    public final boolean isFrozen() {
+        return _Model.isFrozen();
+    }
+
+    public final boolean removeEventListener(ModelEventListener listener) {
+        return _Model.removeEventListener(listener);
+    }
+
+    public final boolean removeFieldEventListener(String fieldName, FieldEventListener listener) {
+        return _Model.removeFieldEventListener(fieldName, listener);
+    }
+
+    public final void setBooleanFieldValue(String fieldName, boolean fieldValue) {
+        _Model.setBooleanFieldValue(fieldName, fieldValue);
+    }
+
+    public final void setDateTimeFieldValue(String fieldName, long fieldValue) {
+        _Model.setDateTimeFieldValue(fieldName, fieldValue);
+    }
+
+    public final void setDoubleFieldValue(String fieldName, double fieldValue) {
+        _Model.setDoubleFieldValue(fieldName, fieldValue);
+    }
+
+    public final void setAllFieldsToDefaultValue() {
+        _Model.setAllFieldsToDefaultValue();
+    }
+
+    public final void setFieldToDefaultValue(String fieldName) {
+        _Model.setFieldToDefaultValue(fieldName);
+    }
+
+    public final Object setFieldValue(String fieldName, Object fieldValue) {
+        return _Model.setFieldValue(fieldName, fieldValue);
+    }
+
+    public final void setIntegerFieldValue(String fieldName, int fieldValue) {
+        _Model.setIntegerFieldValue(fieldName, fieldValue);
+    }
+
+    public final void setLongFieldValue(String fieldName, long fieldValue) {
+        _Model.setLongFieldValue(fieldName, fieldValue);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + " : { delegate : { " + _Model + " }";
+    }
+
+    /**
+     * Called by generated getter methods to read the field associated with the
+     * specified index within the Prototype's
+     * {@link StaticInterfaceDispatchTable}.
+     */
+    protected final Object getFieldValue(int methodDispatchIndex) {
+        return _Model.getFieldValue(_Factory.getFieldPrototype(methodDispatchIndex));
+    }
+
+    /*
+     * The typed variants of getFieldValue(int), called by generated getters
+     * with primitive return types so that slotted values are never boxed.
+     */
+
+    protected final boolean getBooleanFieldValue(int methodDispatchIndex) {
+        return _Model.getBooleanFieldValue(_Factory.getFieldPrototype(methodDispatchIndex));
+    }
+
+    protected final double getDoubleFieldValue(int methodDispatchIndex) {
+        return _Model.getDoubleFieldValue(_Factory.getFieldPrototype(methodDispatchIndex));
+    }
+
+    protected final int getIntegerFieldValue(int methodDispatchIndex) {
+        return _Model.getIntegerFieldValue(_Factory.getFieldPrototype(methodDispatchIndex));
+    }
+
+    protected final long getLongFieldValue(int methodDispatchIndex) {
+        return _Model.getLongFieldValue(_Factory.getFieldPrototype(methodDispatchIndex));
+    }
+
+    /**
+     * Called by generated link methods to click the link associated with the
+     * specified index within the Prototype's
+     * {@link StaticInterfaceDispatchTable}.
+     */
+    protected final Object clickLink(int methodDispatchIndex, Object requestEntity, Map<String, String> hrefParams) {
+
+        final LinkPrototype linkPrototype = _Factory.getLinkPrototype(methodDispatchIndex);
+        if (linkPrototype == null) {
+            return null;
+        }
+
+        return linkPrototype.clickLink(_Model, requestEntity, hrefParams);
+    }
+
+}
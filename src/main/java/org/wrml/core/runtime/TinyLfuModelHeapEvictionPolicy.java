@@ -0,0 +1,221 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.wrml.core.Model;
+
+/**
+ * A frequency-based {@link ModelHeapEvictionPolicy}, after W-TinyLFU: a model
+ * is only kept in place of another if it has been accessed more often
+ * (recently), so that a scan over many models that are each used once
+ * doesn't flush out the ones that are used over and over.
+ * 
+ * New models enter a small LRU window (about 1% of the models). The models
+ * that overflow the window move to the main LRU region; when a model must be
+ * evicted, the last of those to move (the candidate) is weighed against the
+ * main region's least recently used model (the victim), and the one that has
+ * been accessed less often, according to a count-min sketch of the recent
+ * accesses, is evicted.
+ */
+public final class TinyLfuModelHeapEvictionPolicy implements ModelHeapEvictionPolicy {
+
+    public static final ModelHeapEvictionPolicy.Factory FACTORY = new ModelHeapEvictionPolicy.Factory() {
+
+        public ModelHeapEvictionPolicy newEvictionPolicy(ModelHeapShard shard) {
+            return new TinyLfuModelHeapEvictionPolicy();
+        }
+    };
+
+    /**
+     * The window's share of the models, in percent.
+     */
+    private static final int WINDOW_PERCENTAGE = 1;
+
+    /**
+     * The recently added models, least recently used first.
+     */
+    private final LinkedHashMap<Model, Boolean> _Window;
+
+    /**
+     * The models that have left the window, least recently used first.
+     */
+    private final LinkedHashMap<Model, Boolean> _Main;
+
+    private final FrequencySketch _FrequencySketch;
+
+    /**
+     * The model that most recently moved from the window to the main region,
+     * unless it has been accessed (or removed) since.
+     */
+    private Model _Candidate;
+
+    public TinyLfuModelHeapEvictionPolicy() {
+        _Window = new LinkedHashMap<Model, Boolean>(16, 0.75f, true);
+        _Main = new LinkedHashMap<Model, Boolean>(16, 0.75f, true);
+        _FrequencySketch = new FrequencySketch();
+    }
+
+    public void modelAccessed(Model model) {
+
+        _FrequencySketch.increment(model, _Window.size() + _Main.size());
+
+        if (_Main.get(model) != null) {
+            if (model == _Candidate) {
+                _Candidate = null;
+            }
+
+            return;
+        }
+
+        if (_Window.get(model) != null) {
+            return;
+        }
+
+        _Window.put(model, Boolean.TRUE);
+
+        final int windowCapacity = Math.max(1, ((_Window.size() + _Main.size()) * WINDOW_PERCENTAGE) / 100);
+        if (_Window.size() > windowCapacity) {
+            final Model overflow = getEldest(_Window);
+            _Window.remove(overflow);
+            _Main.put(overflow, Boolean.TRUE);
+            _Candidate = overflow;
+        }
+    }
+
+    public void modelRemoved(Model model) {
+
+        if (_Window.remove(model) == null) {
+            _Main.remove(model);
+        }
+
+        if (model == _Candidate) {
+            _Candidate = null;
+        }
+    }
+
+    public Model selectVictim() {
+
+        final Model victim = getEldest(_Main);
+        if (victim == null) {
+            return getEldest(_Window);
+        }
+
+        final Model candidate = _Candidate;
+        if ((candidate == null) || (candidate == victim)) {
+            return victim;
+        }
+
+        // The candidate is kept if it is used more often than the victim, in which case it is no longer on trial
+        if (_FrequencySketch.getFrequency(candidate) > _FrequencySketch.getFrequency(victim)) {
+            _Candidate = null;
+            return victim;
+        }
+
+        return candidate;
+    }
+
+    private static Model getEldest(final LinkedHashMap<Model, Boolean> models) {
+        final Iterator<Model> eldest = models.keySet().iterator();
+        return (eldest.hasNext()) ? eldest.next() : null;
+    }
+
+    /**
+     * A count-min sketch of the models' access frequencies, with four (small)
+     * counters per model, which may each be shared with other models. The counters are halved once the sketch has been
+     * incremented ten times per counter, so that the frequencies are recent
+     * ones. The sketch grows with the number of models, fourfold at a time
+     * since growing it resets the counters.
+     */
+    private static final class FrequencySketch {
+
+        private static final int DEPTH = 4;
+        private static final int INITIAL_WIDTH = 64;
+        private static final int MAX_COUNT = 15;
+        private static final int SAMPLE_FACTOR = 10;
+        private static final int[] SEEDS = new int[] { 0x97cb3127, 0x2f9aa8f1, 0x5a1b3c6d, 0xc8e2f0a3 };
+
+        private byte[] _Counts;
+        private int _Mask;
+        private int _Increments;
+
+        FrequencySketch() {
+            resize(INITIAL_WIDTH);
+        }
+
+        int getFrequency(final Model model) {
+
+            final int hashCode = model.hashCode();
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < DEPTH; row++) {
+                frequency = Math.min(frequency, _Counts[getIndex(hashCode, row)]);
+            }
+
+            return frequency;
+        }
+
+        void increment(final Model model, final int modelCount) {
+
+            if (modelCount > _Mask + 1) {
+                resize(Integer.highestOneBit(modelCount) << 2);
+            }
+
+            // A conservative update: only the model's smallest counters are incremented, which keeps down the
+            // overestimates of the frequencies of the models that share counters
+            final int frequency = getFrequency(model);
+            if (frequency < MAX_COUNT) {
+                final int hashCode = model.hashCode();
+                for (int row = 0; row < DEPTH; row++) {
+                    final int index = getIndex(hashCode, row);
+                    if (_Counts[index] == frequency) {
+                        _Counts[index]++;
+                    }
+                }
+            }
+
+            if (++_Increments >= (SAMPLE_FACTOR * (_Mask + 1))) {
+                age();
+            }
+        }
+
+        private void age() {
+
+            for (int i = 0; i < _Counts.length; i++) {
+                _Counts[i] >>= 1;
+            }
+
+            _Increments /= 2;
+        }
+
+        private int getIndex(final int hashCode, final int row) {
+
+            int hash = (hashCode + SEEDS[row]) * SEEDS[row];
+            hash ^= hash >>> 16;
+            return (row * (_Mask + 1)) + (hash & _Mask);
+        }
+
+        private void resize(final int width) {
+            _Counts = new byte[DEPTH * width];
+            _Mask = width - 1;
+            _Increments = 0;
+        }
+
+    }
+
+}
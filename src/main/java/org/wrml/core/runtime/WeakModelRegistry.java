@@ -0,0 +1,238 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.wrml.core.Model;
+
+/**
+ * A weak, identity-based registry of models, keyed by their (identity) hash
+ * codes. Unlike a Map keyed by hash code, models whose hash codes collide are
+ * chained rather than overwritten, and a registered model remains garbage
+ * collectable. The entries of collected models are expunged (by way of a
+ * {@link ReferenceQueue}) as the registry is modified.
+ * 
+ * Lookups don't lock; modifications are serialized.
+ */
+final class WeakModelRegistry {
+
+    /**
+     * The heads of the (immutable) chains of references, by hash code.
+     */
+    private final ConcurrentHashMap<Integer, ModelReference> _References;
+    private final ReferenceQueue<Model> _ReferenceQueue;
+    private final AtomicInteger _Size;
+
+    WeakModelRegistry() {
+        _References = new ConcurrentHashMap<Integer, ModelReference>();
+        _ReferenceQueue = new ReferenceQueue<Model>();
+        _Size = new AtomicInteger();
+    }
+
+    /**
+     * Registers the model, unless it is already registered.
+     */
+    synchronized void add(final Model model) {
+
+        expungeCollectedModels();
+
+        final Integer hashCode = Integer.valueOf(model.hashCode());
+        final ModelReference head = _References.get(hashCode);
+        for (ModelReference reference = head; reference != null; reference = reference._Next) {
+            if (reference.get() == model) {
+                return;
+            }
+        }
+
+        _References.put(hashCode, new ModelReference(model, hashCode, head, _ReferenceQueue));
+        _Size.incrementAndGet();
+    }
+
+    /**
+     * Returns the (most recently registered) model with the specified hash
+     * code, or <code>null</code> if there is none.
+     */
+    Model get(final int hashCode) {
+
+        for (ModelReference reference = _References.get(hashCode); reference != null; reference = reference._Next) {
+            final Model model = reference.get();
+            if (model != null) {
+                return model;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns a snapshot of the registered models.
+     */
+    List<Model> getModels() {
+        return getModels(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns a snapshot of (up to <code>maxCount</code> of) the registered
+     * models.
+     */
+    List<Model> getModels(final int maxCount) {
+
+        final List<Model> models = new ArrayList<Model>(Math.min(size(), maxCount));
+        for (final ModelReference head : _References.values()) {
+            for (ModelReference reference = head; reference != null; reference = reference._Next) {
+
+                if (models.size() >= maxCount) {
+                    return models;
+                }
+
+                final Model model = reference.get();
+                if (model != null) {
+                    models.add(model);
+                }
+            }
+        }
+
+        return models;
+    }
+
+    /**
+     * Unregisters the model.
+     * 
+     * @return <code>true</code> if the model was registered.
+     */
+    synchronized boolean remove(final Model model) {
+        expungeCollectedModels();
+        return removeModel(model);
+    }
+
+    /**
+     * Unregisters all of the models.
+     * 
+     * @return The number of the models that were registered.
+     */
+    synchronized int removeAll(final Collection<? extends Model> models) {
+
+        expungeCollectedModels();
+
+        int removedCount = 0;
+        for (final Model model : models) {
+            if (removeModel(model)) {
+                removedCount++;
+            }
+        }
+
+        return removedCount;
+    }
+
+    /**
+     * Returns the number of registered models (including any that have been
+     * collected but not yet expunged).
+     */
+    int size() {
+        return _Size.get();
+    }
+
+    private void expungeCollectedModels() {
+        ModelReference reference;
+        while ((reference = (ModelReference) _ReferenceQueue.poll()) != null) {
+            unchain(reference);
+        }
+    }
+
+    private boolean removeModel(final Model model) {
+
+        final Integer hashCode = Integer.valueOf(model.hashCode());
+        for (ModelReference reference = _References.get(hashCode); reference != null; reference = reference._Next) {
+            if (reference.get() == model) {
+                unchain(reference);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Removes the reference from its chain, which (being immutable) is copied
+     * up to the removed reference.
+     */
+    private void unchain(final ModelReference removedReference) {
+
+        final Integer hashCode = removedReference._HashCode;
+        final ModelReference head = _References.get(hashCode);
+
+        boolean chained = false;
+        for (ModelReference reference = head; reference != null; reference = reference._Next) {
+            if (reference == removedReference) {
+                chained = true;
+                break;
+            }
+        }
+
+        if (!chained) {
+            // Already removed (e.g. it was collected after it was explicitly removed)
+            return;
+        }
+
+        ModelReference newHead = removedReference._Next;
+        final List<Model> keptModels = new ArrayList<Model>();
+        for (ModelReference reference = head; reference != removedReference; reference = reference._Next) {
+            final Model model = reference.get();
+            if (model != null) {
+                keptModels.add(model);
+            }
+            else {
+                // Collected too, drop it while we are here
+                _Size.decrementAndGet();
+            }
+        }
+
+        for (int i = keptModels.size() - 1; i >= 0; i--) {
+            newHead = new ModelReference(keptModels.get(i), hashCode, newHead, _ReferenceQueue);
+        }
+
+        if (newHead != null) {
+            _References.put(hashCode, newHead);
+        }
+        else {
+            _References.remove(hashCode);
+        }
+
+        _Size.decrementAndGet();
+    }
+
+    private static final class ModelReference extends WeakReference<Model> {
+
+        private final Integer _HashCode;
+        private final ModelReference _Next;
+
+        private ModelReference(final Model model, final Integer hashCode, final ModelReference next,
+                final ReferenceQueue<Model> referenceQueue) {
+            super(model, referenceQueue);
+            _HashCode = hashCode;
+            _Next = next;
+        }
+    }
+
+}
@@ -22,6 +22,15 @@ public class FieldNames {
         constraints;
     }
 
+    public static enum Container {
+        elements,
+        next,
+        pageSize,
+        pageStartIndex,
+        previous,
+        size;
+    }
+
     public static enum Descriptive {
         description;
     }
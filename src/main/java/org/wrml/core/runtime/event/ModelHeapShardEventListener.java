@@ -31,11 +31,14 @@ public interface ModelHeapShardEventListener extends EventListener {
 
     public void onModelAdded(ModelHeapShardEvent event);
 
+    public void onModelEvicted(ModelHeapShardEvent event);
+
     public void onModelIdentified(ModelHeapShardEvent event);
 
     public enum ModelHeapShardEventName {
         modelAbsorbed,
         modelAdded,
+        modelEvicted,
         modelIdentified;
     }
 }
@@ -16,26 +16,113 @@
 
 package org.wrml.core.runtime.system;
 
+import java.util.Date;
+
+import org.codehaus.jackson.SerializableString;
+import org.codehaus.jackson.io.SerializedString;
+
 import org.wrml.core.Model;
 import org.wrml.core.model.schema.Type;
 import org.wrml.core.runtime.Context;
 import org.wrml.core.runtime.FieldAccessType;
+import org.wrml.core.runtime.RuntimeModel;
 import org.wrml.core.runtime.RuntimeObject;
 import org.wrml.core.runtime.TypeSystem;
 import org.wrml.core.runtime.system.transformer.SystemTransformers;
 
 public final class FieldPrototype extends RuntimeObject {
 
+    /**
+     * The slot of a field that has no storage slot in its {@link Prototype}'s
+     * layout.
+     */
+    public static final int NO_SLOT = -1;
+
     private final String _FieldName;
+    private final SerializedString _SerializedFieldName;
     private final java.lang.reflect.Type _NativeType;
     private final Type _Type;
+    private final int _Slot;
+
+    private final int _PrimitiveSlot;
+    private final Type _PrimitiveSlotType;
+    private final Class<?> _PrimitiveSlotClass;
+    private final Object[] _ChoiceConstants;
 
     public FieldPrototype(final Context context, final String fieldName, final Type type,
             java.lang.reflect.Type nativeType) {
+        this(context, fieldName, type, nativeType, NO_SLOT, NO_SLOT);
+    }
+
+    public FieldPrototype(final Context context, final String fieldName, final Type type,
+            java.lang.reflect.Type nativeType, final int slot, final int primitiveSlot) {
         super(context);
         _FieldName = fieldName;
         _Type = type;
+
+        // Encode the name once, rather than each time that it is written
+        _SerializedFieldName = new SerializedString(fieldName);
+        _SerializedFieldName.asQuotedUTF8();
+
         _NativeType = nativeType;
+        _Slot = slot;
+        _PrimitiveSlot = primitiveSlot;
+
+        if (primitiveSlot != NO_SLOT) {
+            _PrimitiveSlotClass = getNativeClass();
+            _PrimitiveSlotType = getPrimitiveSlotType(_PrimitiveSlotClass);
+            if (_PrimitiveSlotType == null) {
+                throw new IllegalArgumentException("The field \"" + fieldName + "\" (of type: \"" + nativeType
+                        + "\") cannot be stored in a primitive slot.");
+            }
+        }
+        else {
+            _PrimitiveSlotClass = null;
+            _PrimitiveSlotType = null;
+        }
+
+        _ChoiceConstants = (_PrimitiveSlotType == Type.Choice) ? _PrimitiveSlotClass.getEnumConstants() : null;
+    }
+
+    /**
+     * Returns the type of primitive slot that can store values of the
+     * specified native class.
+     * 
+     * @return The Boolean, Integer, Long, Double, DateTime (epoch millis) or
+     *         Choice (ordinal) {@link Type}; or <code>null</code> if the
+     *         values must be stored as objects.
+     */
+    static Type getPrimitiveSlotType(final Class<?> nativeClass) {
+
+        if ((nativeClass == null) || nativeClass.isArray()) {
+            return null;
+        }
+
+        if (Boolean.class.equals(nativeClass) || boolean.class.equals(nativeClass)) {
+            return Type.Boolean;
+        }
+
+        if (Integer.class.equals(nativeClass) || int.class.equals(nativeClass)) {
+            return Type.Integer;
+        }
+
+        if (Long.class.equals(nativeClass) || long.class.equals(nativeClass)) {
+            return Type.Long;
+        }
+
+        if (Double.class.equals(nativeClass) || double.class.equals(nativeClass)) {
+            return Type.Double;
+        }
+
+        if (Date.class.equals(nativeClass)) {
+            return Type.DateTime;
+        }
+
+        if (nativeClass.isEnum()) {
+            return Type.Choice;
+        }
+
+        return null;
     }
 
     public Object accessField(final Model model, final FieldAccessType accessType, final Object newValue) {
@@ -44,7 +131,12 @@ public final class FieldPrototype extends RuntimeObject {
 
         switch (accessType) {
         case GET:
-            oldFieldValue = model.getFieldValue(_FieldName);
+            if (model instanceof RuntimeModel) {
+                oldFieldValue = ((RuntimeModel) model).getFieldValue(this);
+            }
+            else {
+                oldFieldValue = model.getFieldValue(_FieldName);
+            }
             break;
 
         case SET:
@@ -55,6 +147,38 @@ public final class FieldPrototype extends RuntimeObject {
         return oldFieldValue;
     }
 
+    /**
+     * Converts a primitive slot value back into its (boxed) field value.
+     * 
+     * @see #toPrimitiveSlotValue(Object)
+     */
+    public Object fromPrimitiveSlotValue(final long primitiveSlotValue) {
+
+        switch (_PrimitiveSlotType) {
+
+        case Boolean:
+            return Boolean.valueOf(primitiveSlotValue != 0);
+
+        case Integer:
+            return Integer.valueOf((int) primitiveSlotValue);
+
+        case Long:
+            return Long.valueOf(primitiveSlotValue);
+
+        case Double:
+            return Double.valueOf(Double.longBitsToDouble(primitiveSlotValue));
+
+        case DateTime:
+            return new Date(primitiveSlotValue);
+
+        case Choice:
+            return _ChoiceConstants[(int) primitiveSlotValue];
+
+        default:
+            throw new IllegalStateException("The field \"" + _FieldName + "\" is not stored in a primitive slot.");
+        }
+    }
+
     public String getFieldName() {
         return _FieldName;
     }
@@ -74,8 +198,175 @@ public final class FieldPrototype extends RuntimeObject {
         return typeSystem.getNativeTypeParameters(getNativeType());
     }
 
+    /**
+     * Returns this field's index within the primitive (long) storage of its
+     * {@link Prototype}'s layout.
+     * 
+     * @return The primitive slot or {@link #NO_SLOT} if the field's values are
+     *         stored as objects.
+     * 
+     * @see Prototype#getPrimitiveFieldSlotCount()
+     */
+    public int getPrimitiveSlot() {
+        return _PrimitiveSlot;
+    }
+
+    public Type getPrimitiveSlotType() {
+        return _PrimitiveSlotType;
+    }
+
+    /**
+     * Returns this field's name, pre-encoded (as quoted UTF-8 bytes) for
+     * streaming generators.
+     */
+    public SerializableString getSerializedFieldName() {
+        return _SerializedFieldName;
+    }
+
+    /**
+     * Returns this field's storage slot within its {@link Prototype}'s
+     * layout.
+     * 
+     * @return The slot or {@link #NO_SLOT}.
+     * 
+     * @see Prototype#getFieldSlotCount()
+     */
+    public int getSlot() {
+        return _Slot;
+    }
+
     public Type getType() {
         return _Type;
     }
 
+    /**
+     * Returns <code>true</code> if the specified value can be stored in this
+     * field's primitive slot without losing any information.
+     */
+    public boolean isPrimitiveSlotValue(final Object value) {
+
+        if ((_PrimitiveSlotType == null) || (value == null)) {
+            return false;
+        }
+
+        switch (_PrimitiveSlotType) {
+
+        case Boolean:
+            return value instanceof Boolean;
+
+        case Integer:
+            return value instanceof Integer;
+
+        case Long:
+            return value instanceof Long;
+
+        case Double:
+            return value instanceof Double;
+
+        case DateTime:
+            // Subclasses, like java.sql.Timestamp, carry more than epoch millis
+            return Date.class.equals(value.getClass());
+
+        case Choice:
+            return (value instanceof Enum<?>) && _PrimitiveSlotClass.equals(((Enum<?>) value).getDeclaringClass());
+
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Converts a double into this field's primitive slot value.
+     */
+    public long doubleToPrimitiveSlotValue(final double value) {
+        if (_PrimitiveSlotType == Type.Double) {
+            return Double.doubleToRawLongBits(value);
+        }
+
+        return longToPrimitiveSlotValue((long) value);
+    }
+
+    /**
+     * Converts a long (or int, boolean as 0/1, epoch millis or ordinal) into
+     * this field's primitive slot value.
+     */
+    public long longToPrimitiveSlotValue(final long value) {
+
+        switch (_PrimitiveSlotType) {
+
+        case Boolean:
+            return (value != 0) ? 1 : 0;
+
+        case Integer:
+            return (int) value;
+
+        case Double:
+            return Double.doubleToRawLongBits(value);
+
+        case Choice:
+            if ((value < 0) || (value >= _ChoiceConstants.length)) {
+                throw new IllegalArgumentException("The value " + value + " is not an ordinal of the field \""
+                        + _FieldName + "\" choices: " + _PrimitiveSlotClass);
+            }
+            return value;
+
+        default:
+            return value;
+        }
+    }
+
+    /**
+     * Converts a primitive slot value into a double.
+     */
+    public double primitiveSlotValueToDouble(final long primitiveSlotValue) {
+        if (_PrimitiveSlotType == Type.Double) {
+            return Double.longBitsToDouble(primitiveSlotValue);
+        }
+
+        return primitiveSlotValue;
+    }
+
+    /**
+     * Converts a primitive slot value into a long (or int, boolean as 0/1,
+     * epoch millis or ordinal).
+     */
+    public long primitiveSlotValueToLong(final long primitiveSlotValue) {
+        if (_PrimitiveSlotType == Type.Double) {
+            return (long) Double.longBitsToDouble(primitiveSlotValue);
+        }
+
+        return primitiveSlotValue;
+    }
+
+    /**
+     * Converts the specified value, which must satisfy
+     * {@link #isPrimitiveSlotValue(Object)}, into a primitive slot value.
+     * 
+     * @see #fromPrimitiveSlotValue(long)
+     */
+    public long toPrimitiveSlotValue(final Object value) {
+
+        switch (_PrimitiveSlotType) {
+
+        case Boolean:
+            return ((Boolean) value).booleanValue() ? 1 : 0;
+
+        case Integer:
+        case Long:
+            return ((Number) value).longValue();
+
+        case Double:
+            return Double.doubleToRawLongBits(((Double) value).doubleValue());
+
+        case DateTime:
+            return ((Date) value).getTime();
+
+        case Choice:
+            return ((Enum<?>) value).ordinal();
+
+        default:
+            throw new IllegalStateException("The field \"" + _FieldName + "\" is not stored in a primitive slot.");
+        }
+    }
+
 }
\ No newline at end of file
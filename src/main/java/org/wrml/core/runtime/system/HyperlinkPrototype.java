@@ -0,0 +1,308 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime.system;
+
+import java.net.URI;
+
+import org.wrml.core.Model;
+import org.wrml.core.model.schema.Link;
+import org.wrml.core.model.schema.LinkRelation;
+import org.wrml.core.runtime.Context;
+import org.wrml.core.runtime.RuntimeObject;
+import org.wrml.core.runtime.system.transformer.SystemTransformers;
+import org.wrml.core.service.Service;
+import org.wrml.core.transformer.Transformer;
+import org.wrml.core.util.observable.ObservableMap;
+import org.wrml.core.www.MediaType;
+
+/**
+ * The stateless half of a Model instance's Hyperlink. One HyperlinkPrototype
+ * is shared (as a flyweight) by all of a Prototype's models for each link
+ * relation, while the per-instance state (href, enabled, listeners) is held by
+ * the hyperlink that a model materializes on demand.
+ * 
+ * @see Prototype#getHyperlinkPrototype(URI)
+ */
+public final class HyperlinkPrototype extends RuntimeObject {
+
+    private final Prototype _Prototype;
+    private final URI _Rel;
+
+    public HyperlinkPrototype(final Prototype prototype, final URI rel) {
+        super(prototype.getContext());
+        _Prototype = prototype;
+        _Rel = rel;
+    }
+
+    public Object click(final Model referrer, final URI href, final java.lang.reflect.Type nativeReturnType,
+            final Object requestEntity) {
+
+        /*
+         * Autogenerated subclasses of Model can have an generated method
+         * for
+         * each combination of link relation and request/response Schema.
+         * Sort
+         * of like Hibernate for the Web.
+         * 
+         * For example, this approach would imply that subclasses that
+         * "implement" WRML's Document schema would have a getSelf() method
+         * in
+         * Java, which under the covers would click a link to return the
+         * latest
+         * version of the object.
+         * ...Okay perhaps and odd example to start with.
+         * 
+         * This method is made possible because of the metadata provided by
+         * the
+         * LinkRelation, which details the name, the possible return types
+         * (as
+         * schema ids within response media types), and optional request
+         * types
+         * (as schema ids within request media types). This information can
+         * be
+         * used at class generation time to produce methods that have names
+         * like
+         * save or save(Story story) and getAuthor(). JavaBean method names
+         * are
+         * generated from concat of link rel's method, name, and return
+         * schema
+         * (if needed to disambiguate). For example WRML's:
+         * 
+         * "GET author com/example/Author"
+         * 
+         * turns into Java's:
+         * 
+         * "public Author getAuthor()".
+         * 
+         * 
+         * Other methods might look like:
+         * 
+         * 
+         * The LinkRelation specified two (or more) response schema types,
+         * "Writer" being one of them. Java doesn't allow overloading the
+         * return
+         * type of methods, so we need to alter the name too.
+         * 
+         * public Writer getAuthorAsWriter();
+         * 
+         * See bad first example above public Story getSelf();
+         * 
+         * This could be an interesting way of representing Web collections
+         * ...
+         * 
+         * public org.wrml.Collection<Story> getParent();
+         * 
+         * In cases where the LinkRelation accepts a request schema type
+         * that
+         * this schema instance implements, the code generation should
+         * provide a
+         * no-arg version of the method that internally passes this Model
+         * (the
+         * Link's owner). This would allow the JavaBean interface to have
+         * methods like save() which internally "PUT" the Model to its
+         * corresponding service and return the origin's version for model
+         * syncing.
+         * 
+         * public Story save();
+         * 
+         * Is it possible to determine the URI template vars names that are
+         * left
+         * over after the source schema fills in params with field values?
+         * It
+         * would be cool if they could be used to generate clean params
+         * names
+         * for Java methods that need to result in a client-controlled
+         * resource
+         * name (with initial PUT)
+         * 
+         * public Story save(String name);
+         * 
+         * A self destruct button
+         * 
+         * public void delete();
+         * 
+         * An "unsafe" action (aka controller) method that was generated
+         * from a
+         * link rel that uses POST.
+         * 
+         * public void makeRocketGoNow();
+         * 
+         * These methods further extend the data available to clients using
+         * the
+         * JavaBean interface of Models by providing access to linked data
+         * via
+         * simple get methods. This simplified access to the resource model
+         * would be really slick in a dynamic language like groovy talking
+         * directly to a REST API via WRML, with object caching in the JVM
+         * of
+         * course.
+         * 
+         * At Link.click time, under the covers, these generated methods
+         * traverse the linkage using the very same metadata to make the
+         * appropriate request to the appropriate service. This is RESTful.
+         * 
+         * Finally, the role of the service is to be the beginning of both
+         * the
+         * client-side API and the Service interface. By making the
+         * services available for look-up based on schema id, context
+         * implementations can choose to register one service per type or
+         * services that support several different types. This design allows
+         * for
+         * the same context interface to work for both client and server
+         * side
+         * uses of this class. On the client side, the context is perhaps an
+         * abstraction over some HTTP client making REST API calls. On the
+         * server side, the context may talk to a storage subsystem to CRUD
+         * wrml
+         * objects (backend connection). Its WRML's equivalent of the Web's
+         * uniform interface.
+         */
+
+        /*
+         * TODO: Handle non-WRML model Links to exchange raw input/output
+         * streams. Use the MediaType to look up a stream handler that is
+         * configured in the Context (like services or possibly just use
+         * services)
+         * 
+         * MediaType requestMediaType = null;
+         * 
+         * if (requestModel != null) { // TODO: // Determine default media
+         * type
+         * by looking at the link template and // then the link relation. //
+         * Go
+         * through each list comparing the requestModel's schema URI to //
+         * the
+         * wrml media type's schema parameter, or if a non wrml media //
+         * type is
+         * used then look up a Format using the "raw" media type // (e.g.
+         * application/json maps to the json Format) }
+         */
+
+        final Context context = referrer.getContext();
+        final SystemTransformers systemTransformers = context.getSystemTransformers();
+
+        final Transformer<MediaType, java.lang.reflect.Type> mediaTypeToNativeTypeTransformer = systemTransformers
+                .getMediaTypeToNativeTypeTransformer();
+
+        // Convert native response type to media type.
+        final MediaType responseType = mediaTypeToNativeTypeTransformer.bToA(nativeReturnType);
+
+        if ((responseType != null) && !isGeneratableResponseType(responseType)) {
+            // TODO: Preemptively throw "406 Not Acceptable" exception
+
+            // TODO: Give the alert an ID?
+            //Alert alert = context.createModel(Alert.class, null, );
+
+            return null;
+        }
+
+        MediaType requestType = null;
+
+        if (requestEntity != null) {
+
+            requestType = mediaTypeToNativeTypeTransformer.bToA(requestEntity.getClass());
+
+            if ((requestType != null) && !isSupportedRequestType(requestType)) {
+                // TODO: Preemptively throw "415 Unsupported Media Type" exception
+                return null;
+            }
+        }
+
+        final Service responseTypeService = context.getService(responseType);
+
+
+        Object responseEntity = null;
+
+        final LinkRelation rel = getLinkRelation(referrer);
+        final org.wrml.core.www.http.Method method = rel.getMethod();
+        switch (method) {
+
+        // TODO: Handle collections here?
+
+        // TODO: It might be helpful to pass the nativeReturnType to the Service too?
+
+        case GET:
+            responseEntity = responseTypeService.get(href, null, responseType, referrer);
+            break;
+
+        case PUT:
+            responseEntity = responseTypeService.put(href, requestEntity, responseType, referrer);
+            break;
+
+        case DELETE:
+            responseEntity = responseTypeService.remove(href, responseType, referrer);
+            break;
+
+        case POST:
+            // TODO: Create or Execute? 
+            // Look at params to decide? Look at endpoint's resource archetype?
+
+            break;
+
+        case HEAD:
+            // TODO: Handle HTTP HEAD
+            responseEntity = responseTypeService.get(href, null, responseType, referrer);
+            break;
+
+        case OPTIONS:
+            // TODO: Handle HTTP OPTIONS
+            responseEntity = responseTypeService.get(href, null, responseType, referrer);
+            break;
+
+        default:
+
+            /*
+             * TODO: Throw "405 Method Not Allowed"
+             */
+
+            break;
+        }
+
+        return responseEntity;    }
+
+    public Link getLink() {
+        final ObservableMap<URI, Link> links = _Prototype.getLinksByRel();
+        return ((links != null) && links.containsKey(_Rel)) ? links.get(_Rel) : null;
+    }
+
+    public LinkRelation getLinkRelation(final Model referrer) {
+        final Context context = referrer.getContext();
+        final SystemTransformers systemTransformers = context.getSystemTransformers();
+        final MediaType linkRelationMediaType = systemTransformers.getMediaTypeToNativeTypeTransformer().bToA(
+                LinkRelation.class);
+        final Service service = context.getService(linkRelationMediaType);
+        return (LinkRelation) ((Model) service.get(_Rel, null, linkRelationMediaType, referrer)).getStaticInterface();
+    }
+
+    public Prototype getPrototype() {
+        return _Prototype;
+    }
+
+    public URI getRel() {
+        return _Rel;
+    }
+
+    private boolean isGeneratableResponseType(MediaType responseType) {
+        // TODO Auto-generated method stub
+        return true;
+    }
+
+    private boolean isSupportedRequestType(MediaType requestType) {
+        // TODO Auto-generated method stub
+        return true;
+    }
+}
@@ -17,17 +17,24 @@
 package org.wrml.core.runtime.system;
 
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.wrml.core.Model;
 import org.wrml.core.model.schema.Constraint;
 import org.wrml.core.model.schema.Field;
@@ -37,6 +44,8 @@ import org.wrml.core.model.schema.Type;
 import org.wrml.core.runtime.Context;
 import org.wrml.core.runtime.ModelGraph;
 import org.wrml.core.runtime.RuntimeObject;
+import org.wrml.core.runtime.StaticInterfaceDispatchTable;
+import org.wrml.core.runtime.StaticInterfaceFactory;
 import org.wrml.core.runtime.TypeSystem;
 import org.wrml.core.runtime.bootstrap.FieldNames;
 import org.wrml.core.runtime.system.transformer.SystemTransformers;
@@ -52,23 +61,49 @@ import org.wrml.core.www.MediaType;
  * framework's lazy loading is not needed. If some future version or language
  * wishes to remote prototypes then this class will need to be refactored
  * somehow.
+ * 
+ * Prototypes are shared by all threads. Its lazily computed tables are
+ * immutable once they are published (a table that grows is replaced by a
+ * bigger copy), so that lookups don't need to lock.
  */
 public final class Prototype extends RuntimeObject {
 
+    private static final Logger log = LoggerFactory.getLogger(Prototype.class);
+
+    private final SystemSchemaService _SystemSchemaService;
     private final java.lang.reflect.Type _NativeType;
-    private MediaType _MediaType;
+    private volatile MediaType _MediaType;
+
+    private volatile boolean _Initialized;
 
-    private ObservableList<URI> _AllBaseSchemaIds;
+    private volatile ObservableList<URI> _AllBaseSchemaIds;
     private final ObservableList<Constraint<Schema>> _AllConstraints;
     private final ObservableMap<String, Field> _Fields;
 
     private final ObservableMap<URI, Link> _LinksByRel;
-    private ObservableMap<String, Link> _LinksByName;
+    private volatile ObservableMap<String, Link> _LinksByName;
+
+    private volatile FieldPrototype[] _SlottedFieldPrototypes;
+    private Map<String, FieldPrototype> _FieldPrototypesByName;
+    private int _PrimitiveFieldSlotCount;
+    private volatile List<FieldPrototype> _WireFieldPrototypes;
+    private volatile Map<String, LinkPrototype> _LinkPrototypes;
+    private volatile Map<URI, HyperlinkPrototype> _HyperlinkPrototypes;
 
-    private ObservableMap<String, FieldPrototype> _FieldPrototypes;
-    private ObservableMap<String, LinkPrototype> _LinkPrototypes;
+    private volatile StaticInterfaceDispatchTable _StaticInterfaceDispatchTable;
+    private volatile StaticInterfaceFactory _StaticInterfaceFactory;
+    private volatile boolean _StaticInterfaceFactoryUnavailable;
 
     public Prototype(final Context context, final java.lang.reflect.Type nativeType) {
+        this(context, nativeType, null);
+    }
+
+    /**
+     * Creates a prototype that shares (memoized) schema layouts through the
+     * specified SystemSchemaService.
+     */
+    Prototype(final Context context, final java.lang.reflect.Type nativeType,
+            final SystemSchemaService systemSchemaService) {
         super(context);
 
         if (nativeType == null) {
@@ -76,6 +111,7 @@ public final class Prototype extends RuntimeObject {
         }
 
         _NativeType = nativeType;
+        _SystemSchemaService = systemSchemaService;
 
         final SortedMap<String, Field> allYourFields = new TreeMap<String, Field>();
         final SortedMap<URI, Link> allYourLinks = new TreeMap<URI, Link>();
@@ -146,89 +182,7 @@ public final class Prototype extends RuntimeObject {
     public ObservableList<URI> getAllBaseSchemaIds() {
 
         if (_AllBaseSchemaIds == null) {
-
-            //
-            // The following algorithm performs a breadth first traversal of 
-            // the base schemas graph to produce an orderly result.
-            //
-
-            /*
-             * This is the map that this method will return, wrapped by an
-             * ObservableMap. It is an ordered map of (URI) schema id to the
-             * schemas
-             * themselves.
-             * 
-             * This ordered map will hold all of our base schemas that are
-             * belong to
-             * us schema. In other words it maps, by schema id, the base schemas
-             * of
-             * the schema associated with our own schema id.
-             */
-            final LinkedList<URI> allYourBase = new LinkedList<URI>();
-
-            /*
-             * This queue is used to "process" our schema's base schemas.
-             * Processing
-             * in this case means collecting all of the base schemas in the
-             * order
-             * described above. This computation involves a tree traversal of
-             * our
-             * base schemas.
-             */
-            final Queue<URI> queue = new LinkedList<URI>();
-
-            /*
-             * This map retains the URIs of the schemas that have already been
-             * processed, meaning that they've been enqueued once already and
-             * should
-             * not be processed again. It helps us address the fact that our
-             * schema
-             * tree might actually be a graph with cycles.
-             */
-            final HashMap<URI, URI> enqueuedIds = new HashMap<URI, URI>();
-
-            /*
-             * Start by enqueueing our blueprint's immediate base schemas.
-             */
-            final URI schemaId = getSchemaId();
-            enqueueBaseSchemas(queue, schemaId, enqueuedIds);
-
-            /*
-             * Dequeue the first base schema and start the processing loop.
-             */
-            URI baseSchemaId = queue.poll();
-            while (baseSchemaId != null) {
-
-                /*
-                 * Check to see if we have already "processed" the base schema
-                 * and
-                 * also double check to make sure that the base schema is not
-                 * the
-                 * blueprint - that would be weird.
-                 */
-                if (!enqueuedIds.containsKey(baseSchemaId) && !schemaId.equals(baseSchemaId)) {
-
-                    /*
-                     * Process the base schema by adding it to our ordered
-                     * collection. Enqueue its base schemas too.
-                     */
-                    allYourBase.add(baseSchemaId);
-                    enqueueBaseSchemas(queue, baseSchemaId, enqueuedIds);
-                }
-
-                /*
-                 * Dequeue the next base schema to prep the next iteration for
-                 * processing.
-                 */
-                baseSchemaId = queue.poll();
-            }
-
-            /*
-             * Create the ObservableMap wrapper and store it for future
-             * reference.
-             */
-
-            _AllBaseSchemaIds = Observables.observableList(allYourBase);
+            _AllBaseSchemaIds = Observables.observableList(findAllBaseSchemaIds(getSchemaId()));
         }
 
         return _AllBaseSchemaIds;
@@ -244,74 +198,80 @@ public final class Prototype extends RuntimeObject {
             return null;
         }
 
-        FieldPrototype fieldPrototype = null;
+        initFieldIndex();
 
-        if (_FieldPrototypes == null) {
-            _FieldPrototypes = Observables.observableMap(new TreeMap<String, FieldPrototype>());
-        }
+        // Every field is in the index, so a miss means that there is no such field
+        return _FieldPrototypesByName.get(fieldName);
+    }
 
-        if (_FieldPrototypes.containsKey(fieldName)) {
-            return _FieldPrototypes.get(fieldName);
-        }
+    /**
+     * Returns the prototypes of all of the fields, slotted or not.
+     */
+    public Collection<FieldPrototype> getFieldPrototypes() {
+        initFieldIndex();
+        return _FieldPrototypesByName.values();
+    }
 
-        Method fieldMethod = null;
-        final Method[] methods = getNativeClass().getMethods();
+    /**
+     * Returns the storage slot assigned to the named field.
+     * 
+     * @return The slot or {@link FieldPrototype#NO_SLOT} if the field is not
+     *         declared (with a getter) by the schema interface.
+     * 
+     * @see #getFieldSlotCount()
+     */
+    public int getFieldSlot(final String fieldName) {
 
-        if (methods != null) {
+        initFieldIndex();
 
-            for (final Method method : methods) {
+        final FieldPrototype fieldPrototype = (fieldName != null) ? _FieldPrototypesByName.get(fieldName) : null;
+        return (fieldPrototype != null) ? fieldPrototype.getSlot() : FieldPrototype.NO_SLOT;
+    }
 
-                final String methodName = method.getName();
-                String possibleFieldName = null;
-                if (methodName.startsWith("get")) {
-                    possibleFieldName = methodName.substring(3);
-                }
-                else if (methodName.startsWith("is")) {
-                    possibleFieldName = methodName.substring(2);
-                }
+    /**
+     * Returns the number of field storage slots needed by a model with this
+     * prototype. Each field that is declared (with a getter) by the schema
+     * interface, or one of its base schema interfaces, is assigned a stable
+     * slot; in field name order.
+     */
+    public int getFieldSlotCount() {
+        initFieldIndex();
+        return _SlottedFieldPrototypes.length;
+    }
 
-                if (possibleFieldName != null) {
-                    possibleFieldName = Character.toLowerCase(possibleFieldName.charAt(0))
-                            + possibleFieldName.substring(1);
+    public ObservableMap<String, Field> getFields() {
+        return _Fields;
+    }
 
-                    if (fieldName.equals(possibleFieldName)) {
-                        fieldMethod = method;
-                        break;
-                    }
+    /**
+     * Returns the shared (stateless) hyperlink behavior for the specified link
+     * relation, or <code>null</code> if this prototype's schema has no such
+     * link.
+     */
+    public HyperlinkPrototype getHyperlinkPrototype(final URI rel) {
+
+        final Map<URI, HyperlinkPrototype> hyperlinkPrototypes = _HyperlinkPrototypes;
+        HyperlinkPrototype hyperlinkPrototype = (hyperlinkPrototypes != null) ? hyperlinkPrototypes.get(rel) : null;
+        if ((hyperlinkPrototype == null) && _LinksByRel.containsKey(rel)) {
+            synchronized (this) {
+                hyperlinkPrototype = (_HyperlinkPrototypes != null) ? _HyperlinkPrototypes.get(rel) : null;
+                if (hyperlinkPrototype == null) {
+                    hyperlinkPrototype = new HyperlinkPrototype(this, rel);
+                    _HyperlinkPrototypes = copyWith(_HyperlinkPrototypes, rel, hyperlinkPrototype);
                 }
             }
         }
 
-        if (fieldMethod == null) {
-            _FieldPrototypes.put(fieldName, null);
-            return null;
-        }
-
-        final Context context = getContext();
-        final TypeSystem typeSystem = context.getTypeSystem();
-        final SystemTransformers systemTransformers = context.getSystemTransformers();
-        final java.lang.reflect.Type nativeType = typeSystem.getNativeReturnType(fieldMethod, _NativeType);
-        final Type type = systemTransformers.getNativeTypeToTypeTransformer().aToB(nativeType);
-
-        fieldPrototype = new FieldPrototype(getContext(), fieldName, type, nativeType);
-
-        _FieldPrototypes.put(fieldName, fieldPrototype);
-
-        return fieldPrototype;
-    }
-
-    public ObservableMap<String, Field> getFields() {
-        return _Fields;
+        return hyperlinkPrototype;
     }
 
     public LinkPrototype getLinkPrototype(String methodKey, Method method) {
-        if (_LinkPrototypes == null) {
-            _LinkPrototypes = Observables.observableMap(new TreeMap<String, LinkPrototype>());
-        }
+
+        final Map<String, LinkPrototype> linkPrototypes = _LinkPrototypes;
 
         LinkPrototype linkPrototype = null;
-        if (_LinkPrototypes.containsKey(methodKey)) {
-            linkPrototype = _LinkPrototypes.get(methodKey);
+        if ((linkPrototypes != null) && linkPrototypes.containsKey(methodKey)) {
+            linkPrototype = linkPrototypes.get(methodKey);
         }
         else {
 
@@ -352,23 +312,51 @@ public final class Prototype extends RuntimeObject {
                 }
             }
 
-            _LinkPrototypes.put(methodKey, linkPrototype);
+            synchronized (this) {
+                final Map<String, LinkPrototype> publishedLinkPrototypes = _LinkPrototypes;
+                if ((publishedLinkPrototypes != null) && publishedLinkPrototypes.containsKey(methodKey)) {
+                    return publishedLinkPrototypes.get(methodKey);
+                }
+
+                _LinkPrototypes = copyWith(publishedLinkPrototypes, methodKey, linkPrototype);
+            }
         }
 
         return linkPrototype;
 
     }
 
+    /**
+     * Returns the number of primitive (long) field storage slots needed by a
+     * model with this prototype. Each of the slotted fields whose values are
+     * booleans, integers, longs, doubles, dates or enums is also assigned a
+     * primitive slot, so that its values can be stored without boxing.
+     * 
+     * @see FieldPrototype#getPrimitiveSlot()
+     */
+    public int getPrimitiveFieldSlotCount() {
+        initFieldIndex();
+        return _PrimitiveFieldSlotCount;
+    }
+
+    public FieldPrototype getSlottedFieldPrototype(final int slot) {
+        initFieldIndex();
+        return _SlottedFieldPrototypes[slot];
+    }
+
     public ObservableMap<String, Link> getLinksByName() {
 
         if (_LinksByName == null) {
             final ObservableMap<URI, Link> linksByRel = getLinksByRel();
             if (linksByRel != null) {
-                _LinksByName = Observables.observableMap(new TreeMap<String, Link>());
+                final SortedMap<String, Link> linksByName = new TreeMap<String, Link>();
                 for (final URI relId : linksByRel.keySet()) {
                     final Link link = linksByRel.get(relId);
-                    _LinksByName.put(link.getRel().getName(), link);
+                    linksByName.put(link.getRel().getName(), link);
                 }
+
+                // Publish the map once it is complete
+                _LinksByName = Observables.observableMap(linksByName);
             }
         }
 
@@ -409,45 +397,174 @@ public final class Prototype extends RuntimeObject {
         return systemTransformers.getMediaTypeToSchemaIdTransformer().aToB(getMediaType());
     }
 
+    /**
+     * Returns the table that maps each of this prototype's static interface
+     * methods to the field or link that it accesses. The table is built once,
+     * on demand, and then shared by all of the static interfaces (generated
+     * or proxied) of models that share this prototype.
+     * 
+     * @return The {@link StaticInterfaceDispatchTable}.
+     */
+    public StaticInterfaceDispatchTable getStaticInterfaceDispatchTable() {
+
+        if (_StaticInterfaceDispatchTable == null) {
+            _StaticInterfaceDispatchTable = new StaticInterfaceDispatchTable(this);
+        }
+
+        return _StaticInterfaceDispatchTable;
+    }
+
+    /**
+     * Returns the factory that creates instances of this prototype's
+     * generated static interface class. The class is generated once, on
+     * demand, and then reused by all models that share this prototype.
+     * 
+     * @return The {@link StaticInterfaceFactory} or <code>null</code> if a
+     *         class could not be generated for this prototype's native type,
+     *         in which case callers should fall back to a dynamic proxy.
+     */
+    public StaticInterfaceFactory getStaticInterfaceFactory() {
+
+        if ((_StaticInterfaceFactory == null) && !_StaticInterfaceFactoryUnavailable) {
+
+            // Generate the class at most once
+            synchronized (this) {
+                if ((_StaticInterfaceFactory == null) && !_StaticInterfaceFactoryUnavailable) {
+                    try {
+                        _StaticInterfaceFactory = new StaticInterfaceFactory(this);
+                    }
+                    catch (final RuntimeException e) {
+                        log.warn(this + " could not generate a static interface class, falling back to a dynamic proxy",
+                                e);
+                        _StaticInterfaceFactoryUnavailable = true;
+                    }
+                }
+            }
+        }
+
+        return _StaticInterfaceFactory;
+    }
+
+    /**
+     * Returns the slotted fields whose values go over the wire, in slot
+     * (field name) order. Fields that the schema declares to be
+     * {@link Field#isHidden() hidden} or {@link Field#isLocal() local} are
+     * left out. The list is computed once, on demand, so that model writers
+     * don't need to consult the schema's fields for each model they write.
+     */
+    public List<FieldPrototype> getWireFieldPrototypes() {
+
+        if (_WireFieldPrototypes == null) {
+
+            final int fieldSlotCount = getFieldSlotCount();
+            final List<FieldPrototype> wireFieldPrototypes = new ArrayList<FieldPrototype>(fieldSlotCount);
+            for (int slot = 0; slot < fieldSlotCount; slot++) {
+
+                final FieldPrototype fieldPrototype = _SlottedFieldPrototypes[slot];
+                final Field field = _Fields.get(fieldPrototype.getFieldName());
+                if ((field != null) && (field.isHidden() || field.isLocal())) {
+                    continue;
+                }
+
+                wireFieldPrototypes.add(fieldPrototype);
+            }
+
+            // Publish the list once it is complete
+            _WireFieldPrototypes = Collections.unmodifiableList(wireFieldPrototypes);
+        }
+
+        return _WireFieldPrototypes;
+    }
+
     @Override
     public String toString() {
         return "Prototype (" + hashCode() + ") : \"" + getSchemaId() + "\"";
     }
 
+    /**
+     * Initializes this prototype, if it hasn't been already. Called (by the
+     * SystemSchemaService, once per prototype) once the prototype has been
+     * published, so that init may recursively look it up. The prototype is
+     * only marked as initialized if its init succeeds.
+     */
+    void initOnce() {
+
+        if (_Initialized) {
+            return;
+        }
+
+        init();
+        _Initialized = true;
+    }
+
+    boolean isInitialized() {
+        return _Initialized;
+    }
+
     void init() {
 
         final URI schemaId = getSchemaId();
 
         System.out.println(this + " is being initialized.");
 
-        List<URI> allYourBase = getAllBaseSchemaIds();
-        if (allYourBase != null) {
+        // Index the fields up front, so that field lookups never need to reflect
+        initFieldIndex();
 
-            if (allYourBase.size() > 1) {
+        /*
+         * Assemble all schemas in reverse order starting from the top end of
+         * the schema hierarchy, which are the last entries in the ordered
+         * "allYourBase". It is a copy, since our own schema is added to it.
+         */
+        final List<URI> allYourBase = new ArrayList<URI>(getAllBaseSchemaIds());
+        Collections.reverse(allYourBase);
 
-                /*
-                 * Assemble all schemas in reverse order starting from the top
-                 * end
-                 * of the schema hierarchy, which are the last entries in the
-                 * ordered LinkedHashMap "allYourBase".
-                 */
-
-                allYourBase = new ArrayList<URI>(allYourBase);
-                Collections.reverse(allYourBase);
-            }
+        // Include our blueprint schema fields last to achieve final locality
+        allYourBase.add(schemaId);
 
+        /*
+         * Merge in the memoized layouts of our base schemas, where we can, and
+         * only extend the remaining layers one by one. A base schema's layout
+         * is merged in at the base schema's own layer, in place of all of its
+         * layers. The layouts' field and link models are shared, so they are
+         * copied before they are extended.
+         */
+        final Set<Model> sharedModels = Collections.newSetFromMap(new IdentityHashMap<Model, Boolean>());
+        final Map<URI, SchemaLayout> baseLayouts = findSchemaLayouts(allYourBase);
+
+        final List<URI> mergedLayerSchemaIds = new ArrayList<URI>();
+        for (final SchemaLayout baseLayout : baseLayouts.values()) {
+            mergedLayerSchemaIds.addAll(baseLayout.getLayerSchemaIds());
         }
-        else {
-            allYourBase = new ArrayList<URI>();
+
+        final List<URI> extendedLayerSchemaIds = new ArrayList<URI>(allYourBase);
+        extendedLayerSchemaIds.removeAll(mergedLayerSchemaIds);
+        if (extendedLayerSchemaIds.size() > 1) {
+
+            // Fetch the remaining layers' schemas concurrently, they are extended in order below
+            getContext().prefetchSchemas(extendedLayerSchemaIds);
         }
 
-        // Include our blueprint schema fields last to achieve final locality
-        allYourBase.add(schemaId);
+        // The layers that have been merged or extended, in that order
+        final List<URI> appliedLayerSchemaIds = new ArrayList<URI>(allYourBase.size());
 
         final int totalNumberOfSchemasToPrototype = allYourBase.size();
         for (int i = 0; i < totalNumberOfSchemasToPrototype; i++) {
             final URI baseId = allYourBase.get(i);
 
+            final SchemaLayout baseLayout = baseLayouts.get(baseId);
+            if (baseLayout != null) {
+                final ModelGraph modelGraph = getContext().getSchema(baseId).getModelGraph();
+                mergeSchemaLayout(modelGraph, _Fields, baseLayout.getFields(), Field.class, sharedModels);
+                mergeSchemaLayout(modelGraph, _LinksByRel, baseLayout.getLinksByRel(), Link.class, sharedModels);
+                appliedLayerSchemaIds.addAll(baseLayout.getLayerSchemaIds());
+                continue;
+            }
+
+            if (mergedLayerSchemaIds.contains(baseId)) {
+                // Part of a layout that is merged in at its own schema's layer
+                continue;
+            }
+
             final Context context = getContext();
             final Schema baseSchema = context.getSchema(baseId);
 
@@ -460,11 +577,14 @@ public final class Prototype extends RuntimeObject {
                 return;
             }
 
-            initFields(_Fields, baseSchema);
-            initLinks(_LinksByRel, baseSchema);
+            initFields(_Fields, baseSchema, sharedModels);
+            initLinks(_LinksByRel, baseSchema, sharedModels);
 
             // TODO: Implement contstraints
             //initConstraints(allYourConstraints, baseSchema);
+
+            appliedLayerSchemaIds.add(baseId);
+            memoizeSchemaLayout(appliedLayerSchemaIds, sharedModels);
         }
 
         System.out.println(this + " has been \"fully\" initialized.");
@@ -486,12 +606,15 @@ public final class Prototype extends RuntimeObject {
      * 
      * @param queue
      *            The reused queue of Schemas that temporarily holds (for
-     *            processing) this prototype's schema's base schemas
+     *            processing) the root schema's base schemas
+     * @param rootSchemaId
+     *            The id of the schema whose base schemas are being collected
      * @param schemaId
      * @param enqueuedIds
      *            The reused map enqueued schema ids
      */
-    private void enqueueBaseSchemas(final Queue<URI> queue, final URI schemaId, final HashMap<URI, URI> enqueuedIds) {
+    private void enqueueBaseSchemas(final Queue<URI> queue, final URI rootSchemaId, final URI schemaId,
+            final HashMap<URI, URI> enqueuedIds) {
 
         final Context context = getContext();
         final Schema schema = context.getSchema(schemaId);
@@ -506,15 +629,13 @@ public final class Prototype extends RuntimeObject {
             return;
         }
 
-        final URI mySchemaId = getSchemaId();
-
         for (final URI baseSchemaId : baseSchemaIds) {
 
             /*
              * Double check that we haven't enqueued this base schema yet and
-             * that it isn't our schema.
+             * that it isn't the root schema.
              */
-            if (!enqueuedIds.containsKey(baseSchemaId) && !mySchemaId.equals(baseSchemaId)) {
+            if (!enqueuedIds.containsKey(baseSchemaId) && !rootSchemaId.equals(baseSchemaId)) {
 
                 /**
                  * Add the base schema to the queue and mark it as such (in the
@@ -526,28 +647,337 @@ public final class Prototype extends RuntimeObject {
         }
     }
 
+    /**
+     * Returns the ordered base schema ids of the specified schema.
+     * 
+     * @see #getAllBaseSchemaIds()
+     */
+    private LinkedList<URI> findAllBaseSchemaIds(final URI schemaId) {
+
+        //
+        // The following algorithm performs a breadth first traversal of 
+        // the base schemas graph to produce an orderly result.
+        //
+
+        /*
+         * This is the map that this method will return, wrapped by an
+         * ObservableMap. It is an ordered map of (URI) schema id to the
+         * schemas
+         * themselves.
+         * 
+         * This ordered map will hold all of our base schemas that are
+         * belong to
+         * us schema. In other words it maps, by schema id, the base schemas
+         * of
+         * the schema associated with our own schema id.
+         */
+        final LinkedList<URI> allYourBase = new LinkedList<URI>();
+
+        /*
+         * This queue is used to "process" our schema's base schemas.
+         * Processing
+         * in this case means collecting all of the base schemas in the
+         * order
+         * described above. This computation involves a tree traversal of
+         * our
+         * base schemas.
+         */
+        final Queue<URI> queue = new LinkedList<URI>();
+
+        /*
+         * This map retains the URIs of the schemas that have already been
+         * processed, meaning that they've been enqueued once already and
+         * should
+         * not be processed again. It helps us address the fact that our
+         * schema
+         * tree might actually be a graph with cycles.
+         */
+        final HashMap<URI, URI> enqueuedIds = new HashMap<URI, URI>();
+
+        /*
+         * Start by enqueueing our blueprint's immediate base schemas.
+         */
+        enqueueBaseSchemas(queue, schemaId, schemaId, enqueuedIds);
+
+        /*
+         * Process the queue one level (frontier) of the base schema graph at
+         * a time, in queue order, so that each level's schemas can be
+         * fetched concurrently before they are processed.
+         */
+        final Context context = getContext();
+        while (!queue.isEmpty()) {
+
+            /*
+             * The base schemas are marked as enqueued (and checked against the
+             * blueprint) as they are enqueued, so each one is in the queue
+             * once and the whole level is processed.
+             */
+            final List<URI> frontier = new ArrayList<URI>(queue);
+            queue.clear();
+
+            if (frontier.size() > 1) {
+                context.prefetchSchemas(frontier);
+            }
+
+            for (final URI baseSchemaId : frontier) {
+
+                /*
+                 * Process the base schema by adding it to our ordered
+                 * collection. Enqueue its base schemas too (into the next
+                 * level).
+                 */
+                allYourBase.add(baseSchemaId);
+                enqueueBaseSchemas(queue, schemaId, baseSchemaId, enqueuedIds);
+            }
+        }
+
+        return allYourBase;
+    }
+
+    /**
+     * Returns the memoized layouts that can be merged in, in place of their
+     * layers, by the id of the schema at whose layer each is merged in (its
+     * own). The (disjoint) layouts are chosen from the furthest layer back.
+     * 
+     * A layout can be merged in if its layers are among the specified layers,
+     * in the same order, and if merging it in (which moves its layers up to
+     * its own schema's layer) doesn't reorder any two layers that have a
+     * field or link in common; the result is then the same as extending the
+     * layers one by one.
+     */
+    private Map<URI, SchemaLayout> findSchemaLayouts(final List<URI> layerSchemaIds) {
+
+        final Map<URI, SchemaLayout> layouts = new HashMap<URI, SchemaLayout>();
+        if (_SystemSchemaService == null) {
+            return layouts;
+        }
+
+        // The index of the layer that each layer is applied at, once the layouts are merged
+        final Map<URI, Integer> appliedLayerIndexes = new HashMap<URI, Integer>();
+        final Map<URI, Set<Object>> layerKeys = new HashMap<URI, Set<Object>>();
+
+        for (int i = layerSchemaIds.size() - 1; i >= 0; i--) {
+
+            final URI layerSchemaId = layerSchemaIds.get(i);
+            final SchemaLayout layout = _SystemSchemaService.getSchemaLayout(layerSchemaId);
+            if ((layout == null) || appliedLayerIndexes.containsKey(layerSchemaId)
+                    || !layout.isLaidOutIn(layerSchemaIds, i)) {
+                continue;
+            }
+
+            final List<URI> layoutLayerSchemaIds = layout.getLayerSchemaIds();
+            boolean mergeable = true;
+            for (final URI layoutLayerSchemaId : layoutLayerSchemaIds) {
+                if (appliedLayerIndexes.containsKey(layoutLayerSchemaId)) {
+                    // Already part of another (further) layout
+                    mergeable = false;
+                    break;
+                }
+            }
+
+            if (mergeable) {
+
+                for (final URI layoutLayerSchemaId : layoutLayerSchemaIds) {
+                    appliedLayerIndexes.put(layoutLayerSchemaId, i);
+                }
+
+                if (isLayerOrderKept(layerSchemaIds, appliedLayerIndexes, layerKeys)) {
+                    layouts.put(layerSchemaId, layout);
+                    continue;
+                }
+
+                for (final URI layoutLayerSchemaId : layoutLayerSchemaIds) {
+                    appliedLayerIndexes.remove(layoutLayerSchemaId);
+                }
+            }
+        }
+
+        return layouts;
+    }
+
+    /**
+     * Returns the keys (the field names and link rels) that the layer's
+     * schema itself defines, or <code>null</code> if the schema isn't
+     * available.
+     */
+    private Set<Object> getLayerKeys(final URI layerSchemaId, final Map<URI, Set<Object>> layerKeys) {
+
+        if (layerKeys.containsKey(layerSchemaId)) {
+            return layerKeys.get(layerSchemaId);
+        }
+
+        Set<Object> keys = null;
+        final Schema schema = getContext().getSchema(layerSchemaId);
+        if (schema != null) {
+
+            keys = new HashSet<Object>();
+
+            @SuppressWarnings("unchecked")
+            final List<Field> fields = (List<Field>) schema.getFieldValue(FieldNames.Schema.fields.toString());
+            if (fields != null) {
+                for (final Field field : fields) {
+                    keys.add(field.getFieldValue(FieldNames.Named.name.toString()));
+                }
+            }
+
+            @SuppressWarnings("unchecked")
+            final List<Link> links = (List<Link>) schema.getFieldValue(FieldNames.Schema.links.toString());
+            if (links != null) {
+                for (final Link link : links) {
+                    keys.add(link.getFieldValue(FieldNames.Link.relId.toString()));
+                }
+            }
+        }
+
+        layerKeys.put(layerSchemaId, keys);
+        return keys;
+    }
+
+    /**
+     * Returns the layer's own layers; its base schemas (from the top of the
+     * schema hierarchy down) and then itself. They are memoized by the
+     * SystemSchemaService.
+     */
+    private List<URI> getOwnLayerSchemaIds(final URI layerSchemaId) {
+
+        List<URI> ownLayerSchemaIds = _SystemSchemaService.getLayerSchemaIds(layerSchemaId);
+        if (ownLayerSchemaIds == null) {
+            final List<URI> layerSchemaIds = new ArrayList<URI>(findAllBaseSchemaIds(layerSchemaId));
+            Collections.reverse(layerSchemaIds);
+            layerSchemaIds.add(layerSchemaId);
+
+            _SystemSchemaService.putLayerSchemaIds(layerSchemaId, Collections.unmodifiableList(layerSchemaIds));
+            ownLayerSchemaIds = _SystemSchemaService.getLayerSchemaIds(layerSchemaId);
+        }
+
+        return ownLayerSchemaIds;
+    }
+
+    /**
+     * Returns <code>true</code> if no two layers that have a key in common
+     * would be applied in a different order than that of the specified
+     * layers, given the (merged) layers' indexes.
+     */
+    private boolean isLayerOrderKept(final List<URI> layerSchemaIds, final Map<URI, Integer> appliedLayerIndexes,
+            final Map<URI, Set<Object>> layerKeys) {
+
+        final int layerCount = layerSchemaIds.size();
+        for (int earlier = 0; earlier < layerCount; earlier++) {
+
+            final URI earlierLayerSchemaId = layerSchemaIds.get(earlier);
+            final Integer earlierAppliedIndex = appliedLayerIndexes.get(earlierLayerSchemaId);
+
+            for (int later = earlier + 1; later < layerCount; later++) {
+
+                final URI laterLayerSchemaId = layerSchemaIds.get(later);
+                final Integer laterAppliedIndex = appliedLayerIndexes.get(laterLayerSchemaId);
+
+                final int earlierIndex = (earlierAppliedIndex != null) ? earlierAppliedIndex : earlier;
+                final int laterIndex = (laterAppliedIndex != null) ? laterAppliedIndex : later;
+                if (earlierIndex <= laterIndex) {
+                    continue;
+                }
+
+                final Set<Object> earlierKeys = getLayerKeys(earlierLayerSchemaId, layerKeys);
+                final Set<Object> laterKeys = getLayerKeys(laterLayerSchemaId, layerKeys);
+                if ((earlierKeys == null) || (laterKeys == null) || !Collections.disjoint(earlierKeys, laterKeys)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
     @SuppressWarnings("unchecked")
-    private void initFields(final Map<String, Field> allYourFields, final Schema baseSchema) {
+    private void initFields(final Map<String, Field> allYourFields, final Schema baseSchema,
+            final Set<Model> sharedModels) {
 
         final String fieldName = FieldNames.Schema.fields.toString();
         final List<Field> fields = (List<Field>) baseSchema.getFieldValue(fieldName);
         prototypicalExtension(baseSchema.getModelGraph(), allYourFields, fields, Field.class,
-                FieldNames.Named.name.toString());
+                FieldNames.Named.name.toString(), sharedModels);
     }
 
     @SuppressWarnings("unchecked")
-    private void initLinks(final Map<URI, Link> allYourLinks, final Schema baseSchema) {
+    private void initLinks(final Map<URI, Link> allYourLinks, final Schema baseSchema,
+            final Set<Model> sharedModels) {
 
         final String fieldName = FieldNames.Schema.links.toString();
         final List<Link> links = (List<Link>) baseSchema.getFieldValue(fieldName);
 
         prototypicalExtension(baseSchema.getModelGraph(), allYourLinks, links, Link.class,
-                FieldNames.Link.relId.toString());
+                FieldNames.Link.relId.toString(), sharedModels);
+    }
+
+    /**
+     * Memoizes the current (flattened) fields and links as the layout of the
+     * last of the (applied) layers, if those are its own layers and it isn't
+     * memoized yet. The memoized models are then shared.
+     */
+    private void memoizeSchemaLayout(final List<URI> layerSchemaIds, final Set<Model> sharedModels) {
+
+        if (_SystemSchemaService == null) {
+            return;
+        }
+
+        final URI layerSchemaId = layerSchemaIds.get(layerSchemaIds.size() - 1);
+        if (_SystemSchemaService.getSchemaLayout(layerSchemaId) != null) {
+            return;
+        }
+
+        if (!layerSchemaId.equals(getSchemaId()) && !getOwnLayerSchemaIds(layerSchemaId).equals(layerSchemaIds)) {
+            return;
+        }
+
+        _SystemSchemaService.putSchemaLayout(layerSchemaId, new SchemaLayout(layerSchemaIds, _Fields, _LinksByRel));
+        sharedModels.addAll(_Fields.values());
+        sharedModels.addAll(_LinksByRel.values());
+    }
+
+    /**
+     * Merges the layout's (shared) models into the models; each is either
+     * added as is or, if there is a model with its key already, extends (a
+     * copy of) that model.
+     */
+    @SuppressWarnings("unchecked")
+    private <K, M extends Model> void mergeSchemaLayout(final ModelGraph modelGraph, final Map<K, M> allModels,
+            final Map<K, M> layoutModels, Class<?> staticInterfaceType, final Set<Model> sharedModels) {
+
+        for (final Map.Entry<K, M> layoutEntry : layoutModels.entrySet()) {
+
+            final K modelKey = layoutEntry.getKey();
+            final M layoutModel = layoutEntry.getValue();
+
+            M model = allModels.get(modelKey);
+            if (model == null) {
+                allModels.put(modelKey, layoutModel);
+                sharedModels.add(layoutModel);
+                continue;
+            }
+
+            if (sharedModels.contains(model)) {
+
+                final M sharedModel = model;
+
+                modelGraph.setInitCursorFocusRelationShipName(String.valueOf(modelKey));
+                model = (M) getContext().getModelHeap().newModel(staticInterfaceType, modelGraph)
+                        .getStaticInterface();
+                modelGraph.popInitCursorBack();
+
+                // Copy the memoized model rather than changing it
+                model.extend(sharedModel);
+                allModels.put(modelKey, model);
+            }
+
+            model.extend(layoutModel);
+        }
     }
 
     @SuppressWarnings("unchecked")
     private <K, M extends Model> void prototypicalExtension(final ModelGraph modelGraph, final Map<K, M> allModels,
-            final List<M> extensionModels, Class<?> staticInterfaceType, String keyFieldName) {
+            final List<M> extensionModels, Class<?> staticInterfaceType, String keyFieldName,
+            final Set<Model> sharedModels) {
 
         if (extensionModels == null) {
             return;
@@ -559,12 +989,20 @@ public final class Prototype extends RuntimeObject {
 
             M model = allModels.get(modelKey);
 
-            if (model == null) {
+            if ((model == null) || sharedModels.contains(model)) {
+
+                final M sharedModel = model;
 
                 final Context context = getContext();
                 modelGraph.setInitCursorFocusRelationShipName(String.valueOf(modelKey));
                 model = (M) context.getModelHeap().newModel(staticInterfaceType, modelGraph).getStaticInterface();
                 modelGraph.popInitCursorBack();
+
+                if (sharedModel != null) {
+                    // Copy the memoized model rather than changing it
+                    model.extend(sharedModel);
+                }
+
                 allModels.put(modelKey, model);
             }
 
@@ -573,4 +1011,137 @@ public final class Prototype extends RuntimeObject {
 
     }
 
+    /**
+     * Returns an unmodifiable copy of the (possibly <code>null</code>) map
+     * with the additional entry.
+     */
+    private static <K, V> Map<K, V> copyWith(final Map<K, V> map, final K key, final V value) {
+        final Map<K, V> copy = (map != null) ? new HashMap<K, V>(map) : new HashMap<K, V>();
+        copy.put(key, value);
+        return Collections.unmodifiableMap(copy);
+    }
+
+    private FieldPrototype createFieldPrototype(final String fieldName, final java.lang.reflect.Type nativeType,
+            final int slot, final int primitiveSlot) {
+
+        final Context context = getContext();
+        final SystemTransformers systemTransformers = context.getSystemTransformers();
+        final Type type = systemTransformers.getNativeTypeToTypeTransformer().aToB(nativeType);
+
+        return new FieldPrototype(context, fieldName, type, nativeType, slot, primitiveSlot);
+    }
+
+    /**
+     * Returns the field name of the getter (e.g. "name" for getName or
+     * isName), or <code>null</code> if the method isn't a getter.
+     */
+    private static String getFieldName(final Method method) {
+
+        final String methodName = method.getName();
+        String possibleFieldName = null;
+        if (methodName.startsWith("get")) {
+            possibleFieldName = methodName.substring(3);
+        }
+        else if (methodName.startsWith("is")) {
+            possibleFieldName = methodName.substring(2);
+        }
+
+        if ((possibleFieldName == null) || (possibleFieldName.length() == 0)) {
+            return null;
+        }
+
+        return Character.toLowerCase(possibleFieldName.charAt(0)) + possibleFieldName.substring(1);
+    }
+
+    /**
+     * Builds the (immutable) index of all of the prototype's field prototypes,
+     * with their native types and types resolved, in one pass over the schema
+     * interface's methods.
+     * 
+     * Each of the fields declared by the schema interface (and its base
+     * interfaces) is assigned a slot. Methods declared by {@link Model} (or
+     * its ancestors) are not slotted fields, but their getters are indexed
+     * too (without a slot).
+     */
+    private void initFieldIndex() {
+
+        if (_SlottedFieldPrototypes != null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (_SlottedFieldPrototypes == null) {
+                buildFieldIndex();
+            }
+        }
+    }
+
+    private void buildFieldIndex() {
+
+        final SortedMap<String, Method> fieldMethods = new TreeMap<String, Method>();
+        final Map<String, Method> unslottedFieldMethods = new HashMap<String, Method>();
+        for (final Method method : getNativeClass().getMethods()) {
+
+            final String fieldName = getFieldName(method);
+            if (fieldName == null) {
+                continue;
+            }
+
+            if (method.getDeclaringClass().isAssignableFrom(Model.class) || Modifier.isStatic(method.getModifiers())
+                    || (method.getParameterTypes().length > 0)) {
+
+                if (!unslottedFieldMethods.containsKey(fieldName)) {
+                    unslottedFieldMethods.put(fieldName, method);
+                }
+
+                continue;
+            }
+
+            if (!fieldMethods.containsKey(fieldName)) {
+                fieldMethods.put(fieldName, method);
+            }
+        }
+
+        final FieldPrototype[] slottedFieldPrototypes = new FieldPrototype[fieldMethods.size()];
+        final Map<String, FieldPrototype> fieldPrototypesByName = new HashMap<String, FieldPrototype>();
+
+        final Context context = getContext();
+        final TypeSystem typeSystem = context.getTypeSystem();
+        final SystemTransformers systemTransformers = context.getSystemTransformers();
+
+        int slot = 0;
+        int primitiveSlot = 0;
+        for (final String fieldName : fieldMethods.keySet()) {
+
+            final Method fieldMethod = fieldMethods.get(fieldName);
+            final java.lang.reflect.Type nativeType = typeSystem.getNativeReturnType(fieldMethod, _NativeType);
+            final Class<?> nativeClass = systemTransformers.getNativeTypeToClassTransformer().aToB(nativeType);
+
+            int fieldPrimitiveSlot = FieldPrototype.NO_SLOT;
+            if (FieldPrototype.getPrimitiveSlotType(nativeClass) != null) {
+                fieldPrimitiveSlot = primitiveSlot++;
+            }
+
+            final FieldPrototype fieldPrototype = createFieldPrototype(fieldName, nativeType, slot,
+                    fieldPrimitiveSlot);
+            slottedFieldPrototypes[slot++] = fieldPrototype;
+            fieldPrototypesByName.put(fieldName, fieldPrototype);
+        }
+
+        for (final String fieldName : unslottedFieldMethods.keySet()) {
+            if (!fieldPrototypesByName.containsKey(fieldName)) {
+                final Method fieldMethod = unslottedFieldMethods.get(fieldName);
+                final java.lang.reflect.Type nativeType = typeSystem.getNativeReturnType(fieldMethod, _NativeType);
+                fieldPrototypesByName.put(fieldName, createFieldPrototype(fieldName, nativeType,
+                        FieldPrototype.NO_SLOT, FieldPrototype.NO_SLOT));
+            }
+        }
+
+        _PrimitiveFieldSlotCount = primitiveSlot;
+        _FieldPrototypesByName = Collections.unmodifiableMap(fieldPrototypesByName);
+
+        // Published last (volatile), so that the index and count are visible with it
+        _SlottedFieldPrototypes = slottedFieldPrototypes;
+    }
+
 }
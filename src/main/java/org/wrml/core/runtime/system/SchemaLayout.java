@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime.system;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.wrml.core.model.schema.Field;
+import org.wrml.core.model.schema.Link;
+
+/**
+ * The flattened (immutable) field and link layout of a schema, which is the
+ * result of extending the fields and links of each of its layers in order;
+ * its base schemas (from the top of the schema hierarchy down) and then the
+ * schema itself.
+ * 
+ * The layouts are memoized (by the SystemSchemaService) so that a prototype
+ * can merge in the layouts of its base schemas, rather than re-extending each
+ * of their layers.
+ * 
+ * @see Prototype#getAllBaseSchemaIds()
+ */
+final class SchemaLayout {
+
+    private final List<URI> _LayerSchemaIds;
+    private final SortedMap<String, Field> _Fields;
+    private final SortedMap<URI, Link> _LinksByRel;
+
+    SchemaLayout(final List<URI> layerSchemaIds, final Map<String, Field> fields, final Map<URI, Link> linksByRel) {
+
+        _LayerSchemaIds = Collections.unmodifiableList(new ArrayList<URI>(layerSchemaIds));
+        _Fields = Collections.unmodifiableSortedMap(new TreeMap<String, Field>(fields));
+        _LinksByRel = Collections.unmodifiableSortedMap(new TreeMap<URI, Link>(linksByRel));
+    }
+
+    public SortedMap<String, Field> getFields() {
+        return _Fields;
+    }
+
+    public List<URI> getLayerSchemaIds() {
+        return _LayerSchemaIds;
+    }
+
+    public SortedMap<URI, Link> getLinksByRel() {
+        return _LinksByRel;
+    }
+
+    /**
+     * Returns <code>true</code> if this layout's layers are among the
+     * specified layers, in the same order, with its last layer (its own
+     * schema) at the specified index.
+     */
+    public boolean isLaidOutIn(final List<URI> layerSchemaIds, final int lastLayerIndex) {
+
+        final int layerCount = _LayerSchemaIds.size();
+        if (!_LayerSchemaIds.get(layerCount - 1).equals(layerSchemaIds.get(lastLayerIndex))) {
+            return false;
+        }
+
+        int layer = 0;
+        for (int i = 0; (i < lastLayerIndex) && (layer < layerCount - 1); i++) {
+            if (_LayerSchemaIds.get(layer).equals(layerSchemaIds.get(i))) {
+                layer++;
+            }
+        }
+
+        return layer == layerCount - 1;
+    }
+
+}
@@ -18,9 +18,14 @@ package org.wrml.core.runtime.system;
 
 import java.lang.reflect.Type;
 import java.net.URI;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.wrml.core.Model;
 import org.wrml.core.model.schema.Field;
@@ -34,12 +39,26 @@ import org.wrml.core.runtime.system.transformer.SystemTransformers;
 import org.wrml.core.service.ProxyService;
 import org.wrml.core.service.Service;
 import org.wrml.core.transformer.Transformer;
-import org.wrml.core.util.observable.ObservableMap;
-import org.wrml.core.util.observable.Observables;
+import org.wrml.core.www.WebClient;
 import org.wrml.core.www.MediaType;
 
 /**
  * The WRML equivalent of the SystemClassLoader.
+ * 
+ * The schemas that it loads (by way of its origin service) are
+ * {@link Model#freeze() frozen}, since they are read-only once loaded, so
+ * that they can be shared by concurrent threads.
+ * 
+ * Each prototype is created and initialized exactly once, by the first
+ * thread that looks it up; other threads wait for that prototype's init only,
+ * so a slow (remote) schema doesn't hold up the lookups of other types.
+ * Looking up an initialized prototype is a single lock-free read.
+ * 
+ * A prototype's init may need other prototypes (or itself) in turn. So a
+ * lookup of a prototype whose init is already under way on the same thread,
+ * or on a thread that is (transitively) waiting for this one, returns the
+ * prototype before its init is complete, rather than waiting forever. A
+ * failed init is forgotten, so that the next lookup tries again.
  */
 public final class SystemSchemaService extends ProxyService implements Service {
 
@@ -58,14 +77,28 @@ public final class SystemSchemaService extends ProxyService implements Service {
     private Prototype _SchemaBootstrapPrototype;
     private Prototype _FieldBootstrapPrototype;
 
-    private final ObservableMap<Type, Prototype> _Prototypes;
+    private final ConcurrentHashMap<Type, Prototype> _Prototypes;
+    private final ConcurrentHashMap<Type, PrototypeInit> _PrototypeInits;
+
+    /** The prototype init (if any) that each thread is waiting for */
+    private final ConcurrentHashMap<Thread, PrototypeInit> _AwaitedPrototypeInits;
+
+    /** The flattened field and link layouts, by schema id */
+    private final ConcurrentHashMap<URI, SchemaLayout> _SchemaLayouts;
+
+    /** The layers (base schema ids, top down, and then itself) of each schema, by schema id */
+    private final ConcurrentHashMap<URI, List<URI>> _LayerSchemaIds;
 
     public SystemSchemaService(Context context, Service originService) {
         super(context, originService);
 
         // TODO: Add ClassLoader segregated by API for "reloadablilty"
 
-        _Prototypes = Observables.observableMap(new HashMap<Type, Prototype>());
+        _Prototypes = new ConcurrentHashMap<Type, Prototype>();
+        _PrototypeInits = new ConcurrentHashMap<Type, PrototypeInit>();
+        _AwaitedPrototypeInits = new ConcurrentHashMap<Thread, PrototypeInit>();
+        _SchemaLayouts = new ConcurrentHashMap<URI, SchemaLayout>();
+        _LayerSchemaIds = new ConcurrentHashMap<URI, List<URI>>();
 
         final Transformer<URI, String> idTransformer = getIdTransformer();
         final URI metaSchemaId = idTransformer.bToA(SCHEMA_SCHEMA_FULL_NAME);
@@ -115,6 +148,10 @@ public final class SystemSchemaService extends ProxyService implements Service {
 
             responseEntity = super.get(schemaId, cachedEntity, responseType, referrer);
             //System.out.println("SystemSchemaService: Returning remote schema: \n" + responseEntity);
+
+            if (responseEntity instanceof Model) {
+                ((Model) responseEntity).freeze();
+            }
         }
 
         return responseEntity;
@@ -128,10 +165,87 @@ public final class SystemSchemaService extends ProxyService implements Service {
 
     public final Prototype getPrototype(Type staticInterfaceType) {
 
-        if (_Prototypes.containsKey(staticInterfaceType)) {
-            return _Prototypes.get(staticInterfaceType);
+        final Prototype prototype = _Prototypes.get(staticInterfaceType);
+        if ((prototype != null) && prototype.isInitialized()) {
+            return prototype;
+        }
+
+        PrototypeInit prototypeInit = _PrototypeInits.get(staticInterfaceType);
+        if (prototypeInit == null) {
+
+            final PrototypeInit newPrototypeInit = new PrototypeInit(staticInterfaceType);
+            prototypeInit = _PrototypeInits.putIfAbsent(staticInterfaceType, newPrototypeInit);
+            if (prototypeInit == null) {
+
+                // This thread won, so it runs the init
+                prototypeInit = newPrototypeInit;
+                prototypeInit.run();
+            }
+        }
+
+        return prototypeInit.await();
+    }
+
+    /**
+     * Fetches the (remote) schemas concurrently in the background, if the
+     * origin service is able to, so that they are ready to be read when they
+     * are requested.
+     */
+    public void prefetch(final Collection<URI> schemaIds, final MediaType responseType) {
+
+        if (!(getOriginService() instanceof WebClient)) {
+            return;
         }
 
+        final List<URI> remoteSchemaIds = new ArrayList<URI>(schemaIds.size());
+        for (final URI schemaId : schemaIds) {
+
+            // The bootstrap schemas are local
+            if (!_SchemaBootstrapSchema.getId().equals(schemaId) && !_FieldBootstrapSchema.getId().equals(schemaId)) {
+                remoteSchemaIds.add(schemaId);
+            }
+        }
+
+        if (!remoteSchemaIds.isEmpty()) {
+            ((WebClient) getOriginService()).prefetch(remoteSchemaIds, responseType);
+        }
+    }
+
+    List<URI> getLayerSchemaIds(final URI schemaId) {
+        return _LayerSchemaIds.get(schemaId);
+    }
+
+    SchemaLayout getSchemaLayout(final URI schemaId) {
+        return _SchemaLayouts.get(schemaId);
+    }
+
+    void putLayerSchemaIds(final URI schemaId, final List<URI> layerSchemaIds) {
+        _LayerSchemaIds.putIfAbsent(schemaId, layerSchemaIds);
+    }
+
+    void putSchemaLayout(final URI schemaId, final SchemaLayout schemaLayout) {
+        _SchemaLayouts.putIfAbsent(schemaId, schemaLayout);
+    }
+
+    private Prototype createBootstrapPrototype(Type staticInterfaceType, BootstrapSchema bootstrapSchema) {
+        final Context context = getContext();
+        final Prototype bootstrapPrototype = createPrototype(staticInterfaceType);
+        final List<Field> schemaFields = bootstrapSchema.getFields();
+        final Map<String, Field> prototypeFields = bootstrapPrototype.getFields();
+
+        // Convert the bootstrap schema's list of fields to a map
+        context.mapFieldsByFieldName(prototypeFields, schemaFields, FieldNames.Schema.fields.toString());
+
+        return bootstrapPrototype;
+
+    }
+
+    private Prototype createPrototype(Type staticInterfaceType) {
+        return new Prototype(getContext(), staticInterfaceType, this);
+    }
+
+    private Prototype newPrototype(Type staticInterfaceType) {
+
         Prototype prototype = null;
 
         if (_SchemaBootstrapSchema.getId().equals(staticInterfaceType)) {
@@ -151,30 +265,140 @@ public final class SystemSchemaService extends ProxyService implements Service {
             prototype = _FieldBootstrapPrototype;
 
         }
-        else if (!_Prototypes.containsKey(staticInterfaceType)) {
+        else {
             prototype = createPrototype(staticInterfaceType);
         }
 
-        _Prototypes.put(staticInterfaceType, prototype);
-        prototype.init();
         return prototype;
     }
 
-    private Prototype createBootstrapPrototype(Type staticInterfaceType, BootstrapSchema bootstrapSchema) {
-        final Context context = getContext();
-        final Prototype bootstrapPrototype = createPrototype(staticInterfaceType);
-        final List<Field> schemaFields = bootstrapSchema.getFields();
-        final Map<String, Field> prototypeFields = bootstrapPrototype.getFields();
+    /**
+     * The once-only init of the prototype of a type, which is run by the first
+     * thread that looks up the prototype.
+     */
+    private final class PrototypeInit implements Callable<Prototype> {
 
-        // Convert the bootstrap schema's list of fields to a map
-        context.mapFieldsByFieldName(prototypeFields, schemaFields, FieldNames.Schema.fields.toString());
+        private final Type _StaticInterfaceType;
+        private final FutureTask<Prototype> _Task;
 
-        return bootstrapPrototype;
+        private volatile Thread _Thread;
+        private volatile Prototype _Prototype;
 
-    }
+        PrototypeInit(final Type staticInterfaceType) {
+            _StaticInterfaceType = staticInterfaceType;
+            _Task = new FutureTask<Prototype>(this);
+        }
 
-    private Prototype createPrototype(Type staticInterfaceType) {
-        return new Prototype(getContext(), staticInterfaceType);
+        public Prototype call() {
+
+            _Thread = Thread.currentThread();
+
+            final Prototype prototype = newPrototype(_StaticInterfaceType);
+            _Prototype = prototype;
+
+            // Published before init, so that init (on this thread) can find it
+            _Prototypes.put(_StaticInterfaceType, prototype);
+
+            boolean initialized = false;
+            try {
+                prototype.initOnce();
+                initialized = true;
+            }
+            finally {
+                _Thread = null;
+
+                if (!initialized) {
+                    // Forget the failed init, so that the next lookup tries again
+                    _Prototypes.remove(_StaticInterfaceType, prototype);
+                    _PrototypeInits.remove(_StaticInterfaceType, this);
+                }
+            }
+
+            return prototype;
+        }
+
+        Prototype await() {
+
+            if (!_Task.isDone()) {
+
+                /*
+                 * The wait is registered before it is checked, so that of two
+                 * threads that are about to wait for each other, at least one
+                 * sees the other's wait.
+                 */
+                final Thread currentThread = Thread.currentThread();
+                _AwaitedPrototypeInits.put(currentThread, this);
+                try {
+                    final Prototype prototype = _Prototype;
+                    if ((prototype != null) && isAwaitedBy(currentThread)) {
+                        return prototype;
+                    }
+
+                    return get();
+                }
+                finally {
+                    _AwaitedPrototypeInits.remove(currentThread);
+                }
+            }
+
+            return get();
+        }
+
+        void run() {
+            _Task.run();
+        }
+
+        private Prototype get() {
+
+            try {
+                return _Task.get();
+            }
+            catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the prototype of: \""
+                        + _StaticInterfaceType + "\"", e);
+            }
+            catch (final ExecutionException e) {
+
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+
+                throw new IllegalStateException("Failed to initialize the prototype of: \""
+                        + _StaticInterfaceType + "\"", cause);
+            }
+        }
+
+        /**
+         * Returns <code>true</code> if this init is being run by the specified
+         * thread, or by a thread that is (transitively) waiting for it; in
+         * which case waiting for this init would never end.
+         */
+        private boolean isAwaitedBy(final Thread thread) {
+
+            PrototypeInit prototypeInit = this;
+
+            // Bounded, in case the waits change while they are being followed
+            for (int i = _AwaitedPrototypeInits.size(); (prototypeInit != null) && (i >= 0); i--) {
+
+                final Thread initThread = prototypeInit._Thread;
+                if (initThread == null) {
+                    return false;
+                }
+
+                if (initThread == thread) {
+                    return true;
+                }
+
+                prototypeInit = _AwaitedPrototypeInits.get(initThread);
+            }
+
+            return false;
+        }
     }
 
 }
@@ -69,9 +69,13 @@ public class CachingService extends ProxyService {
         else {
             // TODO: Pass the cached entity?
             responseEntity = super.get(resourceId, null, responseType, referrer);
-            cache.put(resourceId, responseEntity);
-            System.out.println("CachingService.get: \"" + resourceId + "\" is now CACHED as: "
-                    + String.valueOf(responseEntity));
+
+            // The (concurrent) cache can't hold nulls
+            if (responseEntity != null) {
+                cache.put(resourceId, responseEntity);
+                System.out.println("CachingService.get: \"" + resourceId + "\" is now CACHED as: "
+                        + String.valueOf(responseEntity));
+            }
         }
 
         // TODO: Consider a composite key for the cache map to consider response type attributes (like a good HTTP cache would)
@@ -23,6 +23,8 @@ import java.lang.reflect.UndeclaredThrowableException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * An {@link InvocationHandler} that delegates calls to an
@@ -61,8 +63,72 @@ public class DelegatingInvocationHandler implements Delegating<Object>, Invocati
         return sb.toString();
     }
 
+    /**
+     * The delegate method tables, shared by all of the handlers that delegate
+     * to objects of the same class. The tables are keyed by delegate class
+     * alone, which they already (strongly) refer to through its methods.
+     * Handlers that override {@link #getMethodKey(Method)} build their own
+     * (unshared) tables.
+     */
+    private static final ConcurrentMap<Class<?>, DelegateMethodTable> DELEGATE_METHOD_TABLES =
+            new ConcurrentHashMap<Class<?>, DelegateMethodTable>();
+
+    /**
+     * Whether or not each handler class overrides {@link #getMethodKey(Method)}
+     */
+    private static final ConcurrentMap<Class<?>, Boolean> METHOD_KEY_OVERRIDES =
+            new ConcurrentHashMap<Class<?>, Boolean>();
+
+    private static DelegateMethodTable getDelegateMethodTable(final DelegatingInvocationHandler handler,
+            final Class<?> delegateClass) {
+
+        if (isMethodKeyOverridden(handler.getClass())) {
+            return new DelegateMethodTable(handler, delegateClass);
+        }
+
+        DelegateMethodTable delegateMethodTable = DELEGATE_METHOD_TABLES.get(delegateClass);
+        if (delegateMethodTable == null) {
+            delegateMethodTable = new DelegateMethodTable(handler, delegateClass);
+
+            final DelegateMethodTable existingDelegateMethodTable = DELEGATE_METHOD_TABLES.putIfAbsent(
+                    delegateClass, delegateMethodTable);
+            if (existingDelegateMethodTable != null) {
+                delegateMethodTable = existingDelegateMethodTable;
+            }
+        }
+
+        return delegateMethodTable;
+    }
+
+    private static boolean isMethodKeyOverridden(final Class<?> handlerClass) {
+
+        if (handlerClass == DelegatingInvocationHandler.class) {
+            return false;
+        }
+
+        Boolean methodKeyOverridden = METHOD_KEY_OVERRIDES.get(handlerClass);
+        if (methodKeyOverridden == null) {
+
+            methodKeyOverridden = Boolean.FALSE;
+            for (Class<?> c = handlerClass; c != DelegatingInvocationHandler.class; c = c.getSuperclass()) {
+                try {
+                    c.getDeclaredMethod("getMethodKey", Method.class);
+                    methodKeyOverridden = Boolean.TRUE;
+                    break;
+                }
+                catch (final NoSuchMethodException e) {
+                    // Not overridden by this class
+                }
+            }
+
+            METHOD_KEY_OVERRIDES.putIfAbsent(handlerClass, methodKeyOverridden);
+        }
+
+        return methodKeyOverridden.booleanValue();
+    }
+
     private final Object _Delegate;
-    private final Map<String, Method> _DelegateMethods;
+    private final DelegateMethodTable _DelegateMethodTable;
 
     /**
      * Constructor.
@@ -72,12 +138,7 @@ public class DelegatingInvocationHandler implements Delegating<Object>, Invocati
      */
     public DelegatingInvocationHandler(Object delegate) {
         _Delegate = delegate;
-
-        final Method[] methods = _Delegate.getClass().getMethods();
-        _DelegateMethods = new HashMap<String, Method>(methods.length);
-        for (final Method method : methods) {
-            _DelegateMethods.put(getMethodKey(method), method);
-        }
+        _DelegateMethodTable = getDelegateMethodTable(this, _Delegate.getClass());
     }
 
     /**
@@ -96,7 +157,7 @@ public class DelegatingInvocationHandler implements Delegating<Object>, Invocati
      * @return The delegate methods
      */
     public final Map<String, Method> getDelegateMethods() {
-        return Collections.unmodifiableMap(_DelegateMethods);
+        return _DelegateMethodTable._DelegateMethodsByKey;
     }
 
     public final Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
@@ -187,9 +248,8 @@ public class DelegatingInvocationHandler implements Delegating<Object>, Invocati
      */
     protected final Object baseInvoke(Object proxy, Method method, Object[] args) throws Throwable {
 
-        final String methodKey = getMethodKey(method);
-        final Map<String, Method> delegateMethods = getDelegateMethods();
-        return delegateMethods.get(methodKey).invoke(getDelegate(), args);
+        final Method delegateMethod = _DelegateMethodTable.getDelegateMethod(this, method);
+        return delegateMethod.invoke(getDelegate(), args);
     }
 
     /**
@@ -318,6 +378,42 @@ public class DelegatingInvocationHandler implements Delegating<Object>, Invocati
         return baseInvoke(proxy, method, args);
     }
 
+    /**
+     * The delegate class's methods, keyed with method keys, along with a cache
+     * of the proxy {@link Method} to delegate {@link Method} resolutions, so
+     * that an invocation does not need to build a method key.
+     */
+    private static final class DelegateMethodTable {
+
+        private final Map<String, Method> _DelegateMethodsByKey;
+        private final ConcurrentMap<Method, Method> _DelegateMethodsByInvokedMethod;
+
+        private DelegateMethodTable(final DelegatingInvocationHandler handler, final Class<?> delegateClass) {
+
+            final Method[] methods = delegateClass.getMethods();
+            final Map<String, Method> delegateMethodsByKey = new HashMap<String, Method>(methods.length);
+            for (final Method method : methods) {
+                delegateMethodsByKey.put(handler.getMethodKey(method), method);
+            }
+
+            _DelegateMethodsByKey = Collections.unmodifiableMap(delegateMethodsByKey);
+            _DelegateMethodsByInvokedMethod = new ConcurrentHashMap<Method, Method>(methods.length);
+        }
+
+        private Method getDelegateMethod(final DelegatingInvocationHandler handler, final Method invokedMethod) {
+
+            Method delegateMethod = _DelegateMethodsByInvokedMethod.get(invokedMethod);
+            if (delegateMethod == null) {
+                delegateMethod = _DelegateMethodsByKey.get(handler.getMethodKey(invokedMethod));
+                if (delegateMethod != null) {
+                    _DelegateMethodsByInvokedMethod.putIfAbsent(invokedMethod, delegateMethod);
+                }
+            }
+
+            return delegateMethod;
+        }
+    }
+
     /**
      * Interface for a {@link Runnable} that calls
      * {@link DelegatingInvocationHandler#baseInvoke(Object, Method, Object[])
@@ -55,6 +55,10 @@ public class MediaType implements Comparable<MediaType> {
 
     public static final Pattern MEDIA_TYPE_REGEX_PATTERN = Pattern.compile(MEDIA_TYPE_REGEX_STRING);
 
+    public static final String PARAMETER_REGEX_STRING = ";\\s+([a-zA-Z0-9!#$%^&\\*_\\-\\+{}\\|'.`~]+)=\"([^\"]*)\"";
+
+    public static final Pattern PARAMETER_REGEX_PATTERN = Pattern.compile(PARAMETER_REGEX_STRING);
+
     static {
         final Map<String, String> parameters = new HashMap<String, String>();
         parameters.put(MediaType.PARAMETER_NAME_SCHEMA, "{0}");
@@ -81,7 +85,6 @@ public class MediaType implements Comparable<MediaType> {
     public static MediaType create(String mediaTypeString) {
         final Matcher matcher = MEDIA_TYPE_REGEX_PATTERN.matcher(mediaTypeString);
 
-        // TODO: NOTE: WARNING: I don't think the current regex works when there is more than one media type parameter
         if (!matcher.matches()) {
             //System.out.println("MediaTypeToStringTransformer.bToA(" + aValue + ") returning: null");
             return null;
@@ -97,12 +100,15 @@ public class MediaType implements Comparable<MediaType> {
         //        System.out.println("matcher.group(4) - " + matcher.group(4));
         //        System.out.println("matcher.group(5) - " + matcher.group(5));
 
-        final String schemaIdString = matcher.group(5);
-
+        // The media type regex only captures the last parameter, so the parameters are matched one by one
         SortedMap<String, String> parameters = null;
-        if (schemaIdString != null) {
-            parameters = new TreeMap<String, String>();
-            parameters.put(MediaType.PARAMETER_NAME_SCHEMA, schemaIdString);
+        final Matcher parameterMatcher = PARAMETER_REGEX_PATTERN.matcher(mediaTypeString);
+        while (parameterMatcher.find()) {
+            if (parameters == null) {
+                parameters = new TreeMap<String, String>();
+            }
+
+            parameters.put(parameterMatcher.group(1), parameterMatcher.group(2));
         }
 
         final MediaType mediaType = new MediaType(type, subtype, (parameters != null) ? parameters : null);
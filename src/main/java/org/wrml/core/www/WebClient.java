@@ -16,14 +16,26 @@
 
 package org.wrml.core.www;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
@@ -35,8 +47,12 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpTrace;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import org.wrml.core.Model;
 import org.wrml.core.model.format.Format;
@@ -65,7 +81,30 @@ import org.wrml.core.www.http.StatusLine;
  */
 public class WebClient extends ServiceMap {
 
+    private static final Logger log = LoggerFactory.getLogger(WebClient.class);
+
+    /**
+     * The number of threads that send prefetch requests, which bounds the
+     * number of concurrent prefetches.
+     */
+    public final static int PREFETCH_THREAD_COUNT = 8;
+
+    /**
+     * The maximum number of prefetched responses that wait to be taken (by
+     * get); a resource that would exceed it isn't prefetched.
+     */
+    public final static int MAX_PREFETCHED_RESPONSE_COUNT = 256;
+
+    /**
+     * The time (in milliseconds) that a prefetched response waits to be taken
+     * before it is discarded, since it may be stale by then (or never be
+     * taken).
+     */
+    public final static long PREFETCHED_RESPONSE_TIMEOUT = 30000;
+
     private final HttpClient _HttpClient;
+    private final ExecutorService _PrefetchExecutor;
+    private final ConcurrentHashMap<URI, PrefetchedResponse> _PrefetchedResponses;
     private MediaType _DefaultFormatMediaType;
     private final Formatter _DefaultFormatter;
 
@@ -79,10 +118,25 @@ public class WebClient extends ServiceMap {
         // TODO: Make this configurable
         connectionManager.setMaxTotal(100);
 
+        // The schemas (for example) all come from one host, so let each of the prefetch threads have a connection
+        connectionManager.setDefaultMaxPerRoute(PREFETCH_THREAD_COUNT);
+
         _HttpClient = new DefaultHttpClient(connectionManager);
 
         // TODO: Make this configurable
         _DefaultFormatter = new DefaultFormatter();
+
+        // TODO: Make this configurable
+        _PrefetchExecutor = Executors.newFixedThreadPool(PREFETCH_THREAD_COUNT, new ThreadFactory() {
+
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "WebClient prefetch");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        _PrefetchedResponses = new ConcurrentHashMap<URI, PrefetchedResponse>();
     }
 
     @Override
@@ -135,54 +189,26 @@ public class WebClient extends ServiceMap {
 
     /**
      * HTTP GET
+     * 
+     * @return The response entity, as a model if it is a WRML type, or
+     *         <code>null</code> if there is none or if it can't be read (the
+     *         failure is logged).
      */
     public Object get(URI resourceId, Object cachedEntity, MediaType responseType, Model referrer) {
 
         System.out.println("WebClient: WWW GET request for: " + resourceId + " as: " + responseType);
 
-        final Context context = getContext();
-
         // Create the request message
         final Message requestMessage = createRequestMessage(resourceId, cachedEntity, responseType, referrer,
                 Method.GET);
 
-        // Send the request message to get the response message
-        final Message responseMessage = sendRequestMessage(requestMessage);
-
-        final MediaType actualResponseType = responseMessage.getEntity().getHeaders().getContentType();
-
-        final Entity responseEntity = responseMessage.getEntity();
-        final Body responseBody = responseEntity.getBody();
-        final InputStream responseInputStream = responseBody.getInputStream();
-
-        if (actualResponseType.isWrml()) {
-
-            // Default the format if need be
-            final MediaType formatMediaType = (actualResponseType != null) ? actualResponseType
-                    : getDefaultFormatMediaType();
-            final Formatter formatter = getFormatter(formatMediaType);
-
-            Model model = null;
-            try {
-                model = formatter.read(context, requestMessage, responseMessage);
-            }
-            catch (final Exception e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-            }
-
-            return model;
-        }
-        else {
-
-            // TODO: Handle this better? (to allow for reading JSON and passing it through)
-
-            // TODO: Allow for caching of responses?
-
-            // If responseType is *NOT* a WRML type, then return the response message body's InputStream.     
-            return responseInputStream;
+        // Send the request message to get the response message, unless it has been prefetched
+        Message responseMessage = takePrefetchedResponseMessage(resourceId, cachedEntity, responseType, referrer);
+        if (responseMessage == null) {
+            responseMessage = sendRequestMessage(requestMessage);
         }
 
+        return readResponseEntity(requestMessage, responseMessage);
     }
 
     public MediaType getDefaultFormatMediaType() {
@@ -233,12 +259,81 @@ public class WebClient extends ServiceMap {
         return super.keySet();
     }
 
+    /**
+     * HTTP GETs the resources concurrently (on a bounded pool of threads) in
+     * the background, so that the responses (with buffered bodies) are ready
+     * for the subsequent calls to {@link #get(URI, Object, MediaType, Model)}.
+     * The responses are only read (into models) by those calls, on the
+     * calling thread.
+     * 
+     * A prefetched response is only taken by a get of the same response type,
+     * without a cached entity or referrer (i.e. a get of the same request),
+     * within {@link #PREFETCHED_RESPONSE_TIMEOUT}. At most
+     * {@link #MAX_PREFETCHED_RESPONSE_COUNT} responses wait to be taken; the
+     * resources beyond that are simply fetched when they are requested.
+     */
+    public void prefetch(final Collection<URI> resourceIds, final MediaType responseType) {
+
+        final long now = System.currentTimeMillis();
+        expirePrefetchedResponses(now);
+
+        for (final URI resourceId : resourceIds) {
+
+            if (_PrefetchedResponses.size() >= MAX_PREFETCHED_RESPONSE_COUNT) {
+                break;
+            }
+
+            if (_PrefetchedResponses.containsKey(resourceId)) {
+                continue;
+            }
+
+            final Message requestMessage = createRequestMessage(resourceId, null, responseType, null, Method.GET);
+            final FutureTask<Message> response = new FutureTask<Message>(new Callable<Message>() {
+
+                public Message call() throws Exception {
+                    return bufferResponseMessage(sendRequestMessage(requestMessage));
+                }
+            });
+
+            final PrefetchedResponse prefetchedResponse = new PrefetchedResponse(response, responseType, now
+                    + PREFETCHED_RESPONSE_TIMEOUT);
+
+            // Only the thread that maps the prefetched response sends its request
+            if (_PrefetchedResponses.putIfAbsent(resourceId, prefetchedResponse) == null) {
+                _PrefetchExecutor.execute(response);
+            }
+        }
+    }
+
+    /**
+     * HTTP PUT
+     * 
+     * A model request entity is streamed, by its formatter, straight into the
+     * request's body as it is sent.
+     */
     public Object put(URI resourceId, Object requestEntity, MediaType responseType, Model referrer) {
-        /*
-         * TODO: HTTP PUT
-         */
 
-        return null;
+        final Message requestMessage = createRequestMessage(resourceId, null, responseType, referrer, Method.PUT);
+
+        HttpEntity httpEntity = null;
+        if (requestEntity instanceof Model) {
+
+            final Model model = (Model) requestEntity;
+
+            // Default the format if need be
+            final MediaType requestType = (model.getMediaType() != null) ? model.getMediaType()
+                    : getDefaultFormatMediaType();
+            requestMessage.getEntity().getHeaders().setContentType(requestType);
+
+            httpEntity = new ModelHttpEntity(getContext(), getFormatter(requestType), requestMessage, model);
+        }
+        else if (requestEntity instanceof InputStream) {
+            httpEntity = new InputStreamEntity((InputStream) requestEntity, -1);
+        }
+
+        final Message responseMessage = sendRequestMessage(requestMessage, httpEntity);
+
+        return readResponseEntity(requestMessage, responseMessage);
     }
 
     @Override
@@ -287,10 +382,39 @@ public class WebClient extends ServiceMap {
         // shut down the connection manager to ensure
         // immediate deallocation of all system resources
         _HttpClient.getConnectionManager().shutdown();
+        _PrefetchExecutor.shutdownNow();
 
         super.finalize();
     }
 
+    /**
+     * Reads the response message's body into memory, so that its connection
+     * is released while the response waits to be read.
+     */
+    private Message bufferResponseMessage(final Message responseMessage) throws IOException {
+
+        final Body responseBody = responseMessage.getEntity().getBody();
+        final InputStream inputStream = responseBody.getInputStream();
+        if (inputStream == null) {
+            return responseMessage;
+        }
+
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try {
+            final byte[] bytes = new byte[8192];
+            int byteCount;
+            while ((byteCount = inputStream.read(bytes)) != -1) {
+                buffer.write(bytes, 0, byteCount);
+            }
+        }
+        finally {
+            inputStream.close();
+        }
+
+        responseBody.setInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+        return responseMessage;
+    }
+
     private Message createMessage(final MessageType messageType, final StartLine startLine) {
 
         // Create the message model
@@ -330,7 +454,55 @@ public class WebClient extends ServiceMap {
         return requestMessage;
     }
 
+    /**
+     * Reads the response message's entity into a model, if it is a WRML
+     * type, or returns its body's InputStream. An entity that can't be read
+     * is logged and read as <code>null</code>, like a missing one.
+     */
+    private Object readResponseEntity(final Message requestMessage, final Message responseMessage) {
+
+        final MediaType actualResponseType = responseMessage.getEntity().getHeaders().getContentType();
+
+        final Entity responseEntity = responseMessage.getEntity();
+        final Body responseBody = responseEntity.getBody();
+        final InputStream responseInputStream = responseBody.getInputStream();
+
+        if (responseInputStream == null) {
+            // No content
+            return null;
+        }
+
+        if (actualResponseType.isWrml()) {
+
+            // Default the format if need be
+            final MediaType formatMediaType = (actualResponseType != null) ? actualResponseType
+                    : getDefaultFormatMediaType();
+            final Formatter formatter = getFormatter(formatMediaType);
+
+            try {
+                return formatter.read(getContext(), requestMessage, responseMessage);
+            }
+            catch (final Exception e) {
+                log.error("Unable to read the response entity (as: " + formatMediaType + ")", e);
+                return null;
+            }
+        }
+        else {
+
+            // TODO: Handle this better? (to allow for reading JSON and passing it through)
+
+            // TODO: Allow for caching of responses?
+
+            // If responseType is *NOT* a WRML type, then return the response message body's InputStream.     
+            return responseInputStream;
+        }
+    }
+
     private Message sendRequestMessage(Message requestMessage) {
+        return sendRequestMessage(requestMessage, null);
+    }
+
+    private Message sendRequestMessage(Message requestMessage, HttpEntity requestEntity) {
 
         HttpUriRequest request = null;
 
@@ -373,6 +545,10 @@ public class WebClient extends ServiceMap {
             break;
         }
 
+        if ((requestEntity != null) && (request instanceof HttpEntityEnclosingRequest)) {
+            ((HttpEntityEnclosingRequest) request).setEntity(requestEntity);
+        }
+
         InputStream inputStream = null;
 
         MediaType responseMediaType = null;
@@ -380,11 +556,16 @@ public class WebClient extends ServiceMap {
 
             final HttpResponse response = _HttpClient.execute(request);
             final HttpEntity entity = response.getEntity();
-            final Transformers<String> stringTransformers = getContext().getStringTransformers();
-            responseMediaType = stringTransformers.getTransformer(MediaType.class).bToA(
-                    entity.getContentType().getValue());
 
+            // A response may have no entity (e.g. 204 No Content)
             if (entity != null) {
+
+                if (entity.getContentType() != null) {
+                    final Transformers<String> stringTransformers = getContext().getStringTransformers();
+                    responseMediaType = stringTransformers.getTransformer(MediaType.class).bToA(
+                            entity.getContentType().getValue());
+                }
+
                 inputStream = entity.getContent();
             }
         }
@@ -412,6 +593,92 @@ public class WebClient extends ServiceMap {
 
         return responseMessage;
     }
+
+    /**
+     * Discards the prefetched responses that have waited too long to be
+     * taken.
+     */
+    private void expirePrefetchedResponses(final long now) {
+
+        for (final Map.Entry<URI, PrefetchedResponse> entry : _PrefetchedResponses.entrySet()) {
+
+            final PrefetchedResponse prefetchedResponse = entry.getValue();
+            if (prefetchedResponse.isExpired(now)
+                    && _PrefetchedResponses.remove(entry.getKey(), prefetchedResponse)) {
+                prefetchedResponse.getResponse().cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Returns the prefetched response for the request (waiting for it if need
+     * be), or <code>null</code> if it wasn't prefetched (as the same request),
+     * it has expired or the prefetch failed.
+     */
+    private Message takePrefetchedResponseMessage(final URI resourceId, final Object cachedEntity,
+            final MediaType responseType, final Model referrer) {
+
+        final PrefetchedResponse prefetchedResponse = _PrefetchedResponses.get(resourceId);
+        if (prefetchedResponse == null) {
+            return null;
+        }
+
+        // The prefetch's request had no cached entity (i.e. it wasn't conditional) or referrer
+        if ((cachedEntity != null) || (referrer != null) || !prefetchedResponse.isResponseType(responseType)) {
+            return null;
+        }
+
+        if (!_PrefetchedResponses.remove(resourceId, prefetchedResponse)) {
+            // Another get took it
+            return null;
+        }
+
+        if (prefetchedResponse.isExpired(System.currentTimeMillis())) {
+            prefetchedResponse.getResponse().cancel(true);
+            return null;
+        }
+
+        try {
+            return prefetchedResponse.getResponse().get();
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (final ExecutionException e) {
+            // The request is sent again, on the calling thread, which will see its failure (if it fails again)
+        }
+
+        return null;
+    }
+
+    /**
+     * A response that is (being) prefetched, which waits to be taken by a get
+     * of the same response type until it expires.
+     */
+    private static final class PrefetchedResponse {
+
+        private final Future<Message> _Response;
+        private final MediaType _ResponseType;
+        private final long _ExpirationTime;
+
+        PrefetchedResponse(final Future<Message> response, final MediaType responseType, final long expirationTime) {
+            _Response = response;
+            _ResponseType = responseType;
+            _ExpirationTime = expirationTime;
+        }
+
+        Future<Message> getResponse() {
+            return _Response;
+        }
+
+        boolean isExpired(final long now) {
+            return now >= _ExpirationTime;
+        }
+
+        boolean isResponseType(final MediaType responseType) {
+            return (_ResponseType == null) ? (responseType == null) : _ResponseType.equals(responseType);
+        }
+    }
 }
 
 abstract class AbstractStartLine implements StartLine {
@@ -569,3 +836,65 @@ class DefaultStatusLine extends AbstractStartLine implements StatusLine {
     }
 
 }
+
+/*
+ * An HTTP request entity that streams a model, with a formatter, into the
+ * request body as it is sent.
+ */
+class ModelHttpEntity extends AbstractHttpEntity {
+
+    private final Context _Context;
+    private final Formatter _Formatter;
+    private final Message _RequestMessage;
+    private final Model _Model;
+
+    public ModelHttpEntity(Context context, Formatter formatter, Message requestMessage, Model model) {
+        _Context = context;
+        _Formatter = formatter;
+        _RequestMessage = requestMessage;
+        _Model = model;
+
+        final MediaType contentType = requestMessage.getEntity().getHeaders().getContentType();
+        if (contentType != null) {
+            final Transformers<String> stringTransformers = context.getStringTransformers();
+            setContentType(stringTransformers.getTransformer(MediaType.class).aToB(contentType));
+        }
+
+        // The length isn't known until the model has been written
+        setChunked(true);
+    }
+
+    public InputStream getContent() throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        writeTo(buffer);
+        return new ByteArrayInputStream(buffer.toByteArray());
+    }
+
+    public long getContentLength() {
+        return -1;
+    }
+
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    public boolean isStreaming() {
+        return false;
+    }
+
+    public void writeTo(OutputStream outputStream) throws IOException {
+
+        _RequestMessage.getEntity().getBody().setOutputStream(outputStream);
+
+        try {
+            _Formatter.write(_Context, _RequestMessage, _Model);
+        }
+        catch (final IOException e) {
+            throw e;
+        }
+        catch (final Exception e) {
+            throw new IOException("Failed to write the model (of type: \"" + _Model.getNativeType() + "\")", e);
+        }
+    }
+
+}
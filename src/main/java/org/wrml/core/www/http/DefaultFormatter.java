@@ -17,10 +17,12 @@
 package org.wrml.core.www.http;
 
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Type;
 
 import org.wrml.core.Model;
 import org.wrml.core.io.ModelGraphReader;
+import org.wrml.core.io.ModelGraphWriter;
 import org.wrml.core.runtime.Context;
 import org.wrml.core.runtime.system.transformer.SystemTransformers;
 import org.wrml.core.www.MediaType;
@@ -39,18 +41,39 @@ public class DefaultFormatter implements Formatter {
 
         final ModelGraphReader reader = context.createModelReader(mediaType, inputStream);
 
-        final SystemTransformers systemTransformers = context.getSystemTransformers();
-        final Type nativeType = systemTransformers.getMediaTypeToNativeTypeTransformer().aToB(mediaType);
-        final Model responseModel = reader.readModelGraph(context, nativeType).getRoot();
-
-        reader.close();
-
-        return responseModel;
+        // Closing the reader returns it to its format's pool, even if the read failed
+        try {
+            final SystemTransformers systemTransformers = context.getSystemTransformers();
+            final Type nativeType = systemTransformers.getMediaTypeToNativeTypeTransformer().aToB(mediaType);
+            return reader.readModelGraph(context, nativeType).getRoot();
+        }
+        finally {
+            reader.close();
+        }
     }
 
     public void write(Context context, Message requestMessage, Model model) throws Exception {
-        // TODO Auto-generated method stub
 
+        final Entity entity = requestMessage.getEntity();
+        final Body body = entity.getBody();
+        final OutputStream outputStream = body.getOutputStream();
+        final Headers headers = entity.getHeaders();
+
+        MediaType mediaType = headers.getContentType();
+        if (mediaType == null) {
+            mediaType = model.getMediaType();
+            headers.setContentType(mediaType);
+        }
+
+        final ModelGraphWriter writer = context.createModelWriter(mediaType, outputStream);
+
+        // Closing the writer returns it to its format's pool, even if the write failed
+        try {
+            writer.writeModelGraph(context, model);
+        }
+        finally {
+            writer.close();
+        }
     }
 
 }
@@ -0,0 +1,237 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wrml.core.Model;
+import org.wrml.core.model.schema.Field;
+import org.wrml.core.model.schema.Schema;
+import org.wrml.core.model.schema.Type;
+import org.wrml.core.runtime.Context;
+import org.wrml.core.runtime.ModelGraph;
+import org.wrml.core.runtime.bootstrap.FieldNames;
+import org.wrml.core.util.observable.Observables;
+import org.wrml.core.www.MediaType;
+
+public class BinaryModelGraphFormatTest {
+
+    private static final MediaType BINARY_MEDIA_TYPE = MediaType.create("application/wrml; format=\""
+            + BinaryModelGraphFormat.FORMAT_ID + "\"");
+
+    private Context _Context;
+
+    @Before
+    public void setUp() {
+        _Context = new Context(null);
+    }
+
+    @Test
+    public void cycleIsRejected() throws Exception {
+
+        final Field field = newField("self");
+        field.setDefaultValue(field);
+
+        try {
+            write(field);
+            fail("A cycle should not be written");
+        }
+        catch (final IllegalStateException e) {
+            // Expected
+        }
+
+        // The writer doesn't remember the model that it failed to write
+        field.setDefaultValue(null);
+        assertEquals("self", ((Field) read(Field.class, write(field)).getStaticInterface()).getName());
+    }
+
+    @Test
+    public void failedReadsDoNotKeepTheirListeners() throws Exception {
+
+        final byte[] bytes = write(newField("title"));
+        final byte[] truncatedBytes = new byte[bytes.length - 1];
+        System.arraycopy(bytes, 0, truncatedBytes, 0, truncatedBytes.length);
+
+        for (final boolean iterate : new boolean[] { false, true }) {
+
+            final FieldIterativeModelGraphReader reader = (FieldIterativeModelGraphReader) _Context
+                    .createModelReader(BINARY_MEDIA_TYPE, new ByteArrayInputStream(truncatedBytes));
+            final int eventListenerCount = reader.getEventListenerCount();
+
+            try {
+                if (iterate) {
+                    // The name isn't a list, so the iterator fails once it has begun to read
+                    reader.readListFieldElements(_Context, Field.class, FieldNames.Named.name.toString(), false);
+                }
+                else {
+                    reader.readModelGraph(_Context, Field.class);
+                }
+
+                fail("The truncated model should not be read");
+            }
+            catch (final Exception e) {
+                // Expected
+            }
+
+            assertEquals(eventListenerCount, reader.getEventListenerCount());
+            reader.close();
+        }
+    }
+
+    @Test
+    public void fieldRoundTrips() throws Exception {
+
+        final Field field = newField("title");
+        field.setDescription("The title");
+        field.setRequired(true);
+        field.setDefaultValue("Untitled");
+
+        final Field readField = (Field) read(Field.class, write(field)).getStaticInterface();
+
+        assertEquals("title", readField.getName());
+        assertEquals("The title", readField.getDescription());
+        assertEquals(Type.Text, readField.getType());
+        assertTrue(readField.isRequired());
+        assertFalse(readField.isHidden());
+        assertEquals("Untitled", readField.getDefaultValue());
+    }
+
+    @Test
+    public void listFieldElementsAreStreamed() throws Exception {
+
+        final StringBuilder json = new StringBuilder("{\"description\":\"before\",\"fields\":[");
+        for (int i = 0; i < 3; i++) {
+            json.append((i > 0) ? "," : "").append("{\"name\":\"f").append(i).append("\",\"type\":\"Text\"}");
+        }
+
+        json.append("],\"version\":3}");
+
+        // The schema is read (as JSON) with the elements streamed too, since its fields aren't kept otherwise
+        final FieldIterativeModelGraphReader jsonReader = (FieldIterativeModelGraphReader) _Context
+                .createModelReader(null, new ByteArrayInputStream(json.toString().getBytes("UTF-8")));
+        final FieldIterativeModelGraphReader.ElementIterator jsonElements = jsonReader.readListFieldElements(
+                _Context, Schema.class, FieldNames.Schema.fields.toString(), false);
+
+        final List<Object> fields = new ArrayList<Object>();
+        while (jsonElements.hasNext()) {
+            fields.add(jsonElements.next());
+        }
+
+        final Model schema = jsonElements.getModel();
+        schema.setFieldValue(FieldNames.Schema.fields.toString(), Observables.observableList(fields));
+        jsonReader.close();
+
+        final FieldIterativeModelGraphReader reader = (FieldIterativeModelGraphReader) _Context.createModelReader(
+                BINARY_MEDIA_TYPE, new ByteArrayInputStream(write(schema)));
+        final FieldIterativeModelGraphReader.ElementIterator elements = reader.readListFieldElements(_Context,
+                Schema.class, FieldNames.Schema.fields.toString(), false);
+
+        assertEquals("before", elements.getModel().getFieldValue(FieldNames.Descriptive.description.toString()));
+
+        final List<String> names = new ArrayList<String>();
+        while (elements.hasNext()) {
+            names.add(((Field) elements.next().getStaticInterface()).getName());
+        }
+
+        assertEquals(3, names.size());
+        assertEquals("f0", names.get(0));
+        assertEquals("f2", names.get(2));
+
+        assertEquals(3, ((Number) elements.getModel().getFieldValue(FieldNames.Versioned.version.toString()))
+                .intValue());
+
+        reader.close();
+    }
+
+    @Test
+    public void nativeModelRoundTrips() throws Exception {
+
+        // The default value's schema is only known from the stream, since the field is declared as an Object
+        final Field field = newField("outer");
+        field.setDefaultValue(newField("inner"));
+
+        final Field readField = (Field) read(Field.class, write(field)).getStaticInterface();
+
+        assertEquals("outer", readField.getName());
+        assertEquals("inner", ((Field) ((Model) readField.getDefaultValue()).getStaticInterface()).getName());
+    }
+
+    @Test
+    public void nonTextNativeValuesRoundTrip() throws Exception {
+
+        final Object[] defaultValues = new Object[] { Integer.valueOf(42), Long.valueOf(Long.MAX_VALUE),
+                Double.valueOf(1.5), Boolean.TRUE, new Date(1234567890123L) };
+
+        for (final Object defaultValue : defaultValues) {
+            final Field field = newField("count");
+            field.setDefaultValue(defaultValue);
+
+            final Field readField = (Field) read(Field.class, write(field)).getStaticInterface();
+            assertEquals(defaultValue, readField.getDefaultValue());
+        }
+    }
+
+    @Test
+    public void nullFieldValueRoundTrips() throws Exception {
+
+        final Field field = newField("title");
+        field.setDescription(null);
+
+        final Field readField = (Field) read(Field.class, write(field)).getStaticInterface();
+
+        assertEquals("title", readField.getName());
+        assertNull(readField.getDescription());
+    }
+
+    private Field newField(final String name) {
+        final ModelGraph modelGraph = new ModelGraph(_Context);
+        final Field field = (Field) _Context.getModelHeap().newModel(Field.class, modelGraph).getStaticInterface();
+        modelGraph.popInitCursorBack();
+
+        field.setName(name);
+        field.setFieldValue(FieldNames.Typed.type.toString(), Type.Text);
+        return field;
+    }
+
+    private Model read(final Class<?> schemaInterfaceType, final byte[] bytes) throws Exception {
+        final ModelGraphReader reader = _Context.createModelReader(BINARY_MEDIA_TYPE, new ByteArrayInputStream(bytes));
+        final Model model = reader.readModelGraph(_Context, schemaInterfaceType).getRoot();
+        reader.close();
+        return model;
+    }
+
+    private byte[] write(final Model model) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ModelGraphWriter writer = _Context.createModelWriter(BINARY_MEDIA_TYPE, out);
+        writer.writeModelGraph(_Context, model);
+        writer.close();
+        return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wrml.core.Model;
+import org.wrml.core.model.schema.Field;
+import org.wrml.core.model.schema.Schema;
+import org.wrml.core.model.schema.Type;
+import org.wrml.core.runtime.Context;
+import org.wrml.core.runtime.ModelGraph;
+import org.wrml.core.runtime.bootstrap.FieldNames;
+
+public class JsonModelGraphFormatTest {
+
+    private Context _Context;
+
+    @Before
+    public void setUp() {
+        _Context = new Context(null);
+    }
+
+    @Test
+    public void fieldRoundTrips() throws Exception {
+
+        final Field field = newField("title");
+        field.setDescription("The title");
+        field.setRequired(true);
+        field.setDefaultValue("Untitled");
+
+        final Field readField = (Field) read(Field.class, write(field)).getStaticInterface();
+
+        assertEquals("title", readField.getName());
+        assertEquals("The title", readField.getDescription());
+        assertEquals(Type.Text, readField.getType());
+        assertTrue(readField.isRequired());
+        assertFalse(readField.isHidden());
+        assertEquals("Untitled", readField.getDefaultValue());
+    }
+
+    @Test
+    public void releasedListFieldElementsLeaveTheModelHeap() throws Exception {
+
+        final StringBuilder json = new StringBuilder("{\"fields\":[");
+        for (int i = 0; i < 10; i++) {
+            json.append((i > 0) ? "," : "").append("{\"name\":\"f").append(i).append("\",\"type\":\"Text\"}");
+        }
+
+        json.append("]}");
+
+        final FieldIterativeModelGraphReader reader = (FieldIterativeModelGraphReader) _Context.createModelReader(
+                null, new ByteArrayInputStream(json.toString().getBytes("UTF-8")));
+        final FieldIterativeModelGraphReader.ElementIterator elements = reader.readListFieldElements(_Context,
+                Schema.class, FieldNames.Schema.fields.toString(), true);
+
+        assertTrue(elements.isReleasingElements());
+
+        // Reading the first element also loads its schema, so the heap is measured after it
+        elements.next();
+        final int heapSize = _Context.getModelHeap().getSize();
+
+        int elementCount = 1;
+        while (elements.hasNext()) {
+            elements.next();
+            elementCount++;
+
+            // The previous element has left the heap
+            assertEquals(heapSize, _Context.getModelHeap().getSize());
+        }
+
+        assertEquals(10, elementCount);
+        assertTrue(_Context.getModelHeap().getSize() < heapSize);
+
+        reader.close();
+    }
+
+    @Test
+    public void listFieldElementsAreStreamed() throws Exception {
+
+        final StringBuilder json = new StringBuilder("{\"description\":\"before\",\"fields\":[");
+        for (int i = 0; i < 3; i++) {
+            json.append((i > 0) ? "," : "").append("{\"name\":\"f").append(i).append("\",\"type\":\"Text\"}");
+        }
+
+        json.append("],\"version\":3}");
+
+        final FieldIterativeModelGraphReader reader = (FieldIterativeModelGraphReader) _Context.createModelReader(
+                null, new ByteArrayInputStream(json.toString().getBytes("UTF-8")));
+        final FieldIterativeModelGraphReader.ElementIterator elements = reader.readListFieldElements(_Context,
+                Schema.class, FieldNames.Schema.fields.toString(), false);
+
+        // The fields before the list are read up front
+        assertEquals("before", elements.getModel().getFieldValue(FieldNames.Descriptive.description.toString()));
+
+        final List<String> names = new ArrayList<String>();
+        while (elements.hasNext()) {
+            names.add(((Field) elements.next().getStaticInterface()).getName());
+        }
+
+        assertEquals(3, names.size());
+        assertEquals("f0", names.get(0));
+        assertEquals("f2", names.get(2));
+
+        // The fields after the list are read once the elements run out
+        assertEquals(3, ((Number) elements.getModel().getFieldValue(FieldNames.Versioned.version.toString()))
+                .intValue());
+
+        reader.close();
+    }
+
+    @Test
+    public void nonTextNativeValuesRoundTrip() throws Exception {
+
+        final Object[] defaultValues = new Object[] { Integer.valueOf(42), Long.valueOf(Long.MAX_VALUE),
+                Double.valueOf(1.5), Boolean.TRUE };
+
+        for (final Object defaultValue : defaultValues) {
+            final Field field = newField("count");
+            field.setDefaultValue(defaultValue);
+
+            final Field readField = (Field) read(Field.class, write(field)).getStaticInterface();
+            assertEquals(defaultValue, readField.getDefaultValue());
+        }
+    }
+
+    @Test
+    public void nullFieldValueRoundTrips() throws Exception {
+
+        final Field field = newField("title");
+        field.setDescription(null);
+
+        final Field readField = (Field) read(Field.class, write(field)).getStaticInterface();
+
+        assertEquals("title", readField.getName());
+        assertNull(readField.getDescription());
+    }
+
+    private Field newField(final String name) {
+        final ModelGraph modelGraph = new ModelGraph(_Context);
+        final Field field = (Field) _Context.getModelHeap().newModel(Field.class, modelGraph).getStaticInterface();
+        modelGraph.popInitCursorBack();
+
+        field.setName(name);
+        field.setFieldValue(FieldNames.Typed.type.toString(), Type.Text);
+        return field;
+    }
+
+    private Model read(final Class<?> schemaInterfaceType, final byte[] bytes) throws Exception {
+        final ModelGraphReader reader = _Context.createModelReader(null, new ByteArrayInputStream(bytes));
+        final Model model = reader.readModelGraph(_Context, schemaInterfaceType).getRoot();
+        reader.close();
+        return model;
+    }
+
+    private byte[] write(final Model model) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ModelGraphWriter writer = _Context.createModelWriter(null, out);
+        writer.writeModelGraph(_Context, model);
+        writer.close();
+        return out.toByteArray();
+    }
+
+}
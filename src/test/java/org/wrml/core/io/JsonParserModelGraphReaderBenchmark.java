@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.io;
+
+import java.io.ByteArrayInputStream;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.wrml.core.model.schema.Schema;
+import org.wrml.core.runtime.Context;
+import org.wrml.core.runtime.ModelGraph;
+import org.wrml.core.util.Benchmark;
+
+/**
+ * Measures the throughput of reading a JSON schema document (with nested
+ * fields) through a (reused) {@link JsonParserModelGraphReader}, with
+ * interned field names, which its decode plans resolve by identity, and with
+ * uninterned ones, which they resolve by value.
+ * 
+ * The benchmark isn't run by the build; run its main method on the test
+ * classpath, e.g. from an IDE.
+ */
+public class JsonParserModelGraphReaderBenchmark extends Benchmark {
+
+    private static final int FIELD_COUNT = 20;
+    private static final int READ_COUNT = 2000;
+
+    private final Context _Context;
+    private final byte[] _Document;
+    private final JsonParserModelGraphReader _Reader;
+
+    public JsonParserModelGraphReaderBenchmark(final Context context, final boolean interningFieldNames)
+            throws Exception {
+
+        _Context = context;
+        _Document = newSchemaDocument().getBytes("UTF-8");
+
+        final JsonFactory jsonFactory = new JsonFactory();
+        final JsonModelGraphFormat format = new JsonModelGraphFormat(jsonFactory);
+        if (!interningFieldNames) {
+            // The format interns the names, so the feature is turned off behind its back
+            jsonFactory.disable(JsonParser.Feature.INTERN_FIELD_NAMES);
+        }
+
+        _Reader = new JsonParserModelGraphReader(format);
+    }
+
+    public static void main(final String[] args) throws Exception {
+
+        final Context context = new Context(null);
+        new JsonParserModelGraphReaderBenchmark(context, true).measure("JSON schema reads (interned names)", 1,
+                READ_COUNT);
+        new JsonParserModelGraphReaderBenchmark(context, false).measure("JSON schema reads (uninterned names)", 1,
+                READ_COUNT);
+    }
+
+    private static String newSchemaDocument() {
+
+        final StringBuilder json = new StringBuilder("{\"name\":\"Benchmark\",\"description\":\"A schema\",");
+        json.append("\"version\":3,\"readOnly\":false,\"fields\":[");
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            json.append((i > 0) ? "," : "").append("{\"name\":\"field").append(i).append("\",\"type\":\"Text\",");
+            json.append("\"description\":\"Field number ").append(i).append("\",\"required\":true,");
+            json.append("\"hidden\":false,\"readOnly\":false}");
+        }
+
+        return json.append("]}").toString();
+    }
+
+    @Override
+    protected Object run(final int threadIndex, final int count) throws Exception {
+
+        ModelGraph modelGraph = null;
+        for (int i = 0; i < count; i++) {
+
+            _Reader.open(new ByteArrayInputStream(_Document));
+            try {
+                modelGraph = _Reader.readModelGraph(_Context, Schema.class);
+            }
+            finally {
+                _Reader.close();
+            }
+        }
+
+        return modelGraph;
+    }
+
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wrml.core.model.schema.Field;
+import org.wrml.core.model.schema.Schema;
+import org.wrml.core.runtime.Context;
+import org.wrml.core.runtime.bootstrap.FieldNames;
+import org.wrml.core.runtime.system.FieldPrototype;
+import org.wrml.core.runtime.system.Prototype;
+
+public class ModelDecodePlanTest {
+
+    private Prototype _Prototype;
+    private ModelDecodePlan _DecodePlan;
+
+    @Before
+    public void setUp() {
+        final Context context = new Context(null);
+        _Prototype = context.getPrototype(Field.class);
+        _DecodePlan = new ModelDecodePlan(_Prototype);
+    }
+
+    @Test
+    public void fieldsAreResolvedBySlot() {
+
+        for (int slot = 0; slot < _Prototype.getFieldSlotCount(); slot++) {
+            final FieldPrototype fieldPrototype = _Prototype.getSlottedFieldPrototype(slot);
+            assertSame(fieldPrototype, _DecodePlan.getStep(fieldPrototype).getFieldPrototype());
+        }
+    }
+
+    @Test
+    public void fieldsHaveTypedDecoders() {
+
+        assertEquals(FieldDecoder.BooleanSlot, _DecodePlan.getStep(FieldNames.Field.required.name())
+                .getFieldDecoder());
+        assertEquals(FieldDecoder.Value, _DecodePlan.getStep(FieldNames.Named.name.name()).getFieldDecoder());
+
+        // Choices are enum constants, which are read as (unboxed) values
+        assertEquals(FieldDecoder.Value, _DecodePlan.getStep(FieldNames.Typed.type.name()).getFieldDecoder());
+    }
+
+    @Test
+    public void otherPrototypesFieldsAreResolvedByName() {
+
+        final Prototype schemaPrototype = _Prototype.getContext().getPrototype(Schema.class);
+        final FieldPrototype schemaNamePrototype = schemaPrototype.getFieldPrototype(FieldNames.Named.name.name());
+
+        assertSame(_Prototype.getFieldPrototype(FieldNames.Named.name.name()),
+                _DecodePlan.getStep(schemaNamePrototype).getFieldPrototype());
+    }
+
+    @Test
+    public void uninternedNamesAreResolved() {
+
+        final String fieldName = new String(FieldNames.Descriptive.description.name().toCharArray());
+
+        assertSame(_Prototype.getFieldPrototype(fieldName), _DecodePlan.getStep(fieldName).getFieldPrototype());
+        assertNull(_DecodePlan.getStep(new String("noSuchField".toCharArray())));
+    }
+
+}
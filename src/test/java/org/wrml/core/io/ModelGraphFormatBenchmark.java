@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.wrml.core.Model;
+import org.wrml.core.model.schema.Schema;
+import org.wrml.core.runtime.Context;
+import org.wrml.core.runtime.ModelGraph;
+import org.wrml.core.util.Benchmark;
+
+/**
+ * Compares the {@link BinaryModelGraphFormat} with the
+ * {@link JsonModelGraphFormat}: the size of a schema document (with nested
+ * fields) in each format, and the throughput of encoding and decoding it with
+ * a (reused) writer and reader.
+ * 
+ * The formats share the (abstract) field iterating writer and reader, so the
+ * format that is measured first has the JIT's attention; for a fair
+ * comparison, measure one format per JVM by naming it ("json" or "binary")
+ * as the only argument.
+ * 
+ * The benchmark isn't run by the build; run its main method on the test
+ * classpath, e.g. from an IDE.
+ */
+public class ModelGraphFormatBenchmark extends Benchmark {
+
+    private static final int FIELD_COUNT = 20;
+    private static final int ENCODE_COUNT = 5000;
+    private static final int DECODE_COUNT = 2000;
+
+    private final Context _Context;
+    private final Model _Model;
+    private final byte[] _Document;
+    private final boolean _Decoding;
+    private final ModelGraphReader _Reader;
+    private final ModelGraphWriter _Writer;
+
+    public ModelGraphFormatBenchmark(final Context context, final ModelGraphFormat format, final boolean decoding)
+            throws Exception {
+
+        _Context = context;
+        _Model = newSchema(context);
+        _Decoding = decoding;
+        _Reader = format.newReader();
+        _Writer = format.newWriter();
+        _Document = encode(_Writer);
+    }
+
+    public static void main(final String[] args) throws Exception {
+
+        final Context context = new Context(null);
+        final ModelGraphFormat[] formats = new ModelGraphFormat[] { new JsonModelGraphFormat(),
+                new BinaryModelGraphFormat() };
+
+        for (final ModelGraphFormat format : formats) {
+
+            final String formatName = format.getClass().getSimpleName();
+            if ((args.length > 0) && !formatName.toLowerCase().startsWith(args[0].toLowerCase())) {
+                continue;
+            }
+
+            final ModelGraphFormatBenchmark encoding = new ModelGraphFormatBenchmark(context, format, false);
+            System.out.printf("%-48s %12d bytes%n", "Schema size (" + formatName + ")", encoding._Document.length);
+
+            encoding.measure("Schema encodes (" + formatName + ")", 1, ENCODE_COUNT);
+            new ModelGraphFormatBenchmark(context, format, true).measure("Schema decodes (" + formatName + ")", 1,
+                    DECODE_COUNT);
+        }
+    }
+
+    private static Model newSchema(final Context context) throws Exception {
+
+        final StringBuilder json = new StringBuilder("{\"name\":\"Benchmark\",\"description\":\"A schema\",");
+        json.append("\"version\":3,\"readOnly\":false,\"fields\":[");
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            json.append((i > 0) ? "," : "").append("{\"name\":\"field").append(i).append("\",\"type\":\"Text\",");
+            json.append("\"description\":\"Field number ").append(i).append("\",\"required\":true,");
+            json.append("\"hidden\":false,\"readOnly\":false}");
+        }
+
+        json.append("]}");
+
+        final ModelGraphReader reader = new JsonParserModelGraphReader();
+        reader.open(new ByteArrayInputStream(json.toString().getBytes("UTF-8")));
+        try {
+            return reader.readModelGraph(context, Schema.class).getRoot();
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    @Override
+    protected Object run(final int threadIndex, final int count) throws Exception {
+
+        Object result = null;
+        for (int i = 0; i < count; i++) {
+            result = (_Decoding) ? decode(_Reader) : encode(_Writer);
+        }
+
+        return result;
+    }
+
+    private ModelGraph decode(final ModelGraphReader reader) throws Exception {
+
+        reader.open(new ByteArrayInputStream(_Document));
+        try {
+            return reader.readModelGraph(_Context, Schema.class);
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    private byte[] encode(final ModelGraphWriter writer) throws Exception {
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.open(out);
+        try {
+            writer.writeModelGraph(_Context, _Model);
+        }
+        finally {
+            writer.close();
+        }
+
+        return out.toByteArray();
+    }
+
+}
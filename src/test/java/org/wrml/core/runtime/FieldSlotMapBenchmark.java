@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.wrml.core.model.schema.Field;
+import org.wrml.core.model.schema.Type;
+import org.wrml.core.runtime.bootstrap.FieldNames;
+import org.wrml.core.runtime.system.FieldPrototype;
+import org.wrml.core.runtime.system.Prototype;
+import org.wrml.core.util.Benchmark;
+
+/**
+ * Compares the slot-indexed field storage ({@link FieldSlotMap}) with the
+ * sorted map (<code>TreeMap</code>) that models used to keep their fields in:
+ * the throughput of reading a model's fields by name and by
+ * {@link FieldPrototype} (the slot path that the model graph readers and
+ * writers take), and the bytes that the storage of a model's fields takes.
+ * 
+ * The benchmark isn't run by the build; run its main method on the test
+ * classpath, e.g. from an IDE.
+ */
+public class FieldSlotMapBenchmark extends Benchmark {
+
+    private static final int MODEL_COUNT = 1024;
+    private static final int READ_COUNT = 1000000;
+    private static final int MEASURED_MAP_COUNT = 50000;
+
+    private static final String[] FIELD_NAMES = new String[] { FieldNames.Named.name.name(),
+            FieldNames.Descriptive.description.name(), FieldNames.Typed.type.name(),
+            FieldNames.Field.required.name(), FieldNames.Titled.title.name() };
+
+    private final RuntimeModel[] _Models;
+
+    private final FieldPrototype[] _FieldPrototypes;
+
+    private final boolean _ReadingBySlot;
+
+    public FieldSlotMapBenchmark(final Context context, final boolean slotted, final boolean readingBySlot) {
+
+        final Prototype prototype = context.getPrototype(Field.class);
+        _FieldPrototypes = new FieldPrototype[FIELD_NAMES.length];
+        for (int i = 0; i < FIELD_NAMES.length; i++) {
+            _FieldPrototypes[i] = prototype.getFieldPrototype(FIELD_NAMES[i]);
+        }
+
+        _ReadingBySlot = readingBySlot;
+
+        final ModelHeap heap = context.getModelHeap();
+        _Models = new RuntimeModel[MODEL_COUNT];
+        for (int i = 0; i < MODEL_COUNT; i++) {
+
+            final ModelGraph modelGraph = new ModelGraph(context);
+            final FieldMap fieldMap = (slotted) ? null : new ModelFieldMap(context, new TreeMap<String, Object>());
+            final RuntimeModel model = (RuntimeModel) heap.newModel(Field.class, modelGraph, fieldMap, null)
+                    .getDynamicInterface();
+            modelGraph.popInitCursorBack();
+
+            setFieldValues(model, i);
+            _Models[i] = model;
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+
+        final Context context = new Context(null);
+        final Prototype prototype = context.getPrototype(Field.class);
+
+        for (final boolean slotted : new boolean[] { false, true }) {
+
+            final String storage = (slotted) ? "FieldSlotMap" : "TreeMap";
+            new FieldSlotMapBenchmark(context, slotted, false).measure("Field reads by name (" + storage + ")", 1,
+                    READ_COUNT);
+            new FieldSlotMapBenchmark(context, slotted, true).measure("Field reads by slot (" + storage + ")", 1,
+                    READ_COUNT);
+
+            System.out.printf("%-48s %12d bytes/model%n", "Field storage (" + storage + ")",
+                    measureBytesPerModel(prototype, slotted));
+        }
+    }
+
+    @Override
+    protected Object run(final int threadIndex, final int count) {
+
+        int hash = 0;
+        for (int i = 0; i < count; i++) {
+
+            final RuntimeModel model = _Models[i & (MODEL_COUNT - 1)];
+            final int field = i % FIELD_NAMES.length;
+            final Object value = (_ReadingBySlot) ? model.getFieldValue(_FieldPrototypes[field]) : model
+                    .getFieldValue(FIELD_NAMES[field]);
+            hash += System.identityHashCode(value);
+        }
+
+        return Integer.valueOf(hash);
+    }
+
+    /**
+     * Returns the bytes that the storage of a model's (five set) fields takes,
+     * excluding the values themselves (which are shared by the maps).
+     */
+    private static long measureBytesPerModel(final Prototype prototype, final boolean slotted)
+            throws InterruptedException {
+
+        final String name = "name";
+        final String description = "description";
+        final String title = "title";
+
+        final long usedBytes = getUsedBytes();
+
+        final List<Map<String, Object>> maps = new ArrayList<Map<String, Object>>(MEASURED_MAP_COUNT);
+        for (int i = 0; i < MEASURED_MAP_COUNT; i++) {
+            final Map<String, Object> map = (slotted) ? new FieldSlotMap(prototype) : new TreeMap<String, Object>();
+            map.put(FieldNames.Named.name.name(), name);
+            map.put(FieldNames.Descriptive.description.name(), description);
+            map.put(FieldNames.Typed.type.name(), Type.Text);
+            map.put(FieldNames.Field.required.name(), Boolean.TRUE);
+            map.put(FieldNames.Titled.title.name(), title);
+            maps.add(map);
+        }
+
+        final long listBytes = 16 + (4L * MEASURED_MAP_COUNT);
+        final long bytesPerModel = (getUsedBytes() - usedBytes - listBytes) / maps.size();
+        return bytesPerModel;
+    }
+
+    private static long getUsedBytes() throws InterruptedException {
+
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void setFieldValues(final RuntimeModel model, final int index) {
+        model.setFieldValue(FieldNames.Named.name.name(), "field" + index);
+        model.setFieldValue(FieldNames.Descriptive.description.name(), "The description of field " + index);
+        model.setFieldValue(FieldNames.Typed.type.name(), Type.Text);
+        model.setFieldValue(FieldNames.Field.required.name(), Boolean.TRUE);
+        model.setFieldValue(FieldNames.Titled.title.name(), "Field " + index);
+    }
+
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wrml.core.model.schema.Field;
+import org.wrml.core.model.schema.Type;
+import org.wrml.core.runtime.system.Prototype;
+
+public class FieldSlotMapTest {
+
+    private Prototype _Prototype;
+    private FieldSlotMap _FieldSlots;
+
+    @Before
+    public void setUp() {
+        final Context context = new Context(null);
+        _Prototype = context.getPrototype(Field.class);
+        _FieldSlots = new FieldSlotMap(_Prototype);
+    }
+
+    @Test
+    public void entrySetHasSetFields() {
+
+        _FieldSlots.put("name", "id");
+        _FieldSlots.put("required", Boolean.TRUE);
+        _FieldSlots.put("extra", "unslotted");
+
+        final Map<String, Object> expected = new HashMap<String, Object>();
+        expected.put("name", "id");
+        expected.put("required", Boolean.TRUE);
+        expected.put("extra", "unslotted");
+
+        assertEquals(expected, new HashMap<String, Object>(_FieldSlots));
+    }
+
+    @Test
+    public void frozenCopyIsImmutableAndIndependent() {
+
+        _FieldSlots.put("name", "id");
+        _FieldSlots.put("hidden", Boolean.TRUE);
+
+        final FieldSlotMap frozenFieldSlots = _FieldSlots.frozenCopy();
+        assertTrue(frozenFieldSlots.isFrozen());
+        assertSame(frozenFieldSlots, frozenFieldSlots.frozenCopy());
+
+        try {
+            frozenFieldSlots.put("name", "other");
+            throw new AssertionError("A frozen FieldSlotMap was changed");
+        }
+        catch (final UnsupportedOperationException e) {
+            // Expected
+        }
+
+        try {
+            frozenFieldSlots.setBooleanSlotValue(_Prototype.getFieldSlot("hidden"), false);
+            throw new AssertionError("A frozen FieldSlotMap's primitive slot was changed");
+        }
+        catch (final UnsupportedOperationException e) {
+            // Expected
+        }
+
+        _FieldSlots.put("hidden", Boolean.FALSE);
+
+        assertEquals(Boolean.TRUE, frozenFieldSlots.get("hidden"));
+        assertEquals("id", frozenFieldSlots.get("name"));
+        assertEquals(Boolean.FALSE, _FieldSlots.get("hidden"));
+    }
+
+    @Test
+    public void nullValueIsSet() {
+
+        _FieldSlots.put("description", null);
+
+        assertTrue(_FieldSlots.containsKey("description"));
+        assertNull(_FieldSlots.get("description"));
+        assertEquals(1, _FieldSlots.size());
+    }
+
+    @Test
+    public void primitiveValuesAreUnboxed() {
+
+        final int requiredSlot = _Prototype.getFieldSlot("required");
+        final int typeSlot = _Prototype.getFieldSlot("type");
+
+        _FieldSlots.put("required", Boolean.TRUE);
+        _FieldSlots.put("type", Type.Long);
+
+        assertTrue(_FieldSlots.isPrimitiveSlotValue(requiredSlot));
+        assertTrue(_FieldSlots.getBooleanSlotValue(requiredSlot));
+        assertTrue(_FieldSlots.isPrimitiveSlotValue(typeSlot));
+        assertSame(Type.Long, _FieldSlots.get("type"));
+        assertEquals(Type.Long.ordinal(), _FieldSlots.getLongSlotValue(typeSlot));
+
+        _FieldSlots.setBooleanSlotValue(requiredSlot, false);
+
+        assertFalse(_FieldSlots.getBooleanSlotValue(requiredSlot));
+        assertEquals(Boolean.FALSE, _FieldSlots.get("required"));
+        assertEquals(2, _FieldSlots.size());
+    }
+
+    @Test
+    public void slottedAndUnslottedFields() {
+
+        assertTrue(_Prototype.getFieldSlot("name") >= 0);
+
+        assertNull(_FieldSlots.put("name", "id"));
+        assertNull(_FieldSlots.put("extra", "unslotted"));
+
+        assertEquals("id", _FieldSlots.get("name"));
+        assertEquals("id", _FieldSlots.getSlotValue(_Prototype.getFieldSlot("name")));
+        assertEquals("unslotted", _FieldSlots.get("extra"));
+        assertEquals(2, _FieldSlots.size());
+
+        assertEquals("id", _FieldSlots.put("name", "title"));
+        assertEquals("title", _FieldSlots.remove("name"));
+        assertFalse(_FieldSlots.containsKey("name"));
+        assertFalse(_FieldSlots.isSlotSet(_Prototype.getFieldSlot("name")));
+        assertEquals(1, _FieldSlots.size());
+    }
+
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import java.net.URI;
+
+import org.wrml.core.model.schema.Schema;
+import org.wrml.core.runtime.bootstrap.FieldNames;
+import org.wrml.core.util.Benchmark;
+
+/**
+ * Measures the throughput of identifying models in a single
+ * {@link ModelHeapShard}, as the number of threads grows. The threads
+ * identify models with ids from a shared pool, so that they contend for the
+ * same ids (whose duplicates are absorbed) as well as for the shard.
+ */
+public class ModelHeapBenchmark extends Benchmark {
+
+    private static final int ID_POOL_SIZE = 1024;
+    private static final int IDENTIFY_COUNT = 20000;
+
+    private final Context _Context;
+    private final ModelHeapShard _Shard;
+    private int _Round;
+    private volatile String _IdPrefix;
+
+    public ModelHeapBenchmark() {
+        _Context = new Context(null);
+        _Shard = _Context.getModelHeap().getShard(Schema.class);
+    }
+
+    public static void main(final String[] args) throws Exception {
+
+        final ModelHeapBenchmark benchmark = new ModelHeapBenchmark();
+        for (int threadCount = 1; threadCount <= 8; threadCount *= 2) {
+            benchmark.measure("ModelHeapShard identify", threadCount, IDENTIFY_COUNT);
+        }
+    }
+
+    @Override
+    protected Object run(final int threadIndex, final int count) {
+
+        final ModelHeap modelHeap = _Context.getModelHeap();
+        final String idFieldName = FieldNames.Document.id.name();
+        final String idPrefix = _IdPrefix;
+
+        Object model = null;
+        for (int i = 0; i < count; i++) {
+            final RuntimeModel newModel = (RuntimeModel) modelHeap.newModel(Schema.class,
+                    new ModelGraph(_Context)).getDynamicInterface();
+            newModel.setFieldValue(idFieldName, URI.create(idPrefix + ((i * 31 + threadIndex) % ID_POOL_SIZE)));
+            model = _Shard.add(newModel);
+        }
+
+        return model;
+    }
+
+    @Override
+    protected void setUpRound() {
+        // Fresh ids, so that each round identifies as many new models as the last
+        _IdPrefix = "http://example.org/benchmark/" + (_Round++) + "/";
+    }
+
+}
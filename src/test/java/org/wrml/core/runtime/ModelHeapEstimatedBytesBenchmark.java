@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.wrml.core.Model;
+import org.wrml.core.model.schema.Field;
+import org.wrml.core.runtime.bootstrap.FieldNames;
+
+/**
+ * Compares a shard's estimated bytes with the heap growth that is measured
+ * (after a full GC) as models are added to it, to show how rough the estimate
+ * is.
+ * 
+ * The benchmark isn't run by the build; run its main method on the test
+ * classpath, e.g. from an IDE.
+ */
+public class ModelHeapEstimatedBytesBenchmark {
+
+    private static final int MODEL_COUNT = 50000;
+
+    public static void main(final String[] args) throws Exception {
+
+        final Context context = new Context(null);
+        final ModelHeap heap = context.getModelHeap();
+        final ModelHeapShard shard = heap.getShard(Field.class);
+
+        // Initialize the prototype (and its bootstrap models) before measuring
+        heap.newModel(Field.class, new ModelGraph(context));
+
+        final long estimatedBytes = shard.getEstimatedBytes();
+        final long usedBytes = getUsedBytes();
+
+        final List<Model> models = new ArrayList<Model>(MODEL_COUNT);
+        for (int i = 0; i < MODEL_COUNT; i++) {
+            final ModelGraph modelGraph = new ModelGraph(context);
+            final Model model = heap.newModel(Field.class, modelGraph);
+            modelGraph.popInitCursorBack();
+
+            model.setFieldValue(FieldNames.Named.name.name(), "field" + i);
+            model.setFieldValue(FieldNames.Descriptive.description.name(), "The description of field number " + i);
+            models.add(model);
+        }
+
+        // The list of models itself isn't the shard's
+        final long listBytes = 16 + (4L * MODEL_COUNT);
+        final long measuredModelBytes = (getUsedBytes() - usedBytes - listBytes) / MODEL_COUNT;
+        final long estimatedModelBytes = (shard.getEstimatedBytes() - estimatedBytes) / MODEL_COUNT;
+
+        System.out.printf("%d models, measured: %d bytes/model, estimated: %d bytes/model (%.0f%%)%n", models.size(),
+                measuredModelBytes, estimatedModelBytes, (100.0 * estimatedModelBytes) / measuredModelBytes);
+    }
+
+    private static long getUsedBytes() throws InterruptedException {
+
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wrml.core.model.schema.Field;
+import org.wrml.core.model.schema.Schema;
+
+public class ModelHeapIdIndexTest {
+
+    private ModelHeapIdIndex _IdIndex;
+    private ModelHeapShard _SchemaShard;
+    private ModelHeapShard _FieldShard;
+
+    @Before
+    public void setUp() {
+        final Context context = new Context(null);
+        _IdIndex = new ModelHeapIdIndex();
+        _SchemaShard = context.getModelHeap().getShard(Schema.class);
+        _FieldShard = context.getModelHeap().getShard(Field.class);
+    }
+
+    @Test
+    public void idIsMappedToTheShardThatMostRecentlyAddedIt() {
+
+        final URI heapId = URI.create("http://example.org/a");
+        _IdIndex.add(heapId, _SchemaShard);
+        _IdIndex.add(heapId, _FieldShard);
+
+        assertSame(_FieldShard, _IdIndex.getShard(heapId));
+        assertEquals(1, _IdIndex.size());
+        assertEquals(Arrays.asList(heapId), _IdIndex.getIds("http://example.org/"));
+    }
+
+    @Test
+    public void idIsOnlyRemovedByItsShard() {
+
+        final URI heapId = URI.create("http://example.org/a");
+        _IdIndex.add(heapId, _SchemaShard);
+
+        _IdIndex.remove(heapId, _FieldShard);
+        assertSame(_SchemaShard, _IdIndex.getShard(heapId));
+        assertEquals(Arrays.asList(heapId), _IdIndex.getIds("http://example.org/"));
+
+        _IdIndex.remove(heapId, _SchemaShard);
+        assertNull(_IdIndex.getShard(heapId));
+        assertEquals(0, _IdIndex.size());
+        assertTrue(_IdIndex.getIds("http://example.org/").isEmpty());
+    }
+
+    @Test
+    public void prefixScanHasExactlyTheIdsThatStartWithThePrefixInOrder() {
+
+        for (final String id : new String[] { "http://example.org/b/2", "http://example.org/a", "http://example.org/b",
+                "http://example.org/c", "http://example.org/b/1", "http://example.org/b~", "http://example.org/bb" }) {
+            _IdIndex.add(URI.create(id), _SchemaShard);
+        }
+
+        assertEquals(Arrays.asList(URI.create("http://example.org/b"), URI.create("http://example.org/b/1"),
+                URI.create("http://example.org/b/2"), URI.create("http://example.org/bb"),
+                URI.create("http://example.org/b~")), _IdIndex.getIds("http://example.org/b"));
+        assertEquals(Arrays.asList(URI.create("http://example.org/b/1"), URI.create("http://example.org/b/2")),
+                _IdIndex.getIds("http://example.org/b/"));
+        assertEquals(7, _IdIndex.getIds("").size());
+        assertTrue(_IdIndex.getIds("http://example.org/d").isEmpty());
+    }
+
+}
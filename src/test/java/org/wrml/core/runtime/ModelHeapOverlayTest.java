@@ -0,0 +1,209 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wrml.core.model.schema.Field;
+import org.wrml.core.runtime.bootstrap.FieldNames;
+import org.wrml.core.runtime.event.FieldEvent;
+import org.wrml.core.runtime.event.LinkEvent;
+import org.wrml.core.runtime.event.ModelEvent;
+import org.wrml.core.runtime.event.ModelEventListener;
+
+public class ModelHeapOverlayTest {
+
+    private Context _Context;
+    private ModelHeap _ModelHeap;
+
+    @Before
+    public void setUp() {
+        _Context = new Context(null);
+        _ModelHeap = _Context.getModelHeap();
+    }
+
+    @Test
+    public void commitReplacesTheSharedFieldsAtOnce() {
+
+        final Field sharedField = newSharedField("shared");
+        final RuntimeModel sharedModel = (RuntimeModel) sharedField.getDynamicInterface();
+        final Map<String, Object> sharedFields = sharedModel.getFieldMap();
+
+        final ModelHeapOverlay overlay = _ModelHeap.newOverlay();
+        final Field overlayField = (Field) overlay.getModel(sharedField);
+        overlayField.setName("changed");
+        overlayField.setDescription("described");
+        overlay.commit();
+
+        // A reader that got the fields before the commit still sees all of the old values (and none of the new)
+        assertNotSame(sharedFields, sharedModel.getFieldMap());
+        assertEquals("shared", sharedFields.get(FieldNames.Named.name.name()));
+        assertEquals(null, sharedFields.get(FieldNames.Descriptive.description.name()));
+
+        assertEquals("changed", sharedField.getName());
+        assertEquals("described", sharedField.getDescription());
+    }
+
+    @Test
+    public void commitWritesChangesToSharedModels() {
+
+        final Field sharedField = newSharedField("shared");
+        final ModelHeapOverlay overlay = _ModelHeap.newOverlay();
+        final Field overlayField = (Field) overlay.getModel(sharedField);
+
+        overlayField.setName("changed");
+        assertEquals("shared", sharedField.getName());
+        assertTrue(overlay.isChanged());
+
+        overlay.commit();
+
+        assertTrue(overlay.isClosed());
+        assertEquals("changed", sharedField.getName());
+    }
+
+    @Test
+    public void commitFiresFieldEventsAfterReleasingItsLock() {
+
+        final Field sharedField = newSharedField("shared");
+        final List<String> changedFieldNames = new ArrayList<String>();
+        sharedField.addEventListener(new ModelEventListener() {
+
+            public void onModelFieldConstraintViolated(final FieldEvent event) {
+            }
+
+            public void onModelFieldValueChanged(final FieldEvent event) {
+                assertFalse(Thread.holdsLock(_ModelHeap.getOverlayCommitLock()));
+                assertEquals("changed", event.getSourceEvent().getNewValue());
+                changedFieldNames.add(event.getFieldName());
+            }
+
+            public void onModelFieldValueInitialized(final FieldEvent event) {
+            }
+
+            public void onModelFreed(final ModelEvent event) {
+            }
+
+            public void onModelLinkClicked(final LinkEvent event) {
+            }
+
+            public void onModelLinkEnabledStateChanged(final LinkEvent event) {
+            }
+
+            public void onModelLinkHrefChanged(final LinkEvent event) {
+            }
+        });
+
+        final ModelHeapOverlay overlay = _ModelHeap.newOverlay();
+        ((Field) overlay.getModel(sharedField)).setName("changed");
+        overlay.commit();
+
+        assertEquals(1, changedFieldNames.size());
+        assertEquals(FieldNames.Named.name.name(), changedFieldNames.get(0));
+    }
+
+    @Test
+    public void commitOfConflictingChangeChangesNothing() {
+
+        final Field sharedField = newSharedField("shared");
+        final Field otherSharedField = newSharedField("otherShared");
+        final ModelHeapOverlay overlay = _ModelHeap.newOverlay();
+        ((Field) overlay.getModel(sharedField)).setName("changed");
+        ((Field) overlay.getModel(otherSharedField)).setName("otherChanged");
+
+        // Another request commits first
+        otherSharedField.setName("committed");
+
+        try {
+            overlay.commit();
+            fail("The conflicting change was committed");
+        }
+        catch (final IllegalStateException e) {
+            // Expected
+        }
+
+        assertFalse(overlay.isClosed());
+        assertEquals("shared", sharedField.getName());
+        assertEquals("committed", otherSharedField.getName());
+
+        overlay.discard();
+        assertEquals("shared", sharedField.getName());
+    }
+
+    @Test
+    public void commitOfFrozenModelChangesNothing() {
+
+        final Field sharedField = newSharedField("shared");
+        final Field frozenSharedField = newSharedField("frozen");
+        final ModelHeapOverlay overlay = _ModelHeap.newOverlay();
+        ((Field) overlay.getModel(sharedField)).setName("changed");
+        ((Field) overlay.getModel(frozenSharedField)).setName("frozenChanged");
+
+        frozenSharedField.freeze();
+
+        try {
+            overlay.commit();
+            fail("The change to the frozen model was committed");
+        }
+        catch (final IllegalStateException e) {
+            // Expected
+        }
+
+        assertFalse(overlay.isClosed());
+        assertEquals("shared", sharedField.getName());
+        assertEquals("frozen", frozenSharedField.getName());
+
+        overlay.discard();
+        assertEquals("shared", sharedField.getName());
+    }
+
+    @Test
+    public void unchangedFrozenModelDoesNotPreventCommit() {
+
+        final Field sharedField = newSharedField("shared");
+        final Field frozenSharedField = newSharedField("frozen");
+        frozenSharedField.freeze();
+
+        final ModelHeapOverlay overlay = _ModelHeap.newOverlay();
+        ((Field) overlay.getModel(sharedField)).setName("changed");
+
+        // Reading a list field copies the frozen model's fields, without changing them
+        ((Field) overlay.getModel(frozenSharedField)).getConstraints();
+
+        overlay.commit();
+
+        assertEquals("changed", sharedField.getName());
+        assertEquals("frozen", frozenSharedField.getName());
+    }
+
+    private Field newSharedField(final String name) {
+        final RuntimeModel model = (RuntimeModel) _ModelHeap.newModel(Field.class, new ModelGraph(_Context));
+        final Field field = (Field) model.getStaticInterface();
+        field.setName(name);
+        return field;
+    }
+
+}
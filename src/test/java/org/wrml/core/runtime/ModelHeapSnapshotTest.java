@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.wrml.core.Model;
+import org.wrml.core.model.schema.Field;
+import org.wrml.core.model.schema.Schema;
+import org.wrml.core.runtime.bootstrap.FieldNames;
+import org.wrml.core.util.observable.Observables;
+
+public class ModelHeapSnapshotTest {
+
+    private static final String ID_PREFIX = "http://example.org/snapshot/";
+
+    @Rule
+    public TemporaryFolder _TemporaryFolder = new TemporaryFolder();
+
+    private Context _Context;
+    private File _File;
+
+    @Before
+    public void setUp() throws Exception {
+        _Context = new Context(null);
+        _File = new File(_TemporaryFolder.getRoot(), "heap.snapshot");
+    }
+
+    @Test
+    public void frozenModelIsFrozenWhenHydrated() throws Exception {
+
+        newSchema("Frozen", "a").freeze();
+        newSchema("Thawed", "b");
+        _Context.getModelHeap().writeSnapshot(_File);
+
+        final ModelHeap modelHeap = loadSnapshot();
+        assertTrue(modelHeap.getModel(getHeapId("Frozen")).isFrozen());
+        assertFalse(modelHeap.getModel(getHeapId("Thawed")).isFrozen());
+    }
+
+    @Test
+    public void modelsAreHydratedWhenTheyAreLookedUp() throws Exception {
+
+        newSchema("Lazy", "a", "b");
+        _Context.getModelHeap().writeSnapshot(_File);
+
+        final ModelHeap modelHeap = loadSnapshot();
+        final ModelHeapShard shard = modelHeap.getShard(Schema.class);
+
+        // Initialize the prototypes up front, since that adds (bootstrap) models of its own
+        modelHeap.getContext().getPrototype(Schema.class);
+        modelHeap.getContext().getPrototype(Field.class);
+        final int size = shard.getSize();
+
+        // The snapshot's ids are indexed (and counted as identified) before any of its models are hydrated
+        assertEquals(Arrays.asList(getHeapId("Lazy")), modelHeap.getModelIds(ID_PREFIX));
+        assertEquals(size, shard.getSize());
+
+        final Model model = modelHeap.getModel(getHeapId("Lazy"));
+        assertNotNull(model);
+        assertEquals("Lazy", model.getFieldValue(FieldNames.Named.name.name()));
+        assertEquals(size + 1, shard.getSize());
+    }
+
+    @Test
+    public void nestedModelsAreHydratedWithTheirParent() throws Exception {
+
+        newSchema("Nested", "a", "b");
+        _Context.getModelHeap().writeSnapshot(_File);
+
+        final Model model = loadSnapshot().getModel(getHeapId("Nested"));
+
+        @SuppressWarnings("unchecked")
+        final List<Model> fields = (List<Model>) model.getFieldValue(FieldNames.Schema.fields.name());
+        assertEquals(2, fields.size());
+        assertEquals("a", fields.get(0).getFieldValue(FieldNames.Named.name.name()));
+        assertEquals("b", fields.get(1).getFieldValue(FieldNames.Named.name.name()));
+        assertEquals(Field.class, fields.get(0).getNativeType());
+    }
+
+    @Test
+    public void snapshotOfAnotherVersionIsRejected() throws Exception {
+
+        newSchema("Versioned", "a");
+        _Context.getModelHeap().writeSnapshot(_File);
+
+        final RandomAccessFile file = new RandomAccessFile(_File, "rw");
+        try {
+            // The version follows the magic number
+            file.seek(4);
+            file.writeInt(2);
+        }
+        finally {
+            file.close();
+        }
+
+        try {
+            loadSnapshot();
+            fail("A version 2 snapshot should have been rejected");
+        }
+        catch (final IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("version 2"));
+        }
+    }
+
+    @Test
+    public void writeReplacesTheLoadedSnapshot() throws Exception {
+
+        newSchema("First", "a");
+        _Context.getModelHeap().writeSnapshot(_File);
+        final ModelHeap modelHeap = loadSnapshot();
+
+        newSchema("Second", "a");
+        _Context.getModelHeap().writeSnapshot(_File);
+        assertFalse(new File(_File.getPath() + ".tmp").exists());
+
+        // The loaded snapshot is still readable, and the new one has both models
+        assertNotNull(modelHeap.getModel(getHeapId("First")));
+        assertEquals(Arrays.asList(getHeapId("First"), getHeapId("Second")), loadSnapshot().getModelIds(ID_PREFIX));
+    }
+
+    private URI getHeapId(final String name) {
+        return URI.create(ID_PREFIX + name);
+    }
+
+    /**
+     * Loads the snapshot into a new heap.
+     */
+    private ModelHeap loadSnapshot() throws IOException {
+        final ModelHeap modelHeap = new Context(null).getModelHeap();
+        modelHeap.loadSnapshot(_File);
+        return modelHeap;
+    }
+
+    private Model newSchema(final String name, final String... fieldNames) {
+
+        final ModelHeap modelHeap = _Context.getModelHeap();
+        final ModelGraph modelGraph = new ModelGraph(_Context);
+        final Model schema = modelHeap.newModel(Schema.class, modelGraph);
+        modelGraph.popInitCursorBack();
+
+        final List<Model> fields = new ArrayList<Model>();
+        for (final String fieldName : fieldNames) {
+            final ModelGraph fieldModelGraph = new ModelGraph(_Context);
+            final Model field = modelHeap.newModel(Field.class, fieldModelGraph);
+            fieldModelGraph.popInitCursorBack();
+            field.setFieldValue(FieldNames.Named.name.name(), fieldName);
+            fields.add(field);
+        }
+
+        schema.setFieldValue(FieldNames.Named.name.name(), name);
+        schema.setFieldValue(FieldNames.Schema.fields.name(), Observables.observableList(fields));
+        schema.setFieldValue(FieldNames.Document.id.name(), getHeapId(name));
+        return schema;
+    }
+
+}
@@ -0,0 +1,394 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wrml.core.Model;
+import org.wrml.core.model.schema.Field;
+import org.wrml.core.model.schema.LinkRelation;
+import org.wrml.core.model.schema.Schema;
+import org.wrml.core.runtime.bootstrap.FieldNames;
+import org.wrml.core.runtime.event.FieldEvent;
+import org.wrml.core.runtime.event.LinkEvent;
+import org.wrml.core.runtime.event.ModelEvent;
+import org.wrml.core.runtime.event.ModelEventListener;
+
+public class ModelHeapTest {
+
+    private static final int THREAD_COUNT = 8;
+    private static final int MODELS_PER_THREAD = 500;
+
+    private Context _Context;
+    private ModelHeap _ModelHeap;
+    private ExecutorService _Executor;
+    private final AtomicInteger _NextDuplicate = new AtomicInteger();
+
+    /** Held, since the shards only hold their models weakly and the tests count them */
+    private List<Model> _SetUpModels;
+
+    @Before
+    public void setUp() {
+        _Context = new Context(null);
+        _ModelHeap = _Context.getModelHeap();
+        _Executor = Executors.newFixedThreadPool(THREAD_COUNT);
+
+        // Loading the Field schema adds its own (bootstrap) Field models to the heap
+        _SetUpModels = newFieldModels(1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        _Executor.shutdownNow();
+        _Executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void concurrentGetShardCreatesOneShardPerType() throws Exception {
+
+        final List<ModelHeapShard> shards = runConcurrently(new Callable<ModelHeapShard>() {
+
+            public ModelHeapShard call() {
+                final ModelHeapShard fieldShard = _ModelHeap.getShard(Field.class);
+                assertSame(fieldShard, _ModelHeap.getShard(Field.class));
+                _ModelHeap.getShard(Schema.class);
+                return fieldShard;
+            }
+        });
+
+        for (final ModelHeapShard shard : shards) {
+            assertSame(shards.get(0), shard);
+        }
+
+        assertSame(shards.get(0), _ModelHeap.getShard(Field.class));
+        assertTrue(_ModelHeap.getShards().containsKey(Schema.class));
+    }
+
+    @Test
+    public void concurrentNewModelsAreAllAdded() throws Exception {
+
+        final ModelHeapShard shard = _ModelHeap.getShard(Field.class);
+        final long addCount = shard.getAddCount();
+        final int size = shard.getSize();
+
+        final List<List<Model>> modelLists = runConcurrently(new Callable<List<Model>>() {
+
+            public List<Model> call() {
+                return newFieldModels(MODELS_PER_THREAD);
+            }
+        });
+
+        final Map<Model, Boolean> allModels = new IdentityHashMap<Model, Boolean>();
+        for (final List<Model> models : modelLists) {
+            for (final Model model : models) {
+                allModels.put(model, Boolean.TRUE);
+            }
+        }
+
+        final int modelCount = THREAD_COUNT * MODELS_PER_THREAD;
+
+        assertEquals(modelCount, allModels.size());
+        assertEquals(addCount + modelCount, shard.getAddCount());
+
+        // The models are all still (strongly) referenced, so none of them can have been collected
+        assertEquals(size + modelCount, shard.getSize());
+
+        // Identity hash codes may collide, in which case the shard returns one of the models with the hash code
+        final Map<Integer, Integer> hashCodeCounts = new HashMap<Integer, Integer>();
+        for (final Model model : allModels.keySet()) {
+            final Integer hashCode = Integer.valueOf(getHashCode(model));
+            final Integer hashCodeCount = hashCodeCounts.get(hashCode);
+            hashCodeCounts.put(hashCode, (hashCodeCount != null) ? hashCodeCount + 1 : 1);
+        }
+
+        for (final Model model : allModels.keySet()) {
+            final RuntimeModel runtimeModel = (RuntimeModel) model.getDynamicInterface();
+            final Model registeredModel = shard.get(runtimeModel.hashCode());
+            if (hashCodeCounts.get(runtimeModel.hashCode()) == 1) {
+                assertSame(runtimeModel, registeredModel.getDynamicInterface());
+            }
+            else {
+                assertEquals(runtimeModel.hashCode(), getHashCode(registeredModel));
+            }
+        }
+    }
+
+    @Test
+    public void concurrentNewModelsAreEvictedDownToCapacity() throws Exception {
+
+        final int shardCapacity = 100;
+        _ModelHeap.setShardCapacity(shardCapacity);
+
+        final ModelHeapShard shard = _ModelHeap.getShard(Field.class);
+        final long addCount = shard.getAddCount();
+        final long evictionCount = shard.getEvictionCount();
+        final int size = shard.getSize();
+
+        runConcurrently(new Callable<List<Model>>() {
+
+            public List<Model> call() {
+                return newFieldModels(MODELS_PER_THREAD);
+            }
+        });
+
+        final int modelCount = THREAD_COUNT * MODELS_PER_THREAD;
+
+        assertEquals(addCount + modelCount, shard.getAddCount());
+        assertTrue("Shard size: " + shard.getSize(), shard.getSize() <= shardCapacity);
+        assertEquals(size + modelCount - shard.getSize(), shard.getEvictionCount() - evictionCount);
+    }
+
+    @Test
+    public void concurrentIdentificationsAgreeOnOneModel() throws Exception {
+
+        final URI heapId = URI.create("http://example.org/schemas/Concurrent");
+        final ModelHeapShard shard = _ModelHeap.getShard(Schema.class);
+
+        final List<Model> duplicates = runConcurrently(new Callable<Model>() {
+
+            public Model call() {
+                return _ModelHeap.newModel(Schema.class, new ModelGraph(_Context));
+            }
+        });
+
+        final List<Model> identifiedModels = runConcurrently(new Callable<Model>() {
+
+            public Model call() {
+                final RuntimeModel model = (RuntimeModel) duplicates.get(_NextDuplicate.getAndIncrement())
+                        .getDynamicInterface();
+                model.setFieldValue(FieldNames.Document.id.name(), heapId);
+                return shard.add(model);
+            }
+        });
+
+        final Model identifiedModel = shard.get(heapId);
+        assertNotNull(identifiedModel);
+
+        for (final Model model : identifiedModels) {
+            assertSame(identifiedModel.getDynamicInterface(), model.getDynamicInterface());
+        }
+
+        // The absorbed duplicates are no longer the shard's
+        for (final Model duplicate : duplicates) {
+            final Model registeredModel = shard.get(getHashCode(duplicate));
+            if (duplicate.getDynamicInterface() == identifiedModel.getDynamicInterface()) {
+                assertNotNull(registeredModel);
+            }
+            else {
+                assertNull(registeredModel);
+            }
+        }
+    }
+
+    @Test
+    public void freedModelIsCountedOnce() {
+
+        final ModelHeapShard shard = _ModelHeap.getShard(Field.class);
+        final List<Model> models = newFieldModels(2);
+        final long freeCount = shard.getFreeCount();
+
+        // An unobserved model that is freed by itself
+        models.get(0).free();
+        assertNull(shard.get(getHashCode(models.get(0))));
+        assertEquals(freeCount + 1, shard.getFreeCount());
+
+        // An observed model that is freed by way of the shard (which fires the modelFreed event too)
+        models.get(1).getDynamicInterface().addEventListener(new NoOpModelEventListener());
+        assertSame(models.get(1), shard.free(getHashCode(models.get(1))));
+        assertEquals(freeCount + 2, shard.getFreeCount());
+
+        models.get(1).free();
+        assertEquals(freeCount + 2, shard.getFreeCount());
+    }
+
+    @Test
+    public void freedModelIsNoLongerLookedUpById() {
+
+        final URI heapId = URI.create("http://example.org/heap/freed");
+        final Model model = newIdentifiedModel(Schema.class, heapId);
+        assertSame(model.getDynamicInterface(), _ModelHeap.getModel(heapId).getDynamicInterface());
+
+        _ModelHeap.getShard(Schema.class).free(heapId);
+
+        assertNull(_ModelHeap.getModel(heapId));
+        assertFalse(_ModelHeap.getModelIds("http://example.org/heap/").contains(heapId));
+        assertTrue(_ModelHeap.getModels("http://example.org/heap/").isEmpty());
+    }
+
+    @Test
+    public void identifyingAModelAgainKeepsIt() {
+
+        final URI heapId = URI.create("http://example.org/schemas/Again");
+        final ModelHeapShard shard = _ModelHeap.getShard(Schema.class);
+        _ModelHeap.setShardCapacity(10);
+
+        final RuntimeModel model = (RuntimeModel) _ModelHeap.newModel(Schema.class, new ModelGraph(_Context))
+                .getDynamicInterface();
+        model.setFieldValue(FieldNames.Document.id.name(), heapId);
+
+        assertSame(model, shard.add(model).getDynamicInterface());
+        assertSame(model, shard.add(model).getDynamicInterface());
+        assertSame(model, shard.get(getHashCode(model)));
+        assertSame(model, shard.get(heapId).getDynamicInterface());
+    }
+
+    @Test
+    public void identifiedModelsAreLookedUpAcrossShards() {
+
+        final URI schemaId = URI.create("http://example.org/heap/b/schema");
+        final URI linkRelationId = URI.create("http://example.org/heap/a/linkRelation");
+        final URI otherId = URI.create("http://example.org/heaps/other");
+
+        final Model schema = newIdentifiedModel(Schema.class, schemaId);
+        final Model linkRelation = newIdentifiedModel(LinkRelation.class, linkRelationId);
+        newIdentifiedModel(Schema.class, otherId);
+
+        assertSame(schema.getDynamicInterface(), _ModelHeap.getModel(schemaId).getDynamicInterface());
+        assertSame(linkRelation.getDynamicInterface(), _ModelHeap.getModel(linkRelationId).getDynamicInterface());
+        assertNull(_ModelHeap.getModel(URI.create("http://example.org/heap/unknown")));
+
+        // The prefix scan is in heap id order, and only has the ids that start with the prefix
+        assertEquals(Arrays.asList(linkRelationId, schemaId), _ModelHeap.getModelIds("http://example.org/heap/"));
+
+        final List<Model> models = _ModelHeap.getModels("http://example.org/heap/");
+        assertEquals(2, models.size());
+        assertSame(linkRelation.getDynamicInterface(), models.get(0).getDynamicInterface());
+        assertSame(schema.getDynamicInterface(), models.get(1).getDynamicInterface());
+
+        assertEquals(Arrays.asList(schemaId), _ModelHeap.getModelIds("http://example.org/heap/b"));
+        assertTrue(_ModelHeap.getModelIds("http://example.org/heap/c").isEmpty());
+    }
+
+    @Test
+    public void leastRecentlyUsedModelIsEvicted() {
+
+        _ModelHeap.setShardCapacity(3);
+
+        final List<Model> models = newFieldModels(3);
+        final ModelHeapShard shard = _ModelHeap.getShard(Field.class);
+        final long evictionCount = shard.getEvictionCount();
+
+        // Touch the first model, so that the second is the least recently used
+        assertNotNull(shard.get(getHashCode(models.get(0))));
+
+        final Model newestModel = newFieldModels(1).get(0);
+
+        assertEquals(3, shard.getSize());
+        assertEquals(1, shard.getEvictionCount() - evictionCount);
+        assertNull(shard.get(getHashCode(models.get(1))));
+        assertNotNull(shard.get(getHashCode(models.get(0))));
+        assertNotNull(shard.get(getHashCode(models.get(2))));
+        assertNotNull(shard.get(getHashCode(newestModel)));
+    }
+
+    private int getHashCode(final Model model) {
+        return model.getDynamicInterface().hashCode();
+    }
+
+    private Model newIdentifiedModel(final Class<?> nativeType, final URI heapId) {
+        final Model model = _ModelHeap.newModel(nativeType, new ModelGraph(_Context));
+        model.setFieldValue(FieldNames.Document.id.name(), heapId);
+        return model;
+    }
+
+    private List<Model> newFieldModels(final int count) {
+
+        final List<Model> models = new ArrayList<Model>(count);
+        for (int i = 0; i < count; i++) {
+            models.add(_ModelHeap.newModel(Field.class, new ModelGraph(_Context)));
+        }
+
+        return models;
+    }
+
+    /**
+     * Runs the task on all of the threads at once, and returns their results.
+     */
+    private <T> List<T> runConcurrently(final Callable<T> task) throws Exception {
+
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final List<Future<T>> futures = new ArrayList<Future<T>>(THREAD_COUNT);
+
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            futures.add(_Executor.submit(new Callable<T>() {
+
+                public T call() throws Exception {
+                    startLatch.await();
+                    return task.call();
+                }
+            }));
+        }
+
+        startLatch.countDown();
+
+        final List<T> results = new ArrayList<T>(THREAD_COUNT);
+        for (final Future<T> future : futures) {
+            results.add(future.get(60, TimeUnit.SECONDS));
+        }
+
+        return Collections.unmodifiableList(results);
+    }
+
+    private static class NoOpModelEventListener implements ModelEventListener {
+
+        public void onModelFieldConstraintViolated(FieldEvent event) {
+        }
+
+        public void onModelFieldValueChanged(FieldEvent event) {
+        }
+
+        public void onModelFieldValueInitialized(FieldEvent event) {
+        }
+
+        public void onModelFreed(ModelEvent event) {
+        }
+
+        public void onModelLinkClicked(LinkEvent event) {
+        }
+
+        public void onModelLinkEnabledStateChanged(LinkEvent event) {
+        }
+
+        public void onModelLinkHrefChanged(LinkEvent event) {
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wrml.core.Model;
+import org.wrml.core.model.schema.Field;
+import org.wrml.core.model.schema.Schema;
+import org.wrml.core.model.schema.Type;
+import org.wrml.core.runtime.bootstrap.FieldNames;
+import org.wrml.core.util.observable.Observables;
+
+public class ModelRecordCodecTest {
+
+    private Context _Context;
+
+    @Before
+    public void setUp() {
+        _Context = new Context(null);
+    }
+
+    @Test
+    public void fieldValuesAreMaterialized() {
+
+        final Model field = newModel(Field.class);
+        field.setFieldValue(FieldNames.Named.name.name(), "color");
+        field.setFieldValue(FieldNames.Typed.type.name(), Type.Text);
+        field.setBooleanFieldValue("required", true);
+
+        final ModelRecordCodec codec = newCodec(Field.class, false);
+        final Model materializedField = (Model) codec.materialize(codec.serialize(field));
+
+        assertNotSame(field.getDynamicInterface(), materializedField.getDynamicInterface());
+        assertEquals("color", materializedField.getFieldValue(FieldNames.Named.name.name()));
+        assertSame(Type.Text, materializedField.getFieldValue(FieldNames.Typed.type.name()));
+        assertEquals(Boolean.TRUE, materializedField.getFieldValue("required"));
+    }
+
+    @Test
+    public void frozenModelIsMaterializedFrozen() {
+
+        final Model field = newModel(Field.class);
+        field.setFieldValue(FieldNames.Named.name.name(), "frozen");
+        field.freeze();
+
+        final ModelRecordCodec codec = newCodec(Field.class, false);
+        final Model materializedField = (Model) codec.materialize(codec.serialize(field));
+
+        assertTrue(materializedField.isFrozen());
+        assertEquals("frozen", materializedField.getFieldValue(FieldNames.Named.name.name()));
+    }
+
+    @Test
+    public void modelOfAnotherTypeIsNotSerialized() {
+        assertNull(newCodec(Schema.class, true).serialize(newModel(Field.class)));
+        assertNull(newCodec(Schema.class, true).serialize("Not a model"));
+    }
+
+    @Test
+    public void modelThatRefersToItselfIsNotSerialized() {
+
+        final Model schema = newSchema();
+        @SuppressWarnings("unchecked")
+        final List<Model> fields = (List<Model>) schema.getFieldValue(FieldNames.Schema.fields.name());
+        fields.get(0).setFieldValue(FieldNames.Owned.owner.name(), schema);
+
+        assertNull(newCodec(Schema.class, true).serialize(schema));
+    }
+
+    @Test
+    public void nestedModelsAreOnlySerializedIfAllowed() {
+
+        final Model schema = newSchema();
+        assertNull(newCodec(Schema.class, false).serialize(schema));
+
+        final ModelRecordCodec codec = newCodec(Schema.class, true);
+        final Model materializedSchema = (Model) codec.materialize(codec.serialize(schema));
+
+        @SuppressWarnings("unchecked")
+        final List<Model> fields = (List<Model>) materializedSchema.getFieldValue(FieldNames.Schema.fields.name());
+        assertEquals(1, fields.size());
+        assertEquals("nested", fields.get(0).getFieldValue(FieldNames.Named.name.name()));
+        assertEquals(URI.create("http://example.org/schemas/Nested"), ((RuntimeModel) materializedSchema).getHeapId());
+    }
+
+    @Test
+    public void staticInterfaceIsMaterializedAsAStaticInterface() {
+
+        final Model field = newModel(Field.class).getStaticInterface();
+        field.setFieldValue(FieldNames.Named.name.name(), "static");
+
+        final ModelRecordCodec codec = newCodec(Field.class, false);
+        final Object materializedField = codec.materialize(codec.serialize(field));
+
+        assertTrue(materializedField instanceof Field);
+        assertNotNull(((Field) materializedField).getDynamicInterface());
+    }
+
+    private ModelRecordCodec newCodec(final Class<?> nativeType, final boolean nestedModels) {
+        return new ModelRecordCodec(_Context.getModelHeap().getShard(nativeType), nestedModels);
+    }
+
+    private Model newModel(final Class<?> nativeType) {
+        final ModelGraph modelGraph = new ModelGraph(_Context);
+        final Model model = _Context.getModelHeap().newModel(nativeType, modelGraph);
+        modelGraph.popInitCursorBack();
+        return model;
+    }
+
+    private Model newSchema() {
+
+        final Model field = newModel(Field.class);
+        field.setFieldValue(FieldNames.Named.name.name(), "nested");
+
+        final List<Model> fields = new ArrayList<Model>();
+        fields.add(field);
+
+        final Model schema = newModel(Schema.class);
+        schema.setFieldValue(FieldNames.Schema.fields.name(), Observables.observableList(fields));
+        schema.setFieldValue(FieldNames.Document.id.name(), URI.create("http://example.org/schemas/Nested"));
+        return schema;
+    }
+
+}
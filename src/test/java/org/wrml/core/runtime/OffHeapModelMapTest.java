@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.ref.WeakReference;
+import java.net.URI;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wrml.core.Model;
+import org.wrml.core.model.schema.Field;
+import org.wrml.core.runtime.bootstrap.FieldNames;
+
+public class OffHeapModelMapTest {
+
+    private Context _Context;
+    private OffHeapModelMap _OffHeapModels;
+
+    @Before
+    public void setUp() {
+        _Context = new Context(null);
+        _OffHeapModels = new OffHeapModelMap(_Context.getModelHeap().getShard(Field.class), 1);
+    }
+
+    @Test
+    public void coldModelIsTheSameInstanceWhileReferenced() {
+
+        final Model model = newFieldModel("cold");
+        _OffHeapModels.put(getHeapId(1), model);
+        _OffHeapModels.put(getHeapId(2), newFieldModel("hot"));
+        assertEquals(1, _OffHeapModels.getOffHeapModelCount());
+
+        // Changed after it left the hot set
+        model.setFieldValue(FieldNames.Named.name.name(), "changed");
+
+        final Model coldModel = (Model) _OffHeapModels.get(getHeapId(1));
+        assertSame(model, coldModel);
+        assertEquals("changed", coldModel.getFieldValue(FieldNames.Named.name.name()));
+        assertEquals(1, _OffHeapModels.getOffHeapModelCount());
+    }
+
+    @Test
+    public void collectedModelIsMaterializedFromItsRecord() {
+
+        Model model = newFieldModel("collected");
+        final WeakReference<Model> modelReference = new WeakReference<Model>(model);
+        _OffHeapModels.put(getHeapId(1), model);
+        _OffHeapModels.put(getHeapId(2), newFieldModel("hot"));
+        model = null;
+
+        for (int i = 0; (i < 50) && (modelReference.get() != null); i++) {
+            System.gc();
+        }
+
+        assumeTrue(modelReference.get() == null);
+
+        final Model materializedModel = (Model) _OffHeapModels.get(getHeapId(1));
+        assertNotNull(materializedModel);
+        assertEquals("collected", materializedModel.getFieldValue(FieldNames.Named.name.name()));
+
+        // It is hot (and so the same instance) again
+        assertSame(materializedModel, _OffHeapModels.get(getHeapId(1)));
+        assertEquals(1, _OffHeapModels.getOffHeapModelCount());
+    }
+
+    @Test
+    public void compactionDropsReplacedRecords() throws Exception {
+
+        final int idCount = 3;
+        final int putCount = 60000;
+        for (int i = 0; i < putCount; i++) {
+            _OffHeapModels.put(getHeapId(i % idCount), newFieldModel("field" + i));
+        }
+
+        // Without compaction, the replaced records would fill more than one segment
+        assertEquals(1, getSegments().size());
+        assertTrue(_OffHeapModels.getOffHeapBytes() < 1024);
+
+        for (int i = putCount - idCount; i < putCount; i++) {
+            final Model model = (Model) _OffHeapModels.get(getHeapId(i % idCount));
+            assertEquals("field" + i, model.getFieldValue(FieldNames.Named.name.name()));
+        }
+    }
+
+    @Test
+    public void modelIsStoredWhenItLeavesTheHotSet() {
+
+        final Model model = newFieldModel("stored");
+        _OffHeapModels.put(getHeapId(1), model);
+        assertEquals(0, _OffHeapModels.getOffHeapModelCount());
+
+        _OffHeapModels.put(getHeapId(2), newFieldModel("hot"));
+        assertEquals(1, _OffHeapModels.getOffHeapModelCount());
+        assertTrue(_OffHeapModels.getOffHeapBytes() > 0);
+        assertEquals(2, _OffHeapModels.size());
+        assertTrue(_OffHeapModels.containsKey(getHeapId(1)));
+
+        assertSame(model, _OffHeapModels.remove(getHeapId(1)));
+        assertEquals(0, _OffHeapModels.getOffHeapModelCount());
+        assertEquals(0, _OffHeapModels.getOffHeapBytes());
+    }
+
+    private URI getHeapId(final int index) {
+        return URI.create("http://example.org/fields/" + index);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object> getSegments() throws Exception {
+        final java.lang.reflect.Field segmentsField = OffHeapModelMap.class.getDeclaredField("_Segments");
+        segmentsField.setAccessible(true);
+        return (List<Object>) segmentsField.get(_OffHeapModels);
+    }
+
+    private Model newFieldModel(final String name) {
+        final ModelGraph modelGraph = new ModelGraph(_Context);
+        final Model model = _Context.getModelHeap().newModel(Field.class, modelGraph);
+        modelGraph.popInitCursorBack();
+
+        model.setFieldValue(FieldNames.Named.name.name(), name);
+        return model;
+    }
+
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Field;
+import java.net.URI;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wrml.core.Model;
+import org.wrml.core.model.schema.Schema;
+import org.wrml.core.runtime.bootstrap.FieldNames;
+import org.wrml.core.runtime.event.FieldEvent;
+import org.wrml.core.runtime.event.LinkEvent;
+import org.wrml.core.runtime.event.ModelEvent;
+import org.wrml.core.runtime.event.ModelEventListener;
+import org.wrml.core.util.observable.CancelableMapEvent;
+import org.wrml.core.util.observable.MapEvent;
+import org.wrml.core.util.observable.MapEventListener;
+import org.wrml.core.util.observable.ObservableMap;
+
+public class RuntimeModelTest {
+
+    private Context _Context;
+
+    @Before
+    public void setUp() {
+        _Context = new Context(null);
+    }
+
+    @Test
+    public void freezeCreatesWhatIsOtherwiseLazy() throws Exception {
+
+        final Model model = newFieldModel();
+        model.setBooleanFieldValue("required", true);
+        model.freeze();
+
+        final RuntimeModel runtimeModel = (RuntimeModel) model.getDynamicInterface();
+        assertNotNull(getFieldValue(runtimeModel, "_StaticInterface"));
+        assertNotNull(getFieldValue(runtimeModel, "_MediaType"));
+        assertNotNull(getFieldValue(runtimeModel, "_Hyperlinks"));
+        assertEquals(Boolean.TRUE, model.getFieldValue("required"));
+
+        try {
+            model.getHyperLinks().put(URI.create("http://example.org/rel"), null);
+            fail("A frozen model's hyperlinks should be unmodifiable");
+        }
+        catch (final UnsupportedOperationException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void typedSetterOfObservedModelGoesThroughFieldMap() throws Exception {
+
+        final Model model = newFieldModel();
+        assertTrue(((RuntimeModel) model.getDynamicInterface()).isObservable());
+
+        final CountingMapEventListener listener = new CountingMapEventListener();
+        getObservableFieldMap(model).addEventListener(listener);
+
+        model.setBooleanFieldValue("required", true);
+
+        assertEquals(1, listener.getEntryUpdatedCount());
+        assertEquals(Boolean.TRUE, model.getFieldValue("required"));
+    }
+
+    @Test
+    public void typedSetterOfUnobservedModelWritesSlot() throws Exception {
+
+        _Context.getModelHeap().setObservingNewModels(false);
+
+        final Model model = newFieldModel();
+        final RuntimeModel runtimeModel = (RuntimeModel) model.getDynamicInterface();
+        assertFalse(runtimeModel.isObservable());
+
+        model.setBooleanFieldValue("hidden", true);
+        model.setBooleanFieldValue("readOnly", false);
+
+        assertEquals(Boolean.TRUE, model.getFieldValue("hidden"));
+        assertEquals(Boolean.FALSE, model.getFieldValue("readOnly"));
+        assertFalse(runtimeModel.isObservable());
+
+        // The first listener upgrades the model, after which the typed setters are observed too
+        model.addEventListener(new NoOpModelEventListener());
+        assertTrue(runtimeModel.isObservable());
+
+        final CountingMapEventListener listener = new CountingMapEventListener();
+        getObservableFieldMap(model).addEventListener(listener);
+
+        model.setBooleanFieldValue("hidden", false);
+
+        assertEquals(1, listener.getEntryUpdatedCount());
+        assertEquals(Boolean.FALSE, model.getFieldValue("hidden"));
+    }
+
+    @Test
+    public void unobservedModelIsIdentifiedWhenItsIdIsSet() {
+
+        _Context.getModelHeap().setObservingNewModels(false);
+
+        final Model model = _Context.getModelHeap().newModel(Schema.class, new ModelGraph(_Context));
+        final RuntimeModel runtimeModel = (RuntimeModel) model.getDynamicInterface();
+        assertFalse(runtimeModel.isObservable());
+
+        final ModelHeapShard shard = _Context.getModelHeap().getShard(Schema.class);
+        final URI heapId = URI.create("http://example.org/schemas/Unobserved");
+        final URI newHeapId = URI.create("http://example.org/schemas/Renamed");
+
+        model.setFieldValue(FieldNames.Document.id.name(), heapId);
+        assertSame(runtimeModel, shard.get(heapId).getDynamicInterface());
+
+        model.setFieldValue(FieldNames.Document.id.name(), newHeapId);
+        assertNull(shard.get(heapId));
+        assertSame(runtimeModel, shard.get(newHeapId).getDynamicInterface());
+        assertFalse(runtimeModel.isObservable());
+    }
+
+    private Object getFieldValue(final RuntimeModel model, final String fieldName) throws Exception {
+        final Field field = RuntimeModel.class.getDeclaredField(fieldName);
+        field.setAccessible(true);
+        return field.get(model);
+    }
+
+    @SuppressWarnings("unchecked")
+    private ObservableMap<String, Object> getObservableFieldMap(final Model model) throws Exception {
+        return (ObservableMap<String, Object>) getFieldValue((RuntimeModel) model.getDynamicInterface(), "_Fields");
+    }
+
+    private Model newFieldModel() {
+        return _Context.getModelHeap().newModel(org.wrml.core.model.schema.Field.class, new ModelGraph(_Context));
+    }
+
+    private static class CountingMapEventListener implements MapEventListener {
+
+        private int _EntryUpdatedCount;
+
+        public int getEntryUpdatedCount() {
+            return _EntryUpdatedCount;
+        }
+
+        public void omMapRemovingEntry(CancelableMapEvent event) {
+        }
+
+        public void onMapCleared(MapEvent event) {
+        }
+
+        public void onMapClearing(CancelableMapEvent event) {
+        }
+
+        public void onMapEntryRemoved(MapEvent event) {
+        }
+
+        public void onMapEntryUpdated(MapEvent event) {
+            _EntryUpdatedCount++;
+        }
+
+        public void onMapUpdatingEntry(CancelableMapEvent event) {
+        }
+    }
+
+    private static class NoOpModelEventListener implements ModelEventListener {
+
+        public void onModelFieldConstraintViolated(FieldEvent event) {
+        }
+
+        public void onModelFieldValueChanged(FieldEvent event) {
+        }
+
+        public void onModelFieldValueInitialized(FieldEvent event) {
+        }
+
+        public void onModelFreed(ModelEvent event) {
+        }
+
+        public void onModelLinkClicked(LinkEvent event) {
+        }
+
+        public void onModelLinkEnabledStateChanged(LinkEvent event) {
+        }
+
+        public void onModelLinkHrefChanged(LinkEvent event) {
+        }
+    }
+
+}
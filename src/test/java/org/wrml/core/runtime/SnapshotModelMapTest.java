@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.wrml.core.Model;
+import org.wrml.core.model.schema.Schema;
+import org.wrml.core.runtime.bootstrap.FieldNames;
+
+public class SnapshotModelMapTest {
+
+    private static final URI FIRST_HEAP_ID = URI.create("http://example.org/schemas/First");
+    private static final URI SECOND_HEAP_ID = URI.create("http://example.org/schemas/Second");
+
+    @Rule
+    public TemporaryFolder _TemporaryFolder = new TemporaryFolder();
+
+    private Context _Context;
+    private ModelHeapShard _Shard;
+    private Map<URI, Object> _Entities;
+    private SnapshotModelMap _SnapshotModels;
+
+    @Before
+    public void setUp() throws Exception {
+
+        // Snapshot two schemas of another heap
+        final Context snapshotContext = new Context(null);
+        newSchema(snapshotContext, FIRST_HEAP_ID);
+        newSchema(snapshotContext, SECOND_HEAP_ID);
+
+        final File file = new File(_TemporaryFolder.getRoot(), "heap.snapshot");
+        snapshotContext.getModelHeap().writeSnapshot(file);
+        final ModelHeapSnapshot snapshot = ModelHeapSnapshot.map(file);
+
+        _Context = new Context(null);
+        _Shard = _Context.getModelHeap().getShard(Schema.class);
+        _Entities = new ConcurrentHashMap<URI, Object>();
+        _SnapshotModels = new SnapshotModelMap(_Shard, _Entities, _Context.getModelHeap().getIdIndex());
+
+        // Keep the records of only the models that aren't already identified in the shard (i.e. ours)
+        final Map<URI, Integer> recordOffsets = new HashMap<URI, Integer>();
+        for (final Map.Entry<URI, Integer> entry : snapshot.removeSection(Schema.class.getName()).entrySet()) {
+            if (Arrays.asList(FIRST_HEAP_ID, SECOND_HEAP_ID).contains(entry.getKey())) {
+                recordOffsets.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        _SnapshotModels.setSnapshot(snapshot, recordOffsets);
+    }
+
+    @Test
+    public void getHydratesTheModelOnce() {
+
+        final Model model = (Model) _SnapshotModels.get(FIRST_HEAP_ID);
+        assertNotNull(model);
+        assertEquals(FIRST_HEAP_ID, ((RuntimeModel) model).getHeapId());
+        assertSame(model, _Entities.get(FIRST_HEAP_ID));
+        assertSame(model, _SnapshotModels.get(FIRST_HEAP_ID));
+
+        // A hydrated model isn't a snapshot record any longer
+        assertEquals(2, _SnapshotModels.size());
+    }
+
+    @Test
+    public void keysAreSeenWithoutHydration() {
+
+        assertEquals(2, _SnapshotModels.size());
+        assertTrue(_SnapshotModels.containsKey(SECOND_HEAP_ID));
+        assertTrue(_SnapshotModels.keySet().containsAll(Arrays.asList(FIRST_HEAP_ID, SECOND_HEAP_ID)));
+        assertSame(_Shard, _Context.getModelHeap().getIdIndex().getShard(FIRST_HEAP_ID));
+        assertTrue(_Entities.isEmpty());
+    }
+
+    @Test
+    public void putReplacesTheSnapshotModel() {
+
+        final Model model = newSchema(_Context, URI.create("http://example.org/schemas/Other"));
+        assertNull(_SnapshotModels.put(SECOND_HEAP_ID, model));
+
+        assertSame(model, _SnapshotModels.get(SECOND_HEAP_ID));
+        assertEquals(2, _SnapshotModels.size());
+    }
+
+    @Test
+    public void removeDropsTheSnapshotRecord() {
+
+        assertNull(_SnapshotModels.remove(FIRST_HEAP_ID));
+
+        assertFalse(_SnapshotModels.containsKey(FIRST_HEAP_ID));
+        assertNull(_SnapshotModels.get(FIRST_HEAP_ID));
+        assertNull(_Context.getModelHeap().getIdIndex().getShard(FIRST_HEAP_ID));
+        assertEquals(Collections.singleton(SECOND_HEAP_ID), _SnapshotModels.keySet());
+    }
+
+    private static Model newSchema(final Context context, final URI heapId) {
+        final ModelGraph modelGraph = new ModelGraph(context);
+        final Model schema = context.getModelHeap().newModel(Schema.class, modelGraph);
+        modelGraph.popInitCursorBack();
+
+        schema.setFieldValue(FieldNames.Document.id.name(), heapId);
+        return schema;
+    }
+
+}
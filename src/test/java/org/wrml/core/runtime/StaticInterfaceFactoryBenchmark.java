@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import java.lang.reflect.Constructor;
+
+import org.wrml.core.model.schema.Field;
+import org.wrml.core.util.Benchmark;
+
+/**
+ * Compares the throughput of creating static interfaces with a
+ * {@link StaticInterfaceFactory}'s generated instantiator with that of its
+ * generated class's constructor, called by reflection (as the factory used
+ * to).
+ * 
+ * The benchmark isn't run by the build; run its main method on the test
+ * classpath, e.g. from an IDE.
+ */
+public class StaticInterfaceFactoryBenchmark extends Benchmark {
+
+    private static final int CREATE_COUNT = 1000000;
+
+    private final RuntimeModel _Model;
+    private final StaticInterfaceFactory _Factory;
+    private final Constructor<?> _Constructor;
+
+    public StaticInterfaceFactoryBenchmark(final Context context, final boolean reflective) throws Exception {
+
+        final ModelGraph modelGraph = new ModelGraph(context);
+        _Model = (RuntimeModel) context.getModelHeap().newModel(Field.class, modelGraph).getDynamicInterface();
+        modelGraph.popInitCursorBack();
+
+        _Factory = context.getPrototype(Field.class).getStaticInterfaceFactory();
+        _Constructor = (reflective) ? _Factory.getStaticInterfaceClass().getConstructor(RuntimeModel.class,
+                StaticInterfaceFactory.class) : null;
+    }
+
+    public static void main(final String[] args) throws Exception {
+
+        final Context context = new Context(null);
+        new StaticInterfaceFactoryBenchmark(context, true).measure("Static interfaces (reflective constructor)", 1,
+                CREATE_COUNT);
+        new StaticInterfaceFactoryBenchmark(context, false).measure("Static interfaces (generated instantiator)", 1,
+                CREATE_COUNT);
+    }
+
+    @Override
+    protected Object run(final int threadIndex, final int count) throws Exception {
+
+        Object staticInterface = null;
+        for (int i = 0; i < count; i++) {
+            staticInterface = (_Constructor != null) ? _Constructor.newInstance(_Model, _Factory) : _Factory
+                    .newStaticInterface(_Model);
+        }
+
+        return staticInterface;
+    }
+
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.wrml.core.Model;
+
+public class TinyLfuModelHeapEvictionPolicyTest {
+
+    private static final int CAPACITY = 20;
+
+    /**
+     * The next stand-in model's hash code; fixed hash codes keep the sketch's
+     * (shared) counters, and so the tests, deterministic.
+     */
+    private int _NextHashCode;
+
+    @Test
+    public void frequentlyUsedModelsSurviveAScan() {
+
+        final ModelHeapEvictionPolicy evictionPolicy = new TinyLfuModelHeapEvictionPolicy();
+        final Set<Model> models = new HashSet<Model>();
+
+        final List<Model> hotModels = new ArrayList<Model>();
+        for (int i = 0; i < CAPACITY / 2; i++) {
+            hotModels.add(newModel());
+        }
+
+        for (int round = 0; round < 10; round++) {
+            for (final Model hotModel : hotModels) {
+                access(evictionPolicy, models, hotModel);
+            }
+        }
+
+        for (int i = 0; i < 5 * CAPACITY; i++) {
+            access(evictionPolicy, models, newModel());
+        }
+
+        assertEquals(CAPACITY, models.size());
+        assertTrue(models.containsAll(hotModels));
+    }
+
+    @Test
+    public void recentlyUsedModelsAreKeptWhenFrequenciesAreEqual() {
+
+        final ModelHeapEvictionPolicy evictionPolicy = new TinyLfuModelHeapEvictionPolicy();
+        final Set<Model> models = new HashSet<Model>();
+
+        final List<Model> addedModels = new ArrayList<Model>();
+        for (int i = 0; i < 2 * CAPACITY; i++) {
+            final Model model = newModel();
+            addedModels.add(model);
+            access(evictionPolicy, models, model);
+        }
+
+        assertEquals(CAPACITY, models.size());
+
+        // The most recently added model is still in the window
+        assertTrue(models.contains(addedModels.get(addedModels.size() - 1)));
+    }
+
+    @Test
+    public void removedModelsAreNotSelected() {
+
+        final ModelHeapEvictionPolicy evictionPolicy = new TinyLfuModelHeapEvictionPolicy();
+        final Model firstModel = newModel();
+        final Model secondModel = newModel();
+
+        evictionPolicy.modelAccessed(firstModel);
+        evictionPolicy.modelAccessed(secondModel);
+        evictionPolicy.modelRemoved(firstModel);
+
+        assertSame(secondModel, evictionPolicy.selectVictim());
+
+        evictionPolicy.modelRemoved(secondModel);
+        assertNull(evictionPolicy.selectVictim());
+    }
+
+    /**
+     * Accesses the model as a shard with a capacity of {@link #CAPACITY}
+     * would, evicting the policy's victims as needed.
+     */
+    private static void access(final ModelHeapEvictionPolicy evictionPolicy, final Set<Model> models,
+            final Model model) {
+
+        models.add(model);
+        evictionPolicy.modelAccessed(model);
+
+        while (models.size() > CAPACITY) {
+            final Model victim = evictionPolicy.selectVictim();
+            evictionPolicy.modelRemoved(victim);
+            assertTrue(models.remove(victim));
+        }
+    }
+
+    /**
+     * Creates a (do-nothing) model, with the next hash code, which is only
+     * equal to itself.
+     */
+    private Model newModel() {
+
+        final int hashCode = _NextHashCode++;
+
+        return (Model) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Model.class },
+                new InvocationHandler() {
+
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+
+                        final String methodName = method.getName();
+                        if (methodName.equals("hashCode")) {
+                            return hashCode;
+                        }
+                        else if (methodName.equals("equals")) {
+                            return proxy == args[0];
+                        }
+
+                        return null;
+                    }
+                });
+    }
+
+}
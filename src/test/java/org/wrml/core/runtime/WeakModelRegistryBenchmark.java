@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.wrml.core.Model;
+import org.wrml.core.model.schema.Field;
+import org.wrml.core.util.Benchmark;
+import org.wrml.core.util.observable.ObservableMap;
+import org.wrml.core.util.observable.Observables;
+
+/**
+ * Compares the throughput of a {@link WeakModelRegistry} with that of the
+ * observable map (keyed by hash code) that {@link ModelHeapShard} used to
+ * hold its models in, as the number of threads grows. Each operation adds a
+ * model, looks it up by its hash code and removes it again; the threads work
+ * on their own models, so that they only contend for the registry.
+ * 
+ * The benchmark isn't run by the build; run its main method on the test
+ * classpath, e.g. from an IDE.
+ */
+public class WeakModelRegistryBenchmark extends Benchmark {
+
+    private static final int MODELS_PER_THREAD = 1024;
+    private static final int MAX_THREAD_COUNT = 8;
+    private static final int OPERATION_COUNT = 200000;
+
+    private final Model[][] _Models;
+    private final boolean _Weak;
+    private WeakModelRegistry _Registry;
+    private ObservableMap<Integer, Model> _HashCodeMap;
+
+    public WeakModelRegistryBenchmark(final Context context, final boolean weak) {
+
+        final ModelHeap heap = context.getModelHeap();
+        _Models = new Model[MAX_THREAD_COUNT][MODELS_PER_THREAD];
+        for (int threadIndex = 0; threadIndex < MAX_THREAD_COUNT; threadIndex++) {
+            for (int i = 0; i < MODELS_PER_THREAD; i++) {
+                final ModelGraph modelGraph = new ModelGraph(context);
+                _Models[threadIndex][i] = heap.newModel(Field.class, modelGraph).getDynamicInterface();
+                modelGraph.popInitCursorBack();
+            }
+        }
+
+        _Weak = weak;
+    }
+
+    public static void main(final String[] args) throws Exception {
+
+        final Context context = new Context(null);
+        for (final boolean weak : new boolean[] { false, true }) {
+
+            final String registry = (weak) ? "WeakModelRegistry" : "hash code map";
+            final WeakModelRegistryBenchmark benchmark = new WeakModelRegistryBenchmark(context, weak);
+            for (int threadCount = 1; threadCount <= MAX_THREAD_COUNT; threadCount *= 2) {
+                benchmark.measure("Add, get, remove (" + registry + ")", threadCount, OPERATION_COUNT);
+            }
+        }
+    }
+
+    @Override
+    protected Object run(final int threadIndex, final int count) {
+
+        final Model[] models = _Models[threadIndex];
+        Object found = null;
+
+        if (_Weak) {
+
+            final WeakModelRegistry registry = _Registry;
+            for (int i = 0; i < count; i++) {
+                final Model model = models[i & (MODELS_PER_THREAD - 1)];
+                registry.add(model);
+                found = registry.get(model.hashCode());
+                registry.remove(model);
+            }
+        }
+        else {
+
+            final ObservableMap<Integer, Model> hashCodeMap = _HashCodeMap;
+            for (int i = 0; i < count; i++) {
+                final Model model = models[i & (MODELS_PER_THREAD - 1)];
+                hashCodeMap.put(model.hashCode(), model);
+                found = hashCodeMap.get(model.hashCode());
+                hashCodeMap.remove(model.hashCode());
+            }
+        }
+
+        return found;
+    }
+
+    @Override
+    protected void setUpRound() {
+        _Registry = new WeakModelRegistry();
+        _HashCodeMap = Observables.observableMap(new ConcurrentHashMap<Integer, Model>());
+    }
+
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wrml.core.Model;
+
+public class WeakModelRegistryTest {
+
+    private WeakModelRegistry _Registry;
+
+    @Before
+    public void setUp() {
+        _Registry = new WeakModelRegistry();
+    }
+
+    @Test
+    public void addGetAndRemove() {
+
+        final Model model = newModel();
+
+        _Registry.add(model);
+        _Registry.add(model);
+
+        assertEquals(1, _Registry.size());
+        assertSame(model, _Registry.get(model.hashCode()));
+
+        assertTrue(_Registry.remove(model));
+        assertFalse(_Registry.remove(model));
+        assertEquals(0, _Registry.size());
+        assertNull(_Registry.get(model.hashCode()));
+    }
+
+    @Test
+    public void collectedModelsAreExpunged() throws Exception {
+
+        final Model keptModel = newModel();
+        _Registry.add(keptModel);
+
+        for (int i = 0; i < 100; i++) {
+            _Registry.add(newModel());
+        }
+
+        assertEquals(101, _Registry.size());
+
+        // Collected models are expunged as the registry is changed
+        final long deadline = System.currentTimeMillis() + 10000;
+        while ((_Registry.size() > 1) && (System.currentTimeMillis() < deadline)) {
+            System.gc();
+            Thread.sleep(10);
+            _Registry.remove(newModel());
+        }
+
+        assertEquals(1, _Registry.size());
+        assertEquals(Arrays.asList(keptModel), _Registry.getModels());
+    }
+
+    @Test
+    public void modelsWithTheSameHashCodeAreChained() {
+
+        final Model firstModel = newModel(42);
+        final Model secondModel = newModel(42);
+        final Model thirdModel = newModel(42);
+
+        _Registry.add(firstModel);
+        _Registry.add(secondModel);
+        _Registry.add(thirdModel);
+
+        assertEquals(3, _Registry.size());
+        assertSame(thirdModel, _Registry.get(42));
+
+        assertTrue(_Registry.remove(secondModel));
+        assertTrue(_Registry.remove(thirdModel));
+
+        assertEquals(1, _Registry.size());
+        assertSame(firstModel, _Registry.get(42));
+        assertEquals(Arrays.asList(firstModel), _Registry.getModels());
+    }
+
+    @Test
+    public void removeAllRemovesOnlyTheSpecifiedModels() {
+
+        final Model firstModel = newModel();
+        final Model secondModel = newModel();
+        final Model thirdModel = newModel();
+
+        _Registry.add(firstModel);
+        _Registry.add(secondModel);
+        _Registry.add(thirdModel);
+
+        _Registry.removeAll(Arrays.asList(firstModel, thirdModel));
+
+        assertEquals(1, _Registry.size());
+        assertSame(secondModel, _Registry.get(secondModel.hashCode()));
+        assertNull(_Registry.get(firstModel.hashCode()));
+    }
+
+    /**
+     * Creates a (do-nothing) model, which is only equal to itself.
+     */
+    private Model newModel() {
+        return newModel(null);
+    }
+
+    /**
+     * Creates a (do-nothing) model with the specified hash code, or its
+     * identity hash code if it is <code>null</code>, which is only equal to
+     * itself.
+     */
+    private Model newModel(final Integer hashCode) {
+
+        return (Model) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Model.class },
+                new InvocationHandler() {
+
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+
+                        final String methodName = method.getName();
+                        if (methodName.equals("hashCode")) {
+                            return (hashCode != null) ? hashCode : System.identityHashCode(proxy);
+                        }
+                        else if (methodName.equals("equals")) {
+                            return proxy == args[0];
+                        }
+
+                        return null;
+                    }
+                });
+    }
+
+}
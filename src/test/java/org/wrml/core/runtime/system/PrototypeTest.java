@@ -0,0 +1,318 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.runtime.system;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wrml.core.Model;
+import org.wrml.core.model.schema.Field;
+import org.wrml.core.model.schema.Schema;
+import org.wrml.core.model.schema.Type;
+import org.wrml.core.runtime.Context;
+import org.wrml.core.runtime.ModelGraph;
+import org.wrml.core.runtime.bootstrap.FieldNames;
+import org.wrml.core.service.ProxyService;
+import org.wrml.core.util.observable.Observables;
+import org.wrml.core.www.MediaType;
+
+public class PrototypeTest {
+
+    public interface Animal extends Model {
+
+        public String getName();
+    }
+
+    public interface Cat extends Animal {
+
+        public String getColor();
+    }
+
+    public interface Dog extends Animal {
+
+        public String getBreed();
+    }
+
+    public interface Machine extends Model {
+
+        public String getModelNumber();
+    }
+
+    public interface Robot extends Machine {
+
+        public String getSerialNumber();
+    }
+
+    public interface RoboCat extends Cat, Robot {
+
+        public String getMood();
+    }
+
+    private Context _Context;
+    private Map<URI, SchemaDefinition> _SchemaDefinitions;
+    private SystemSchemaService _SystemSchemaService;
+
+    /** The schema whose next GET fails, if any */
+    private volatile URI _FailingSchemaId;
+
+    /** The schema whose GETs wait for the latch, if any */
+    private volatile URI _SlowSchemaId;
+    private final CountDownLatch _SlowSchemaRequested = new CountDownLatch(1);
+    private final CountDownLatch _SlowSchemaReleased = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        _Context = new Context(null);
+        _SchemaDefinitions = new HashMap<URI, SchemaDefinition>();
+        _SystemSchemaService = new SystemSchemaService(_Context, new SchemaOrigin());
+        _Context.setSchemaService(_SystemSchemaService);
+
+        final URI animalSchemaId = getSchemaId(Animal.class);
+        putSchema(Animal.class, "name");
+        putSchema(Cat.class, "color", animalSchemaId);
+        putSchema(Dog.class, "breed", animalSchemaId);
+    }
+
+    @Test
+    public void baseSchemasAreFound() {
+
+        final Prototype dogPrototype = _SystemSchemaService.getPrototype(Dog.class);
+
+        assertEquals(Arrays.asList(getSchemaId(Animal.class)), dogPrototype.getAllBaseSchemaIds());
+        assertNotNull(dogPrototype.getFields().get("name"));
+        assertNotNull(dogPrototype.getFields().get("breed"));
+    }
+
+    @Test
+    public void failedInitIsRetried() {
+
+        _FailingSchemaId = getSchemaId(Dog.class);
+        try {
+            _SystemSchemaService.getPrototype(Dog.class);
+            fail("The prototype's init should have failed");
+        }
+        catch (final IllegalStateException e) {
+            // Expected
+        }
+
+        // The failed (half-built) prototype isn't served, it is initialized again
+        final Prototype dogPrototype = _SystemSchemaService.getPrototype(Dog.class);
+        assertTrue(dogPrototype.isInitialized());
+        assertNotNull(dogPrototype.getFields().get("breed"));
+    }
+
+    @Test
+    public void layoutsOfSeveralBaseSchemasAreMerged() {
+
+        putSchema(Machine.class, "modelNumber");
+        putSchema(Robot.class, "serialNumber", getSchemaId(Machine.class));
+        putSchema(RoboCat.class, "mood", getSchemaId(Cat.class), getSchemaId(Robot.class));
+
+        final Prototype catPrototype = _SystemSchemaService.getPrototype(Cat.class);
+        final Prototype robotPrototype = _SystemSchemaService.getPrototype(Robot.class);
+        final Prototype roboCatPrototype = _SystemSchemaService.getPrototype(RoboCat.class);
+
+        // Neither base schema's layers are a prefix of the RoboCat's, but both of their layouts are shared
+        for (final String fieldName : Arrays.asList("name", "color")) {
+            assertSame(catPrototype.getFields().get(fieldName), roboCatPrototype.getFields().get(fieldName));
+        }
+
+        for (final String fieldName : Arrays.asList("modelNumber", "serialNumber")) {
+            assertSame(robotPrototype.getFields().get(fieldName), roboCatPrototype.getFields().get(fieldName));
+        }
+
+        assertNotNull(roboCatPrototype.getFields().get("mood"));
+    }
+
+    @Test
+    public void layoutsThatWouldReorderAFieldAreNotMerged() {
+
+        // The Robot (a later layer than the Animal) redefines the Animal's name
+        putSchema(Machine.class, "modelNumber");
+        putSchema(Robot.class, "name", getSchemaId(Machine.class));
+        putSchema(RoboCat.class, "mood", getSchemaId(Cat.class), getSchemaId(Robot.class));
+
+        _SystemSchemaService.getPrototype(Cat.class);
+        _SystemSchemaService.getPrototype(Robot.class);
+        final Prototype roboCatPrototype = _SystemSchemaService.getPrototype(RoboCat.class);
+
+        // Merging the Cat's layout would apply the Animal's name after the Robot's
+        final Field nameField = roboCatPrototype.getFields().get("name");
+        assertEquals("Robot", nameField.getFieldValue(FieldNames.Descriptive.description.toString()));
+        assertNotNull(roboCatPrototype.getFields().get("color"));
+        assertNotNull(roboCatPrototype.getFields().get("modelNumber"));
+    }
+
+    @Test
+    public void slowInitDoesNotBlockOtherTypes() throws Exception {
+
+        _SlowSchemaId = getSchemaId(Dog.class);
+
+        final Thread dogThread = new Thread() {
+
+            @Override
+            public void run() {
+                _SystemSchemaService.getPrototype(Dog.class);
+            }
+        };
+
+        dogThread.start();
+        assertTrue(_SlowSchemaRequested.await(10, TimeUnit.SECONDS));
+
+        final Prototype[] catPrototype = new Prototype[1];
+        final Thread catThread = new Thread() {
+
+            @Override
+            public void run() {
+                catPrototype[0] = _SystemSchemaService.getPrototype(Cat.class);
+            }
+        };
+
+        // The dog's init is waiting for its schema, which doesn't hold up the cat's
+        catThread.start();
+        catThread.join(10000);
+        assertNotNull(catPrototype[0]);
+        assertNotNull(catPrototype[0].getFields().get("color"));
+
+        _SlowSchemaReleased.countDown();
+        dogThread.join(10000);
+        assertTrue(_SystemSchemaService.getPrototype(Dog.class).isInitialized());
+    }
+
+    @Test
+    public void subtypesReuseTheirBaseSchemaLayout() {
+
+        final Prototype dogPrototype = _SystemSchemaService.getPrototype(Dog.class);
+
+        final SchemaLayout animalLayout = _SystemSchemaService.getSchemaLayout(getSchemaId(Animal.class));
+        assertNotNull(animalLayout);
+
+        final Prototype catPrototype = _SystemSchemaService.getPrototype(Cat.class);
+
+        // The base schema's (memoized) field models are shared, rather than each subtype extending its own copy
+        final Field animalNameField = animalLayout.getFields().get("name");
+        assertSame(animalNameField, dogPrototype.getFields().get("name"));
+        assertSame(animalNameField, catPrototype.getFields().get("name"));
+        assertNotNull(catPrototype.getFields().get("color"));
+    }
+
+    private URI getSchemaId(final Class<?> schemaInterfaceType) {
+        return _Context.getSystemTransformers().getClassToSchemaIdTransformer().aToB(schemaInterfaceType);
+    }
+
+    private Field newField(final String name, final String description) {
+        final ModelGraph modelGraph = new ModelGraph(_Context);
+        final Field field = (Field) _Context.getModelHeap().newModel(Field.class, modelGraph).getStaticInterface();
+        modelGraph.popInitCursorBack();
+
+        field.setName(name);
+        field.setFieldValue(FieldNames.Descriptive.description.toString(), description);
+        field.setFieldValue(FieldNames.Typed.type.toString(), Type.Text);
+        return field;
+    }
+
+    /**
+     * Creates the schema, like one that has been read. Its model graph is left
+     * open for the prototype's (extended) fields.
+     */
+    private Schema newSchema(final URI schemaId, final SchemaDefinition schemaDefinition) {
+
+        final Schema schema = (Schema) _Context.getModelHeap().newModel(Schema.class, new ModelGraph(_Context))
+                .getStaticInterface();
+        schema.setName(schemaDefinition._Name);
+        schema.setFieldValue(FieldNames.Document.id.toString(), schemaId);
+
+        final List<Field> fields = new ArrayList<Field>();
+        fields.add(newField(schemaDefinition._FieldName, schemaDefinition._Name));
+        schema.setFieldValue(FieldNames.Schema.fields.toString(), Observables.observableList(fields));
+        schema.setFieldValue(FieldNames.Schema.baseSchemaIds.toString(),
+                Observables.observableList(new ArrayList<URI>(Arrays.asList(schemaDefinition._BaseSchemaIds))));
+
+        return schema;
+    }
+
+    private void putSchema(final Class<?> schemaInterfaceType, final String fieldName, final URI... baseSchemaIds) {
+        _SchemaDefinitions.put(getSchemaId(schemaInterfaceType),
+                new SchemaDefinition(schemaInterfaceType.getSimpleName(), fieldName, baseSchemaIds));
+    }
+
+    /**
+     * What the origin knows of a schema, which it creates when the schema is
+     * requested (since a schema with an id is identified, and so cached, by
+     * the heap).
+     */
+    private static final class SchemaDefinition {
+
+        private final String _Name;
+        private final String _FieldName;
+        private final URI[] _BaseSchemaIds;
+
+        SchemaDefinition(final String name, final String fieldName, final URI[] baseSchemaIds) {
+            _Name = name;
+            _FieldName = fieldName;
+            _BaseSchemaIds = baseSchemaIds;
+        }
+    }
+
+    /**
+     * Serves the test's schemas, in place of the web.
+     */
+    private final class SchemaOrigin extends ProxyService {
+
+        SchemaOrigin() {
+            super(_Context, null);
+        }
+
+        @Override
+        public Object get(final URI resourceId, final Object cachedEntity, final MediaType responseType,
+                final Model referrer) {
+
+            if (resourceId.equals(_FailingSchemaId)) {
+                _FailingSchemaId = null;
+                throw new IllegalStateException("Failed to GET: " + resourceId);
+            }
+
+            if (resourceId.equals(_SlowSchemaId)) {
+                _SlowSchemaRequested.countDown();
+                try {
+                    _SlowSchemaReleased.await(10, TimeUnit.SECONDS);
+                }
+                catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            final SchemaDefinition schemaDefinition = _SchemaDefinitions.get(resourceId);
+            return (schemaDefinition != null) ? newSchema(resourceId, schemaDefinition) : null;
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A minimal harness for the (main-based) benchmarks that sit alongside the
+ * tests. Each measurement runs the operation on the specified number of
+ * threads at once, first for some warm-up rounds (whose results are
+ * discarded) and then for the measured rounds, and prints the best round's
+ * throughput.
+ * 
+ * The benchmarks aren't run by the build; run a benchmark's main method on
+ * the test classpath, e.g. from an IDE.
+ */
+public abstract class Benchmark {
+
+    private static final int WARM_UP_ROUND_COUNT = 5;
+    private static final int MEASURED_ROUND_COUNT = 5;
+
+    /**
+     * Measures the operation, which a thread performs <code>count</code>
+     * times per round, on <code>threadCount</code> threads.
+     * 
+     * @return The best round's throughput, in operations per millisecond.
+     */
+    public double measure(final String name, final int threadCount, final int count) throws Exception {
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+
+            for (int round = 0; round < WARM_UP_ROUND_COUNT; round++) {
+                runRound(executor, threadCount, count);
+            }
+
+            long bestNanos = Long.MAX_VALUE;
+            for (int round = 0; round < MEASURED_ROUND_COUNT; round++) {
+                bestNanos = Math.min(bestNanos, runRound(executor, threadCount, count));
+            }
+
+            final double opsPerMilli = (threadCount * (double) count * 1000000) / bestNanos;
+            System.out.printf("%-48s %2d thread(s) %12.1f ops/ms%n", name, threadCount, opsPerMilli);
+            return opsPerMilli;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Performs the operation <code>count</code> times. The
+     * <code>threadIndex</code> identifies the calling thread within the round.
+     * 
+     * @return Anything derived from the work, so that it can't be optimized
+     *         away.
+     */
+    protected abstract Object run(int threadIndex, int count) throws Exception;
+
+    /**
+     * Called (on the calling thread) before each round.
+     */
+    protected void setUpRound() throws Exception {
+    }
+
+    private long runRound(final ExecutorService executor, final int threadCount, final int count) throws Exception {
+
+        setUpRound();
+
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final List<Future<Object>> futures = new ArrayList<Future<Object>>(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+
+            final int threadIndex = i;
+            futures.add(executor.submit(new Callable<Object>() {
+
+                public Object call() throws Exception {
+                    startLatch.await();
+                    return run(threadIndex, count);
+                }
+            }));
+        }
+
+        final long startNanos = System.nanoTime();
+        startLatch.countDown();
+
+        int hash = 0;
+        for (final Future<Object> future : futures) {
+            hash += System.identityHashCode(future.get());
+        }
+
+        final long nanos = System.nanoTime() - startNanos;
+        if (hash == 42) {
+            System.out.print("");
+        }
+
+        return nanos;
+    }
+
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.www;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import org.wrml.core.runtime.Context;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Measures a cold fetch of a set of resources (e.g. a schema and its base
+ * schemas) from a local server that responds after a delay, which stands in
+ * for the network, with and without prefetching them first.
+ * 
+ * The benchmark isn't run by the build; run its main method on the test
+ * classpath, e.g. from an IDE.
+ */
+public class WebClientPrefetchBenchmark {
+
+    private static final int RESPONSE_DELAY_MILLIS = 100;
+    private static final int RESOURCE_COUNT = 8;
+    private static final int ROUND_COUNT = 5;
+
+    public static void main(final String[] args) throws Exception {
+
+        final HttpServer httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        httpServer.setExecutor(Executors.newCachedThreadPool());
+        httpServer.createContext("/", new HttpHandler() {
+
+            public void handle(final HttpExchange exchange) throws IOException {
+
+                try {
+                    Thread.sleep(RESPONSE_DELAY_MILLIS);
+                }
+                catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                final byte[] body = exchange.getRequestURI().getPath().getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "text/plain");
+                exchange.sendResponseHeaders(200, body.length);
+
+                final OutputStream outputStream = exchange.getResponseBody();
+                outputStream.write(body);
+                outputStream.close();
+            }
+        });
+        httpServer.start();
+
+        try {
+            final String baseUri = "http://127.0.0.1:" + httpServer.getAddress().getPort() + "/";
+            final MediaType responseType = MediaType.create("text/plain");
+            final WebClient webClient = new WebClient(new Context(null));
+
+            for (final boolean prefetch : new boolean[] { false, true }) {
+
+                long bestMillis = Long.MAX_VALUE;
+                for (int round = 0; round < ROUND_COUNT; round++) {
+
+                    // Each round fetches resources that haven't been fetched before
+                    final List<URI> resourceIds = new ArrayList<URI>(RESOURCE_COUNT);
+                    for (int i = 0; i < RESOURCE_COUNT; i++) {
+                        resourceIds.add(URI.create(baseUri + prefetch + "/" + round + "/" + i));
+                    }
+
+                    final long startMillis = System.currentTimeMillis();
+                    if (prefetch) {
+                        webClient.prefetch(resourceIds, responseType);
+                    }
+
+                    for (final URI resourceId : resourceIds) {
+                        ((InputStream) webClient.get(resourceId, null, responseType, null)).close();
+                    }
+
+                    bestMillis = Math.min(bestMillis, System.currentTimeMillis() - startMillis);
+                }
+
+                System.out.printf("%d resources (%d ms delay), %-14s %6d ms%n", RESOURCE_COUNT,
+                        RESPONSE_DELAY_MILLIS, prefetch ? "prefetched:" : "sequential:", bestMillis);
+            }
+        }
+        finally {
+            httpServer.stop(0);
+        }
+    }
+
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2011 WRML.org <mark@wrml.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wrml.core.www;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wrml.core.runtime.Context;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class WebClientTest {
+
+    private static final MediaType TEXT_MEDIA_TYPE = MediaType.create("text/plain");
+    private static final MediaType HTML_MEDIA_TYPE = MediaType.create("text/html");
+    private static final String FIELD_CONTENT_TYPE = "application/wrml; schema=\""
+            + "http://api.schemas.wrml.org/org/wrml/core/model/schema/Field\"";
+
+    private HttpServer _HttpServer;
+    private AtomicInteger _RequestCount;
+    private WebClient _WebClient;
+
+    @Before
+    public void setUp() throws Exception {
+
+        _RequestCount = new AtomicInteger();
+
+        _HttpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        _HttpServer.createContext("/", new HttpHandler() {
+
+            public void handle(final HttpExchange exchange) throws IOException {
+
+                _RequestCount.incrementAndGet();
+
+                // An "unreadable" resource is a model with a field that its schema doesn't have
+                final String path = exchange.getRequestURI().getPath();
+                final boolean unreadable = path.startsWith("/unreadable");
+                final byte[] body = ((unreadable) ? "{\"noSuchField\":1}" : path).getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", (unreadable) ? FIELD_CONTENT_TYPE : "text/plain");
+                exchange.sendResponseHeaders(200, body.length);
+
+                final OutputStream outputStream = exchange.getResponseBody();
+                outputStream.write(body);
+                outputStream.close();
+            }
+        });
+        _HttpServer.start();
+
+        _WebClient = new WebClient(new Context(null));
+    }
+
+    @After
+    public void tearDown() {
+        _HttpServer.stop(0);
+    }
+
+    @Test
+    public void prefetchedResponseIsTakenByGet() throws Exception {
+
+        final URI resourceId = newResourceId("taken");
+        _WebClient.prefetch(Collections.singletonList(resourceId), TEXT_MEDIA_TYPE);
+
+        assertEquals("/taken", read(_WebClient.get(resourceId, null, TEXT_MEDIA_TYPE, null)));
+        assertEquals(1, _RequestCount.get());
+        assertEquals(0, getPrefetchedResponses().size());
+    }
+
+    @Test
+    public void prefetchedResponseIsNotTakenByAnotherRequest() throws Exception {
+
+        final URI resourceId = newResourceId("other");
+        _WebClient.prefetch(Collections.singletonList(resourceId), TEXT_MEDIA_TYPE);
+
+        assertEquals("/other", read(_WebClient.get(resourceId, null, HTML_MEDIA_TYPE, null)));
+        assertEquals(1, getPrefetchedResponses().size());
+
+        assertEquals("/other", read(_WebClient.get(resourceId, new Object(), TEXT_MEDIA_TYPE, null)));
+        assertEquals(1, getPrefetchedResponses().size());
+
+        assertEquals("/other", read(_WebClient.get(resourceId, null, TEXT_MEDIA_TYPE, null)));
+        assertEquals(3, _RequestCount.get());
+        assertEquals(0, getPrefetchedResponses().size());
+    }
+
+    @Test
+    public void prefetchedResponsesAreBounded() throws Exception {
+
+        final List<URI> resourceIds = new ArrayList<URI>();
+        for (int i = 0; i < WebClient.MAX_PREFETCHED_RESPONSE_COUNT + 10; i++) {
+            resourceIds.add(newResourceId("bounded/" + i));
+        }
+
+        _WebClient.prefetch(resourceIds, TEXT_MEDIA_TYPE);
+        assertEquals(WebClient.MAX_PREFETCHED_RESPONSE_COUNT, getPrefetchedResponses().size());
+
+        // The resources beyond the bound are fetched when they are requested
+        final URI lastResourceId = resourceIds.get(resourceIds.size() - 1);
+        assertEquals("/bounded/" + (resourceIds.size() - 1),
+                read(_WebClient.get(lastResourceId, null, TEXT_MEDIA_TYPE, null)));
+        assertTrue(_RequestCount.get() <= WebClient.MAX_PREFETCHED_RESPONSE_COUNT + 1);
+    }
+
+    @Test
+    public void unreadableResponseEntityIsReadAsNull() throws Exception {
+
+        final URI resourceId = newResourceId("unreadable");
+        assertNull(_WebClient.get(resourceId, null, MediaType.create(FIELD_CONTENT_TYPE), null));
+        assertEquals(1, _RequestCount.get());
+    }
+
+    private Map<?, ?> getPrefetchedResponses() throws Exception {
+        final Field field = WebClient.class.getDeclaredField("_PrefetchedResponses");
+        field.setAccessible(true);
+        return (Map<?, ?>) field.get(_WebClient);
+    }
+
+    private URI newResourceId(final String path) {
+        return URI.create("http://127.0.0.1:" + _HttpServer.getAddress().getPort() + "/" + path);
+    }
+
+    private static String read(final Object responseEntity) throws IOException {
+
+        final InputStream inputStream = (InputStream) responseEntity;
+        try {
+            final StringBuilder text = new StringBuilder();
+            int b;
+            while ((b = inputStream.read()) != -1) {
+                text.append((char) b);
+            }
+
+            return text.toString();
+        }
+        finally {
+            inputStream.close();
+        }
+    }
+
+}